@@ -0,0 +1,225 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark suite for the load, select, insert, delete and print paths
+ *
+ * Each benchmark follows the JMH model: a number of timed warmup iterations whose results are discarded,
+ * then timed measurement iterations. For each benchmark the runner reports
+ *   throughput (ops/s over all measurement iterations)
+ *   latency percentiles (p50, p99, p99.9 and max of single operations)
+ *   allocation (bytes allocated per operation and allocation rate, like JMH's gc profiler)
+ *
+ * The result cache is disabled unless --cache gives it a size: the select benchmarks repeat a few queries on
+ * tables they do not change, and would otherwise measure cache hits instead of the select paths.
+ *
+ * Usage: BenchmarkRunner [--rows N] [--warmup N] [--iterations N] [--time ms] [--only name] [--cache values]
+ *                        [--out file.csv]
+ */
+public class BenchmarkRunner {
+
+    /**
+     * A benchmarked operation
+     */
+    interface Op {
+        void run() throws Exception;
+    }
+
+    private int warmupIterations = 3;       // Iterations run before measuring
+    private int measureIterations = 5;      // Measured iterations
+    private long iterationMillis = 1000;    // Minimum duration of one iteration
+    private String only = null;             // Run only benchmarks whose name contains this text
+    private long cacheSize = 0;             // Values held by the result cache (0: disabled)
+    private List<String> results = new ArrayList<>();   // One CSV line per benchmark
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        long rows = 1_000_000;
+        String out = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rows" -> rows = Long.parseLong(args[++i].replace("_", ""));
+                case "--warmup" -> runner.warmupIterations = Integer.parseInt(args[++i]);
+                case "--iterations" -> runner.measureIterations = Integer.parseInt(args[++i]);
+                case "--time" -> runner.iterationMillis = Long.parseLong(args[++i]);
+                case "--only" -> runner.only = args[++i];
+                case "--cache" -> runner.cacheSize = Long.parseLong(args[++i].replace("_", ""));
+                case "--out" -> out = args[++i];
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        Path folder = Files.createTempDirectory("qe-bench");
+        System.out.println("Generating " + rows + " enroll rows in " + folder);
+        DataGenerator.generate(folder.toString(), rows, 42L);
+
+        runner.runAll(folder.toString(), rows);
+
+        if (out != null) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(out))) {
+                writer.println("benchmark,ops_per_sec,p50_us,p99_us,p999_us,max_us,alloc_bytes_per_op,alloc_mb_per_sec");
+                for (String line : runner.results) {
+                    writer.println(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs every benchmark against a generated database
+     * @param folder folder with the generated database
+     * @param rows number of enroll rows in the database
+     * @throws Exception if a benchmark fails
+     */
+    private void runAll(String folder, long rows) throws Exception {
+        System.setProperty("qe.resultCacheSize", Long.toString(this.cacheSize));
+        Database db = new Database(folder, "schema.txt");
+        db.populateDB();
+
+        ITable enroll = findTable(db, "enroll");
+        ISchema enrollSchema = enroll.getSchema();
+        long students = DataGenerator.studentCount(rows);
+        Random random = new Random(7);
+        PrintStream stdout = System.out;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+        System.out.printf("%-22s %12s %12s %12s %12s %12s %14s %12s%n",
+                "benchmark", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "alloc B/op", "alloc MB/s");
+
+        run("readTable", () -> IO.readTable("enroll", enrollSchema, folder));
+
+        run("populateDB", () -> {
+            Database fresh = new Database(folder, "schema.txt");
+            fresh.populateDB();
+        });
+
+        run("selectPoint", () -> db.selectData("select sid, sname, byear from student where sid = s"
+                + (1 + random.nextInt((int) Math.min(students, Integer.MAX_VALUE)))));
+
+        run("selectRange", () -> db.selectData("select sid, byear from student where byear > "
+                + (2010 + random.nextInt(10))));
+
+        run("selectStringEquals", () -> db.selectData("select sid, cno from enroll where grade = a"));
+
+        run("insertData", () -> db.insertData("insert into enroll (sid, cno, grade) values (s1, c1, a)"));
+
+        // Deletes a key that does not exist: measures the scan (no tuple matches, so nothing is logged)
+        run("deleteData", () -> db.deleteData("delete from course where cno = none"));
+
+        ITable student = findTable(db, "student");
+        run("printTable", () -> {
+            System.setOut(discard);
+            try {
+                IO.printTable(student, student.getSchema());
+            } finally {
+                System.setOut(stdout);
+            }
+        });
+    }
+
+    /**
+     * Runs the warmup and measurement iterations of one benchmark and prints its results
+     * @param name benchmark name
+     * @param op the benchmarked operation
+     * @throws Exception if the operation fails
+     */
+    private void run(String name, Op op) throws Exception {
+        if (only != null && !name.contains(only)) return;
+
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(op, null);
+        }
+
+        LongList latencies = new LongList();
+        long totalNanos = 0;
+        long allocated = 0;
+        for (int i = 0; i < measureIterations; i++) {
+            long before = allocatedBytes();
+            totalNanos += iteration(op, latencies);
+            allocated += allocatedBytes() - before;
+        }
+
+        long[] sorted = latencies.toSortedArray();
+        long ops = sorted.length;
+        double opsPerSec = ops / (totalNanos / 1e9);
+        double bytesPerOp = (double) allocated / ops;
+        double mbPerSec = allocated / (1024.0 * 1024.0) / (totalNanos / 1e9);
+
+        System.out.printf("%-22s %12.1f %12.1f %12.1f %12.1f %12.1f %14.0f %12.1f%n",
+                name, opsPerSec, micros(sorted, 0.50), micros(sorted, 0.99), micros(sorted, 0.999),
+                sorted[sorted.length - 1] / 1e3, bytesPerOp, mbPerSec);
+
+        results.add(String.format("%s,%.1f,%.1f,%.1f,%.1f,%.1f,%.0f,%.1f",
+                name, opsPerSec, micros(sorted, 0.50), micros(sorted, 0.99), micros(sorted, 0.999),
+                sorted[sorted.length - 1] / 1e3, bytesPerOp, mbPerSec));
+    }
+
+    /**
+     * Runs the operation repeatedly for at least iterationMillis (and at least once)
+     * @param op the operation
+     * @param latencies receives the duration of each operation (may be null)
+     * @return the duration of the iteration in nanoseconds
+     * @throws Exception if the operation fails
+     */
+    private long iteration(Op op, LongList latencies) throws Exception {
+        long start = System.nanoTime();
+        long end = start + iterationMillis * 1_000_000L;
+        long now;
+        do {
+            long t0 = System.nanoTime();
+            op.run();
+            now = System.nanoTime();
+            if (latencies != null) latencies.add(now - t0);
+        } while (now < end);
+        return now - start;
+    }
+
+    private static double micros(long[] sorted, double quantile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e3;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean sunBean) {
+            return sunBean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        }
+        return 0;
+    }
+
+    private static ITable findTable(Database db, String name) {
+        for (ITable table : db.getTables()) {
+            if (table.getName().equalsIgnoreCase(name)) return table;
+        }
+        throw new IllegalStateException("Missing table " + name);
+    }
+
+    /**
+     * Growable array of primitive longs (avoids boxing the recorded latencies)
+     */
+    private static class LongList {
+        private long[] values = new long[1024];
+        private int size = 0;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        long[] toSortedArray() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
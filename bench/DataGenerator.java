@@ -0,0 +1,102 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates a synthetic database with the student/course/enroll schema of db/schema.txt
+ *
+ * The number of enroll rows is given, the other tables are scaled from it:
+ *   student: rows / 4 tuples, byear increases with sid (the table is roughly time-ordered)
+ *   course:  rows / 1000 tuples (at least 10)
+ *   enroll:  rows tuples, random (student, course, grade) triples
+ * The same seed always produces the same data
+ */
+public class DataGenerator {
+    private static final String[] NAMES = {"John", "Ellen", "Eric", "Ann", "Maria", "Omar", "Li", "Priya", "Sam", "Zoe"};
+    private static final String[] MAJORS = {"CS", "Math", "Biology", "Info", "Physics", "History", "Art", "Music"};
+    private static final String[] DEPTS = {"CS", "Math", "Info", "Biology", "Physics", "History"};
+    private static final String[] GRADES = {"a", "b", "c", "d", "f"};
+
+    /**
+     * Command line entry point: DataGenerator folder rows
+     * @param args the target folder and the number of enroll rows
+     * @throws IOException if the files cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        generate(args[0], Long.parseLong(args[1]), 42L);
+    }
+
+    /**
+     * Writes schema.txt, student.csv, course.csv and enroll.csv to the folder
+     * @param folder the target folder (created if missing)
+     * @param rows number of enroll rows
+     * @param seed random seed
+     * @throws IOException if the files cannot be written
+     */
+    public static void generate(String folder, long rows, long seed) throws IOException {
+        Files.createDirectories(Paths.get(folder));
+        Random random = new Random(seed);
+
+        long students = studentCount(rows);
+        long courses = courseCount(rows);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(folder + "/schema.txt"))) {
+            writer.write("student(sid:String, sname:String, major:String, byear:Integer)");
+            writer.newLine();
+            writer.write("course(cno:String, cname:String, dept:String)");
+            writer.newLine();
+            writer.write("enroll(sid:String, cno:String, grade:String)");
+            writer.newLine();
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(folder + "/student.csv"), 1 << 16)) {
+            for (long i = 1; i <= students; i++) {
+                // Birth years grow with the student id, with a little jitter
+                int byear = 1950 + (int) (i * 70 / students) + random.nextInt(3);
+                writer.write("s" + i + "," + pick(NAMES, random) + "," + pick(MAJORS, random) + "," + byear);
+                writer.newLine();
+            }
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(folder + "/course.csv"), 1 << 16)) {
+            for (long i = 1; i <= courses; i++) {
+                writer.write("c" + i + ",Course" + i + "," + pick(DEPTS, random));
+                writer.newLine();
+            }
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(folder + "/enroll.csv"), 1 << 16)) {
+            for (long i = 0; i < rows; i++) {
+                long sid = 1 + (long) (random.nextDouble() * students);
+                long cno = 1 + (long) (random.nextDouble() * courses);
+                writer.write("s" + sid + ",c" + cno + "," + pick(GRADES, random));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Number of student tuples generated for the given number of enroll rows
+     * @param rows number of enroll rows
+     * @return number of students
+     */
+    public static long studentCount(long rows) {
+        return Math.max(1, rows / 4);
+    }
+
+    /**
+     * Number of course tuples generated for the given number of enroll rows
+     * @param rows number of enroll rows
+     * @return number of courses
+     */
+    public static long courseCount(long rows) {
+        return Math.max(10, rows / 1000);
+    }
+
+    private static String pick(String[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+/**
+ * Latency histogram with log-linear buckets, in the style of HdrHistogram
+ *
+ * Values (nanoseconds) below 2048 have one bucket each; above, each power of two is split into 1024 buckets, so a
+ * recorded value is known to about 0.1% whatever its magnitude, and the histogram has a fixed size (about 34000
+ * counters up to an hour). Recording is constant time and allocation free, so a client records every operation.
+ * Histograms of several clients are combined with add.
+ *
+ * Implements the following algorithm:
+ * For a value v >= 2048, let e be the number of bits of v minus 11
+ *   The bucket is e * 1024 + (v >> e)  (v >> e is between 1024 and 2047)
+ * Percentiles walk the buckets in order until the count reaches the requested fraction, and report the highest
+ * value of that bucket
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 10;                         // log2 of the buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;           // Buckets per power of two
+    private static final long MAX_VALUE = 3_600_000_000_000L;       // Largest recorded value (an hour), larger are clamped
+
+    private long[] counts;      // Number of values per bucket
+    private long total;         // Number of recorded values
+    private long max;           // Largest recorded value
+    private long sum;           // Sum of the recorded values
+
+    /**
+     * constructor
+     * Creates an empty histogram
+     */
+    public LatencyHistogram() {
+        this.counts = new long[bucket(MAX_VALUE) + 1];
+    }
+
+    /**
+     * Records a value
+     * @param nanos the value (negative values are recorded as 0)
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        this.counts[bucket(value)]++;
+        this.total++;
+        this.sum += value;
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * Adds the values of another histogram to this one
+     * @param other the other histogram
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.total += other.total;
+        this.sum += other.sum;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * Returns the value below or at which a fraction of the recorded values are
+     * @param quantile the fraction (e.g. 0.999)
+     * @return the value, in nanoseconds (0 if the histogram is empty)
+     */
+    public long percentile(double quantile) {
+        if (this.total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * this.total));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) return Math.min(highest(i), this.max);
+        }
+        return this.max;
+    }
+
+    /**
+     * Forgets the recorded values (e.g. those of the warmup)
+     */
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.total = 0;
+        this.sum = 0;
+        this.max = 0;
+    }
+
+    /**
+     * Getters
+     */
+
+    public long getCount() {
+        return this.total;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    public double getMean() {
+        return this.total == 0 ? 0 : (double) this.sum / this.total;
+    }
+
+    // Bucket of a value
+    private static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - (SUB_BITS + 1);
+        return shift * SUB_BUCKETS + (int) (value >> shift);
+    }
+
+    // Highest value of a bucket
+    private static long highest(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket - (long) shift * SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
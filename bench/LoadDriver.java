@@ -0,0 +1,331 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test: concurrent clients running a mix of queries through Main.runQuery
+ *
+ * The driver generates a database with DataGenerator (student/course/enroll, scaled from --rows), then starts
+ * --clients threads. Each client repeatedly picks an operation at random with the weights of --mix:
+ *   point    select a student by sid
+ *   range    select the students born after a recent year
+ *   insert   insert an enroll tuple with a key of the client
+ *   delete   delete an enroll tuple the client inserted earlier (a missing key if it has none left)
+ * and runs it with Main.runQuery, as the command line does (results are printed to a discarded stream).
+ * Clients run as fast as they can, or with --rate at a fixed total rate: latencies are then measured from the time
+ * each operation was scheduled, so a stall also counts against the operations queued behind it (no coordinated
+ * omission). Operations of the --warmup seconds are not recorded.
+ *
+ * The result cache is disabled unless --cache gives it a size: the point and range selects repeat a small set of
+ * queries on student, which no operation changes, so with the cache they would almost all be cache hits. The
+ * driver prints the number of cache hits.
+ *
+ * For each operation and in total, the driver reports the throughput, errors (queries that printed an error) and
+ * latency percentiles from LatencyHistograms. --out writes the same numbers to a CSV file; --compare reads the file
+ * of an earlier run and prints the change of each number.
+ *
+ * Usage: LoadDriver [--rows N] [--clients N] [--duration s] [--warmup s] [--mix point=60,range=10,insert=20,delete=10]
+ *                   [--rate ops/s] [--cache values] [--seed N] [--out file.csv] [--compare baseline.csv]
+ */
+public class LoadDriver {
+    private static final String[] OPERATIONS = {"point", "range", "insert", "delete"};
+    private static final String[] GRADES = {"a", "b", "c", "d", "f"};
+    private static final String HEADER = "operation,count,errors,ops_per_sec,mean_us,p50_us,p90_us,p99_us,p999_us,max_us";
+
+    // Error lines printed by the current thread (Main.runQuery reports failed queries on System.err)
+    private static final ThreadLocal<long[]> ERRORS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private long rows = 100_000;                // Number of enroll rows generated
+    private int clients = 4;                    // Concurrent clients
+    private long durationSeconds = 30;          // Measured duration
+    private long warmupSeconds = 5;             // Unrecorded duration before measuring
+    private int[] weights = {60, 10, 20, 10};   // Weight of each operation (order of OPERATIONS)
+    private double rate = 0;                    // Total operations per second (0: as fast as possible)
+    private long cacheSize = 0;                 // Values held by the result cache (0: disabled)
+    private long seed = 42;                     // Seed of the data and of the clients' choices
+
+    public static void main(String[] args) throws Exception {
+        LoadDriver driver = new LoadDriver();
+        String out = null;
+        String compare = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rows" -> driver.rows = Long.parseLong(args[++i].replace("_", ""));
+                case "--clients" -> driver.clients = Integer.parseInt(args[++i]);
+                case "--duration" -> driver.durationSeconds = Long.parseLong(args[++i]);
+                case "--warmup" -> driver.warmupSeconds = Long.parseLong(args[++i]);
+                case "--mix" -> driver.weights = parseMix(args[++i]);
+                case "--rate" -> driver.rate = Double.parseDouble(args[++i]);
+                case "--cache" -> driver.cacheSize = Long.parseLong(args[++i].replace("_", ""));
+                case "--seed" -> driver.seed = Long.parseLong(args[++i]);
+                case "--out" -> out = args[++i];
+                case "--compare" -> compare = args[++i];
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        Path folder = Files.createTempDirectory("qe-load");
+        System.out.println("Generating " + driver.rows + " enroll rows in " + folder);
+        DataGenerator.generate(folder.toString(), driver.rows, driver.seed);
+
+        Map<String, String> results = driver.run(folder.toString());
+
+        if (out != null) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(out))) {
+                writer.println("# rows=" + driver.rows + " clients=" + driver.clients + " duration=" + driver.durationSeconds
+                        + " mix=" + formatMix(driver.weights) + " rate=" + driver.rate + " cache=" + driver.cacheSize);
+                writer.println(HEADER);
+                for (String line : results.values()) {
+                    writer.println(line);
+                }
+            }
+        }
+        if (compare != null) {
+            compare(readResults(compare), results);
+        }
+    }
+
+    /**
+     * Runs the clients against a generated database and prints the results
+     * @param folder folder with the generated database
+     * @return one CSV line per operation and one for all operations ("all"), by operation
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    private Map<String, String> run(String folder) throws InterruptedException {
+        System.setProperty("qe.resultCacheSize", Long.toString(this.cacheSize));
+        Database db = new Database(folder, "schema.txt");
+        db.populateDB();
+        long students = DataGenerator.studentCount(this.rows);
+        long courses = DataGenerator.courseCount(this.rows);
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()) {
+            @Override
+            public void println(String line) {
+                ERRORS.get()[0]++;
+            }
+        });
+
+        long start = System.nanoTime();
+        long measureStart = start + this.warmupSeconds * 1_000_000_000L;
+        long end = measureStart + this.durationSeconds * 1_000_000_000L;
+        long interval = this.rate > 0 ? (long) (1e9 * this.clients / this.rate) : 0;
+
+        List<Client> all = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < this.clients; c++) {
+            Client client = new Client(c, db, students, courses, new Random(this.seed + c));
+            all.add(client);
+            Thread thread = new Thread(() -> client.run(start, measureStart, end, interval), "load-client-" + c);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.setOut(stdout);
+        System.setErr(stderr);
+
+        // Combine the histograms of the clients
+        Map<String, String> results = new LinkedHashMap<>();
+        LatencyHistogram total = new LatencyHistogram();
+        long totalErrors = 0;
+        double seconds = this.durationSeconds;
+        System.out.printf("%-8s %10s %8s %12s %10s %10s %10s %10s %10s %10s%n",
+                "op", "count", "errors", "ops/s", "mean us", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            long errors = 0;
+            for (Client client : all) {
+                histogram.add(client.latencies[op]);
+                errors += client.errors[op];
+            }
+            total.add(histogram);
+            totalErrors += errors;
+            if (histogram.getCount() > 0) results.put(OPERATIONS[op], report(OPERATIONS[op], histogram, errors, seconds));
+        }
+        results.put("all", report("all", total, totalErrors, seconds));
+        System.out.println("Result cache hits: " + db.getMetrics().getCacheHits() + " of " + db.getMetrics().getQueryCount()
+                + " queries (including the warmup)");
+        return results;
+    }
+
+    // Prints the results of an operation and returns them as a CSV line
+    private static String report(String name, LatencyHistogram histogram, long errors, double seconds) {
+        double[] micros = {histogram.getMean() / 1e3, histogram.percentile(0.50) / 1e3, histogram.percentile(0.90) / 1e3,
+                histogram.percentile(0.99) / 1e3, histogram.percentile(0.999) / 1e3, histogram.getMax() / 1e3};
+        double opsPerSec = histogram.getCount() / seconds;
+        System.out.printf("%-8s %10d %8d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                name, histogram.getCount(), errors, opsPerSec, micros[0], micros[1], micros[2], micros[3], micros[4], micros[5]);
+        return String.format("%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f",
+                name, histogram.getCount(), errors, opsPerSec, micros[0], micros[1], micros[2], micros[3], micros[4], micros[5]);
+    }
+
+    /**
+     * Prints the change of each number between a baseline run and this run
+     * Throughput changes are positive when faster, latency changes are positive when slower
+     * @param baseline CSV lines of the baseline run, by operation
+     * @param current CSV lines of this run, by operation
+     */
+    private static void compare(Map<String, String> baseline, Map<String, String> current) {
+        String[] columns = HEADER.split(",");
+        System.out.println();
+        System.out.println("Change from baseline:");
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            String before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println(entry.getKey() + ": not in baseline");
+                continue;
+            }
+            String[] old = before.split(",");
+            String[] now = entry.getValue().split(",");
+            StringBuilder line = new StringBuilder(String.format("%-8s", entry.getKey()));
+            for (int i = 3; i < columns.length; i++) {
+                double a = Double.parseDouble(old[i]);
+                double b = Double.parseDouble(now[i]);
+                String change = a == 0 ? "n/a" : String.format("%+.1f%%", 100 * (b - a) / a);
+                line.append(String.format("  %s %.1f -> %.1f (%s)", columns[i], a, b, change));
+            }
+            System.out.println(line);
+        }
+    }
+
+    // Reads the CSV lines of an earlier run, by operation
+    private static Map<String, String> readResults(String file) throws IOException {
+        Map<String, String> results = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.equals(HEADER) || line.isBlank()) continue;
+                results.put(line.substring(0, line.indexOf(',')), line);
+            }
+        }
+        return results;
+    }
+
+    // Parses "point=60,range=10,insert=20,delete=10" (missing operations get weight 0)
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            int op = List.of(OPERATIONS).indexOf(pair[0].trim().toLowerCase());
+            if (op < 0 || pair.length != 2) throw new IllegalArgumentException("Invalid mix entry: " + part);
+            weights[op] = Integer.parseInt(pair[1].trim());
+        }
+        return weights;
+    }
+
+    private static String formatMix(int[] weights) {
+        StringBuilder mix = new StringBuilder();
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            if (op > 0) mix.append(';');
+            mix.append(OPERATIONS[op]).append('=').append(weights[op]);
+        }
+        return mix.toString();
+    }
+
+    /**
+     * One client: its random choices, its inserted keys and its histograms
+     */
+    private class Client {
+        private final int id;
+        private final Database db;
+        private final long students;
+        private final long courses;
+        private final Random random;
+        private final ArrayDeque<String> inserted = new ArrayDeque<>();     // Keys inserted and not deleted yet
+        private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+        private final long[] errors = new long[OPERATIONS.length];
+        private long nextKey;
+
+        private Client(int id, Database db, long students, long courses, Random random) {
+            this.id = id;
+            this.db = db;
+            this.students = students;
+            this.courses = courses;
+            this.random = random;
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                this.latencies[op] = new LatencyHistogram();
+            }
+        }
+
+        // Runs operations until end, recording those that start after measureStart
+        private void run(long start, long measureStart, long end, long interval) {
+            long scheduled = start;
+            boolean measuring = false;
+            long now = start;
+            while (now < end) {
+                if (interval > 0) {
+                    scheduled += interval;
+                    while ((now = System.nanoTime()) < scheduled) {
+                        LockSupport.parkNanos(scheduled - now);
+                    }
+                } else {
+                    scheduled = System.nanoTime();
+                }
+                if (!measuring && scheduled >= measureStart) {
+                    measuring = true;
+                    for (int op = 0; op < OPERATIONS.length; op++) {
+                        this.latencies[op].reset();
+                        this.errors[op] = 0;
+                    }
+                }
+
+                int op = pick();
+                long errorsBefore = ERRORS.get()[0];
+                Main.runQuery(query(op), this.db);
+                now = System.nanoTime();
+                this.latencies[op].record(now - scheduled);
+                if (ERRORS.get()[0] != errorsBefore) this.errors[op]++;
+            }
+        }
+
+        // Picks an operation with the weights of the mix
+        private int pick() {
+            int sum = 0;
+            for (int weight : weights) {
+                sum += weight;
+            }
+            int r = this.random.nextInt(sum);
+            int op = 0;
+            while (r >= weights[op]) {
+                r -= weights[op];
+                op++;
+            }
+            return op;
+        }
+
+        private String query(int op) {
+            switch (OPERATIONS[op]) {
+                case "point":
+                    return "select sid, sname, byear from student where sid = s" + (1 + (long) (this.random.nextDouble() * this.students));
+                case "range":
+                    return "select sid, byear from student where byear > " + (2015 + this.random.nextInt(5));
+                case "insert":
+                    String key = "load" + this.id + "_" + this.nextKey++;
+                    this.inserted.add(key);
+                    return "insert into enroll (sid, cno, grade) values (" + key + ", c" + (1 + this.random.nextInt((int) this.courses))
+                            + ", " + GRADES[this.random.nextInt(GRADES.length)] + ")";
+                default:
+                    String victim = this.inserted.isEmpty() ? "none" : this.inserted.poll();
+                    return "delete from enroll where sid = " + victim;
+            }
+        }
+    }
+}
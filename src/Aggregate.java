@@ -0,0 +1,312 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An aggregate function of a select clause: count(*), count(attr), sum(attr), min(attr), max(attr) or avg(attr),
+ * or an approximate aggregate: approx_count_distinct(attr) or approx_percentile(attr, fraction)
+ *
+ * The aggregates of a query are computed over the tuples matching its where clause, and the result has a single
+ * tuple with one value per aggregate. count returns an Integer, avg a Double, sum the type of its (Integer or
+ * Double) attribute and min and max the type of their attribute. Null values are ignored; the result of min,
+ * max, sum or avg over no value is null.
+ *
+ * The result of count, sum, min and max over the union of several sets of tuples can be computed from their
+ * results over each set (see combine); avg is not, it is computed from a sum and a count.
+ *
+ * Approximate aggregates are computed with sketches of bounded size: approx_count_distinct with a HyperLogLog
+ * (an Integer, within about 2% of the number of distinct non null values) and approx_percentile with a quantile
+ * sketch (a value of the attribute whose rank is within a few percent of the fraction, e.g. 0.5 for the median).
+ * Over a whole table they are answered from the sketches the database maintains (see TableSketch).
+ */
+public class Aggregate {
+    private static final Pattern SYNTAX = Pattern.compile(
+            "(?i)(count|sum|min|max|avg|approx_count_distinct|approx_percentile)\\s*\\(\\s*(\\*|[^(),\\s]+)\\s*(?:,\\s*([0-9.]+)\\s*)?\\)");
+
+    /**
+     * Aggregate functions
+     */
+    public enum Function { COUNT, SUM, MIN, MAX, AVG, APPROX_COUNT_DISTINCT, APPROX_PERCENTILE }
+
+    private Function function;      // The aggregate function
+    private String attribute;       // Name of the aggregated attribute (null for count(*))
+    private double fraction;        // Quantile of approx_percentile (0 to 1)
+
+    /**
+     * constructor
+     * @param function the aggregate function
+     * @param attribute name of the aggregated attribute (null for count(*))
+     */
+    public Aggregate(Function function, String attribute) {
+        this.function = function;
+        this.attribute = attribute;
+    }
+
+    /**
+     * Parses an item of a select clause
+     * @param item the item, e.g. "count(*)", "max(byear)" or "approx_percentile(byear, 0.9)"
+     * @return the aggregate, or null if the item is not an aggregate
+     */
+    public static Aggregate parse(String item) {
+        Matcher matcher = SYNTAX.matcher(item.trim());
+        if (!matcher.matches()) return null;
+
+        Function function = Function.valueOf(matcher.group(1).toUpperCase());
+        String attribute = matcher.group(2);
+        if (attribute.equals("*")) {
+            if (function != Function.COUNT) return null;
+            attribute = null;
+        }
+
+        // The fraction is required by approx_percentile, and only allowed there
+        if ((function == Function.APPROX_PERCENTILE) != (matcher.group(3) != null)) return null;
+        Aggregate aggregate = new Aggregate(function, attribute);
+        if (function == Function.APPROX_PERCENTILE) {
+            try {
+                aggregate.fraction = Double.parseDouble(matcher.group(3));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (aggregate.fraction > 1) return null;
+        }
+        return aggregate;
+    }
+
+    /**
+     * Getters
+     */
+
+    public Function getFunction() {
+        return this.function;
+    }
+
+    public String getAttribute() {
+        return this.attribute;
+    }
+
+    public boolean isApproximate() {
+        return this.function == Function.APPROX_COUNT_DISTINCT || this.function == Function.APPROX_PERCENTILE;
+    }
+
+    /**
+     * Returns the name of the aggregate in the result schema, e.g. count(*), max(byear) or approx_percentile(byear, 0.9)
+     * @return the result attribute name
+     */
+    public String getName() {
+        String argument = this.attribute == null ? "*" : this.attribute;
+        if (this.function == Function.APPROX_PERCENTILE) argument += ", " + this.fraction;
+        return this.function.name().toLowerCase() + "(" + argument + ")";
+    }
+
+    /**
+     * Returns the type of the aggregate result
+     * @param attributeType type of the aggregated attribute (ignored for count)
+     * @return the result type
+     * @throws InvalidQueryException if the function cannot be applied to the attribute type
+     */
+    public AttributeType getResultType(AttributeType attributeType) throws InvalidQueryException {
+        return switch (this.function) {
+            case COUNT, APPROX_COUNT_DISTINCT -> AttributeType.INTEGER;
+            case APPROX_PERCENTILE -> {
+                if (attributeType == AttributeType.STRING) throw new InvalidQueryException("approx_percentile requires a number: " + this.attribute);
+                yield attributeType;
+            }
+            case AVG -> {
+                if (attributeType == AttributeType.STRING) throw new InvalidQueryException("avg requires a number: " + this.attribute);
+                yield AttributeType.DOUBLE;
+            }
+            case SUM -> {
+                if (attributeType == AttributeType.STRING) throw new InvalidQueryException("sum requires a number: " + this.attribute);
+                yield attributeType;
+            }
+            default -> attributeType;
+        };
+    }
+
+    /**
+     * Creates the running value of this aggregate, to which the values of the matching tuples are added during
+     * the scan (see Accumulator)
+     * @return an empty accumulator
+     */
+    public Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    /**
+     * Builds the result of aggregates from their accumulators
+     * @param accumulators the accumulator of each aggregate
+     * @param resultSchema schema of the result (one attribute per aggregate, see getName and getResultType)
+     * @return a table with a single tuple holding the aggregate values
+     * @throws ArithmeticException if a count or an Integer sum does not fit in an Integer
+     */
+    public static ITable result(Accumulator[] accumulators, ISchema resultSchema) {
+        Tuple result = new Tuple(resultSchema);
+        Object[] out = result.getValues();
+        for (int i = 0; i < accumulators.length; i++) {
+            out[i] = accumulators[i].result(resultSchema.getAttributeType(i));
+        }
+
+        ITable table = new ResultTable("result", resultSchema);
+        table.addTuple(result);
+        return table;
+    }
+
+    /**
+     * The running value of an aggregate over the tuples of a scan
+     * Values are added one at a time and only the running count, sums, extreme value or sketch are kept, so an
+     * aggregate over any number of tuples uses constant memory
+     */
+    public class Accumulator {
+        private long count;                 // Values added (tuples for count(*))
+        private double sum;                 // Sum of the Double values
+        private long intSum;                // Sum of the Integer values
+        private Comparable<Object> best;    // Smallest (min) or largest (max) value
+        private HyperLogLog distinct;       // Sketch of approx_count_distinct
+        private QuantileSketch quantiles;   // Sketch of approx_percentile
+
+        private Accumulator() {
+            if (function == Function.APPROX_COUNT_DISTINCT) this.distinct = new HyperLogLog();
+            if (function == Function.APPROX_PERCENTILE) this.quantiles = new QuantileSketch();
+        }
+
+        /**
+         * Adds the value of the aggregated attribute of a matching tuple (null values are ignored, except by count(*))
+         * @param value the value
+         */
+        public void add(Object value) {
+            if (attribute != null && value == null) return;
+            this.count++;
+
+            switch (function) {
+                case SUM, AVG -> {
+                    if (value instanceof Integer v) this.intSum += v;
+                    else this.sum += ((Number) value).doubleValue();
+                }
+                case MIN, MAX -> {
+                    @SuppressWarnings("unchecked")
+                    Comparable<Object> c = (Comparable<Object>) value;
+                    int cmp = this.best == null ? 0 : c.compareTo(this.best);
+                    if (this.best == null || (function == Function.MIN ? cmp < 0 : cmp > 0)) this.best = c;
+                }
+                case APPROX_COUNT_DISTINCT -> this.distinct.add(value);
+                case APPROX_PERCENTILE -> this.quantiles.add((Number) value);
+                default -> { }
+            }
+        }
+
+        /**
+         * Returns the value of the aggregate over the values added so far
+         * @param type the result type (see getResultType)
+         * @return the value
+         * @throws ArithmeticException if a count or an Integer sum does not fit in an Integer
+         */
+        public Object result(AttributeType type) {
+            return switch (function) {
+                case COUNT -> countValue(this.count);
+                case SUM -> this.count == 0 ? null : type == AttributeType.INTEGER ? (Object) Math.toIntExact(this.intSum) : (Object) (this.sum + this.intSum);
+                case AVG -> this.count == 0 ? null : (this.sum + this.intSum) / this.count;
+                case APPROX_COUNT_DISTINCT -> countValue(this.distinct.estimate());
+                case APPROX_PERCENTILE -> quantile(this.quantiles, type);
+                default -> this.best;
+            };
+        }
+    }
+
+    /**
+     * Checks if aggregates over a whole table can be answered from its sketches (see computeFromSketch)
+     * @param aggregates the aggregates
+     * @return true if every aggregate is approximate or count(*)
+     */
+    public static boolean isSketchable(List<Aggregate> aggregates) {
+        for (Aggregate aggregate : aggregates) {
+            if (!aggregate.isApproximate() && !(aggregate.function == Function.COUNT && aggregate.attribute == null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes aggregates over a whole table from its sketches, without reading its tuples
+     * @param aggregates the aggregates (see isSketchable)
+     * @param projection index of the attribute of each aggregate in the table
+     * @param sketch the sketches of the table
+     * @param resultSchema schema of the result
+     * @return a table with a single tuple holding the aggregate values
+     * @throws ArithmeticException if a count does not fit in an Integer
+     */
+    public static ITable computeFromSketch(List<Aggregate> aggregates, int[] projection, TableSketch sketch, ISchema resultSchema) {
+        Tuple result = new Tuple(resultSchema);
+        Object[] out = result.getValues();
+        for (int i = 0; i < aggregates.size(); i++) {
+            Aggregate aggregate = aggregates.get(i);
+            out[i] = switch (aggregate.function) {
+                case APPROX_COUNT_DISTINCT -> countValue(sketch.getDistinct(projection[i]).estimate());
+                case APPROX_PERCENTILE -> aggregate.quantile(sketch.getQuantiles(projection[i]), resultSchema.getAttributeType(i));
+                default -> countValue(sketch.getCount());
+            };
+        }
+
+        ITable table = new ResultTable("result", resultSchema);
+        table.addTuple(result);
+        return table;
+    }
+
+    /**
+     * Returns a count as the value of an Integer result attribute
+     * @param count the count
+     * @return the count
+     * @throws ArithmeticException if the count does not fit in an Integer (the query fails instead of wrapping around)
+     */
+    static int countValue(long count) {
+        if (count > Integer.MAX_VALUE) {
+            throw new ArithmeticException("Count " + count + " does not fit in an Integer");
+        }
+        return (int) count;
+    }
+
+    // The quantile of this aggregate, as a value of the result type (null if there are no values)
+    private Object quantile(QuantileSketch quantiles, AttributeType type) {
+        Double value = quantiles.quantile(this.fraction);
+        if (value == null) return null;
+        return type == AttributeType.INTEGER ? (Object) (int) Math.round(value) : (Object) value;
+    }
+
+    /**
+     * Combines two partial results of this aggregate (the results over two disjoint sets of tuples)
+     * @param a the first partial result (may be null)
+     * @param b the second partial result (may be null)
+     * @return the result over the union of the two sets
+     * @throws ArithmeticException if a count or an Integer sum does not fit in an Integer
+     * @throws IllegalStateException for avg and the approximate aggregates, which cannot be combined
+     */
+    @SuppressWarnings("unchecked")
+    public Object combine(Object a, Object b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return switch (this.function) {
+            case COUNT -> countValue((long) (Integer) a + (Integer) b);
+            case SUM -> a instanceof Integer ? (Object) Math.addExact((Integer) a, (Integer) b)
+                    : (Object) (((Number) a).doubleValue() + ((Number) b).doubleValue());
+            case MIN -> ((Comparable<Object>) a).compareTo(b) <= 0 ? a : b;
+            case MAX -> ((Comparable<Object>) a).compareTo(b) >= 0 ? a : b;
+            case AVG, APPROX_COUNT_DISTINCT, APPROX_PERCENTILE -> throw new IllegalStateException(getName() + " cannot be combined");
+        };
+    }
+
+    /**
+     * Builds the result schema of a list of aggregates
+     * @param aggregates the aggregates
+     * @param types the result type of each aggregate
+     * @return the schema
+     */
+    public static ISchema resultSchema(List<Aggregate> aggregates, List<AttributeType> types) {
+        Map<Integer, String> attrs = new HashMap<>();
+        for (int i = 0; i < aggregates.size(); i++) {
+            attrs.put(i, aggregates.get(i).getName() + ":" + types.get(i).getName());
+        }
+        return new Schema(attrs);
+    }
+}
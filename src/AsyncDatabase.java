@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous access to a database for callers that must not block on queries
+ *
+ * submit runs a query in a pool of -Dqe.async.threads (default: number of processors) daemon threads and returns
+ * at once with a CompletableFuture of its result; a failed query completes the future exceptionally with a
+ * CompletionException whose cause is the InvalidQueryException. Queries submitted one after the other do not wait
+ * for each other to be submitted, but they still run one at a time: the database lock serializes selects and writes.
+ *
+ * A pipeline (see pipeline) keeps the order of the queries of one client: each query starts when the previous one
+ * finished, successfully or not, but the client sends them all without waiting, e.g.
+ *   AsyncDatabase.Pipeline pipeline = async.pipeline();
+ *   pipeline.submit("insert into t (a) values (1)");
+ *   CompletableFuture<ITable> result = pipeline.submit("select a from t where a = 1");
+ *
+ * publish returns a Flow.Publisher of the tuples of a select in batches: the select runs when a subscriber first
+ * requests a batch, and batches are delivered only as the subscriber requests them. The result is still computed
+ * as a whole by the database; the publisher bounds what the subscriber receives at a time.
+ */
+public class AsyncDatabase {
+    private Database db;                // The database queried
+    private ExecutorService executor;   // Runs the queries and the batch deliveries
+
+    /**
+     * constructor
+     * Runs the queries in -Dqe.async.threads daemon threads
+     * @param db the database
+     */
+    public AsyncDatabase(Database db) {
+        this.db = db;
+        int threads = Math.max(1, Integer.getInteger("qe.async.threads", Runtime.getRuntime().availableProcessors()));
+        AtomicInteger created = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "async-query-" + created.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits a query
+     * @param query a select, insert, delete, update, create table, drop table or alter table query
+     * @return completes with the result of a select (null for other queries)
+     */
+    public CompletableFuture<ITable> submit(String query) {
+        return CompletableFuture.supplyAsync(() -> execute(query), this.executor);
+    }
+
+    /**
+     * Submits several queries at once (they run in any order, see pipeline to keep their order)
+     * @param queries the queries
+     * @return the futures of the results, in the order of the queries
+     */
+    public List<CompletableFuture<ITable>> submitAll(List<String> queries) {
+        List<CompletableFuture<ITable>> results = new ArrayList<>();
+        for (String query : queries) {
+            results.add(submit(query));
+        }
+        return results;
+    }
+
+    /**
+     * Opens a pipeline: the queries submitted to it run one after the other, in submission order
+     * @return the pipeline
+     */
+    public Pipeline pipeline() {
+        return new Pipeline();
+    }
+
+    /**
+     * Returns a publisher of the tuples of a select, in batches
+     * Each subscriber runs the select again when it first requests a batch
+     *
+     * @param query the select query
+     * @param batchSize maximum number of tuples per batch
+     * @return the publisher
+     */
+    public Flow.Publisher<List<ITuple>> publish(String query, int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        return subscriber -> subscriber.onSubscribe(new BatchSubscription(query, batchSize, subscriber));
+    }
+
+    /**
+     * Stops the threads once the submitted queries finished (queries submitted afterwards are rejected)
+     */
+    public void close() {
+        this.executor.shutdown();
+    }
+
+    // Runs a query in the calling thread
+    private ITable execute(String query) {
+        try {
+            return this.db.execute(query);
+        } catch (InvalidQueryException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * The queries of one client, run in submission order
+     */
+    public class Pipeline {
+        private CompletableFuture<ITable> last = CompletableFuture.completedFuture(null);   // Last submitted query
+
+        private Pipeline() {
+        }
+
+        /**
+         * Submits a query that starts when the previously submitted query finished (a failed query does not stop the
+         * pipeline: the next query runs anyway)
+         * @param query the query
+         * @return completes with the result of a select (null for other queries)
+         */
+        public synchronized CompletableFuture<ITable> submit(String query) {
+            this.last = this.last.handleAsync((result, error) -> execute(query), executor);
+            return this.last;
+        }
+
+        /**
+         * Returns a future completing when every query submitted so far finished
+         * @return the future (completes normally even if a query failed)
+         */
+        public synchronized CompletableFuture<Void> flush() {
+            return this.last.handle((result, error) -> null);
+        }
+    }
+
+    /**
+     * Delivers the result of a select to one subscriber, one batch per requested item
+     *
+     * Implements the following algorithm:
+     * request(n) adds n to the demand and schedules a drain in the executor
+     * The first drain runs the select
+     * A drain sends batches while there is demand and tuples left, then completes the subscriber after the last batch
+     * Drains never overlap: a drain scheduled while another runs makes it loop once more instead
+     */
+    private class BatchSubscription implements Flow.Subscription {
+        private final String query;                                  // The select query
+        private final int batchSize;                                 // Maximum number of tuples per batch
+        private final Flow.Subscriber<? super List<ITuple>> subscriber;
+        private final AtomicLong demand = new AtomicLong();          // Batches requested and not sent yet
+        private final AtomicInteger drains = new AtomicInteger();    // Drains scheduled and not finished
+        private volatile boolean done;                               // Cancelled, failed or completed
+        private List<ITuple> tuples;                                 // Result of the select (null until it ran)
+        private int next;                                            // Position of the next tuple to send
+
+        private BatchSubscription(String query, int batchSize, Flow.Subscriber<? super List<ITuple>> subscriber) {
+            this.query = query;
+            this.batchSize = batchSize;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (this.done) return;
+            if (n <= 0) {
+                this.done = true;
+                this.subscriber.onError(new IllegalArgumentException("Requested batches must be positive: " + n));
+                return;
+            }
+            this.demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            if (this.drains.getAndIncrement() == 0) executor.execute(this::drain);
+        }
+
+        @Override
+        public void cancel() {
+            this.done = true;
+        }
+
+        private void drain() {
+            do {
+                if (this.done) continue;
+                if (this.tuples == null) {
+                    try {
+                        if (!this.query.trim().toLowerCase().startsWith("select")) {
+                            throw new InvalidQueryException("Only select queries can be published.");
+                        }
+                        ITable result = db.selectData(this.query);
+                        this.tuples = result.getTuples();
+                    } catch (InvalidQueryException | RuntimeException e) {
+                        this.done = true;
+                        this.subscriber.onError(e);
+                        continue;
+                    }
+                }
+                while (!this.done && this.next < this.tuples.size() && this.demand.get() > 0) {
+                    int end = Math.min(this.tuples.size(), this.next + this.batchSize);
+                    List<ITuple> batch = new ArrayList<>(this.tuples.subList(this.next, end));
+                    this.next = end;
+                    this.demand.decrementAndGet();
+                    this.subscriber.onNext(batch);
+                }
+                if (!this.done && this.next == this.tuples.size()) {
+                    this.done = true;
+                    this.subscriber.onComplete();
+                }
+            } while (this.drains.decrementAndGet() != 0);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * The types an attribute can have, as written in the schema file
+ */
+public enum AttributeType {
+    INTEGER("Integer"),
+    DOUBLE("Double"),
+    STRING("String");
+
+    private final String name;    // Name of the type in the schema file
+
+    AttributeType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the type with the given schema name
+     * Unknown names are treated as String (like Tuple always did)
+     * @param name the type name from the schema (e.g., "Integer")
+     * @return the attribute type
+     */
+    public static AttributeType of(String name) {
+        return switch (name) {
+            case "Integer" -> INTEGER;
+            case "Double" -> DOUBLE;
+            default -> STRING;
+        };
+    }
+
+    /**
+     * Returns the name of the type as written in the schema file
+     * @return the type name
+     */
+    public String getName() {
+        return this.name;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The catalog of the tables of a database
+ * Tables are stored in a hash map keyed on their lower-case name, so that name resolution
+ * is case-insensitive and takes constant time; the order in which tables were added is kept
+ */
+public class Catalog {
+    private Map<String, ITable> tables;     // Lower-case table name -> table
+
+    /**
+     * constructor
+     * Creates an empty catalog
+     */
+    public Catalog() {
+        this.tables = new LinkedHashMap<>();
+    }
+
+    /**
+     * Looks up a table by name (case-insensitive)
+     * @param name the table name
+     * @return the table, or null if there is no table with that name
+     */
+    public ITable get(String name) {
+        return this.tables.get(name.toLowerCase());
+    }
+
+    /**
+     * Checks if a table exists (case-insensitive)
+     * @param name the table name
+     * @return true if the catalog has a table with that name
+     */
+    public boolean contains(String name) {
+        return this.tables.containsKey(name.toLowerCase());
+    }
+
+    /**
+     * Adds a table, or replaces the table with the same name
+     * @param table the table
+     */
+    public void put(ITable table) {
+        this.tables.put(table.getName().toLowerCase(), table);
+    }
+
+    /**
+     * Removes a table (case-insensitive)
+     * @param name the table name
+     * @return the removed table, or null if there was no table with that name
+     */
+    public ITable remove(String name) {
+        return this.tables.remove(name.toLowerCase());
+    }
+
+    /**
+     * Returns the tables, in the order they were added
+     * @return a new list with all tables
+     */
+    public List<ITable> getTables() {
+        return new ArrayList<>(this.tables.values());
+    }
+
+    /**
+     * Returns the number of tables
+     * @return the number of tables
+     */
+    public int size() {
+        return this.tables.size();
+    }
+}
\ No newline at end of file
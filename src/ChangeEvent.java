@@ -0,0 +1,69 @@
+/**
+ * A committed change to one tuple, as published by the change feed (see ChangeFeed)
+ *
+ * An insert has only an after image, a delete only a before image, and an update both. The images are copies
+ * of the tuple values: later changes to the table do not modify them.
+ */
+public class ChangeEvent {
+    public enum Type { INSERT, DELETE, UPDATE }
+
+    private long offset;        // Position of the event in the feed (consecutive, starting at 0)
+    private long time;          // Commit time (System.currentTimeMillis())
+    private String table;       // Name of the changed table
+    private Type type;          // Kind of change
+    private Object[] before;    // Values before the change (null for an insert)
+    private Object[] after;     // Values after the change (null for a delete)
+
+    /**
+     * constructor
+     * @param offset position of the event in the feed
+     * @param time commit time
+     * @param table name of the changed table
+     * @param type kind of change
+     * @param before values before the change (null for an insert)
+     * @param after values after the change (null for a delete)
+     */
+    public ChangeEvent(long offset, long time, String table, Type type, Object[] before, Object[] after) {
+        this.offset = offset;
+        this.time = time;
+        this.table = table;
+        this.type = type;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Getters
+     */
+
+    public long getOffset() {
+        return this.offset;
+    }
+
+    public long getTime() {
+        return this.time;
+    }
+
+    public String getTable() {
+        return this.table;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public Object[] getBefore() {
+        return this.before;
+    }
+
+    public Object[] getAfter() {
+        return this.after;
+    }
+
+    @Override
+    public String toString() {
+        return this.offset + " " + this.type + " " + this.table
+                + (this.before == null ? "" : " before (" + IO.formatTuple(this.before) + ")")
+                + (this.after == null ? "" : " after (" + IO.formatTuple(this.after) + ")");
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The change feed of a database: every committed insert, delete and update, in commit order, as change events
+ * with before and after images (see ChangeEvent)
+ *
+ * The database publishes the events of a statement after the statement was logged and applied (holding its lock),
+ * so offsets follow the commit order, a statement that fails publishes nothing, and the events of a statement are
+ * never interleaved with those of another.
+ * Consumers read the feed through subscriptions: a subscription is a position in the feed, and each poll returns
+ * the next batch of events and moves the position past them. Consumers pull at their own pace (the database never
+ * waits for them); a consumer that stops can resume with a new subscription from the offset after the last event
+ * it processed.
+ *
+ * The feed retains the last -Dqe.cdc.retainEvents (default 100000) events. A subscription that falls further behind
+ * loses its position (poll throws an IllegalStateException) and must read the tables again before resuming from
+ * the current end of the feed. Offsets start at 0 when the database starts: the feed is not persisted.
+ */
+public class ChangeFeed {
+    public static final long LATEST = -1;     // Subscribes from the end of the feed (only events published afterwards)
+
+    private List<ChangeEvent> events;   // Retained events (events.get(i) has offset firstOffset + i)
+    private long firstOffset;           // Offset of the oldest retained event
+    private int retainEvents;           // Number of events retained
+
+    /**
+     * constructor
+     * Creates an empty feed retaining -Dqe.cdc.retainEvents events
+     */
+    public ChangeFeed() {
+        this.events = new ArrayList<>();
+        this.retainEvents = Math.max(1, Integer.getInteger("qe.cdc.retainEvents", 100_000));
+    }
+
+    /**
+     * Publishes the changes made to a table by one statement and wakes up the waiting subscriptions
+     * Called by the database (holding its lock) after the statement was logged and applied
+     *
+     * @param table name of the changed table
+     * @param type kind of change
+     * @param before values before the change, per tuple (null for inserts)
+     * @param after values after the change, per tuple, in the order of before (null for deletes)
+     */
+    public synchronized void publish(String table, ChangeEvent.Type type, List<Object[]> before, List<Object[]> after) {
+        int count = before != null ? before.size() : after.size();
+        if (count == 0) return;
+
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            this.events.add(new ChangeEvent(getNextOffset(), time, table, type,
+                    before == null ? null : before.get(i), after == null ? null : after.get(i)));
+        }
+
+        // Drop the oldest events in chunks, so that each event is moved at most once
+        if (this.events.size() >= 2 * this.retainEvents) {
+            int dropped = this.events.size() - this.retainEvents;
+            this.events.subList(0, dropped).clear();
+            this.firstOffset += dropped;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Opens a subscription that reads the feed from an offset
+     * @param fromOffset offset of the first event to read (LATEST for the events published from now on)
+     * @return the subscription
+     * @throws IllegalStateException if the offset is no longer retained or was not reached yet
+     */
+    public synchronized Subscription subscribe(long fromOffset) {
+        long position = fromOffset == LATEST ? getNextOffset() : fromOffset;
+        if (position < this.firstOffset || position > getNextOffset()) {
+            throw new IllegalStateException("Offset " + position + " is not in the feed (retained offsets "
+                    + this.firstOffset + " to " + getNextOffset() + ")");
+        }
+        return new Subscription(position);
+    }
+
+    /**
+     * Opens a subscription that delivers batches of events to a handler in a daemon thread
+     * The next batch is read only after the handler returned, so a slow handler slows down its own delivery only
+     * Delivery stops when the subscription is closed, the handler throws or the subscription falls behind
+     *
+     * @param fromOffset offset of the first event to deliver (LATEST for the events published from now on)
+     * @param maxBatch maximum number of events per batch
+     * @param handler receives the batches, in offset order
+     * @return the subscription (its position is the offset after the last delivered batch)
+     */
+    public Subscription subscribe(long fromOffset, int maxBatch, Consumer<List<ChangeEvent>> handler) {
+        Subscription subscription = subscribe(fromOffset);
+        ReplicationPrimary.startDaemon(() -> {
+            try {
+                while (!subscription.isClosed()) {
+                    List<ChangeEvent> batch = subscription.poll(maxBatch, 1000);
+                    if (!batch.isEmpty()) handler.accept(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                System.err.println("Change feed delivery stopped at offset " + subscription.getPosition() + ": " + e.getMessage());
+            }
+        }, "change-feed-delivery");
+        return subscription;
+    }
+
+    /**
+     * Returns the offset of the oldest retained event
+     * @return the offset (equal to getNextOffset when no event is retained)
+     */
+    public synchronized long getFirstOffset() {
+        return this.firstOffset;
+    }
+
+    /**
+     * Returns the offset the next published event will have
+     * @return the offset
+     */
+    public synchronized long getNextOffset() {
+        return this.firstOffset + this.events.size();
+    }
+
+    /**
+     * A position in the feed, read by one consumer
+     */
+    public class Subscription {
+        private long position;              // Offset of the next event to read
+        private volatile boolean closed;    // Set by close
+
+        private Subscription(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Returns the next events of the feed and moves the position past them
+         * Waits up to the timeout for the first event if there is none yet
+         *
+         * @param maxEvents maximum number of events returned
+         * @param timeoutMillis maximum time to wait for an event (0 to return at once)
+         * @return the events, in offset order (empty if none was published before the timeout or the subscription is closed)
+         * @throws InterruptedException if the thread is interrupted while waiting
+         * @throws IllegalStateException if the events at the position are no longer retained
+         */
+        public List<ChangeEvent> poll(int maxEvents, long timeoutMillis) throws InterruptedException {
+            synchronized (ChangeFeed.this) {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (!this.closed && this.position == getNextOffset()) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) break;
+                    ChangeFeed.this.wait(wait);
+                }
+                if (this.position < firstOffset) {
+                    throw new IllegalStateException("Offset " + this.position + " is no longer retained (oldest is " + firstOffset + ")");
+                }
+                if (this.closed) return List.of();
+
+                int from = (int) (this.position - firstOffset);
+                int to = (int) Math.min(events.size(), (long) from + maxEvents);
+                List<ChangeEvent> batch = new ArrayList<>(events.subList(from, to));
+                this.position += batch.size();
+                return batch;
+            }
+        }
+
+        /**
+         * Returns the offset of the next event the subscription reads (where a new subscription resumes)
+         * @return the offset
+         */
+        public long getPosition() {
+            synchronized (ChangeFeed.this) {
+                return this.position;
+            }
+        }
+
+        public boolean isClosed() {
+            return this.closed;
+        }
+
+        /**
+         * Closes the subscription and wakes up its poll
+         */
+        public void close() {
+            this.closed = true;
+            synchronized (ChangeFeed.this) {
+                ChangeFeed.this.notifyAll();
+            }
+        }
+    }
+}
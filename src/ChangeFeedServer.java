@@ -0,0 +1,116 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Serves the change feed of a database (see ChangeFeed) to consumers that connect to a local socket
+ *
+ * A consumer sends the offset it wants to read from ("latest" for the events published from now on), then
+ * receives batches of events until it disconnects. Each connection has its own subscription; the sender blocks
+ * when the consumer does not read, so a slow consumer only slows down its own connection (and loses its position
+ * if it falls behind the retained events).
+ *
+ * Messages (one UTF string each):
+ *   consumer -> server:
+ *     offset | latest                  where to start reading
+ *   server -> consumer:
+ *     C offset time type table         an event (type is INSERT, DELETE or UPDATE)
+ *     B values                         the before image of the last event (csv format)
+ *     A values                         the after image of the last event (csv format)
+ *     F offset                         end of a batch (sent at least every second): offset of the next event
+ *     X message                        the subscription failed (e.g. the offset is no longer retained)
+ */
+public class ChangeFeedServer {
+    private static final int MAX_BATCH = 1000;      // Maximum number of events per batch
+
+    private ChangeFeed feed;            // The served feed
+    private ServerSocket server;        // Accepts consumer connections
+    private volatile boolean closed;    // Set by close
+
+    private ChangeFeedServer(ChangeFeed feed, ServerSocket server) {
+        this.feed = feed;
+        this.server = server;
+    }
+
+    /**
+     * Starts serving the change feed of a database to the consumers that connect to the given port
+     * @param db the database
+     * @param port the local port to listen on
+     * @return the running server
+     * @throws IOException if the port cannot be opened
+     */
+    public static ChangeFeedServer start(Database db, int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        ChangeFeedServer feedServer = new ChangeFeedServer(db.getChangeFeed(), server);
+        ReplicationPrimary.startDaemon(feedServer::acceptConsumers, "change-feed-accept");
+        return feedServer;
+    }
+
+    public int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting consumers
+     */
+    public void close() {
+        this.closed = true;
+        try {
+            this.server.close();
+        } catch (IOException e) {
+            System.err.println("Error closing change feed socket: " + e.getMessage());
+        }
+    }
+
+    // Accepts consumer connections until the server is closed
+    private void acceptConsumers() {
+        while (!this.closed) {
+            try {
+                Socket socket = this.server.accept();
+                ReplicationPrimary.startDaemon(() -> serve(socket), "change-feed-sender-" + socket.getPort());
+            } catch (IOException e) {
+                if (!this.closed) {
+                    System.err.println("Error accepting change feed consumer: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Sends batches of events to a consumer until it disconnects
+    private void serve(Socket socket) {
+        ChangeFeed.Subscription subscription = null;
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            String from = in.readUTF().trim();
+            try {
+                subscription = this.feed.subscribe(from.equalsIgnoreCase("latest") ? ChangeFeed.LATEST : Long.parseLong(from));
+                while (!this.closed) {
+                    List<ChangeEvent> batch = subscription.poll(MAX_BATCH, 1000);
+                    for (ChangeEvent event : batch) {
+                        out.writeUTF("C " + event.getOffset() + " " + event.getTime() + " " + event.getType() + " " + event.getTable());
+                        if (event.getBefore() != null) out.writeUTF("B " + IO.formatTuple(event.getBefore()));
+                        if (event.getAfter() != null) out.writeUTF("A " + IO.formatTuple(event.getAfter()));
+                    }
+                    out.writeUTF("F " + subscription.getPosition());
+                    out.flush();
+                }
+            } catch (IllegalStateException | NumberFormatException e) {
+                out.writeUTF("X " + e.getMessage());
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Change feed consumer disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (subscription != null) subscription.close();
+        }
+    }
+}
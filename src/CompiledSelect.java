@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A select query compiled for one query shape
+ *
+ * The shape of a select is everything but the value in its where clause: the table, the projection,
+ * the attribute and operator of the condition and whether the attribute is dictionary encoded.
+ * Compiling a shape defines a new hidden class from the template ScanLoop, with the attribute index, kind of
+ * comparison, operator, projection and result schema as constants of the class. The JIT compiles the loop of
+ * each class with those constants folded in, so it fuses filter and projection with the single comparison of the
+ * shape instead of switching on the type and operator and casting for every tuple; and since every shape has its
+ * own class, each loop has its own profile. Hidden classes are unloaded once their compiled select is dropped.
+ * Compiled selects only hold shape constants and can be reused by any query with the same shape.
+ */
+public class CompiledSelect {
+    // Kinds of comparison of a shape (see ScanLoop)
+    static final int NONE = 0;          // No where clause
+    static final int INTEGER = 1;       // Integer values
+    static final int STRING = 2;        // String values
+    static final int CODE = 3;          // Dictionary codes of String values
+    static final int DOUBLE = 4;        // Double values
+
+    // Operators of a shape (see ScanLoop)
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int LT = 2;
+    static final int GT = 3;
+    static final int LE = 4;
+    static final int GE = 5;
+
+    private static final byte[] TEMPLATE = readTemplate();      // Bytecode of ScanLoop
+
+    /**
+     * The fused filter and projection loop over one block of the source table
+     */
+    @FunctionalInterface
+    interface Kernel {
+        /**
+         * Adds to the result the projection of every tuple in [start, end) that matches the condition
+         * @param source the source table
+         * @param tuples the tuples of the source table
+         * @param start index of the first tuple to scan
+         * @param end index after the last tuple to scan
+         * @param rhs right-hand side of the condition, converted to the attribute type
+         * @param rhsCode dictionary code of the right-hand side (dictionary encoded attributes only)
+         * @param result the result table
+         * @return the number of tuples added to the result
+         */
+        int scan(ITable source, List<ITuple> tuples, int start, int end, Object rhs, int rhsCode, ITable result);
+    }
+
+    private ISchema resultSchema;   // Schema of the result (attributes in the order of the select clause)
+    private Kernel kernel;          // Scan loop specialized for the shape
+
+    private CompiledSelect(ISchema resultSchema, Kernel kernel) {
+        this.resultSchema = resultSchema;
+        this.kernel = kernel;
+    }
+
+    /**
+     * Returns the key identifying the shape of a select
+     * @param tableName the table name
+     * @param projection attribute indexes of the select clause
+     * @param lhsIndex index of the attribute in the where clause (-1 if there is none)
+     * @param operator operator of the where clause (null if there is none)
+     * @param encoded true if the attribute in the where clause is dictionary encoded
+     * @return the shape key
+     */
+    public static String shapeKey(String tableName, int[] projection, int lhsIndex, String operator, boolean encoded) {
+        StringBuilder sb = new StringBuilder(tableName.toLowerCase()).append('|');
+        for (int index : projection) {
+            sb.append(index).append(',');
+        }
+        return sb.append('|').append(lhsIndex).append('|').append(operator).append('|').append(encoded).toString();
+    }
+
+    /**
+     * Compiles a select shape
+     * Supports the same conditions as Database.evaluate: the six operators on Integer and Double attributes,
+     * = and != on String attributes (on their dictionary codes if encoded); a tuple whose attribute is null
+     * does not match
+     *
+     * @param sourceSchema schema of the source table
+     * @param projection attribute indexes of the select clause
+     * @param lhsIndex index of the attribute in the where clause (-1 if there is none)
+     * @param operator operator of the where clause (null if there is none)
+     * @param encoded true if the attribute in the where clause is dictionary encoded
+     * @return the compiled select
+     * @throws InvalidQueryException if the operator is not supported for the attribute type
+     */
+    public static CompiledSelect compile(ISchema sourceSchema, int[] projection, int lhsIndex, String operator, boolean encoded)
+            throws InvalidQueryException {
+        Map<Integer, String> newAttrs = new HashMap<>();
+        for (int i = 0; i < projection.length; i++) {
+            newAttrs.put(i, sourceSchema.getName(projection[i]) + ":" + sourceSchema.getType(projection[i]));
+        }
+        ISchema resultSchema = new Schema(newAttrs);
+
+        int kind = NONE;
+        int op = EQ;
+        if (lhsIndex != -1) {
+            AttributeType type = sourceSchema.getAttributeType(lhsIndex);
+            kind = switch (type) {
+                case INTEGER -> INTEGER;
+                case DOUBLE -> DOUBLE;
+                case STRING -> encoded ? CODE : STRING;
+                default -> throw new InvalidQueryException("Unsupported type: " + type);
+            };
+            op = switch (operator) {
+                case "=" -> EQ;
+                case "!=" -> NE;
+                case "<" -> LT;
+                case ">" -> GT;
+                case "<=" -> LE;
+                case ">=" -> GE;
+                default -> throw new InvalidQueryException("Unsupported WHERE operator.");
+            };
+            if (type == AttributeType.STRING && op != EQ && op != NE) {
+                throw new InvalidQueryException("Only = and != supported for Strings");
+            }
+        }
+        return new CompiledSelect(resultSchema, define(List.of(lhsIndex, kind, op, projection.clone(), resultSchema)));
+    }
+
+    // Defines the hidden class of a shape and returns its loop
+    private static Kernel define(List<Object> shape) {
+        try {
+            MethodHandles.Lookup loop = MethodHandles.lookup().defineHiddenClassWithClassData(TEMPLATE, shape, true);
+            return (Kernel) loop.findConstructor(loop.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot compile the select loop: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] readTemplate() {
+        try (InputStream in = CompiledSelect.class.getResourceAsStream("ScanLoop.class")) {
+            if (in == null) throw new IllegalStateException("Missing ScanLoop.class");
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Getters
+     */
+
+    public ISchema getResultSchema() {
+        return this.resultSchema;
+    }
+
+    /**
+     * Scans a block of the source table
+     * @param source the source table
+     * @param tuples the tuples of the source table
+     * @param start index of the first tuple to scan
+     * @param end index after the last tuple to scan
+     * @param rhs right-hand side of the condition, converted to the attribute type (null without condition)
+     * @param rhsCode dictionary code of the right-hand side (-1 if it is not in the dictionary)
+     * @param result the result table
+     * @return the number of tuples added to the result
+     */
+    public int scan(ITable source, List<ITuple> tuples, int start, int end, Object rhs, int rhsCode, ITable result) {
+        return this.kernel.scan(source, tuples, start, end, rhs, rhsCode, result);
+    }
+}
@@ -0,0 +1,366 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A table stored by column, with its Integer attributes compressed
+ *
+ * Each Integer attribute is a list of IntBlocks of ZoneMap.BLOCK_SIZE values (the blocks of the zone maps): a block
+ * is sealed with the smallest of frame of reference, delta and run-length encodings once it is full (see IntBlock),
+ * and opened again while its values are modified in place. Other attributes are kept in one list of values per
+ * attribute; String attributes are dictionary encoded as in Table. No object is kept per tuple.
+ *
+ * getTuples returns a read-through view: each tuple of the list reads its values from the columns when they are
+ * asked for. The values of a DELTA block are decoded once per block and kept until another block of the attribute
+ * is read, so a scan decodes each block once. filter compares the values of an Integer block with a constant on
+ * the encoded values. Tuples of the view are only valid until the table is modified by setTuples.
+ */
+public class CompressedTable implements IEncodedTable {
+    private String name;                // Table name (matches schema name and CSV file)
+    private ISchema schema;             // Schema describing the structure of the table
+    private AttributeType[] types;      // Attribute types, by index
+    private List<List<IntBlock>> blocks;    // Blocks per Integer attribute (null for other types)
+    private List<List<Object>> columns;     // Values per attribute of another type (null for Integer attributes)
+    private Dictionary[] dictionaries;  // Dictionary per String attribute (null for other types)
+    private int[][] codes;              // Dictionary code per String attribute and tuple
+    private int size;                   // Number of tuples
+    private List<ZoneMap> zoneMaps;     // One zone map per block of ZoneMap.BLOCK_SIZE tuples
+    private long version;               // Increases every time the tuples change (used by the result cache)
+    private int[] decodedBlock;         // Index of the DELTA block decoded in decodedValues, per attribute (-1 if none)
+    private int[][] decodedValues;      // Values of the last DELTA block read, per Integer attribute
+
+    /**
+     * constructor
+     * @param name name of the table
+     * @param schema schema associated with the table
+     */
+    public CompressedTable(String name, ISchema schema) {
+        this.name = name;
+        this.schema = schema;
+        int n = schema.size();
+        this.types = new AttributeType[n];
+        this.blocks = new ArrayList<>(Collections.nCopies(n, null));
+        this.columns = new ArrayList<>(Collections.nCopies(n, null));
+        this.decodedBlock = new int[n];
+        this.decodedValues = new int[n][];
+        for (int i = 0; i < n; i++) {
+            this.types[i] = schema.getAttributeType(i);
+            if (this.types[i] == AttributeType.INTEGER) {
+                this.blocks.set(i, new ArrayList<>());
+                this.decodedValues[i] = new int[ZoneMap.BLOCK_SIZE];
+            } else {
+                this.columns.set(i, new ArrayList<>());
+            }
+        }
+        Arrays.fill(this.decodedBlock, -1);
+        this.zoneMaps = new ArrayList<>();
+        initDictionaries();
+    }
+
+    // Creates empty dictionaries (and code arrays) for the String attributes of the schema
+    private void initDictionaries() {
+        this.dictionaries = new Dictionary[this.types.length];
+        this.codes = new int[this.types.length][];
+        for (int i = 0; i < this.types.length; i++) {
+            if (this.types[i] == AttributeType.STRING) {
+                this.dictionaries[i] = new Dictionary();
+                this.codes[i] = new int[16];
+            }
+        }
+    }
+
+    /**
+     * Returns the table name
+     * @return String representing the name of the table.
+     */
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Copies the values of a tuple to the end of the columns (sealing the last blocks when they are full)
+     * @param tuple the tuple to add
+     */
+    @Override
+    public void addTuple(ITuple tuple) {
+        int offset = this.size % ZoneMap.BLOCK_SIZE;
+        for (int i = 0; i < this.types.length; i++) {
+            Object value = tuple.getValue(i);
+            if (this.blocks.get(i) != null) {
+                List<IntBlock> column = this.blocks.get(i);
+                if (offset == 0) {
+                    if (!column.isEmpty()) column.get(column.size() - 1).seal();
+                    column.add(new IntBlock());
+                }
+                column.get(column.size() - 1).append(toInteger(value));
+            } else {
+                this.columns.get(i).add(encode(this.size, i, value));
+            }
+        }
+
+        // Start a new block when the last one is full
+        if (this.zoneMaps.isEmpty() || this.zoneMaps.get(this.zoneMaps.size() - 1).isFull()) {
+            this.zoneMaps.add(new ZoneMap(this.size, this.schema));
+        }
+        this.zoneMaps.get(this.zoneMaps.size() - 1).add(tuple);
+
+        this.size++;
+        this.version++;
+    }
+
+    /**
+     * Returns a read-through view of the tuples (the list cannot be modified)
+     * @return the list of all tuples (rows).
+     */
+    @Override
+    public List<ITuple> getTuples() {
+        return new AbstractList<>() {
+            @Override
+            public ITuple get(int index) {
+                if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+                return new Row(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Replaces the tuples of the table and rebuilds the columns and zone maps
+     * The new tuples may be rows of this table (e.g. the tuples kept by a delete): they are copied into new
+     * columns, which replace the current ones once all tuples were copied
+     * @param tuples the new list of tuples
+     */
+    @Override
+    public void setTuples(List<ITuple> tuples) {
+        CompressedTable copy = new CompressedTable(this.name, this.schema);
+        for (ITuple tuple : tuples) {
+            copy.addTuple(tuple);
+        }
+        this.blocks = copy.blocks;
+        this.columns = copy.columns;
+        this.dictionaries = copy.dictionaries;
+        this.codes = copy.codes;
+        this.size = copy.size;
+        this.zoneMaps = copy.zoneMaps;
+        this.decodedBlock = copy.decodedBlock;
+        this.decodedValues = copy.decodedValues;
+        this.version++;
+    }
+
+    /**
+     * Returns the zone maps of the table
+     * @return the list of zone maps, in tuple order
+     */
+    @Override
+    public List<ZoneMap> getZoneMaps() {
+        return this.zoneMaps;
+    }
+
+    /**
+     * Returns the dictionary of an attribute
+     * @param index the attribute index
+     * @return the dictionary, or null if the attribute is not dictionary encoded
+     */
+    @Override
+    public Dictionary getDictionary(int index) {
+        Dictionary dictionary = this.dictionaries[index];
+        return dictionary != null && dictionary.isEnabled() ? dictionary : null;
+    }
+
+    /**
+     * Returns the dictionary code of a value
+     * Only valid for attributes that have a dictionary (see getDictionary)
+     * @param row position of the tuple in the table
+     * @param index the attribute index
+     * @return the code of the value, or -1 for a null value
+     */
+    @Override
+    public int getCode(int row, int index) {
+        return this.codes[index][row];
+    }
+
+    /**
+     * Returns the version of the table
+     * @return the current version
+     */
+    @Override
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Increments the version of the table (to be called after modifying tuples in place)
+     */
+    @Override
+    public void incrementVersion() {
+        this.version++;
+    }
+
+    /**
+     * Updates the table after the tuple at the given position was modified in place (through setValue)
+     * The zone map of its block is widened and its Integer blocks are sealed again if they are full
+     * @param row position of the modified tuple
+     */
+    @Override
+    public void refreshTuple(int row) {
+        int block = row / ZoneMap.BLOCK_SIZE;
+        for (List<IntBlock> column : this.blocks) {
+            if (column != null && column.get(block).getCount() == ZoneMap.BLOCK_SIZE) column.get(block).seal();
+        }
+        this.zoneMaps.get(block).include(new Row(row));
+        this.version++;
+    }
+
+    /**
+     * Returns the table schema
+     * @return ISchema as the schema of the table.
+     */
+    @Override
+    public ISchema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Finds the tuples of a block whose Integer attribute satisfies "value operator rhs", on the encoded values
+     * @param block index of the block (the zone map starting at block * ZoneMap.BLOCK_SIZE)
+     * @param index index of the Integer attribute
+     * @param operator =, !=, <, >, <= or >=
+     * @param rhs the value compared with
+     * @param matches array receiving the positions of the matching tuples in the table (at least BLOCK_SIZE long)
+     * @return the number of matching tuples
+     */
+    public int filter(int block, int index, String operator, int rhs, int[] matches) {
+        return this.blocks.get(index).get(block).filter(operator, rhs, matches, block * ZoneMap.BLOCK_SIZE);
+    }
+
+    /**
+     * Returns the Integer blocks of an attribute (e.g. to write them to a checkpoint)
+     * @param index index of the Integer attribute
+     * @return the blocks, in tuple order
+     */
+    public List<IntBlock> getBlocks(int index) {
+        return this.blocks.get(index);
+    }
+
+    /**
+     * Returns the number of Integer blocks per encoding and their size, e.g. "FOR=1520 RLE=12 (1.9 MB)"
+     * @return the summary
+     */
+    public String describeBlocks() {
+        int[] counts = new int[IntBlock.Encoding.values().length];
+        long bytes = 0;
+        for (List<IntBlock> column : this.blocks) {
+            if (column == null) continue;
+            for (IntBlock block : column) {
+                counts[block.getEncoding().ordinal()]++;
+                bytes += block.sizeBytes();
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (IntBlock.Encoding encoding : IntBlock.Encoding.values()) {
+            if (counts[encoding.ordinal()] > 0) sb.append(encoding).append('=').append(counts[encoding.ordinal()]).append(' ');
+        }
+        return sb.append(String.format("(%.1f MB)", bytes / 1e6)).toString();
+    }
+
+    // Reads one value from its column
+    private Object readValue(int row, int index) {
+        if (this.blocks.get(index) == null) return this.columns.get(index).get(row);
+
+        int b = row / ZoneMap.BLOCK_SIZE;
+        int offset = row % ZoneMap.BLOCK_SIZE;
+        IntBlock block = this.blocks.get(index).get(b);
+        if (block.isNull(offset)) return null;
+        if (block.getEncoding() != IntBlock.Encoding.DELTA) return block.get(offset);
+
+        if (this.decodedBlock[index] != b) {
+            block.decode(this.decodedValues[index]);
+            this.decodedBlock[index] = b;
+        }
+        return this.decodedValues[index][offset];
+    }
+
+    // Writes one value to its column, converting it to the attribute type
+    private void writeValue(int row, int index, Object value) {
+        if (this.blocks.get(index) == null) {
+            this.columns.get(index).set(row, encode(row, index, value));
+            return;
+        }
+        int b = row / ZoneMap.BLOCK_SIZE;
+        this.blocks.get(index).get(b).set(row % ZoneMap.BLOCK_SIZE, toInteger(value));
+        if (this.decodedBlock[index] == b) this.decodedBlock[index] = -1;
+    }
+
+    private static Integer toInteger(Object value) {
+        return value == null || value instanceof Integer ? (Integer) value : Integer.valueOf(value.toString());
+    }
+
+    // Converts a value of a non Integer attribute, and dictionary encodes String values (see Table)
+    private Object encode(int row, int index, Object value) {
+        if (value != null && this.types[index] == AttributeType.DOUBLE && !(value instanceof Double)) {
+            value = Double.parseDouble(value.toString());
+        }
+        Dictionary dictionary = this.dictionaries[index];
+        if (dictionary == null || !dictionary.isEnabled()) {
+            return value == null || this.types[index] != AttributeType.STRING ? value : value.toString();
+        }
+
+        int code = dictionary.encode(value == null ? null : value.toString());
+        if (!dictionary.isEnabled()) {
+            // The attribute has too many distinct values, drop its codes
+            this.codes[index] = null;
+            return value == null ? null : value.toString();
+        }
+        if (row >= this.codes[index].length) {
+            this.codes[index] = Arrays.copyOf(this.codes[index], Math.max(row + 1, this.codes[index].length * 2));
+        }
+        this.codes[index][row] = code;
+        return code >= 0 ? dictionary.decode(code) : null;
+    }
+
+    /**
+     * A tuple of the table: reads and writes its values directly in the columns
+     * getValues returns a copy, so changes must go through setValue or setValues
+     */
+    private class Row implements ITuple {
+        private final int row;      // Position of the row in the table
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public void setValue(int index, Object value) {
+            writeValue(this.row, index, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getValue(int index) {
+            return (T) readValue(this.row, index);
+        }
+
+        @Override
+        public Object[] getValues() {
+            Object[] values = new Object[types.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue(this.row, i);
+            }
+            return values;
+        }
+
+        @Override
+        public void setValues(Object[] values) {
+            for (int i = 0; i < values.length; i++) {
+                setValue(i, values[i]);
+            }
+        }
+    }
+}
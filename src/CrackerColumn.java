@@ -0,0 +1,203 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An adaptive index on an Integer attribute of a table (database cracking)
+ *
+ * The cracker column is a copy of the attribute values, with the position of each value in the table. It starts
+ * unordered; each range query cracks it: the piece holding a bound of the query is partitioned around the bound
+ * (values below it first, as in a quicksort step), and the bound is recorded with its position. The values of the
+ * query range are then one contiguous slice of the column. Pieces get smaller with every new bound, so repeated
+ * queries on the attribute touch less and less of the column and converge towards a sorted index, without
+ * building one up front.
+ *
+ * Tuples inserted at the end of the table are added by moving one value per piece above them (see insert); any
+ * other change to the table makes the column stale, and the next query builds it again. Null values never match
+ * a condition and are not in the column.
+ */
+public class CrackerColumn {
+    private ITable table;                   // The indexed table
+    private int attribute;                  // Index of the indexed attribute
+    private long version;                   // Version of the table the column describes
+    private int[] values;                   // Attribute values, cracked
+    private int[] rows;                     // Position in the table of each value
+    private int size;                       // Number of values (the arrays may have spare capacity)
+    private TreeMap<Long, Integer> cracks;  // Bound -> position of the first value >= bound (values before it are < bound)
+
+    /**
+     * Copies the values of an attribute of a table (the column starts as a single piece)
+     * @param table the table
+     * @param attribute index of the Integer attribute
+     */
+    public CrackerColumn(ITable table, int attribute) {
+        this.table = table;
+        this.attribute = attribute;
+        this.cracks = new TreeMap<>();
+
+        int n = table.getTuples().size();
+        this.values = new int[Math.max(16, n)];
+        this.rows = new int[this.values.length];
+        for (int r = 0; r < n; r++) {
+            Object value = table.getTuples().get(r).getValue(attribute);
+            if (value == null) continue;
+            this.values[this.size] = (Integer) value;
+            this.rows[this.size] = r;
+            this.size++;
+        }
+        this.version = table.getVersion();
+    }
+
+    /**
+     * Checks if the column describes the current tuples of a table
+     * @param table the table
+     * @return true if the column was built on this table and the table did not change since
+     */
+    public boolean isCurrent(ITable table) {
+        return this.table == table && this.version == table.getVersion();
+    }
+
+    /**
+     * Adds the tuple appended at the end of the table
+     * The value goes to the end of its piece: the first value of each piece after it moves to the end of its piece
+     * @param row position of the tuple in the table
+     * @param value the attribute value (null values are ignored)
+     */
+    public void insert(int row, Integer value) {
+        this.version = this.table.getVersion();
+        if (value == null) return;
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, 2 * this.size);
+            this.rows = Arrays.copyOf(this.rows, 2 * this.size);
+        }
+
+        int hole = this.size;
+        for (Map.Entry<Long, Integer> crack : this.cracks.descendingMap().headMap((long) value, false).entrySet()) {
+            // The piece starting at this bound gives its first value to its end, and starts one position later
+            int start = crack.getValue();
+            this.values[hole] = this.values[start];
+            this.rows[hole] = this.rows[start];
+            crack.setValue(start + 1);
+            hole = start;
+        }
+        this.values[hole] = value;
+        this.rows[hole] = row;
+        this.size++;
+    }
+
+    /**
+     * Returns the positions in the table of the tuples whose value satisfies "value operator rhs", in table order
+     * Cracks the column on the bounds of the range first
+     *
+     * @param operator =, <, <=, > or >=
+     * @param rhs the value compared with
+     * @param stats statistics of the query (records the values moved to crack the column and the number of pieces)
+     * @return the positions of the matching tuples, in increasing order
+     */
+    public int[] select(String operator, int rhs, QueryStats stats) {
+        int[] range = range(operator, rhs, stats);
+        return positions(range[0], range[1]);
+    }
+
+    /**
+     * Cracks the column on the bounds of the range of "value operator rhs" and returns the slice of the column
+     * holding the matching values (read their table positions with positions)
+     *
+     * @param operator =, <, <=, > or >=
+     * @param rhs the value compared with
+     * @param stats statistics of the query (records the values moved to crack the column and the number of pieces)
+     * @return the start and end of the slice, {start, end}
+     */
+    public int[] range(String operator, int rhs, QueryStats stats) {
+        long low = switch (operator) {
+            case "=", ">=" -> rhs;
+            case ">" -> (long) rhs + 1;
+            default -> Long.MIN_VALUE;
+        };
+        long high = switch (operator) {
+            case "=", "<=" -> (long) rhs + 1;
+            case "<" -> rhs;
+            default -> Long.MAX_VALUE;
+        };
+
+        int start = low == Long.MIN_VALUE ? 0 : crack(low, stats);
+        int end = high == Long.MAX_VALUE ? this.size : crack(high, stats);
+        stats.setCrackerPieces(this.cracks.size() + 1);
+        return new int[] {start, Math.max(start, end)};
+    }
+
+    // Partitions the piece holding a bound around it and returns the position of the first value >= bound
+    private int crack(long bound, QueryStats stats) {
+        Integer known = this.cracks.get(bound);
+        if (known != null) return known;
+
+        Map.Entry<Long, Integer> below = this.cracks.lowerEntry(bound);
+        Map.Entry<Long, Integer> above = this.cracks.higherEntry(bound);
+        int lo = below == null ? 0 : below.getValue();
+        int hi = above == null ? this.size : above.getValue();
+        stats.addRowsCracked(hi - lo);
+
+        // Quicksort partition step: values < bound to the front of the piece
+        int i = lo;
+        int j = hi - 1;
+        while (i <= j) {
+            if (this.values[i] < bound) {
+                i++;
+            } else {
+                swap(i, j);
+                j--;
+            }
+        }
+        this.cracks.put(bound, i);
+        return i;
+    }
+
+    private void swap(int i, int j) {
+        int value = this.values[i];
+        this.values[i] = this.values[j];
+        this.values[j] = value;
+        int row = this.rows[i];
+        this.rows[i] = this.rows[j];
+        this.rows[j] = row;
+    }
+
+    /**
+     * Returns the table positions of a slice of the column, sorted (with a bitmap over the table when the slice is large)
+     * @param start start of the slice (see range)
+     * @param end end of the slice
+     * @return the positions, in increasing order
+     */
+    public int[] positions(int start, int end) {
+        int count = end - start;
+        int[] positions = new int[count];
+        int tableSize = this.table.getTuples().size();
+        if ((long) count * 16 < tableSize) {
+            System.arraycopy(this.rows, start, positions, 0, count);
+            Arrays.sort(positions);
+            return positions;
+        }
+
+        BitSet marked = new BitSet(tableSize);
+        for (int k = start; k < end; k++) {
+            marked.set(this.rows[k]);
+        }
+        int n = 0;
+        for (int r = marked.nextSetBit(0); r >= 0; r = marked.nextSetBit(r + 1)) {
+            positions[n++] = r;
+        }
+        return positions;
+    }
+
+    /**
+     * Getters
+     */
+
+    public int getAttribute() {
+        return this.attribute;
+    }
+
+    public int getPieces() {
+        return this.cracks.size() + 1;
+    }
+}
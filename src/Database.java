@@ -1,18 +1,47 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main database class
- * Database as a list of tables, list of schemas and a folder name where the database is stored
- * Database is stored (on the disk) in the form of three csv files and schema text file
+ * Database as a catalog of tables, list of schemas and a folder name where the database is stored
+ * Database is stored (on the disk) in the form of one csv file per table and schema text file
  */
 class Database {
-    private List<ITable> tables;    // List of all tables in the database
+    private static final Pattern TABLESAMPLE = Pattern.compile(
+            "(?i)(\\S+)\\s+tablesample\\s+(?:system\\s*)?\\(\\s*([0-9.]+)\\s*\\)(?:\\s+repeatable\\s*\\(\\s*(-?\\d+)\\s*\\))?");
+    private static final boolean ADAPTIVE_INDEXING = Boolean.getBoolean("qe.adaptiveIndexing");   // -Dqe.adaptiveIndexing=true cracks Integer attributes on range selects
+    private static final boolean COMPILE_SELECTS = !"false".equalsIgnoreCase(System.getProperty("qe.compileSelects"));   // -Dqe.compileSelects=false runs selects in the generic loop
+
+    private Catalog catalog;        // All tables in the database, by name
     private List<ISchema> schemas;  // List of all schemas (table structures)
     private String folderName;      // Folder where CSV files are stored
+    private String schemaFileName;  // Name of the schema file in the folder
+    private QueryStats lastQueryStats;  // Statistics of the last query
+    private QueryMetrics metrics;       // Metrics aggregated over all queries
+    private ResultCache resultCache;    // Results of recent select queries
+    private Map<String, CompiledSelect> compiledSelects;   // Compiled select plans, by query shape
+    private boolean persistent;         // False for in-memory databases (read replicas): changes are not written to files
+    private Manifest manifest;          // Last checkpoint of every table (persistent databases only)
+    private long checkpointBytes;       // Size of a table's log that triggers a checkpoint of the table
+    private ReplicationPrimary primary; // Ships the changes to read replicas (null if the database is not a primary)
+    private Semaphore heavyQueries;     // Admission of heavy selects (see selectData)
+    private long admissionWaitMillis;   // Time a heavy select waits for admission before it is refused
+    private volatile QueryContext runningQuery;    // Context of the running select (null when none is running)
+    private Map<String, TableSketch> sketches;     // Sketches of the tables used by approximate aggregates, by lower case name
+    private Map<String, MaterializedView> views;   // Materialized views, by lower case name
+    private ChangeFeed changeFeed;                  // Committed changes (null until a consumer asks for the feed)
+    private Map<String, CrackerColumn> crackers;    // Cracker columns (adaptive indexing), by lower case table name and attribute index
 
     /**
      * Constructor
-     * Creates the empty tables and schema lists
+     * Creates the empty catalog and schema list
      * Reads the schema file to add schemas to the database
      * Populates the database table (with the data read from the csv files)
      * @param folderName folder containing CSV and schema.txt
@@ -20,19 +49,65 @@ class Database {
      */
     public Database(String folderName, String schemaFileName) {
         this.folderName = folderName;
-        this.tables = new ArrayList<>();
+        this.schemaFileName = schemaFileName;
+        this.catalog = new Catalog();
         this.schemas = new ArrayList<>();
+        this.metrics = QueryMetrics.register(folderName);
+        this.resultCache = new ResultCache(Long.getLong("qe.resultCacheSize", 1_000_000));
+        this.compiledSelects = new HashMap<>();
+        this.sketches = new HashMap<>();
+        this.views = new LinkedHashMap<>();
+        this.crackers = new HashMap<>();
+        this.persistent = true;
+        initAdmission();
+        this.manifest = Manifest.load(folderName);
+        this.checkpointBytes = Long.getLong("qe.checkpointBytes", 1 << 20);
 
         // Load schema and create empty tables
         IO.readSchema(schemaFileName, folderName, this);
     }
 
+    /**
+     * Constructor
+     * Creates an empty in-memory database: tables are added by the caller (e.g. from a replication snapshot)
+     * and changes are not written to files
+     * @param name name of the database (used in the JMX metrics name)
+     */
+    public Database(String name) {
+        this.folderName = name;
+        this.catalog = new Catalog();
+        this.schemas = new ArrayList<>();
+        this.metrics = QueryMetrics.register(name);
+        this.resultCache = new ResultCache(Long.getLong("qe.resultCacheSize", 1_000_000));
+        this.compiledSelects = new HashMap<>();
+        this.sketches = new HashMap<>();
+        this.views = new LinkedHashMap<>();
+        this.crackers = new HashMap<>();
+        this.persistent = false;
+        initAdmission();
+    }
+
+    // Sets up admission control and the JMX cancelQuery operation
+    private void initAdmission() {
+        this.heavyQueries = new Semaphore(Integer.getInteger("qe.maxHeavyQueries", 2), true);
+        this.admissionWaitMillis = Long.getLong("qe.admissionWaitMillis", 5000);
+        this.metrics.setCancelAction(this::cancelQuery);
+    }
+
+    /**
+     * Makes this database a replication primary: every successful change is passed to the given primary
+     * @param primary the replication primary (null to stop replicating)
+     */
+    public synchronized void setReplicationPrimary(ReplicationPrimary primary) {
+        this.primary = primary;
+    }
+
     /**
      * Adds a table to the database
      * @param table the table to add
      */
     public void addTable(ITable table) {
-        this.tables.add(table);
+        this.catalog.put(table);
     }
 
     /**
@@ -48,7 +123,16 @@ class Database {
      * @return list of ITable objects
      */
     public List<ITable> getTables() {
-        return this.tables;
+        return this.catalog.getTables();
+    }
+
+    /**
+     * Returns a table by name (case-insensitive)
+     * @param name the table name
+     * @return the table, or null if the database has no table with that name
+     */
+    public ITable getTable(String name) {
+        return this.catalog.get(name);
     }
 
     /**
@@ -60,17 +144,17 @@ class Database {
     }
 
     /**
-     * The list of tables in the database is initialized with empty tables in the constructor
+     * The catalog of the database is initialized with empty tables in the constructor
      * An empty table has a name and an empty list of tuples
-     * This method sets the empty table in the list to the one provided as a parameter
+     * This method replaces the empty table in the catalog with the one provided as a parameter
      * @param table the updated table with data
      */
     public void updateTable(ITable table) {
-        for (int i = 0; i < this.tables.size(); i++) {
-            if (this.tables.get(i).getName().equals(table.getName())) {
-                this.tables.set(i, table);
-                return;
-            }
+        if (this.catalog.contains(table.getName())) {
+            this.catalog.put(table);
+            this.resultCache.clear();
+            this.compiledSelects.clear();
+            this.sketches.remove(table.getName().toLowerCase());
         }
     }
 
@@ -80,15 +164,110 @@ class Database {
      * Implements the following algorithm
      *
      * For each table in the db (tables are initially empty)
-     *   Get the table's data from the csv file (by calling the read table method)
-     *   Update the table (by calling the udpate table method)
+     *   If the table is partitioned
+     *     For each partition, get its data from its last checkpoint and log and store it in the partition
+     *   Else
+     *     Get the table's data from its last checkpoint and log (by calling the read table method)
+     *     Update the table (by calling the udpate table method)
+     * For each materialized view definition in the views file
+     *   Compute the view from its table
      */
     public void populateDB() {
-        for (ITable table : tables) {
+        for (ITable table : catalog.getTables()) {
             ISchema schema = table.getSchema();
-            ITable populated = IO.readTable(table.getName(), schema, folderName);
+            if (table instanceof PartitionedTable partitioned) {
+                for (PartitionedTable.Partition partition : partitioned.getPartitions()) {
+                    String name = partition.getTable().getName();
+                    partitioned.setPartitionTable(partition.getName(), recover(name, schema));
+                }
+                continue;
+            }
+            ITable populated = recover(table.getName(), schema);
             updateTable(populated);
         }
+
+        // Views are not stored: they are computed again from the tables
+        for (Map.Entry<String, String> definition : IO.readViews(folderName).entrySet()) {
+            try {
+                addView(definition.getKey(), definition.getValue());
+            } catch (InvalidQueryException e) {
+                System.err.println("Error loading view '" + definition.getKey() + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads a table (or partition) from its last checkpoint and log (see IO.readTable)
+     * A log shorter than the position recorded in the manifest was emptied by a checkpoint that crashed before
+     * recording the position 0: the manifest is corrected first, so that the changes appended to the log from now
+     * on are not skipped by the next recovery
+     * @param name name of the table (or partition storage)
+     * @param schema schema of the table
+     * @return the table
+     */
+    private ITable recover(String name, ISchema schema) {
+        Manifest.Entry checkpoint = manifest.get(name);
+        if (checkpoint != null && IO.logLength(name, folderName) < checkpoint.getLogOffset()) {
+            checkpoint = new Manifest.Entry(0, checkpoint.getLength(), checkpoint.getCrc());
+            try {
+                manifest.put(name, checkpoint);
+            } catch (IOException e) {
+                System.err.println("Error writing manifest: " + e.getMessage());
+            }
+        }
+        return IO.readTable(name, schema, folderName, checkpoint);
+    }
+
+    /**
+     * Runs a query of any type: the one place that maps a query to the method running it
+     * (used by Main, the shard server, the read replicas and AsyncDatabase)
+     *
+     * Implements the following algorithm
+     *
+     * Determine the type of query from its first words
+     * If select query
+     *   Select data and return the result table
+     * Else if insert, delete or update query
+     *   Insert, delete or update data
+     * Else if create table, drop table or alter table query
+     *   Create or drop the table, or drop or attach one of its partitions
+     * Else if create materialized view or drop materialized view query
+     *   Create or drop the view
+     * Else if checkpoint
+     *   Write a checkpoint of all tables
+     * Else
+     *   Throw an invalid query exception
+     *
+     * @param query the query
+     * @return the result of a select, null for other queries
+     * @throws InvalidQueryException if the query is invalid or of an unknown type
+     */
+    public ITable execute(String query) throws InvalidQueryException {
+        String lowered = query.trim().toLowerCase();
+        if (lowered.startsWith("select")) {
+            return selectData(query);
+        } else if (lowered.startsWith("insert")) {
+            insertData(query);
+        } else if (lowered.startsWith("delete")) {
+            deleteData(query);
+        } else if (lowered.startsWith("update")) {
+            updateData(query);
+        } else if (lowered.startsWith("create table")) {
+            createTable(query);
+        } else if (lowered.startsWith("drop table")) {
+            dropTable(query);
+        } else if (lowered.startsWith("alter table")) {
+            alterTable(query);
+        } else if (lowered.startsWith("create materialized view")) {
+            createView(query);
+        } else if (lowered.startsWith("drop materialized view")) {
+            dropView(query);
+        } else if (lowered.equals("checkpoint")) {
+            checkpoint();
+        } else {
+            throw new InvalidQueryException("Unknown query type.");
+        }
+        return null;
     }
 
     /**
@@ -103,14 +282,19 @@ class Database {
      *   Exit
      * Create a new tuple with the schema of the table
      * Set the tuple values to the values from the query
-     * Open the file corresponding to the table name
+     * Open the log file corresponding to the table name
      * Append the tuple values (as comma separated values) to the end of the file
+     * Add the tuple to the table
+     * Add the tuple to the materialized views of the table and publish it to the change feed
      *
      * @param query
      * @throws InvalidQueryException
      */
-    public void insertData(String query) throws InvalidQueryException {
+    public synchronized void insertData(String query) throws InvalidQueryException {
         try {
+            QueryStats stats = startQuery(query);
+            long t = System.nanoTime();
+
             // Normalize and remove extra spaces
             query = query.trim();
 
@@ -147,37 +331,69 @@ class Database {
             if (attributes.length != rawValues.length)
                 throw new InvalidQueryException("Number of attributes and values must match");
 
-            Object[] values = new Object[rawValues.length];
+            t = stats.lap(QueryStats.Phase.PARSE, t);
 
             // Get schema and type-check/convert each value
-            ISchema schema = null;
-            for (ITable t : tables) {
-                if (t.getName().equalsIgnoreCase(tableName)) {
-                    schema = t.getSchema();
-                    break;
-                }
-            }
+            ITable targetTable = catalog.get(tableName);
+            if (targetTable == null) throw new InvalidQueryException("Table not found: " + tableName);
+            ISchema schema = targetTable.getSchema();
 
-            if (schema == null) throw new InvalidQueryException("Table not found: " + tableName);
+            // Values are stored in schema order, whatever the order of the attributes in the query
+            Object[] values = new Object[schema.size()];
 
             for (int i = 0; i < rawValues.length; i++) {
                 String val = rawValues[i].trim().replaceAll("^'|'$", ""); // strip single quotes
-                for (int j : schema.getAttributes().keySet()) {
-                    String name = schema.getName(j);
-                    String type = schema.getType(j);
+                int j = schema.indexOf(attributes[i]);
+                if (j == -1) throw new InvalidQueryException("Unknown attribute: " + attributes[i]);
 
-                    if (name.equals(attributes[i])) {
-                        if (type.equals("Integer")) {
-                            values[i] = Integer.parseInt(val);
-                        } else {
-                            values[i] = val;
-                        }
-                    }
+                values[j] = parseOperand(schema.getAttributeType(j), val);
+            }
+
+            for (int j = 0; j < values.length; j++) {
+                if (values[j] == null) throw new InvalidQueryException("Missing value for attribute: " + schema.getName(j));
+            }
+
+            t = stats.lap(QueryStats.Phase.VALIDATE, t);
+
+            // Append the tuple to the log first (of its partition, if the table is partitioned):
+            // an insert that cannot be logged changes nothing
+            Tuple tuple = new Tuple(schema);
+            tuple.setValues(values);
+            ITable storage = null;
+            if (persistent) {
+                storage = targetTable instanceof PartitionedTable partitioned
+                        ? partitioned.partitionOf(tuple).getTable() : targetTable;
+                if (!IO.writeInsert(storage.getName(), values, folderName)) {
+                    throw new InvalidQueryException("Cannot write the log of " + storage.getName());
                 }
             }
 
-            // Append tuple to CSV
-            IO.writeTuple(tableName, values, folderName);
+            // Add the tuple to the table (this also increments the table version) and to its sketches
+            TableSketch sketch = sketches.get(targetTable.getName().toLowerCase());
+            boolean sketched = sketch != null && sketch.isCurrent(targetTable);
+            List<CrackerColumn> cracked = appendableCrackers(targetTable);
+            targetTable.addTuple(tuple);
+            for (CrackerColumn cracker : cracked) {
+                cracker.insert(targetTable.getTuples().size() - 1, tuple.getValue(cracker.getAttribute()));
+            }
+            if (sketched) {
+                sketch.add(tuple);
+                sketch.setCurrent(targetTable);
+            }
+            for (MaterializedView view : viewsOn(targetTable)) {
+                view.insert(tuple);
+            }
+            if (changeFeed != null) {
+                changeFeed.publish(targetTable.getName(), ChangeEvent.Type.INSERT, null, images(List.of(tuple)));
+            }
+            if (storage != null) {
+                checkpointIfNeeded(storage);
+            }
+            stats.addRowsReturned(1);
+            stats.lap(QueryStats.Phase.OUTPUT, t);
+
+            finishQuery(stats);
+            replicate(query);
 
         } catch (Exception e) {
             throw new InvalidQueryException("Failed to insert: " + e.getMessage());
@@ -195,21 +411,50 @@ class Database {
      * 3.	All the attribute names in the select clause are in the schema
      * 4.	The table name in the from clause is in the schema
      * 5.	All the attribute names in the where clause (if present) are in the schema
-     * 6.	The attribute name in the order by clause (if present) is in the schema
+     * 6.	The attribute name in the order by clause (if present) is in the select clause
+     *
+     * Selects without a where clause or with an order by clause are heavy: they copy or sort a whole table.
+     * At most qe.maxHeavyQueries (default 2) heavy selects are admitted at a time (running or waiting for the
+     * database); another one waits up to qe.admissionWaitMillis (default 5000) and is then refused.
+     * Every select runs with a memory budget and a deadline and can be cancelled (see QueryContext, cancelQuery).
      *
      * Implements the following algorithm
      *
+     * If the query is heavy
+     *   Wait for admission (throw an invalid query exception if it is not admitted in time)
+     * If the result of the same query is cached and the table did not change since
+     *   Return the cached results table
      * Parse the query to get the select, from, where and order by clauses and the attribute and table names and condition
      * If the query is not valid
      *   Throw an invalid query exception
      *   Exit
-     * Create a new results schema based with the attributes from the select clause
-     * Create a new result table
-     * For each tuple in the table
-     *   If the tuple matches the where clause condition(s)
-     *     Create a new results tuple using the result schema
-     *     Set the results tuple values to the current tuple corresponding values
-     *     Add the results tuple to the result table
+     * If the select clause has aggregates, project the aggregated attributes instead
+     * Get the compiled plan of the query shape (compile it if it is the first query with this shape)
+     * Create a new result table with the results schema of the plan
+     * If adaptive indexing is on and the where clause is a range condition on an Integer attribute
+     *   Crack the cracker column of the attribute on the bounds of the range (build it if it is stale)
+     *   Charge the positions of the range to the memory budget
+     *   For each position in the range of the cracker column, in table order
+     *     Create a new results tuple from the tuple at the position and add it to the result table
+     *     After each block of positions, charge the results tuples and check the deadline and cancellation
+     *   Skip the block scan below
+     * If the table is partitioned, prune the partitions that cannot hold tuples matching the where clause condition
+     * For each block in the table (of the partitions that were not pruned)
+     *   If the block's zone map shows that no tuple can match the where clause condition
+     *     Skip the block
+     *   For each tuple in the block (in the loop of the compiled plan, or on the encoded values of a compressed table)
+     *     If the tuple matches the where clause condition(s)
+     *       If the select clause has aggregates
+     *         Add the aggregated values of the tuple to the running aggregates (no tuple is stored)
+     *       Else
+     *         Create a new results tuple using the result schema
+     *         Set the results tuple values to the current tuple corresponding values
+     *         Add the results tuple to the result table
+     *   Charge the results tuples to the memory budget and check the deadline and cancellation
+     * If the select clause has aggregates
+     *   Return a table of one tuple holding the aggregate values
+     * Else if there is an order by clause
+     *   Sort the result table on the order by attribute
      * Return results table
      *
      *
@@ -218,7 +463,54 @@ class Database {
      * @throws InvalidQueryException
      */
     public ITable selectData(String query) throws InvalidQueryException {
+        String lowered = query.toLowerCase();
+        boolean heavy = !lowered.contains("where") || lowered.matches("(?s).*\\sorder\\s+by\\s.*");
+
+        if (heavy) {
+            try {
+                if (!this.heavyQueries.tryAcquire(this.admissionWaitMillis, TimeUnit.MILLISECONDS)) {
+                    this.metrics.recordRejectedQuery();
+                    throw new InvalidQueryException("Too many heavy queries are running, try again later.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InvalidQueryException("Interrupted while waiting for admission.");
+            }
+        }
+
         try {
+            return select(query);
+        } finally {
+            if (heavy) this.heavyQueries.release();
+        }
+    }
+
+    /**
+     * Cancels the running select, if any: it fails with an InvalidQueryException at its next check
+     * Can be called from any thread (e.g. through the cancelQuery operation of the JMX metrics)
+     */
+    public void cancelQuery() {
+        QueryContext context = this.runningQuery;
+        if (context != null) context.cancel();
+    }
+
+    // Runs an admitted select (see selectData); its deadline starts once it holds the database
+    private synchronized ITable select(String query) throws InvalidQueryException {
+        QueryContext context = QueryContext.fromProperties();
+        this.runningQuery = context;
+        try {
+            QueryStats stats = startQuery(query);
+            long t = System.nanoTime();
+
+            // Repeated query on unchanged data: return the cached result
+            ITable cached = resultCache.get(query);
+            if (cached != null) {
+                stats.setCacheHit(true);
+                stats.addRowsReturned(cached.getTuples().size());
+                finishQuery(stats);
+                return cached;
+            }
+
             query = query.trim();
 
             // Basic validation
@@ -230,11 +522,29 @@ class Database {
             String selectPart = query.substring(query.toLowerCase().indexOf("select") + 6, query.toLowerCase().indexOf("from")).trim();
             String afterFrom = query.substring(query.toLowerCase().indexOf("from") + 4).trim();
 
-            String[] selectedAttributes = selectPart.split(",");
+            String[] selectedAttributes = splitSelectList(selectPart);
             for (int i = 0; i < selectedAttributes.length; i++) {
                 selectedAttributes[i] = selectedAttributes[i].trim();
             }
 
+            // Aggregates (count, sum, min, max, avg) cannot be mixed with plain attributes
+            List<Aggregate> aggregates = new ArrayList<>();
+            for (String item : selectedAttributes) {
+                Aggregate aggregate = Aggregate.parse(item);
+                if (aggregate != null) aggregates.add(aggregate);
+            }
+            if (!aggregates.isEmpty() && aggregates.size() != selectedAttributes.length) {
+                throw new InvalidQueryException("Aggregates cannot be mixed with attributes.");
+            }
+
+            // Handle optional ORDER BY clause
+            String orderClause = null;
+            String[] orderParts = afterFrom.split("(?i)\\s+order\\s+by\\s+");
+            if (orderParts.length == 2) {
+                afterFrom = orderParts[0].trim();
+                orderClause = orderParts[1].trim();
+            }
+
             String tableName;
             String whereClause = null;
 
@@ -247,157 +557,276 @@ class Database {
                 tableName = afterFrom.trim();
             }
 
-            // Locate the table and schema
-            ITable sourceTable = null;
-            ISchema sourceSchema = null;
-
-            for (ITable t : tables) {
-                if (t.getName().equalsIgnoreCase(tableName)) {
-                    sourceTable = t;
-                    sourceSchema = t.getSchema();
-                    break;
-                }
+            // Handle optional TABLESAMPLE clause: read a percentage of the blocks
+            double samplePercent = -1;
+            long sampleSeed = 0;
+            boolean repeatable = false;
+            Matcher sample = TABLESAMPLE.matcher(tableName);
+            if (sample.matches()) {
+                tableName = sample.group(1);
+                samplePercent = Double.parseDouble(sample.group(2));
+                repeatable = sample.group(3) != null;
+                sampleSeed = repeatable ? Long.parseLong(sample.group(3)) : System.nanoTime();
+                if (samplePercent > 100) throw new InvalidQueryException("TABLESAMPLE percentage must be at most 100.");
             }
 
-            if (sourceTable == null || sourceSchema == null) {
+            Condition condition = whereClause == null ? null : parseCondition(whereClause);
+            t = stats.lap(QueryStats.Phase.PARSE, t);
+
+            // Locate the table (or materialized view) and schema
+            ITable sourceTable = catalog.get(tableName);
+            if (sourceTable == null && views.containsKey(tableName.toLowerCase())) {
+                sourceTable = views.get(tableName.toLowerCase()).getTable();
+            }
+            if (sourceTable == null) {
                 throw new InvalidQueryException("Table not found: " + tableName);
             }
+            ISchema sourceSchema = sourceTable.getSchema();
 
-            // Validate selected attributes
-            List<String> schemaAttrs = new ArrayList<>();
-            for (int i : sourceSchema.getAttributes().keySet()) {
-                schemaAttrs.add(sourceSchema.getName(i));
+            // Validate selected attributes and resolve their positions in the table
+            // (for aggregates, the positions of the aggregated attributes; count(*) reads the first attribute)
+            int[] projection = new int[selectedAttributes.length];
+            for (int i = 0; i < selectedAttributes.length; i++) {
+                String attribute = aggregates.isEmpty() ? selectedAttributes[i] : aggregates.get(i).getAttribute();
+                projection[i] = attribute == null ? 0 : sourceSchema.indexOf(attribute);
+                if (projection[i] == -1) {
+                    throw new InvalidQueryException("Unknown attribute: " + attribute);
+                }
             }
 
-            for (String attr : selectedAttributes) {
-                if (!schemaAttrs.contains(attr)) {
-                    throw new InvalidQueryException("Unknown attribute: " + attr);
+            ISchema aggregateSchema = null;
+            if (!aggregates.isEmpty()) {
+                List<AttributeType> types = new ArrayList<>();
+                for (int i = 0; i < aggregates.size(); i++) {
+                    types.add(aggregates.get(i).getResultType(sourceSchema.getAttributeType(projection[i])));
                 }
+                aggregateSchema = Aggregate.resultSchema(aggregates, types);
             }
 
-            // Build result schema
-            Map<Integer, String> newAttrs = new HashMap<>();
-            int idx = 0;
-            for (int i : sourceSchema.getAttributes().keySet()) {
-                String name = sourceSchema.getName(i);
-                String type = sourceSchema.getType(i);
-                if (Arrays.asList(selectedAttributes).contains(name)) {
-                    newAttrs.put(idx++, name + ":" + type);
+            // Validate the ORDER BY clause: the attribute must be selected
+            int orderIndex = -1;
+            boolean descending = false;
+            if (orderClause != null && aggregates.isEmpty()) {
+                String[] orderTokens = orderClause.split("\\s+");
+                for (int i = 0; i < selectedAttributes.length; i++) {
+                    if (selectedAttributes[i].equalsIgnoreCase(orderTokens[0])) orderIndex = i;
+                }
+                if (orderIndex == -1) {
+                    throw new InvalidQueryException("ORDER BY attribute must be selected: " + orderTokens[0]);
                 }
+                descending = orderTokens.length > 1 && orderTokens[1].equalsIgnoreCase("desc");
             }
 
-            ISchema resultSchema = new Schema(newAttrs);
-            ITable resultTable = new Table("result", resultSchema);
-
-            // Iterate over all tuples in the source table
-            for (ITuple tuple : sourceTable.getTuples()) {
-
-                boolean match = true;
-
-                // If there's a WHERE clause, evaluate the condition
-                if (whereClause != null) {
-                    // Support simple format: attr = value
-                    String[] ops;
-                    String operator = null;
-
-                    // Identify which operator is used
-                    if (whereClause.contains("!=")) {
-                        ops = whereClause.split("!=");
-                        operator = "!=";
-                    } else if (whereClause.contains(">=")) {
-                        ops = whereClause.split(">=");
-                        operator = ">=";
-                    } else if (whereClause.contains("<=")) {
-                        ops = whereClause.split("<=");
-                        operator = "<=";
-                    } else if (whereClause.contains("=")) {
-                        ops = whereClause.split("=");
-                        operator = "=";
-                    } else if (whereClause.contains(">")) {
-                        ops = whereClause.split(">");
-                        operator = ">";
-                    } else if (whereClause.contains("<")) {
-                        ops = whereClause.split("<");
-                        operator = "<";
-                    } else {
-                        throw new InvalidQueryException("Unsupported WHERE operator.");
-                    }
+            // Validate the WHERE clause and convert its value to the attribute type
+            int lhsIndex = -1;
+            AttributeType lhsType = null;
+            Object rhsValue = null;
 
-                    if (ops.length != 2) {
-                        throw new InvalidQueryException("Malformed WHERE clause.");
-                    }
+            if (condition != null) {
+                lhsIndex = sourceSchema.indexOf(condition.getOperand1());
+                if (lhsIndex == -1) throw new InvalidQueryException("Unknown attribute in WHERE: " + condition.getOperand1());
+                lhsType = sourceSchema.getAttributeType(lhsIndex);
+                rhsValue = parseOperand(lhsType, condition.getOperand2());
+            }
+            t = stats.lap(QueryStats.Phase.VALIDATE, t);
+
+            // Approximate aggregates over the whole table: answer from the table's sketches without a scan
+            if (aggregateSchema != null && condition == null && samplePercent < 0 && Aggregate.isSketchable(aggregates)) {
+                ITable result = Aggregate.computeFromSketch(aggregates, projection, sketch(sourceTable), aggregateSchema);
+                stats.addRowsReturned(1);
+                stats.lap(QueryStats.Phase.PROJECT, t);
+                finishQuery(stats);
+                return result;
+            }
 
-                    String lhs = ops[0].trim();
-                    String rhs = ops[1].trim().replaceAll("^'|'$", ""); // remove quotes
+            // Equality on a dictionary encoded attribute compares codes instead of strings
+            Dictionary dictionary = null;
+            int rhsCode = -1;
+            if (condition != null && lhsType == AttributeType.STRING) {
+                dictionary = sourceTable instanceof IEncodedTable encoded ? encoded.getDictionary(lhsIndex) : null;
+                if (dictionary != null) rhsCode = dictionary.codeOf((String) rhsValue);
+            }
 
-                    int lhsIndex = -1;
-                    String lhsType = null;
+            // Compile the shape of the query, or reuse the plan of a previous query with the same shape
+            String operator = condition == null ? null : condition.getOperator();
+            CompiledSelect compiled = null;
+            if (COMPILE_SELECTS) {
+                String shape = CompiledSelect.shapeKey(sourceTable.getName(), projection, lhsIndex, operator, dictionary != null);
+                compiled = compiledSelects.get(shape);
+                if (compiled == null) {
+                    compiled = CompiledSelect.compile(sourceSchema, projection, lhsIndex, operator, dictionary != null);
+                    compiledSelects.put(shape, compiled);
+                }
+            }
 
-                    for (int i : sourceSchema.getAttributes().keySet()) {
-                        if (sourceSchema.getName(i).equals(lhs)) {
-                            lhsIndex = i;
-                            lhsType = sourceSchema.getType(i);
-                            break;
-                        }
-                    }
+            // A condition on an Integer attribute of a compressed table is evaluated on the encoded blocks
+            // (in the loop below, instead of the compiled plan)
+            CompressedTable compressed = condition != null && lhsType == AttributeType.INTEGER
+                    && sourceTable instanceof CompressedTable table ? table : null;
+            if (compressed != null) {
+                compiled = null;
+            }
 
-                    if (lhsIndex == -1) throw new InvalidQueryException("Unknown attribute in WHERE: " + lhs);
-
-                    Object leftVal = tuple.getValue(lhsIndex);
-
-                    // Evaluate condition
-                    switch (lhsType) {
-                        case "Integer":
-                            int lInt = (Integer) leftVal;
-                            int rInt = Integer.parseInt(rhs);
-                            match = switch (operator) {
-                                case "=" -> lInt == rInt;
-                                case "!=" -> lInt != rInt;
-                                case ">" -> lInt > rInt;
-                                case "<" -> lInt < rInt;
-                                case ">=" -> lInt >= rInt;
-                                case "<=" -> lInt <= rInt;
-                                default -> throw new InvalidQueryException("Invalid operator for Integer");
-                            };
-                            break;
-
-                        case "String":
-                            String lStr = (String) leftVal;
-                            match = switch (operator) {
-                                case "=" -> lStr.equals(rhs);
-                                case "!=" -> !lStr.equals(rhs);
-                                default -> throw new InvalidQueryException("Only = and != supported for Strings");
-                            };
-                            break;
-
-                        default:
-                            throw new InvalidQueryException("Unsupported type: " + lhsType);
+            // A condition on an off-heap table is evaluated in its buffers, without reading the tuples
+            OffHeapTable offHeap = condition != null && sourceTable instanceof OffHeapTable table ? table : null;
+            if (offHeap != null) {
+                compiled = null;
+            }
+
+            // Aggregates are computed in the loop below as the matching tuples are found: no tuple is stored
+            Aggregate.Accumulator[] accumulators = null;
+            if (aggregateSchema != null) {
+                compiled = null;
+                accumulators = new Aggregate.Accumulator[aggregates.size()];
+                for (int i = 0; i < accumulators.length; i++) {
+                    accumulators[i] = aggregates.get(i).newAccumulator();
+                }
+            }
+
+            // Build result schema (attributes in the order of the select clause)
+            ISchema resultSchema;
+            if (compiled != null) {
+                resultSchema = compiled.getResultSchema();
+            } else {
+                Map<Integer, String> newAttrs = new HashMap<>();
+                for (int i = 0; i < projection.length; i++) {
+                    newAttrs.put(i, sourceSchema.getName(projection[i]) + ":" + sourceSchema.getType(projection[i]));
+                }
+                resultSchema = new Schema(newAttrs);
+            }
+            ITable resultTable = new ResultTable("result", resultSchema);
+
+            // Adaptive indexing: a range condition on an Integer attribute reads the matching positions from the
+            // cracker column of the attribute (cracking it on the range bounds) instead of scanning the blocks
+            boolean crack = ADAPTIVE_INDEXING && condition != null && lhsType == AttributeType.INTEGER
+                    && !operator.equals("!=") && samplePercent < 0;
+            List<ZoneMap> zoneMaps = crack ? List.of() : zoneMaps(sourceTable, lhsIndex, operator, rhsValue, stats);
+            List<ITuple> tuples = sourceTable.getTuples();
+            long version = sourceTable.getVersion();
+            int[] matches = new int[ZoneMap.BLOCK_SIZE];
+            t = stats.lap(QueryStats.Phase.PLAN, t);
+
+            if (crack) {
+                CrackerColumn column = cracker(sourceTable, lhsIndex);
+                int[] range = column.range(operator, (Integer) rhsValue, stats);
+                context.charge(4L * (range[1] - range[0]));
+                context.check();
+                int[] positions = column.positions(range[0], range[1]);
+                stats.addRowsScanned(positions.length);
+                t = stats.lap(QueryStats.Phase.FILTER, t);
+
+                // Project the positions one block at a time, charging and checking after each block
+                for (int from = 0; from < positions.length; from += ZoneMap.BLOCK_SIZE) {
+                    int to = Math.min(from + ZoneMap.BLOCK_SIZE, positions.length);
+                    for (int p = from; p < to; p++) {
+                        project(tuples.get(positions[p]), projection, resultTable, accumulators);
                     }
+                    stats.addRowsReturned(to - from);
+                    if (accumulators == null) context.charge(QueryContext.tupleBytes(to - from, projection.length));
+                    context.check();
                 }
+                t = stats.lap(QueryStats.Phase.PROJECT, t);
+            }
 
-                if (match) {
-                    // Build a result tuple from selected attributes
-                    Tuple newTuple = new Tuple(resultSchema);
-                    Object[] newVals = new Object[selectedAttributes.length];
+            // Iterate over the blocks of the source table, skipping the ones that cannot match or are not sampled
+            for (ZoneMap zone : zoneMaps) {
+                if (samplePercent >= 0 && !sampled(sampleSeed, zone.getStart(), samplePercent)) {
+                    stats.addBlockSkipped();
+                    continue;
+                }
+                if (condition != null && !zone.mightMatch(lhsIndex, condition.getOperator(), rhsValue)) {
+                    stats.addBlockSkipped();
+                    continue;
+                }
+                stats.addBlockRead();
+                stats.addRowsScanned(zone.getCount());
+                t = stats.lap(QueryStats.Phase.SCAN, t);
+
+                if (compiled != null) {
+                    // Filter and project in the compiled loop
+                    int added = compiled.scan(sourceTable, tuples, zone.getStart(), zone.getEnd(), rhsValue, rhsCode, resultTable);
+                    stats.addRowsReturned(added);
+                    context.charge(QueryContext.tupleBytes(added, projection.length));
+                    context.check();
+                    t = stats.lap(QueryStats.Phase.FILTER, t);
+                    continue;
+                }
 
-                    for (int i = 0; i < selectedAttributes.length; i++) {
-                        for (int j : sourceSchema.getAttributes().keySet()) {
-                            if (sourceSchema.getName(j).equals(selectedAttributes[i])) {
-                                newVals[i] = tuple.getValue(j);
-                            }
-                        }
+                // Filter: collect the positions of the tuples of the block matching the WHERE clause
+                int matchCount = 0;
+                boolean filtered = compressed != null || offHeap != null;
+                if (compressed != null) {
+                    matchCount = compressed.filter(zone.getStart() / ZoneMap.BLOCK_SIZE, lhsIndex, operator, (Integer) rhsValue, matches);
+                } else if (offHeap != null) {
+                    matchCount = offHeap.filter(zone.getStart(), zone.getEnd(), lhsIndex, operator, rhsValue, matches);
+                }
+                for (int r = zone.getStart(); r < zone.getEnd() && !filtered; r++) {
+                    boolean match;
+                    if (condition == null) {
+                        match = true;
+                    } else if (dictionary != null) {
+                        match = evaluateCode(((IEncodedTable) sourceTable).getCode(r, lhsIndex), condition.getOperator(), rhsCode);
+                    } else {
+                        match = evaluate(tuples.get(r).getValue(lhsIndex), lhsType, condition.getOperator(), rhsValue);
+                    }
+
+                    if (match) {
+                        matches[matchCount++] = r;
                     }
+                }
+                t = stats.lap(QueryStats.Phase.FILTER, t);
 
-                    newTuple.setValues(newVals);
-                    resultTable.addTuple(newTuple);
+                // Project: build a result tuple from selected attributes of each matching tuple (or aggregate them)
+                for (int m = 0; m < matchCount; m++) {
+                    project(tuples.get(matches[m]), projection, resultTable, accumulators);
                 }
+                stats.addRowsReturned(matchCount);
+                if (accumulators == null) context.charge(QueryContext.tupleBytes(matchCount, projection.length));
+                context.check();
+                t = stats.lap(QueryStats.Phase.PROJECT, t);
             }
+            t = stats.lap(QueryStats.Phase.SCAN, t);
+
+            // Aggregate or sort the result
+            if (accumulators != null) {
+                resultTable = Aggregate.result(accumulators, aggregateSchema);
+            } else if (orderIndex != -1) {
+                context.charge(8L * resultTable.getTuples().size());
+                List<ITuple> sorted = new ArrayList<>(resultTable.getTuples());
+                Comparator<ITuple> order = orderComparator(orderIndex);
+                sorted.sort(descending ? order.reversed() : order);
+                resultTable.setTuples(sorted);
+            }
+            stats.lap(QueryStats.Phase.PROJECT, t);
 
+            // A sample without a seed is different every time: it is not cached
+            if (samplePercent < 0 || repeatable) {
+                resultCache.put(query, sourceTable, version, resultTable);
+            }
+            finishQuery(stats);
             return resultTable;
 
         } catch (Exception e) {
             throw new InvalidQueryException("SELECT failed: " + e.getMessage());
+        } finally {
+            this.runningQuery = null;
+        }
+    }
+
+    // Adds a matching tuple to the result: its projected values as a result tuple, or to the aggregates
+    private static void project(ITuple tuple, int[] projection, ITable resultTable, Aggregate.Accumulator[] accumulators) {
+        if (accumulators != null) {
+            for (int i = 0; i < projection.length; i++) {
+                accumulators[i].add(tuple.getValue(projection[i]));
+            }
+            return;
+        }
+        Tuple newTuple = new Tuple(resultTable.getSchema());
+        Object[] newVals = newTuple.getValues();
+        for (int i = 0; i < projection.length; i++) {
+            newVals[i] = tuple.getValue(projection[i]);
         }
+        resultTable.addTuple(newTuple);
     }
 
     /**
@@ -413,19 +842,28 @@ class Database {
      *   Exit
      * If where clause is not empty
      *   Parse the where clause to get the the condition
-     *   For each tuple in the table
-     *     If the where clause condition is true
-     *       Remove the tuple from the table
+     *   If the table is partitioned, keep the partitions that cannot hold tuples matching the condition
+     *   For each block in the table (of the other partitions)
+     *     If the block's zone map shows that no tuple can match the condition
+     *       Keep the whole block
+     *     Else for each tuple in the block
+     *       If the where clause condition is true
+     *         Remove the tuple from the table
      * Else
      *   For each tuple in the table
      *     Remove the tuple from the table
-     * Write the table to the file
+     * Write the positions of the removed tuples to the table's log (before the table is changed; deleting
+     *   everything writes a checkpoint of the empty table instead)
+     * Remove the removed tuples from the materialized views of the table
+     * Publish the removed tuples to the change feed
      *
      * @param query
      * @throws InvalidQueryException
      */
-    public void deleteData(String query) throws InvalidQueryException {
+    public synchronized void deleteData(String query) throws InvalidQueryException {
         try {
+            QueryStats stats = startQuery(query);
+            long t = System.nanoTime();
             query = query.trim();
 
             // Basic check
@@ -448,125 +886,1016 @@ class Database {
                 tableName = clause.trim();
             }
 
+            Condition condition = whereClause == null ? null : parseCondition(whereClause);
+            t = stats.lap(QueryStats.Phase.PARSE, t);
+
             // Locate the table and schema
-            ITable targetTable = null;
-            ISchema schema = null;
-
-            for (ITable t : tables) {
-                if (t.getName().equalsIgnoreCase(tableName)) {
-                    targetTable = t;
-                    schema = t.getSchema();
-                    break;
+            ITable targetTable = catalog.get(tableName);
+            if (targetTable == null) {
+                throw new InvalidQueryException("Table not found: " + tableName);
+            }
+            ISchema schema = targetTable.getSchema();
+
+            // Validate the WHERE clause and convert its value to the attribute type
+            int lhsIndex = -1;
+            AttributeType lhsType = null;
+            Object rhsValue = null;
+
+            if (condition != null) {
+                lhsIndex = schema.indexOf(condition.getOperand1());
+                if (lhsIndex == -1) throw new InvalidQueryException("Unknown attribute in WHERE: " + condition.getOperand1());
+                lhsType = schema.getAttributeType(lhsIndex);
+                rhsValue = parseOperand(lhsType, condition.getOperand2());
+            }
+            t = stats.lap(QueryStats.Phase.VALIDATE, t);
+
+            // Equality on a dictionary encoded attribute compares codes instead of strings
+            Dictionary dictionary = null;
+            int rhsCode = -1;
+            if (condition != null && lhsType == AttributeType.STRING) {
+                dictionary = targetTable instanceof IEncodedTable encoded ? encoded.getDictionary(lhsIndex) : null;
+                if (dictionary != null) rhsCode = dictionary.codeOf((String) rhsValue);
+            }
+
+            // A condition on an off-heap table is evaluated in its buffers
+            OffHeapTable offHeap = condition != null && targetTable instanceof OffHeapTable table ? table : null;
+            int[] matches = new int[ZoneMap.BLOCK_SIZE];
+
+            List<ITuple> original = targetTable.getTuples();
+            List<ITuple> toKeep = new ArrayList<>();
+            List<Integer> deleted = new ArrayList<>();
+            List<ITuple> removed = new ArrayList<>();
+            t = stats.lap(QueryStats.Phase.PLAN, t);
+
+            // No WHERE clause: delete everything (i.e., keep nothing)
+            if (condition != null) {
+                List<ZoneMap> zoneMaps = zoneMaps(targetTable, lhsIndex, condition.getOperator(), rhsValue, stats);
+                int covered = 0;    // Tuples before this position are already kept or deleted
+                for (ZoneMap zone : zoneMaps) {
+                    // The tuples of pruned partitions (before the block) are kept
+                    toKeep.addAll(original.subList(covered, zone.getStart()));
+                    covered = zone.getEnd();
+
+                    // A block that cannot match is kept as a whole
+                    if (!zone.mightMatch(lhsIndex, condition.getOperator(), rhsValue)) {
+                        stats.addBlockSkipped();
+                        toKeep.addAll(original.subList(zone.getStart(), zone.getEnd()));
+                        continue;
+                    }
+                    stats.addBlockRead();
+                    stats.addRowsScanned(zone.getCount());
+
+                    int matchCount = offHeap == null ? 0
+                            : offHeap.filter(zone.getStart(), zone.getEnd(), lhsIndex, condition.getOperator(), rhsValue, matches);
+                    int m = 0;      // Next match of the off-heap filter
+                    for (int r = zone.getStart(); r < zone.getEnd(); r++) {
+                        ITuple tuple = original.get(r);
+
+                        boolean match;
+                        if (offHeap != null) {
+                            match = m < matchCount && matches[m] == r;
+                            if (match) m++;
+                        } else if (dictionary != null) {
+                            match = evaluateCode(((IEncodedTable) targetTable).getCode(r, lhsIndex), condition.getOperator(), rhsCode);
+                        } else {
+                            match = evaluate(tuple.getValue(lhsIndex), lhsType, condition.getOperator(), rhsValue);
+                        }
+
+                        // If it doesn't match the condition, keep it
+                        if (!match) {
+                            toKeep.add(tuple);
+                        } else {
+                            deleted.add(r);
+                            removed.add(tuple);
+                        }
+                    }
                 }
+                toKeep.addAll(original.subList(covered, original.size()));
             }
 
-            if (targetTable == null || schema == null) {
+            stats.addRowsScanned(condition == null ? original.size() : 0);
+            stats.addRowsReturned(original.size() - toKeep.size());
+            t = stats.lap(QueryStats.Phase.FILTER, t);
+
+            // Positions of the deleted tuples in the files storing them (before the tuples are replaced)
+            Map<ITable, List<Integer>> deletedRows = storageRows(targetTable, deleted);
+
+            // Copies of the deleted tuples for the materialized views and the change feed (tuples of off-heap and
+            // compressed tables only read their values while the table is not replaced)
+            if (!viewsOn(targetTable).isEmpty() || changeFeed != null) {
+                removed = detach(condition == null ? original : removed, schema);
+            }
+
+            // Log the positions of the deleted tuples first: a delete that cannot be logged changes nothing
+            if (persistent && condition != null && !deleted.isEmpty()) {
+                for (Map.Entry<ITable, List<Integer>> rows : deletedRows.entrySet()) {
+                    if (!IO.writeDelete(rows.getKey().getName(), rows.getValue(), folderName)) {
+                        throw new InvalidQueryException("Cannot write the log of " + rows.getKey().getName());
+                    }
+                }
+            }
+
+            // Replace table's tuples with filtered list (deleting everything is a checkpoint of the empty table)
+            targetTable.setTuples(toKeep);
+            if (persistent && condition == null && !checkpoint(targetTable)) {
+                throw new InvalidQueryException("Checkpoint of " + targetTable.getName() + " failed.");
+            }
+            for (MaterializedView view : viewsOn(targetTable)) {
+                view.delete(removed);
+            }
+            if (changeFeed != null) {
+                changeFeed.publish(targetTable.getName(), ChangeEvent.Type.DELETE, images(removed), null);
+            }
+            if (persistent && condition != null) {
+                for (ITable changed : deletedRows.keySet()) {
+                    checkpointIfNeeded(changed);
+                }
+            }
+            stats.lap(QueryStats.Phase.OUTPUT, t);
+
+            finishQuery(stats);
+            replicate(query);
+
+        } catch (Exception e) {
+            throw new InvalidQueryException("DELETE failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Updates data in a table
+     * If the query in not valid, throws an InvalidQueryException
+     * The query has the form: update table set attr1 = value1, attr2 = value2 [where condition]
+     *
+     * Implements the following algorithm
+     *
+     * Parse the query to get the table name, the set clause and the where clause
+     * Parse the set clause to get the attribute names and new values
+     * If the query in not valid
+     *   Throw an invalid query exception
+     *   Exit
+     * For each block in the table (of the partitions the where clause condition does not prune)
+     *   If the block's zone map shows that no tuple can match the where clause condition
+     *     Skip the block
+     *   For each tuple in the block
+     *     If the where clause condition is true (or there is no where clause)
+     *       Make a copy of the tuple with the new values of the attributes in the set clause
+     * Append the updated tuples to the table's log (if it cannot be written, the table is left unchanged)
+     * Set the tuple values of the attributes in the set clause
+     * Apply the update to the materialized views of the table (as the deletion of the old tuples and the insertion of the new ones)
+     * Publish the old and new tuples to the change feed
+     *
+     * @param query
+     * @throws InvalidQueryException
+     */
+    public synchronized void updateData(String query) throws InvalidQueryException {
+        try {
+            QueryStats stats = startQuery(query);
+            long t = System.nanoTime();
+            query = query.trim();
+
+            // Basic check
+            String lowered = query.toLowerCase();
+            int setStart = lowered.indexOf(" set ");
+            if (!lowered.startsWith("update") || setStart == -1) {
+                throw new InvalidQueryException("Missing UPDATE or SET clause.");
+            }
+
+            String tableName = query.substring("update".length(), setStart).trim();
+            String setClause;
+            String whereClause = null;
+
+            // Check for WHERE clause
+            int whereStart = lowered.indexOf(" where ", setStart);
+            if (whereStart != -1) {
+                setClause = query.substring(setStart + 5, whereStart).trim();
+                whereClause = query.substring(whereStart + 7).trim();
+            } else {
+                setClause = query.substring(setStart + 5).trim();
+            }
+
+            // Parse assignments: attr = value, ...
+            String[] assignments = setClause.split(",");
+            String[] setNames = new String[assignments.length];
+            String[] setValues = new String[assignments.length];
+            for (int i = 0; i < assignments.length; i++) {
+                int eq = assignments[i].indexOf("=");
+                if (eq == -1) throw new InvalidQueryException("Malformed SET clause: " + assignments[i].trim());
+                setNames[i] = assignments[i].substring(0, eq).trim();
+                setValues[i] = assignments[i].substring(eq + 1).trim().replaceAll("^'|'$", "");
+            }
+
+            Condition condition = whereClause == null ? null : parseCondition(whereClause);
+            t = stats.lap(QueryStats.Phase.PARSE, t);
+
+            // Locate the table and schema
+            ITable targetTable = catalog.get(tableName);
+            if (targetTable == null) {
                 throw new InvalidQueryException("Table not found: " + tableName);
             }
+            ISchema schema = targetTable.getSchema();
+
+            // Validate the assigned attributes and convert the new values to their types
+            int[] setIndexes = new int[setNames.length];
+            Object[] newValues = new Object[setNames.length];
+            for (int i = 0; i < setNames.length; i++) {
+                setIndexes[i] = schema.indexOf(setNames[i]);
+                if (setIndexes[i] == -1) throw new InvalidQueryException("Unknown attribute: " + setNames[i]);
+                newValues[i] = parseOperand(schema.getAttributeType(setIndexes[i]), setValues[i]);
+                if (targetTable instanceof PartitionedTable partitioned && setIndexes[i] == partitioned.getKeyIndex()) {
+                    throw new InvalidQueryException("Cannot update the partition key: " + setNames[i]);
+                }
+            }
 
-            List<ITuple> original = new ArrayList<>(targetTable.getTuples());
-            List<ITuple> toKeep = new ArrayList<>();
+            // Validate the WHERE clause and convert its value to the attribute type
+            int lhsIndex = -1;
+            AttributeType lhsType = null;
+            Object rhsValue = null;
+
+            if (condition != null) {
+                lhsIndex = schema.indexOf(condition.getOperand1());
+                if (lhsIndex == -1) throw new InvalidQueryException("Unknown attribute in WHERE: " + condition.getOperand1());
+                lhsType = schema.getAttributeType(lhsIndex);
+                rhsValue = parseOperand(lhsType, condition.getOperand2());
+            }
+            t = stats.lap(QueryStats.Phase.VALIDATE, t);
+
+            // Equality on a dictionary encoded attribute compares codes instead of strings
+            Dictionary dictionary = null;
+            int rhsCode = -1;
+            if (condition != null && lhsType == AttributeType.STRING) {
+                dictionary = targetTable instanceof IEncodedTable encoded ? encoded.getDictionary(lhsIndex) : null;
+                if (dictionary != null) rhsCode = dictionary.codeOf((String) rhsValue);
+            }
 
-            for (ITuple tuple : original) {
-                boolean match = false;
-
-                if (whereClause != null) {
-                    // Support format: attr = value
-                    String[] ops;
-                    String operator = null;
-
-                    if (whereClause.contains("!=")) {
-                        ops = whereClause.split("!=");
-                        operator = "!=";
-                    } else if (whereClause.contains(">=")) {
-                        ops = whereClause.split(">=");
-                        operator = ">=";
-                    } else if (whereClause.contains("<=")) {
-                        ops = whereClause.split("<=");
-                        operator = "<=";
-                    } else if (whereClause.contains("=")) {
-                        ops = whereClause.split("=");
-                        operator = "=";
-                    } else if (whereClause.contains(">")) {
-                        ops = whereClause.split(">");
-                        operator = ">";
-                    } else if (whereClause.contains("<")) {
-                        ops = whereClause.split("<");
-                        operator = "<";
+            List<ZoneMap> zoneMaps = zoneMaps(targetTable, lhsIndex, condition == null ? null : condition.getOperator(), rhsValue, stats);
+            List<ITuple> tuples = targetTable.getTuples();
+            List<Integer> updatedRows = new ArrayList<>();
+            OffHeapTable offHeap = condition != null && targetTable instanceof OffHeapTable table ? table : null;
+            int[] matches = new int[ZoneMap.BLOCK_SIZE];
+            t = stats.lap(QueryStats.Phase.PLAN, t);
+
+            // Find the matching tuples, skipping the blocks that cannot match
+            for (ZoneMap zone : zoneMaps) {
+                if (condition != null && !zone.mightMatch(lhsIndex, condition.getOperator(), rhsValue)) {
+                    stats.addBlockSkipped();
+                    continue;
+                }
+                stats.addBlockRead();
+                stats.addRowsScanned(zone.getCount());
+
+                // A condition on an off-heap table is evaluated in its buffers
+                if (offHeap != null) {
+                    int matchCount = offHeap.filter(zone.getStart(), zone.getEnd(), lhsIndex, condition.getOperator(), rhsValue, matches);
+                    for (int m = 0; m < matchCount; m++) {
+                        updatedRows.add(matches[m]);
+                    }
+                    continue;
+                }
+
+                for (int r = zone.getStart(); r < zone.getEnd(); r++) {
+                    boolean match;
+                    if (condition == null) {
+                        match = true;
+                    } else if (dictionary != null) {
+                        match = evaluateCode(((IEncodedTable) targetTable).getCode(r, lhsIndex), condition.getOperator(), rhsCode);
                     } else {
-                        throw new InvalidQueryException("Unsupported WHERE operator.");
+                        match = evaluate(tuples.get(r).getValue(lhsIndex), lhsType, condition.getOperator(), rhsValue);
                     }
 
-                    if (ops.length != 2) {
-                        throw new InvalidQueryException("Malformed WHERE clause.");
+                    if (match) {
+                        updatedRows.add(r);
                     }
+                }
+            }
+            t = stats.lap(QueryStats.Phase.FILTER, t);
+
+            // Build the new tuples (and keep a copy of the old ones for the materialized views and the change feed)
+            List<MaterializedView> viewed = viewsOn(targetTable);
+            List<ITuple> before = new ArrayList<>();
+            List<ITuple> updated = new ArrayList<>(updatedRows.size());
+            for (int r : updatedRows) {
+                ITuple tuple = tuples.get(r);
+                if (!viewed.isEmpty() || changeFeed != null) {
+                    before.add(new Tuple(schema, tuple.getValues()));
+                }
+                Tuple image = new Tuple(schema, tuple.getValues());
+                for (int i = 0; i < setIndexes.length; i++) {
+                    image.setValue(setIndexes[i], newValues[i]);
+                }
+                updated.add(image);
+            }
+            stats.addRowsReturned(updatedRows.size());
+            t = stats.lap(QueryStats.Phase.PROJECT, t);
+
+            // Log the updated tuples before modifying the table: an update that cannot be logged changes nothing
+            Map<ITable, List<Integer>> storage = persistent && !updatedRows.isEmpty() ? storageRows(targetTable, updatedRows) : Map.of();
+            int next = 0;   // The updated tuples of each partition follow those of the previous one
+            for (Map.Entry<ITable, List<Integer>> rows : storage.entrySet()) {
+                int count = rows.getValue().size();
+                if (!IO.writeUpdates(rows.getKey().getName(), rows.getValue(), updated.subList(next, next + count), folderName)) {
+                    throw new InvalidQueryException("Cannot write the log of " + rows.getKey().getName());
+                }
+                next += count;
+            }
+
+            // Modify the matching tuples in place (after the scan, so that zone maps stay valid while scanning)
+            for (int r : updatedRows) {
+                ITuple tuple = tuples.get(r);
+                for (int i = 0; i < setIndexes.length; i++) {
+                    tuple.setValue(setIndexes[i], newValues[i]);
+                }
+                targetTable.refreshTuple(r);
+            }
+            for (MaterializedView view : viewed) {
+                view.update(before, updated);
+            }
+            if (changeFeed != null) {
+                changeFeed.publish(targetTable.getName(), ChangeEvent.Type.UPDATE, images(before), images(updated));
+            }
+            for (ITable changed : storage.keySet()) {
+                checkpointIfNeeded(changed);
+            }
+            stats.lap(QueryStats.Phase.OUTPUT, t);
 
-                    String lhs = ops[0].trim();
-                    String rhs = ops[1].trim().replaceAll("^'|'$", "");
+            finishQuery(stats);
+            replicate(query);
 
-                    int lhsIndex = -1;
-                    String lhsType = null;
+        } catch (Exception e) {
+            throw new InvalidQueryException("UPDATE failed: " + e.getMessage());
+        }
+    }
 
-                    for (int i : schema.getAttributes().keySet()) {
-                        if (schema.getName(i).equals(lhs)) {
-                            lhsIndex = i;
-                            lhsType = schema.getType(i);
-                            break;
-                        }
-                    }
+    /**
+     * Creates a new (empty) table
+     * The query has the form: create table tablename (attr1:Type1, attr2:Type2, ...)
+     * (attributes may also be written as "attr Type")
+     *
+     * Implements the following algorithm
+     *
+     * Parse the query to get the table definition
+     * If the definition is not valid or a table with the same name exists
+     *   Throw an invalid query exception
+     *   Exit
+     * Add the schema and the empty table to the database
+     * Write the schema file and an empty csv file for the table
+     *
+     * @param query
+     * @throws InvalidQueryException
+     */
+    public synchronized void createTable(String query) throws InvalidQueryException {
+        query = query.trim();
+        if (!query.toLowerCase().startsWith("create table")) {
+            throw new InvalidQueryException("Missing CREATE TABLE clause.");
+        }
+
+        ITable table = IO.parseTableDefinition(query.substring("create table".length()).trim());
+        if (catalog.contains(table.getName()) || views.containsKey(table.getName().toLowerCase())) {
+            throw new InvalidQueryException("Table already exists: " + table.getName());
+        }
+
+        addSchema(table.getSchema());
+        addTable(table);
+
+        if (persistent) {
+            IO.writeSchema(catalog.getTables(), schemaFileName, folderName);
+            checkpoint(table);
+        }
+        replicate(query);
+    }
+
+    /**
+     * Drops a table and its data
+     * The query has the form: drop table tablename
+     *
+     * Implements the following algorithm
+     *
+     * Parse the query to get the table name
+     * If the table does not exist or materialized views read it
+     *   Throw an invalid query exception
+     *   Exit
+     * Remove the table and its schema from the database
+     * Write the schema file and delete the table's files
+     *
+     * @param query
+     * @throws InvalidQueryException
+     */
+    public synchronized void dropTable(String query) throws InvalidQueryException {
+        query = query.trim();
+        if (!query.toLowerCase().startsWith("drop table")) {
+            throw new InvalidQueryException("Missing DROP TABLE clause.");
+        }
+
+        String tableName = query.substring("drop table".length()).trim();
+        ITable table = catalog.get(tableName);
+        if (table == null) {
+            throw new InvalidQueryException("Table not found: " + tableName);
+        }
+        if (!viewsOn(table).isEmpty()) {
+            throw new InvalidQueryException("Materialized view " + viewsOn(table).get(0).getName() + " reads " + table.getName() + ": drop it first.");
+        }
+        catalog.remove(tableName);
+
+        schemas.remove(table.getSchema());
+        resultCache.clear();
+        compiledSelects.clear();
+        sketches.remove(table.getName().toLowerCase());
+        crackers.keySet().removeIf(key -> key.startsWith(table.getName().toLowerCase() + "."));
+
+        if (persistent) {
+            IO.writeSchema(catalog.getTables(), schemaFileName, folderName);
+            for (ITable storage : storageTables(table)) {
+                deleteStorage(storage);
+            }
+        }
+        replicate(query);
+    }
 
-                    if (lhsIndex == -1) throw new InvalidQueryException("Unknown attribute in WHERE: " + lhs);
-
-                    Object leftVal = tuple.getValue(lhsIndex);
-
-                    switch (lhsType) {
-                        case "Integer":
-                            int lInt = (Integer) leftVal;
-                            int rInt = Integer.parseInt(rhs);
-                            match = switch (operator) {
-                                case "=" -> lInt == rInt;
-                                case "!=" -> lInt != rInt;
-                                case ">" -> lInt > rInt;
-                                case "<" -> lInt < rInt;
-                                case ">=" -> lInt >= rInt;
-                                case "<=" -> lInt <= rInt;
-                                default -> throw new InvalidQueryException("Invalid operator for Integer");
-                            };
-                            break;
-
-                        case "String":
-                            String lStr = (String) leftVal;
-                            match = switch (operator) {
-                                case "=" -> lStr.equals(rhs);
-                                case "!=" -> !lStr.equals(rhs);
-                                default -> throw new InvalidQueryException("Only = and != supported for Strings");
-                            };
-                            break;
-
-                        default:
-                            throw new InvalidQueryException("Unsupported type: " + lhsType);
+    /**
+     * Drops or attaches a partition of a partitioned table
+     * The query has the form: alter table tablename drop partition name
+     *                      or: alter table tablename attach partition name bounds
+     * (the bounds or values are written as in the partitioning clause, see PartitionedTable)
+     *
+     * Implements the following algorithm
+     *
+     * Parse the query to get the table name, the action and the partition
+     * If the table is not partitioned or the partition is not valid
+     *   Throw an invalid query exception
+     *   Exit
+     * If drop partition
+     *   Remove the partition and its tuples from the table and delete its files
+     *   Publish the removed tuples to the change feed
+     * Else (attach partition)
+     *   If the folder has a csv file for the partition (tablename.partition.csv), read it
+     *     If a tuple does not belong to the partition, throw an invalid query exception
+     *   Add the partition to the table (and publish the tuples read to the change feed)
+     *   Move the tuples of the default list partition whose key belongs to the new partition to it
+     *     (and write a checkpoint of both partitions)
+     * Write the schema file
+     * Compute the materialized views of the table again
+     *
+     * @param query
+     * @throws InvalidQueryException
+     */
+    public synchronized void alterTable(String query) throws InvalidQueryException {
+        query = query.trim();
+        String[] tokens = query.split("\\s+", 6);
+        if (tokens.length != 6 || !tokens[0].equalsIgnoreCase("alter") || !tokens[1].equalsIgnoreCase("table")
+                || !tokens[4].equalsIgnoreCase("partition")) {
+            throw new InvalidQueryException("Expected ALTER TABLE name DROP|ATTACH PARTITION partition.");
+        }
+
+        if (!(catalog.get(tokens[2]) instanceof PartitionedTable table)) {
+            throw new InvalidQueryException("Not a partitioned table: " + tokens[2]);
+        }
+
+        boolean bulkLoaded = false;
+        if (tokens[3].equalsIgnoreCase("drop")) {
+            if (table.getPartition(tokens[5]) == null) {
+                throw new InvalidQueryException("Partition not found: " + tokens[5]);
+            }
+            if (table.getPartitions().size() == 1) {
+                throw new InvalidQueryException("Cannot drop the last partition of " + table.getName());
+            }
+            PartitionedTable.Partition partition = table.removePartition(tokens[5]);
+            if (changeFeed != null) {
+                changeFeed.publish(table.getName(), ChangeEvent.Type.DELETE, images(partition.getTable().getTuples()), null);
+            }
+            if (persistent) {
+                IO.writeSchema(catalog.getTables(), schemaFileName, folderName);
+                deleteStorage(partition.getTable());
+            }
+
+        } else if (tokens[3].equalsIgnoreCase("attach")) {
+            PartitionedTable.Partition partition = table.parsePartition(tokens[5]);
+            String storageName = partition.getTable().getName();
+
+            // Bulk load the csv file of the partition, if it was prepared in the folder
+            ITable loaded = null;
+            if (persistent && Files.exists(Paths.get(folderName, storageName + ".csv"))) {
+                loaded = recover(storageName, table.getSchema());
+                for (ITuple tuple : loaded.getTuples()) {
+                    Object key = tuple.getValue(table.getKeyIndex());
+                    if (key == null || !table.contains(partition, (Integer) key)) {
+                        throw new InvalidQueryException("Tuple " + IO.formatTuple(tuple.getValues())
+                                + " of " + storageName + ".csv does not belong to partition " + partition.getName());
                     }
-                } else {
-                    // No WHERE clause: delete everything (i.e., keep nothing)
-                    match = true;
                 }
+            }
 
-                // If it doesn't match the condition, keep it
-                if (!match) {
-                    toKeep.add(tuple);
+            table.addPartition(partition);
+            if (loaded != null) {
+                table.setPartitionTable(partition.getName(), loaded);
+                bulkLoaded = !loaded.getTuples().isEmpty();
+                if (changeFeed != null) {
+                    changeFeed.publish(table.getName(), ChangeEvent.Type.INSERT, null, images(loaded.getTuples()));
                 }
             }
 
-            // Replace table's tuples with filtered list
-            targetTable.getTuples().clear();
-            targetTable.getTuples().addAll(toKeep);
+            // The default partition held the keys of the new partition until now: its tuples with these keys move
+            PartitionedTable.Partition defaultPartition = table.moveFromDefault(partition);
+            if (persistent) {
+                IO.writeSchema(catalog.getTables(), schemaFileName, folderName);
+                if (loaded == null || defaultPartition != null) checkpoint(partition.getTable());
+                if (defaultPartition != null) checkpoint(defaultPartition.getTable());
+            }
+
+        } else {
+            throw new InvalidQueryException("Expected DROP PARTITION or ATTACH PARTITION: " + tokens[3]);
+        }
+        for (MaterializedView view : viewsOn(table)) {
+            view.rebuild(table);
+        }
+
+        // Replicas cannot read the attached file: they reload a snapshot instead
+        if (bulkLoaded && this.primary != null) {
+            this.primary.resync();
+        } else {
+            replicate(query);
+        }
+    }
 
-            // Write back updated data to CSV
-            IO.writeTable(targetTable, folderName);
+    /**
+     * Creates a materialized view: a table holding the result of a select query, kept up to date as the table
+     * the query reads changes (see MaterializedView)
+     * The query has the form: create materialized view viewname as select ... from tablename [where condition] [group by attr]
+     *
+     * Implements the following algorithm
+     *
+     * Parse the query to get the view name and its select query
+     * If a table or view with the same name exists or the select query is not supported
+     *   Throw an invalid query exception
+     *   Exit
+     * Compute the view from its table and add it to the database
+     * Write the views file
+     *
+     * @param query
+     * @throws InvalidQueryException
+     */
+    public synchronized void createView(String query) throws InvalidQueryException {
+        query = query.trim();
+        String[] tokens = query.split("\\s+", 6);
+        if (tokens.length != 6 || !(tokens[0] + " " + tokens[1] + " " + tokens[2]).equalsIgnoreCase("create materialized view")
+                || !tokens[4].equalsIgnoreCase("as")) {
+            throw new InvalidQueryException("Expected CREATE MATERIALIZED VIEW name AS select query.");
+        }
+        if (catalog.contains(tokens[3]) || views.containsKey(tokens[3].toLowerCase())) {
+            throw new InvalidQueryException("Table already exists: " + tokens[3]);
+        }
 
-        } catch (Exception e) {
-            throw new InvalidQueryException("DELETE failed: " + e.getMessage());
+        addView(tokens[3], tokens[5]);
+        if (persistent) {
+            writeViews();
+        }
+        replicate(query);
+    }
+
+    /**
+     * Drops a materialized view
+     * The query has the form: drop materialized view viewname
+     * @param query
+     * @throws InvalidQueryException if the view does not exist
+     */
+    public synchronized void dropView(String query) throws InvalidQueryException {
+        query = query.trim();
+        if (!query.toLowerCase().startsWith("drop materialized view")) {
+            throw new InvalidQueryException("Missing DROP MATERIALIZED VIEW clause.");
+        }
+
+        String viewName = query.substring("drop materialized view".length()).trim();
+        if (views.remove(viewName.toLowerCase()) == null) {
+            throw new InvalidQueryException("View not found: " + viewName);
+        }
+        resultCache.clear();
+        compiledSelects.clear();
+        sketches.remove(viewName.toLowerCase());
+
+        if (persistent) {
+            writeViews();
+        }
+        replicate(query);
+    }
+
+    /**
+     * Returns the materialized views of the database
+     * @return the views, in creation order
+     */
+    public synchronized List<MaterializedView> getViews() {
+        return new ArrayList<>(views.values());
+    }
+
+    // Computes a view from the table its query reads and adds it to the database
+    private void addView(String name, String select) throws InvalidQueryException {
+        String[] fromParts = select.split("(?i)\\s+from\\s+", 2);
+        String tableName = fromParts.length == 2 ? fromParts[1].trim().split("\\s+")[0] : "";
+        ITable base = catalog.get(tableName);
+        if (base == null) {
+            throw new InvalidQueryException("Table not found: " + tableName);
+        }
+        try {
+            views.put(name.toLowerCase(), MaterializedView.create(name, select, base));
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new InvalidQueryException("Invalid view query: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the change feed of the database: from the first call on, every committed insert, delete and update
+     * (including the tuples of dropped or attached partitions) is published to it
+     * Creating or dropping tables is not published: a consumer of a dropped table sees no more changes
+     * @return the change feed
+     */
+    public synchronized ChangeFeed getChangeFeed() {
+        if (changeFeed == null) {
+            changeFeed = new ChangeFeed();
+        }
+        return changeFeed;
+    }
+
+    // Copies of tuples that do not depend on the table they were read from
+    private static List<ITuple> detach(List<ITuple> tuples, ISchema schema) {
+        List<ITuple> copies = new ArrayList<>(tuples.size());
+        for (ITuple tuple : tuples) {
+            Tuple copy = new Tuple(schema);
+            System.arraycopy(tuple.getValues(), 0, copy.getValues(), 0, schema.size());
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    // Copies of the values of tuples, for the change feed
+    private static List<Object[]> images(List<ITuple> tuples) {
+        List<Object[]> images = new ArrayList<>(tuples.size());
+        for (ITuple tuple : tuples) {
+            images.add(tuple.getValues().clone());
+        }
+        return images;
+    }
+
+    // The cracker column of an attribute of a table (built again if the table changed since it was last cracked)
+    private CrackerColumn cracker(ITable table, int attribute) {
+        String key = table.getName().toLowerCase() + "." + attribute;
+        CrackerColumn cracker = crackers.get(key);
+        if (cracker == null || !cracker.isCurrent(table)) {
+            cracker = new CrackerColumn(table, attribute);
+            crackers.put(key, cracker);
+        }
+        return cracker;
+    }
+
+    // The current cracker columns of a table that can take a tuple appended to the table (not for partitioned
+    // tables, where a tuple is inserted into its partition, in the middle of the table)
+    private List<CrackerColumn> appendableCrackers(ITable table) {
+        List<CrackerColumn> result = new ArrayList<>();
+        if (crackers.isEmpty() || table instanceof PartitionedTable) return result;
+        String prefix = table.getName().toLowerCase() + ".";
+        for (Map.Entry<String, CrackerColumn> cracker : crackers.entrySet()) {
+            if (cracker.getKey().startsWith(prefix) && cracker.getValue().isCurrent(table)) result.add(cracker.getValue());
         }
+        return result;
+    }
+
+    // The materialized views that read a table
+    private List<MaterializedView> viewsOn(ITable table) {
+        List<MaterializedView> result = new ArrayList<>();
+        for (MaterializedView view : views.values()) {
+            if (view.getBaseName().equalsIgnoreCase(table.getName())) result.add(view);
+        }
+        return result;
+    }
+
+    // Writes the definitions of the views to the views file
+    private void writeViews() {
+        Map<String, String> definitions = new LinkedHashMap<>();
+        for (MaterializedView view : views.values()) {
+            definitions.put(view.getName(), view.getQuery());
+        }
+        IO.writeViews(definitions, folderName);
+    }
+
+    // Deletes the files of a table (or partition) and removes it from the manifest
+    private void deleteStorage(ITable storage) {
+        IO.deleteTableFiles(storage.getName(), folderName);
+        try {
+            manifest.remove(storage.getName());
+        } catch (IOException e) {
+            System.err.println("Error writing manifest: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a checkpoint of every table (see checkpoint(ITable))
+     * The query has the form: checkpoint
+     * @throws InvalidQueryException if a checkpoint cannot be written
+     */
+    public synchronized void checkpoint() throws InvalidQueryException {
+        if (!persistent) {
+            throw new InvalidQueryException("In-memory databases have no checkpoints.");
+        }
+        for (ITable table : catalog.getTables()) {
+            if (!checkpoint(table)) {
+                throw new InvalidQueryException("Checkpoint of " + table.getName() + " failed.");
+            }
+        }
+    }
+
+    /**
+     * Writes a checkpoint of a table: the csv file is replaced with the current tuples and the log is emptied
+     * (for a partitioned table, a checkpoint of each partition)
+     *
+     * Implements the following algorithm
+     *
+     * Write the tuples to a temporary csv file and force it to the disk
+     * Record the checkpoint (size and CRC of the file) and the current end of the log in the manifest
+     *   (commit point: from now on recovery uses the new checkpoint and skips the log)
+     * Move the temporary file to the csv file and empty the log
+     * Record the position 0 of the (empty) log in the manifest
+     *
+     * A crash before the commit point leaves the previous checkpoint and log; a crash after it is completed by
+     * recovery (see recover), which also records the position 0 if the log was emptied but the manifest not updated
+     *
+     * @param table the table
+     * @return true if the checkpoint was written
+     */
+    private boolean checkpoint(ITable table) {
+        for (ITable storage : storageTables(table)) {
+            try {
+                Manifest.Entry entry = IO.writeCheckpoint(storage, folderName);
+                long logEnd = IO.logLength(storage.getName(), folderName);
+                manifest.put(storage.getName(), new Manifest.Entry(logEnd, entry.getLength(), entry.getCrc()));
+
+                IO.installCheckpoint(storage.getName(), folderName);
+                manifest.put(storage.getName(), entry);
+            } catch (IOException e) {
+                System.err.println("Error writing checkpoint of '" + storage.getName() + "': " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Writes a checkpoint of a table (or partition) if its log grew over checkpointBytes
+    private void checkpointIfNeeded(ITable table) {
+        if (IO.logLength(table.getName(), folderName) > checkpointBytes) {
+            checkpoint(table);
+        }
+    }
+
+    /**
+     * Returns the sketches of a table (see TableSketch)
+     * They are built on first use, and rebuilt when the table changed other than by inserts since
+     * @param table the table
+     * @return the up to date sketches
+     */
+    private TableSketch sketch(ITable table) {
+        String key = table.getName().toLowerCase();
+        TableSketch sketch = sketches.get(key);
+        if (sketch == null || !sketch.isCurrent(table)) {
+            sketch = new TableSketch(table);
+            sketches.put(key, sketch);
+        }
+        return sketch;
+    }
+
+    // Chooses the blocks of a TABLESAMPLE: each block is kept with the given probability (the same seed keeps the same blocks)
+    private static boolean sampled(long seed, int blockStart, double percent) {
+        return new SplittableRandom(seed + blockStart * 0x9E3779B97F4A7C15L).nextDouble() * 100 < percent;
+    }
+
+    /**
+     * Splits the select clause into its items (commas inside the parentheses of an aggregate do not split)
+     * @param selectPart the text between select and from
+     * @return the items
+     */
+    static String[] splitSelectList(String selectPart) {
+        return selectPart.split(",(?![^(]*\\))");
+    }
+
+    /**
+     * Returns the tables whose files store the tuples of a table: its partitions if it is partitioned, else itself
+     * @param table the table
+     * @return the storage tables
+     */
+    private static List<ITable> storageTables(ITable table) {
+        if (!(table instanceof PartitionedTable partitioned)) return List.of(table);
+        List<ITable> tables = new ArrayList<>();
+        for (PartitionedTable.Partition partition : partitioned.getPartitions()) {
+            tables.add(partition.getTable());
+        }
+        return tables;
+    }
+
+    /**
+     * Splits positions of tuples of a table into positions within its storage tables (see storageTables)
+     * @param table the table
+     * @param rows positions in the table, in increasing order
+     * @return the positions within each storage table that has some (in storage order)
+     */
+    private static Map<ITable, List<Integer>> storageRows(ITable table, List<Integer> rows) {
+        if (table instanceof PartitionedTable partitioned) return partitioned.localRows(rows);
+        return Map.of(table, rows);
+    }
+
+    /**
+     * Returns the zone maps of the blocks to scan for a condition
+     * For a partitioned table, the blocks of the partitions the condition prunes are left out
+     * @param table the table
+     * @param lhsIndex index of the attribute in the condition
+     * @param operator operator of the condition (null if there is no condition)
+     * @param rhsValue value of the condition
+     * @param stats statistics of the query
+     * @return the zone maps, in tuple order
+     */
+    private static List<ZoneMap> zoneMaps(ITable table, int lhsIndex, String operator, Object rhsValue, QueryStats stats) {
+        if (table instanceof PartitionedTable partitioned) {
+            return partitioned.getZoneMaps(lhsIndex, operator, rhsValue, stats);
+        }
+        return table.getZoneMaps();
+    }
+
+    /**
+     * Ships a change that was applied successfully to the read replicas (if this database is a primary)
+     * @param query the insert, delete, update, create table or drop table query
+     */
+    private void replicate(String query) {
+        if (this.primary != null) {
+            this.primary.ship(query.trim());
+        }
+    }
+
+    /**
+     * Returns the statistics of the last query
+     * @return the query statistics (null if no query was run yet)
+     */
+    public QueryStats getLastQueryStats() {
+        return this.lastQueryStats;
+    }
+
+    /**
+     * Returns the metrics aggregated over all queries (also published as a JMX MBean)
+     * @return the query metrics
+     */
+    public QueryMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Unregisters the JMX metrics of the database, which otherwise keep it reachable
+     * Call it when the database is no longer used
+     */
+    public void close() {
+        this.metrics.unregister();
+    }
+
+    /**
+     * Creates the statistics of a query that is starting
+     * @param query the query text
+     * @return the new query statistics (also available through getLastQueryStats)
+     */
+    private QueryStats startQuery(String query) {
+        QueryStats stats = new QueryStats(query);
+        this.lastQueryStats = stats;
+        return stats;
+    }
+
+    /**
+     * Completes the statistics of a query that ran successfully
+     * Adds them to the metrics and writes the query to the slow query log if it took longer than the threshold
+     * @param stats the query statistics
+     */
+    private void finishQuery(QueryStats stats) {
+        stats.finish();
+        this.metrics.record(stats);
+
+        long thresholdMillis = Long.getLong("qe.slowQueryMillis", 1000);
+        if (stats.getTotalNanos() >= thresholdMillis * 1_000_000L) {
+            this.metrics.recordSlowQuery();
+            String logFile = System.getProperty("qe.slowQueryLog", persistent ? folderName + "/slow_query.log" : null);
+            if (logFile == null) return;
+            IO.appendLine(logFile, Instant.now() + "\t" + stats.getTotalNanos() / 1_000_000 + " ms\t"
+                    + stats.getQuery().trim() + "\t" + stats.toLogString());
+        }
+    }
+
+    /**
+     * Parses a where clause of the form "attribute operator value" into a condition
+     * Operators are checked in the order !=, >=, <=, =, >, < and quotes around the value are removed
+     * @param whereClause the text following the where keyword
+     * @return the parsed condition
+     * @throws InvalidQueryException if no supported operator is found or the clause is malformed
+     */
+    static Condition parseCondition(String whereClause) throws InvalidQueryException {
+        String[] operators = {"!=", ">=", "<=", "=", ">", "<"};
+
+        for (String operator : operators) {
+            if (whereClause.contains(operator)) {
+                String[] ops = whereClause.split(operator);
+                if (ops.length != 2) {
+                    throw new InvalidQueryException("Malformed WHERE clause.");
+                }
+                String lhs = ops[0].trim();
+                String rhs = ops[1].trim().replaceAll("^'|'$", ""); // remove quotes
+                return new Condition(lhs, rhs, operator);
+            }
+        }
+
+        throw new InvalidQueryException("Unsupported WHERE operator.");
+    }
+
+    /**
+     * Converts the right-hand side of a condition to the type of the attribute it is compared with
+     * @param type the attribute type
+     * @param rhs the value as written in the query
+     * @return an Integer for Integer attributes, a Double for Double attributes, the string itself otherwise
+     */
+    static Object parseOperand(AttributeType type, String rhs) {
+        return switch (type) {
+            case INTEGER -> Integer.parseInt(rhs);
+            case DOUBLE -> Double.parseDouble(rhs);
+            default -> rhs;
+        };
+    }
+
+    /**
+     * Evaluates "leftVal operator rhs" for an attribute of the given type (a null value never satisfies it)
+     * @param leftVal the tuple value (may be null)
+     * @param type the attribute type
+     * @param operator the relational operator
+     * @param rhs the right-hand side, already converted by parseOperand
+     * @return true if the condition holds
+     * @throws InvalidQueryException if the operator or type is not supported
+     */
+    static boolean evaluate(Object leftVal, AttributeType type, String operator, Object rhs) throws InvalidQueryException {
+        if (leftVal == null) return false;
+        switch (type) {
+            case INTEGER:
+                int lInt = (Integer) leftVal;
+                int rInt = (Integer) rhs;
+                return switch (operator) {
+                    case "=" -> lInt == rInt;
+                    case "!=" -> lInt != rInt;
+                    case ">" -> lInt > rInt;
+                    case "<" -> lInt < rInt;
+                    case ">=" -> lInt >= rInt;
+                    case "<=" -> lInt <= rInt;
+                    default -> throw new InvalidQueryException("Invalid operator for Integer");
+                };
+
+            case DOUBLE:
+                double lDouble = (Double) leftVal;
+                double rDouble = (Double) rhs;
+                return switch (operator) {
+                    case "=" -> lDouble == rDouble;
+                    case "!=" -> lDouble != rDouble;
+                    case ">" -> lDouble > rDouble;
+                    case "<" -> lDouble < rDouble;
+                    case ">=" -> lDouble >= rDouble;
+                    case "<=" -> lDouble <= rDouble;
+                    default -> throw new InvalidQueryException("Invalid operator for Double");
+                };
+
+            case STRING:
+                String lStr = (String) leftVal;
+                return switch (operator) {
+                    case "=" -> lStr.equals(rhs);
+                    case "!=" -> !lStr.equals(rhs);
+                    default -> throw new InvalidQueryException("Only = and != supported for Strings");
+                };
+
+            default:
+                throw new InvalidQueryException("Unsupported type: " + type);
+        }
+    }
+
+    /**
+     * Returns the ascending order of tuples on one attribute (null values first)
+     * @param index the attribute index
+     * @return the comparator
+     */
+    @SuppressWarnings("unchecked")
+    static Comparator<ITuple> orderComparator(int index) {
+        return (a, b) -> {
+            Object x = a.getValue(index);
+            Object y = b.getValue(index);
+            if (x == null || y == null) return x == null ? (y == null ? 0 : -1) : 1;
+            return ((Comparable<Object>) x).compareTo(y);
+        };
+    }
+
+    /**
+     * Evaluates "value operator rhs" on dictionary codes of a String attribute (as evaluate: a null value never satisfies it)
+     * @param code the dictionary code of the tuple value (-1 for null)
+     * @param operator the relational operator
+     * @param rhsCode the dictionary code of the right-hand side (-1 if the value is not in the dictionary)
+     * @return true if the condition holds
+     * @throws InvalidQueryException if the operator is not supported for Strings
+     */
+    private boolean evaluateCode(int code, String operator, int rhsCode) throws InvalidQueryException {
+        return switch (operator) {
+            case "=" -> code >= 0 && code == rhsCode;
+            case "!=" -> code >= 0 && code != rhsCode;
+            default -> throw new InvalidQueryException("Only = and != supported for Strings");
+        };
     }
 
 }
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dictionary maps the distinct values of a String attribute to small integer codes
+ * Every value added to the table is replaced by the dictionary's single (canonical) instance of it,
+ * so a low-cardinality column holds one String object per distinct value instead of one per tuple
+ * If the attribute has more than MAX_SIZE distinct values the dictionary is disabled
+ */
+public class Dictionary {
+    public static final int MAX_SIZE = 4096;    // Maximum number of distinct values to encode
+
+    private Map<String, Integer> codes;         // Value -> code
+    private List<String> values;                // Code -> canonical value
+    private boolean enabled;                    // False once the attribute has too many distinct values
+
+    /**
+     * constructor
+     * Creates an empty (enabled) dictionary
+     */
+    public Dictionary() {
+        this.codes = new HashMap<>();
+        this.values = new ArrayList<>();
+        this.enabled = true;
+    }
+
+    /**
+     * Returns the code of a value, adding the value to the dictionary if needed
+     * @param value the value to encode
+     * @return the code of the value, or -1 if the value is null or the dictionary is disabled
+     */
+    public int encode(String value) {
+        if (!this.enabled || value == null) return -1;
+
+        Integer code = this.codes.get(value);
+        if (code != null) return code;
+
+        if (this.values.size() >= MAX_SIZE) {
+            // Too many distinct values: the attribute is not worth encoding
+            this.enabled = false;
+            this.codes = null;
+            this.values = null;
+            return -1;
+        }
+
+        code = this.values.size();
+        this.codes.put(value, code);
+        this.values.add(value);
+        return code;
+    }
+
+    /**
+     * Returns the code of a value without adding it
+     * @param value the value to look up
+     * @return the code of the value, or -1 if it is not in the dictionary
+     */
+    public int codeOf(String value) {
+        if (!this.enabled || value == null) return -1;
+        Integer code = this.codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the canonical value of a code
+     * @param code a code returned by encode
+     * @return the canonical String instance for the code
+     */
+    public String decode(int code) {
+        return this.values.get(code);
+    }
+
+    /**
+     * Getters
+     */
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public int size() {
+        return this.enabled ? this.values.size() : 0;
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * A table whose String attributes can be dictionary encoded (Table, CompressedTable)
+ * Scans of other tables compare the values themselves.
+ */
+public interface IEncodedTable extends ITable {
+    Dictionary getDictionary(int index);          // Dictionary of a String attribute (null if not encoded)
+    int getCode(int row, int index);              // Dictionary code of the value at (row, index)
+}
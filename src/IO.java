@@ -1,119 +1,384 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * this is the IO utility class
  */
 public class IO {
+    private static final String VIEWS_FILE_NAME = "views.txt";   // Definitions of the materialized views
+    private static final byte[] COLUMNS_MAGIC = {0, 'Q', 'C', '1'};   // First bytes of a table file in the column format
+
+    /**
+     * Reads the table's data from its last checkpoint (see Manifest) and the tail of its log
+     * @param tablename name of the table (also the CSV file name, without extension)
+     * @param schema schema describing the structure of the table
+     * @param folder directory where the file is stored
+     * @return Table populated with Tuples from the CSV
+     */
+    public static ITable readTable(String tablename, ISchema schema, String folder) {
+        return readTable(tablename, schema, folder, Manifest.load(folder).get(tablename));
+    }
 
     /**
      * Reads the table's data from a csv file
      *
      * Implement the following algorithm
      *
+     * If a checkpoint was interrupted (the temporary csv file exists)
+     *   If the manifest records it (same size and CRC), the checkpoint was committed: move it to the csv file
+     *   Else delete it
      * Open the csv file from the folder (corresponding to the tablename)
-     *   For each line in the csv file
+     *   If the file is in the column format (written by a compressed table, see writeCheckpoint)
+     *     Decode each block of the file and add its tuples to the table
+     *   Else for each line in the csv file
      *     Parse the line to get attribute values
      *     Create a new tuple with the schema of the table
      *     Set the tuple values to the attribute values
      *     Add the tuple to the table
      * Close file
+     * Replay the table's log from the position recorded in the manifest (the changes made since the checkpoint)
      *
      * Return table
      * @param tablename name of the table (also the CSV file name, without extension)
      * @param schema schema describing the structure of the table
      * @param folder directory where the file is stored
+     * @param checkpoint the last checkpoint of the table in the manifest (null if there is none)
      * @return Table populated with Tuples from the CSV
      */
-    public static ITable readTable(String tablename, ISchema schema, String folder) {
+    public static ITable readTable(String tablename, ISchema schema, String folder, Manifest.Entry checkpoint) {
         // Create a new Table with the given schema
-        ITable table = new Table(tablename, schema);
+        ITable table = newTable(tablename, schema);
+        Path csv = Paths.get(folder, tablename + ".csv");
+        Path tmp = Paths.get(folder, tablename + ".csv.tmp");
+
+        try {
+            if (Files.exists(tmp)) {
+                if (checkpoint != null && Files.size(tmp) == checkpoint.getLength() && crc(tmp) == checkpoint.getCrc()) {
+                    Files.move(tmp, csv, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.delete(tmp);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error recovering checkpoint of '" + tablename + "': " + e.getMessage());
+        }
 
-        try (BufferedReader reader = new BufferedReader(
-                new FileReader(folder + "/" + tablename + ".csv"))) {
+        try (BufferedInputStream input = new BufferedInputStream(Files.newInputStream(csv))) {
+            input.mark(1);
+            boolean columns = input.read() == COLUMNS_MAGIC[0];
+            input.reset();
+            if (columns) {
+                readColumns(table, new DataInputStream(input));
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                String line;
+                // Read each line (tuple) from the file
+                while ((line = reader.readLine()) != null) {
+                    // Add the tuple to the table (the table dictionary encodes its String values)
+                    table.addTuple(parseTuple(line, schema));
+                }
+            }
 
-            String line;
-            // Read each line (tuple) from the file
-            while ((line = reader.readLine()) != null) {
-                String[] values = line.split(",");
+        } catch (IOException e) {
+            // Any I/O error is reported to standard error
+            System.err.println("Error reading table '" + tablename + "': " + e.getMessage());
+        }
 
-                // Create a tuple for this line
-                Tuple tuple = new Tuple(schema);
+        replayLog(table, folder, checkpoint == null ? 0 : checkpoint.getLogOffset());
 
-                // Set each value in the tuple according to its schema-defined type
-                for (int i = 0; i < values.length; i++) {
-                    String type = schema.getType(i);
-                    String val = values[i].trim();
+        return table;
+    }
 
-                    Object parsed;
-                    switch (type) {
-                        case "Integer" -> parsed = Integer.parseInt(val); // Convert string to Integer
-                        default -> parsed = val; // Keep as String by default
-                    }
+    // Adds the tuples of a file in the column format (see writeColumns) to a table
+    private static void readColumns(ITable table, DataInputStream in) throws IOException {
+        byte[] magic = new byte[COLUMNS_MAGIC.length];
+        in.readFully(magic);
+        ISchema schema = table.getSchema();
+        if (!Arrays.equals(magic, COLUMNS_MAGIC) || in.readInt() != schema.size()) {
+            throw new IOException("not a table file of this schema");
+        }
 
-                    // Set the parsed value at index i
-                    tuple.setValue(i, parsed);
+        int blocks = in.readInt();
+        int[] decoded = new int[ZoneMap.BLOCK_SIZE];
+        for (int b = 0; b < blocks; b++) {
+            int count = in.readShort();
+            Object[][] values = new Object[count][schema.size()];
+            for (int i = 0; i < schema.size(); i++) {
+                AttributeType type = schema.getAttributeType(i);
+                if (type == AttributeType.INTEGER) {
+                    IntBlock block = IntBlock.read(in);
+                    block.decode(decoded);
+                    for (int r = 0; r < count; r++) {
+                        values[r][i] = block.isNull(r) ? null : decoded[r];
+                    }
+                    continue;
                 }
-
-                // Add the tuple to the table
+                for (int r = 0; r < count; r++) {
+                    if (!in.readBoolean()) continue;
+                    values[r][i] = type == AttributeType.DOUBLE ? (Object) in.readDouble() : in.readUTF();
+                }
+            }
+            for (Object[] tupleValues : values) {
+                Tuple tuple = new Tuple(schema);
+                System.arraycopy(tupleValues, 0, tuple.getValues(), 0, tupleValues.length);
                 table.addTuple(tuple);
             }
-
-        } catch (IOException e) {
-            // Any I/O error is reported to standard error
-            System.err.println("Error reading table '" + tablename + "': " + e.getMessage());
         }
+    }
 
-        return table;
+    /**
+     * Parses a line in csv format into a tuple
+     * Each value is converted according to its schema-defined type (an empty Integer or Double value is null)
+     *
+     * @param line the comma separated values
+     * @param schema schema of the table the tuple belongs to
+     * @return the new tuple
+     */
+    public static Tuple parseTuple(String line, ISchema schema) {
+        String[] values = line.split(",");
+
+        // Create a tuple for this line
+        Tuple tuple = new Tuple(schema);
+
+        // Set each value in the tuple according to its schema-defined type
+        for (int i = 0; i < values.length; i++) {
+            String val = values[i].trim();
+            if (val.isEmpty() && schema.getAttributeType(i) != AttributeType.STRING) continue; // null number
+
+            Object parsed;
+            switch (schema.getAttributeType(i)) {
+                case INTEGER -> parsed = Integer.parseInt(val); // Convert string to Integer
+                default -> parsed = val; // Keep as String by default
+            }
+
+            // Set the parsed value at index i
+            tuple.setValue(i, parsed);
+        }
+        return tuple;
     }
 
+    /**
+     * Formats tuple values in csv format (the format of the table files, null values are left empty)
+     *
+     * @param values the tuple values
+     * @return the comma separated values
+     */
+    public static String formatTuple(Object[] values) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) line.append(",");
+            if (values[i] != null) line.append(values[i]);
+        }
+        return line.toString();
+    }
 
     /**
-     * Writes the tables' data to a csv file
+     * Writes a checkpoint of a table: a complete copy of its tuples in a temporary csv file, forced to disk
+     * The checkpoint only replaces the csv file when installCheckpoint is called (after the manifest records it),
+     * so a crash while it is written leaves the previous csv file intact
      *
      * Implement the following algorithm
      *
-     * Open the csv file from the folder (corresponding to the tablename)
-     * Clear all file content
-     * For each tuple in table
+     * Open the temporary csv file from the folder (corresponding to the tablename)
+     * If the table is a compressed table
+     *   Write its blocks to the file in the column format (see writeColumns)
+     * Else for each tuple in table
      *   Write the tuple values to the file in csv format
+     * Force the file content to the disk
      *
      * @param table the table to write
      * @param folder the folder where CSV is stored
+     * @return the checkpoint (size and CRC of the file; the caller sets the log position)
+     * @throws IOException if the file cannot be written
      */
-    public static void writeTable(ITable table, String folder) {
-        String path = folder + "/" + table.getName() + ".csv";
+    public static Manifest.Entry writeCheckpoint(ITable table, String folder) throws IOException {
+        Path tmp = Paths.get(folder, table.getName() + ".csv.tmp");
+        CRC32 crc = new CRC32();
+        long length = 0;
+
+        if (table instanceof CompressedTable compressed) {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+                writeColumns(compressed, out);
+                out.flush();
+                channel.force(true);
+                length = channel.size();
+            }
+            return new Manifest.Entry(0, length, crc.getValue());
+        }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
-            // Loop over each tuple in the table
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder chunk = new StringBuilder();
             for (ITuple tuple : table.getTuples()) {
-                Object[] values = tuple.getValues();
-
-                // Write each value, separated by commas
-                for (int i = 0; i < values.length; i++) {
-                    writer.write(values[i].toString());
+                chunk.append(formatTuple(tuple.getValues())).append(System.lineSeparator());
+                if (chunk.length() >= 1 << 16) {
+                    length += write(channel, chunk, crc);
+                }
+            }
+            length += write(channel, chunk, crc);
+            channel.force(true);
+        }
+        return new Manifest.Entry(0, length, crc.getValue());
+    }
 
-                    // Add comma unless it's the last value
-                    if (i < values.length - 1) {
-                        writer.write(",");
-                    }
+    /**
+     * Writes the tuples of a compressed table in the column format:
+     *   the magic bytes 0 Q C 1, the number of attributes and the number of blocks, then for each block of
+     *   ZoneMap.BLOCK_SIZE tuples its tuple count and, for each attribute, the encoded IntBlock (Integer attributes)
+     *   or a presence flag and the value of each tuple (Double and String attributes)
+     * The Integer blocks are written in their encoded form, so the file is about as small as the table in memory
+     *
+     * @param table the table
+     * @param out the output
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeColumns(CompressedTable table, DataOutputStream out) throws IOException {
+        ISchema schema = table.getSchema();
+        List<ITuple> tuples = table.getTuples();
+        int blocks = (tuples.size() + ZoneMap.BLOCK_SIZE - 1) / ZoneMap.BLOCK_SIZE;
+        out.write(COLUMNS_MAGIC);
+        out.writeInt(schema.size());
+        out.writeInt(blocks);
+
+        for (int b = 0; b < blocks; b++) {
+            int start = b * ZoneMap.BLOCK_SIZE;
+            int end = Math.min(tuples.size(), start + ZoneMap.BLOCK_SIZE);
+            out.writeShort(end - start);
+            for (int i = 0; i < schema.size(); i++) {
+                AttributeType type = schema.getAttributeType(i);
+                if (type == AttributeType.INTEGER) {
+                    table.getBlocks(i).get(b).write(out);
+                    continue;
                 }
+                for (int r = start; r < end; r++) {
+                    Object value = tuples.get(r).getValue(i);
+                    out.writeBoolean(value != null);
+                    if (value == null) continue;
+                    if (type == AttributeType.DOUBLE) out.writeDouble((Double) value);
+                    else out.writeUTF(value.toString());
+                }
+            }
+        }
+    }
 
-                // Write a newline after each tuple
-                writer.newLine();
+    // Writes buffered text to a channel, updating the CRC, and clears the buffer
+    private static int write(FileChannel channel, StringBuilder chunk, CRC32 crc) throws IOException {
+        byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        chunk.setLength(0);
+        return bytes.length;
+    }
+
+    /**
+     * Installs the checkpoint written by writeCheckpoint (to be called once the manifest records it):
+     * moves the temporary file to the csv file and empties the table's log
+     *
+     * @param tableName the table name
+     * @param folder the folder where CSV is stored
+     * @throws IOException if the files cannot be moved or truncated
+     */
+    public static void installCheckpoint(String tableName, String folder) throws IOException {
+        Files.move(Paths.get(folder, tableName + ".csv.tmp"), Paths.get(folder, tableName + ".csv"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncFolder(folder);
+
+        Path log = Paths.get(folder, tableName + ".log");
+        if (Files.exists(log)) {
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+                channel.force(true);
             }
+        }
+    }
 
+    /**
+     * Returns the size of a table's log
+     * @param tableName the table name
+     * @param folder the folder where the log is stored
+     * @return the size in bytes (0 if the table has no log)
+     */
+    public static long logLength(String tableName, String folder) {
+        try {
+            Path log = Paths.get(folder, tableName + ".log");
+            return Files.exists(log) ? Files.size(log) : 0;
         } catch (IOException e) {
-            // Print any error to standard error
-            System.err.println("Error writing table '" + table.getName() + "': " + e.getMessage());
+            return 0;
         }
     }
 
+    /**
+     * Replaces a file atomically: writes the content to a temporary file, forces it to the disk
+     * and renames it over the file, so that the file always has either its old or its new content
+     *
+     * @param path the file
+     * @param content the new content
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeAtomically(Path path, String content) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncFolder(path.toAbsolutePath().getParent().toString());
+    }
+
+    // Forces a folder to the disk so that renames in it are durable (not supported on every platform)
+    private static void syncFolder(String folder) {
+        try (FileChannel channel = FileChannel.open(Paths.get(folder), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Folders cannot be opened on some platforms: the rename is still atomic
+        }
+    }
+
+    // CRC-32 of a file
+    private static long crc(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(path));
+        return crc.getValue();
+    }
+
     /**
      * Prints the table to console (mainly used to print the output of the select query)
      *
@@ -128,64 +393,199 @@ public class IO {
      * @param schema the schema for formatting attribute names and types
      */
     public static void printTable(ITable table, ISchema schema) {
+        printTable(table, schema, System.out);
+    }
+
+    /**
+     * Prints the table to the given stream, in the same format as printTable(table, schema)
+     *
+     * @param table the table to print
+     * @param schema the schema for formatting attribute names and types
+     * @param out the stream to print to
+     */
+    public static void printTable(ITable table, ISchema schema, PrintStream out) {
         // Print attribute names in order (tab-separated)
         Map<Integer, String> attrs = schema.getAttributes();
         int attrCount = attrs.size();
 
         for (int i = 0; i < attrCount; i++) {
             String attrName = schema.getName(i);
-            System.out.print(attrName);
+            out.print(attrName);
             if (i < attrCount - 1) {
-                System.out.print("\t");
+                out.print("\t");
             }
         }
-        System.out.println();
+        out.println();
 
         // Print each tuple
         for (ITuple tuple : table.getTuples()) {
             Object[] values = tuple.getValues();
             for (int i = 0; i < values.length; i++) {
-                System.out.print(values[i]);
+                out.print(values[i]);
                 if (i < values.length - 1) {
-                    System.out.print("\t");
+                    out.print("\t");
                 }
             }
-            System.out.println();
+            out.println();
         }
     }
 
 
     /**
-     * Writes a tuple to a csv file
+     * Writes an inserted tuple to the table's log
+     * The log has one line per inserted tuple: I,value1,value2,...
      *
      * Implements the following algorithm
      *
-     * Open the csv file from the folder (corresponding to the tablename)
-     * Append the tuple (as array of strings) in the csv format to the file
+     * Open the log file from the folder (corresponding to the tablename)
+     * Append I and the tuple values in csv format to the file
      *
      * @param tableName the table to append to
      * @param values the tuple values to write
-     * @param folder the folder where CSV is stored
+     * @param folder the folder where the log is stored
+     * @return true if the tuple was written
      */
-    public static void writeTuple(String tableName, Object[] values, String folder) {
-        String path = folder + "/" + tableName + ".csv";
+    public static boolean writeInsert(String tableName, Object[] values, String folder) {
+        return appendLine(folder + "/" + tableName + ".log", "I," + formatTuple(values));
+    }
+
+    /**
+     * Writes deleted tuples to the table's log
+     * The log has one line per delete query: D,position1,position2,... (positions before the delete, in order)
+     *
+     * @param tableName the table the tuples belong to
+     * @param rows positions of the deleted tuples in the table, in increasing order
+     * @param folder the folder where the log is stored
+     * @return true if the positions were written
+     */
+    public static boolean writeDelete(String tableName, List<Integer> rows, String folder) {
+        StringBuilder line = new StringBuilder("D");
+        for (int row : rows) {
+            line.append(',').append(row);
+        }
+        return appendLine(folder + "/" + tableName + ".log", line.toString());
+    }
+
+    /**
+     * Writes updated tuples to the table's log
+     * Only the modified tuples are written; the csv file is left untouched
+     * The log has one line per updated tuple: U,position,value1,value2,...
+     *
+     * Implements the following algorithm
+     *
+     * Open the log file from the folder (corresponding to the tablename)
+     * For each updated tuple
+     *   Append U, the tuple position and the tuple values in csv format to the file (null values are left empty)
+     *
+     * @param tableName the table the tuples belong to
+     * @param rows positions of the updated tuples in the table
+     * @param tuples the updated tuples (same order as rows)
+     * @param folder the folder where the log is stored
+     * @return true if the tuples were written
+     */
+    public static boolean writeUpdates(String tableName, List<Integer> rows, List<ITuple> tuples, String folder) {
+        String path = folder + "/" + tableName + ".log";
 
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(path, true))) {
-            // Write each value separated by commas
-            for (int i = 0; i < values.length; i++) {
-                writer.write(values[i].toString());
+            for (int i = 0; i < rows.size(); i++) {
+                writer.write("U," + rows.get(i) + "," + formatTuple(tuples.get(i).getValues()));
+                writer.newLine();
+            }
+            return true;
 
-                // Add comma unless it's the last value
-                if (i < values.length - 1) {
-                    writer.write(",");
+        } catch (IOException e) {
+            System.err.println("Error writing log of '" + tableName + "': " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Applies the tail of the table's log (if any) to a table just read from its checkpoint
+     * A last line without end of line was cut by a crash while it was written: it is ignored and removed
+     *
+     * Implements the following algorithm
+     *
+     * Open the log file from the folder (corresponding to the table name)
+     * If the log is shorter than the position (the log was emptied after the checkpoint), start at the beginning
+     * For each line from the position
+     *   If it is an insert (I) record
+     *     Add a tuple with the logged values
+     *   If it is a delete (D) record
+     *     Remove the tuples at the logged positions
+     *   If it is an update (U) record
+     *     Set the values of the tuple at the given position to the logged values
+     *
+     * @param table the table read from the csv file
+     * @param folder the folder where the log is stored
+     * @param offset position of the first change not included in the checkpoint
+     */
+    public static void replayLog(ITable table, String folder, long offset) {
+        Path path = Paths.get(folder, table.getName() + ".log");
+        if (!Files.exists(path)) return;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < offset) offset = 0;
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) (size - offset));
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                // read the whole tail
+            }
+            String tail = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+
+            int complete = tail.lastIndexOf('\n') + 1;
+            if (complete < tail.length()) {
+                channel.truncate(offset + tail.substring(0, complete).getBytes(StandardCharsets.UTF_8).length);
+            }
+
+            for (String line : tail.substring(0, complete).split("\\R")) {
+                if (line.isEmpty()) continue;
+                String[] fields = line.split(",", -1);
+                switch (fields[0]) {
+                    case "I" -> table.addTuple(parseTuple(line.substring(2), table.getSchema()));
+                    case "D" -> {
+                        List<ITuple> tuples = table.getTuples();
+                        List<ITuple> toKeep = new ArrayList<>(tuples.size());
+                        int next = 1;
+                        for (int r = 0; r < tuples.size(); r++) {
+                            if (next < fields.length && Integer.parseInt(fields[next]) == r) {
+                                next++;
+                            } else {
+                                toKeep.add(tuples.get(r));
+                            }
+                        }
+                        table.setTuples(toKeep);
+                    }
+                    case "U" -> {
+                        int row = Integer.parseInt(fields[1]);
+                        ITuple logged = parseTuple(line.substring(line.indexOf(',', 2) + 1), table.getSchema());
+                        table.getTuples().get(row).setValues(logged.getValues());
+                        table.refreshTuple(row);
+                    }
+                    default -> throw new IOException("Unknown log record: " + line);
                 }
             }
 
-            // End the line after each tuple
-            writer.newLine();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error replaying log of '" + table.getName() + "': " + e.getMessage());
+        }
+    }
 
+    /**
+     * Appends a line of text to a file (used for the table logs and the slow query log)
+     *
+     * @param path path of the file (created if missing)
+     * @param line the line to append
+     * @return true if the line was written
+     */
+    public static boolean appendLine(String path, String line) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path, true))) {
+            writer.write(line);
+            writer.newLine();
+            return true;
         } catch (IOException e) {
-            System.err.println("Error writing tuple to '" + tableName + "': " + e.getMessage());
+            System.err.println("Error writing to '" + path + "': " + e.getMessage());
+            return false;
         }
     }
 
@@ -221,31 +621,191 @@ public class IO {
                 // Skip empty lines
                 if (line.isEmpty()) continue;
 
-                int parenStart = line.indexOf("(");
-                int parenEnd = line.indexOf(")");
+                // Create schema and empty table
+                ITable table = parseTableDefinition(line);
 
-                // Extract table name
-                String tableName = line.substring(0, parenStart).trim();
+                // Add both to the database
+                db.addSchema(table.getSchema());
+                db.addTable(table);
+            }
 
-                // Extract attribute list: attrName:Type
-                String[] attrTokens = line.substring(parenStart + 1, parenEnd).split(",");
-                Map<Integer, String> attrMap = new HashMap<>();
+        } catch (IOException | InvalidQueryException e) {
+            System.err.println("Error reading schema file: " + e.getMessage());
+        }
+    }
 
-                for (int i = 0; i < attrTokens.length; i++) {
-                    attrMap.put(i, attrTokens[i].trim()); // e.g., sid:String
-                }
+    /**
+     * Parses a table definition of the form tablename(attr1:Type1, attr2:Type2, ...) into an empty table
+     * Attributes may also be written as "attr Type"; types are Integer, Double or String
+     * The definition may end with a partitioning clause: partition by range|list(attr) (partitions)
+     * (see PartitionedTable)
+     *
+     * @param definition the table definition (a line of the schema file)
+     * @return a new empty table with the parsed name and schema
+     * @throws InvalidQueryException if the definition is malformed
+     */
+    public static ITable parseTableDefinition(String definition) throws InvalidQueryException {
+        // Split off the partitioning clause
+        String partitioning = null;
+        Matcher matcher = Pattern.compile("(?i)\\)\\s*partition\\s+by\\s+").matcher(definition);
+        if (matcher.find()) {
+            partitioning = definition.substring(matcher.end());
+            definition = definition.substring(0, matcher.start() + 1);
+        }
 
-                // Create schema and empty table
-                ISchema schema = new Schema(attrMap);
-                ITable table = new Table(tableName, schema);
+        int parenStart = definition.indexOf("(");
+        int parenEnd = definition.lastIndexOf(")");
+        if (parenStart <= 0 || parenEnd < parenStart) {
+            throw new InvalidQueryException("Malformed table definition: " + definition);
+        }
 
-                // Add both to the database
-                db.addSchema(schema);
-                db.addTable(table);
+        // Extract table name
+        String tableName = definition.substring(0, parenStart).trim();
+
+        // Extract attribute list: attrName:Type
+        String[] attrTokens = definition.substring(parenStart + 1, parenEnd).split(",");
+        Map<Integer, String> attrMap = new HashMap<>();
+
+        for (int i = 0; i < attrTokens.length; i++) {
+            String token = attrTokens[i].trim();
+            if (!token.contains(":")) {
+                token = token.replaceFirst("\\s+", ":"); // attr Type -> attr:Type
             }
 
+            String[] pair = token.split(":");
+            if (pair.length != 2 || pair[0].trim().isEmpty()
+                    || !List.of("Integer", "Double", "String").contains(pair[1].trim())) {
+                throw new InvalidQueryException("Malformed attribute '" + attrTokens[i].trim() + "' in table " + tableName);
+            }
+            attrMap.put(i, pair[0].trim() + ":" + pair[1].trim()); // e.g., sid:String
+        }
+
+        if (partitioning != null) {
+            return PartitionedTable.parse(tableName, new Schema(attrMap), partitioning);
+        }
+        return newTable(tableName, new Schema(attrMap));
+    }
+
+    /**
+     * Creates an empty table for stored data
+     * With -Dqe.storage=offheap the tuples are kept outside the Java heap (OffHeapTable),
+     * with -Dqe.storage=compressed in columns with compressed Integer blocks (CompressedTable),
+     * otherwise in a list of Tuple objects (Table)
+     *
+     * @param tableName name of the table
+     * @param schema schema of the table
+     * @return a new empty table
+     */
+    public static ITable newTable(String tableName, ISchema schema) {
+        if ("offheap".equalsIgnoreCase(System.getProperty("qe.storage"))) {
+            return new OffHeapTable(tableName, schema);
+        }
+        if ("compressed".equalsIgnoreCase(System.getProperty("qe.storage"))) {
+            return new CompressedTable(tableName, schema);
+        }
+        return new Table(tableName, schema);
+    }
+
+    /**
+     * Writes the schema file from the tables of the database (one table definition per line)
+     * The file is replaced atomically
+     *
+     * @param tables the tables of the database
+     * @param schemaFileName name of the schema file (e.g., "schema.txt")
+     * @param folderName folder containing the schema file
+     */
+    public static void writeSchema(List<ITable> tables, String schemaFileName, String folderName) {
+        StringBuilder content = new StringBuilder();
+        for (ITable table : tables) {
+            content.append(formatTableDefinition(table)).append(System.lineSeparator());
+        }
+
+        try {
+            writeAtomically(Paths.get(folderName, schemaFileName), content.toString());
         } catch (IOException e) {
-            System.err.println("Error reading schema file: " + e.getMessage());
+            System.err.println("Error writing schema file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the definitions of the materialized views from the views file (views.txt)
+     * Each line has the form: viewname: select query
+     *
+     * @param folderName folder containing the views file
+     * @return the select query of each view, by view name, in file order (empty if there is no views file)
+     */
+    public static Map<String, String> readViews(String folderName) {
+        Map<String, String> views = new LinkedHashMap<>();
+        Path path = Paths.get(folderName, VIEWS_FILE_NAME);
+        if (!Files.exists(path)) return views;
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int colon = line.indexOf(':');
+                if (colon == -1) continue;
+                views.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading views file: " + e.getMessage());
+        }
+        return views;
+    }
+
+    /**
+     * Writes the views file from the definitions of the materialized views (see readViews)
+     * The file is replaced atomically
+     *
+     * @param views the select query of each view, by view name
+     * @param folderName folder containing the views file
+     */
+    public static void writeViews(Map<String, String> views, String folderName) {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> view : views.entrySet()) {
+            content.append(view.getKey()).append(": ").append(view.getValue()).append(System.lineSeparator());
+        }
+
+        try {
+            writeAtomically(Paths.get(folderName, VIEWS_FILE_NAME), content.toString());
+        } catch (IOException e) {
+            System.err.println("Error writing views file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Formats the definition of a table as a line of the schema file: tablename(attr1:Type1, attr2:Type2, ...)
+     * followed by the partitioning clause of a partitioned table
+     *
+     * @param table the table
+     * @return the table definition
+     */
+    public static String formatTableDefinition(ITable table) {
+        ISchema schema = table.getSchema();
+        StringBuilder line = new StringBuilder(table.getName()).append("(");
+        for (int i = 0; i < schema.size(); i++) {
+            if (i > 0) line.append(", ");
+            line.append(schema.getName(i)).append(":").append(schema.getType(i));
+        }
+        line.append(")");
+        if (table instanceof PartitionedTable partitioned) {
+            line.append(" ").append(partitioned.formatPartitioning());
+        }
+        return line.toString();
+    }
+
+    /**
+     * Deletes the data files (csv file, temporary checkpoint and log) of a table
+     *
+     * @param tableName the table name
+     * @param folder the folder where the files are stored
+     */
+    public static void deleteTableFiles(String tableName, String folder) {
+        try {
+            Files.deleteIfExists(Paths.get(folder, tableName + ".csv"));
+            Files.deleteIfExists(Paths.get(folder, tableName + ".csv.tmp"));
+            Files.deleteIfExists(Paths.get(folder, tableName + ".log"));
+        } catch (IOException e) {
+            System.err.println("Error deleting files of '" + tableName + "': " + e.getMessage());
         }
     }
-}
+}
\ No newline at end of file
@@ -4,4 +4,7 @@ public interface ISchema {
     Map<Integer, String> getAttributes();
     String getName(int index);
     String getType(int index);
+    AttributeType getAttributeType(int index);    // Type of the attribute as an enum
+    int indexOf(String name);                     // Position of the attribute (-1 if absent)
+    int size();                                   // Number of attributes
 }
\ No newline at end of file
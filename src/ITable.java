@@ -4,5 +4,10 @@ public interface ITable {
     String getName();
     void addTuple(ITuple tuple);
     List<ITuple> getTuples();
+    void setTuples(List<ITuple> tuples);          // Replace all tuples (rebuilds the zone maps)
+    List<ZoneMap> getZoneMaps();                  // Block summaries, in tuple order
+    long getVersion();                            // Increases every time the tuples change
+    void incrementVersion();                      // Marks an in-place change of the tuples
+    void refreshTuple(int row);                   // Updates zone map and codes after a tuple was modified in place
     ISchema getSchema();
 }
\ No newline at end of file
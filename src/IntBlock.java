@@ -0,0 +1,428 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A block of the values of an Integer attribute (at most ZoneMap.BLOCK_SIZE values, possibly null)
+ *
+ * A block is open (PLAIN: one int per value) while values are appended or modified, and sealed once it is full.
+ * Sealing encodes the values with the smallest of these encodings:
+ *   FOR     frame of reference: the minimum, and each value minus the minimum bit-packed in as few bits as the
+ *           largest difference needs (0 bits for a constant block)
+ *   DELTA   the first value, and the difference between consecutive values (minus the smallest difference),
+ *           bit-packed (e.g. increasing ids need 0 or 1 bit per value)
+ *   RLE     run-length: the value and end position of each run of equal values
+ * Null values are kept in a separate bitmap (absent when the block has no null).
+ *
+ * FOR values are read in constant time, RLE values by a binary search on the runs; a DELTA block is decoded as a
+ * whole (see decode). filter compares the values with a constant on the encoded form: FOR compares the packed
+ * differences with the constant minus the minimum, RLE compares each run once.
+ */
+public class IntBlock {
+    public enum Encoding { PLAIN, FOR, DELTA, RLE }
+
+    private Encoding encoding;  // Current encoding
+    private int count;          // Number of values
+    private long[] nulls;       // Null bitmap (null if no value is null)
+    private int[] values;       // PLAIN: the values (capacity ZoneMap.BLOCK_SIZE)
+    private long base;          // FOR: the minimum; DELTA: the first value
+    private long minDelta;      // DELTA: the smallest difference between consecutive values
+    private int width;          // FOR, DELTA: bits per packed value
+    private long[] packed;      // FOR, DELTA: the packed values
+    private int[] runValues;    // RLE: value of each run
+    private int[] runEnds;      // RLE: position after the last value of each run
+
+    /**
+     * constructor
+     * Creates an empty open block
+     */
+    public IntBlock() {
+        this.encoding = Encoding.PLAIN;
+        this.values = new int[ZoneMap.BLOCK_SIZE];
+    }
+
+    /**
+     * Appends a value to an open block
+     * @param value the value (null for a null value)
+     */
+    public void append(Integer value) {
+        this.count++;
+        set(this.count - 1, value);
+    }
+
+    /**
+     * Modifies a value (a sealed block is opened first: seal it again once it was modified)
+     * @param i position of the value in the block
+     * @param value the new value (null for a null value)
+     */
+    public void set(int i, Integer value) {
+        if (this.encoding != Encoding.PLAIN) open();
+        if (value == null) {
+            if (this.nulls == null) this.nulls = new long[(ZoneMap.BLOCK_SIZE + 63) / 64];
+            this.nulls[i >> 6] |= 1L << i;
+            this.values[i] = 0;
+        } else {
+            if (this.nulls != null) this.nulls[i >> 6] &= ~(1L << i);
+            this.values[i] = value;
+        }
+    }
+
+    /**
+     * Checks if the value at a position is null
+     * @param i position of the value in the block
+     * @return true if the value is null
+     */
+    public boolean isNull(int i) {
+        return this.nulls != null && (this.nulls[i >> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the value at a position (0 for a null value, see isNull)
+     * A DELTA block is decoded up to the position: read a DELTA block with decode
+     * @param i position of the value in the block
+     * @return the value
+     */
+    public int get(int i) {
+        switch (this.encoding) {
+            case PLAIN:
+                return this.values[i];
+            case FOR:
+                return (int) (this.base + unpack(this.packed, i, this.width));
+            case RLE:
+                int run = Arrays.binarySearch(this.runEnds, i + 1);
+                return this.runValues[run >= 0 ? run : -run - 1];
+            default:
+                long value = this.base;
+                for (int k = 1; k <= i; k++) {
+                    value += this.minDelta + unpack(this.packed, k - 1, this.width);
+                }
+                return (int) value;
+        }
+    }
+
+    /**
+     * Decodes all the values of the block (null values are decoded as 0)
+     * @param out array receiving the values (at least count long)
+     */
+    public void decode(int[] out) {
+        switch (this.encoding) {
+            case PLAIN -> System.arraycopy(this.values, 0, out, 0, this.count);
+            case FOR -> {
+                for (int i = 0; i < this.count; i++) {
+                    out[i] = (int) (this.base + unpack(this.packed, i, this.width));
+                }
+            }
+            case RLE -> {
+                int start = 0;
+                for (int run = 0; run < this.runEnds.length; run++) {
+                    Arrays.fill(out, start, this.runEnds[run], this.runValues[run]);
+                    start = this.runEnds[run];
+                }
+            }
+            default -> {
+                long value = this.base;
+                if (this.count > 0) out[0] = (int) value;
+                for (int i = 1; i < this.count; i++) {
+                    value += this.minDelta + unpack(this.packed, i - 1, this.width);
+                    out[i] = (int) value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the values that satisfy "value operator rhs" (null values never do)
+     * @param operator =, !=, <, >, <= or >=
+     * @param rhs the value compared with
+     * @param matches array receiving the positions of the matching values plus offset (at least count long)
+     * @param offset added to each position (e.g. the position of the block in the table)
+     * @return the number of matching values
+     */
+    public int filter(String operator, int rhs, int[] matches, int offset) {
+        int n = 0;
+        switch (this.encoding) {
+            case FOR -> {
+                // Compare the packed differences with the range of values minus the minimum (no decoding)
+                boolean equal = !operator.equals("!=");
+                long low = lowerBound(operator, rhs) - this.base;
+                long high = upperBound(operator, rhs) - this.base;
+                for (int i = 0; i < this.count; i++) {
+                    long value = unpack(this.packed, i, this.width);
+                    if ((value >= low && value <= high) == equal && !isNull(i)) matches[n++] = offset + i;
+                }
+            }
+            case RLE -> {
+                // Compare each run once
+                int start = 0;
+                for (int run = 0; run < this.runEnds.length; run++) {
+                    if (compare(this.runValues[run], operator, rhs)) {
+                        for (int i = start; i < this.runEnds[run]; i++) {
+                            if (!isNull(i)) matches[n++] = offset + i;
+                        }
+                    }
+                    start = this.runEnds[run];
+                }
+            }
+            default -> {
+                int[] decoded = this.values;
+                if (this.encoding != Encoding.PLAIN) {
+                    decoded = new int[this.count];
+                    decode(decoded);
+                }
+                for (int i = 0; i < this.count; i++) {
+                    if (compare(decoded[i], operator, rhs) && !isNull(i)) matches[n++] = offset + i;
+                }
+            }
+        }
+        return n;
+    }
+
+    // Smallest value satisfying "value operator rhs" (for !=, the value it must differ from)
+    private static long lowerBound(String operator, long rhs) {
+        return switch (operator) {
+            case ">" -> rhs + 1;
+            case "=", "!=", ">=" -> rhs;
+            default -> Long.MIN_VALUE / 2;
+        };
+    }
+
+    // Largest value satisfying "value operator rhs" (for !=, the value it must differ from)
+    private static long upperBound(String operator, long rhs) {
+        return switch (operator) {
+            case "<" -> rhs - 1;
+            case "=", "!=", "<=" -> rhs;
+            default -> Long.MAX_VALUE / 2;
+        };
+    }
+
+    private static boolean compare(long value, String operator, long rhs) {
+        return switch (operator) {
+            case "=" -> value == rhs;
+            case "!=" -> value != rhs;
+            case ">" -> value > rhs;
+            case "<" -> value < rhs;
+            case ">=" -> value >= rhs;
+            case "<=" -> value <= rhs;
+            default -> throw new IllegalArgumentException("Unsupported operator: " + operator);
+        };
+    }
+
+    /**
+     * Encodes the values of an open block with the smallest encoding (see the class comment)
+     */
+    public void seal() {
+        if (this.encoding != Encoding.PLAIN || this.count == 0) return;
+        int[] v = this.values;
+
+        // Null values take the value before them, so that they do not widen the range or break runs
+        if (this.nulls != null) {
+            for (int i = 0; i < this.count; i++) {
+                if (isNull(i)) v[i] = i == 0 ? firstNonNull() : v[i - 1];
+            }
+        }
+
+        long min = v[0], max = v[0];
+        long minD = Long.MAX_VALUE, maxD = Long.MIN_VALUE;
+        int runs = 1;
+        for (int i = 1; i < this.count; i++) {
+            min = Math.min(min, v[i]);
+            max = Math.max(max, v[i]);
+            long delta = (long) v[i] - v[i - 1];
+            minD = Math.min(minD, delta);
+            maxD = Math.max(maxD, delta);
+            if (v[i] != v[i - 1]) runs++;
+        }
+
+        int forWidth = bits(max - min);
+        int deltaWidth = this.count > 1 ? bits(maxD - minD) : 0;
+        long forBytes = words(this.count, forWidth) * 8L;
+        long deltaBytes = words(this.count - 1, deltaWidth) * 8L + 8;
+        long rleBytes = runs * 8L;
+
+        if (rleBytes < forBytes && rleBytes <= deltaBytes) {
+            this.runValues = new int[runs];
+            this.runEnds = new int[runs];
+            int run = 0;
+            for (int i = 1; i <= this.count; i++) {
+                if (i == this.count || v[i] != v[i - 1]) {
+                    this.runValues[run] = v[i - 1];
+                    this.runEnds[run++] = i;
+                }
+            }
+            this.encoding = Encoding.RLE;
+        } else if (deltaBytes < forBytes) {
+            this.base = v[0];
+            this.minDelta = minD;
+            this.width = deltaWidth;
+            this.packed = new long[words(this.count - 1, deltaWidth)];
+            for (int i = 1; i < this.count; i++) {
+                pack(this.packed, i - 1, deltaWidth, (long) v[i] - v[i - 1] - minD);
+            }
+            this.encoding = Encoding.DELTA;
+        } else {
+            this.base = min;
+            this.width = forWidth;
+            this.packed = new long[words(this.count, forWidth)];
+            for (int i = 0; i < this.count; i++) {
+                pack(this.packed, i, forWidth, v[i] - min);
+            }
+            this.encoding = Encoding.FOR;
+        }
+        this.values = null;
+    }
+
+    // The first non null value of the block (0 if all values are null)
+    private int firstNonNull() {
+        for (int i = 0; i < this.count; i++) {
+            if (!isNull(i)) return this.values[i];
+        }
+        return 0;
+    }
+
+    // Decodes a sealed block back to PLAIN, so that its values can be modified
+    private void open() {
+        int[] decoded = new int[ZoneMap.BLOCK_SIZE];
+        decode(decoded);
+        this.values = decoded;
+        this.packed = null;
+        this.runValues = null;
+        this.runEnds = null;
+        this.encoding = Encoding.PLAIN;
+    }
+
+    /**
+     * Returns the approximate size of the block in memory
+     * @return the size in bytes
+     */
+    public long sizeBytes() {
+        long size = 48 + (this.nulls == null ? 0 : 8L * this.nulls.length);
+        return size + switch (this.encoding) {
+            case PLAIN -> 4L * this.values.length;
+            case FOR, DELTA -> 8L * this.packed.length;
+            case RLE -> 8L * this.runEnds.length;
+        };
+    }
+
+    /**
+     * Writes the block in its sealed form (an open block is sealed first)
+     * @param out the output
+     * @throws IOException if the output cannot be written
+     */
+    public void write(DataOutput out) throws IOException {
+        seal();
+        out.writeByte(this.encoding.ordinal());
+        out.writeShort(this.count);
+        out.writeBoolean(this.nulls != null);
+        if (this.nulls != null) {
+            for (long word : this.nulls) out.writeLong(word);
+        }
+        switch (this.encoding) {
+            case FOR, DELTA -> {
+                out.writeLong(this.base);
+                out.writeLong(this.minDelta);
+                out.writeByte(this.width);
+                for (long word : this.packed) out.writeLong(word);
+            }
+            case RLE -> {
+                out.writeShort(this.runEnds.length);
+                for (int run = 0; run < this.runEnds.length; run++) {
+                    out.writeInt(this.runValues[run]);
+                    out.writeShort(this.runEnds[run]);
+                }
+            }
+            default -> {
+                // An empty block stays PLAIN
+            }
+        }
+    }
+
+    /**
+     * Reads a block written by write
+     * @param in the input
+     * @return the sealed block
+     * @throws IOException if the input cannot be read or is not a block
+     */
+    public static IntBlock read(DataInput in) throws IOException {
+        IntBlock block = new IntBlock();
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= Encoding.values().length) throw new IOException("Bad block encoding: " + ordinal);
+        block.encoding = Encoding.values()[ordinal];
+        block.count = in.readShort();
+        if (in.readBoolean()) {
+            block.nulls = new long[(ZoneMap.BLOCK_SIZE + 63) / 64];
+            for (int i = 0; i < block.nulls.length; i++) block.nulls[i] = in.readLong();
+        }
+        switch (block.encoding) {
+            case FOR, DELTA -> {
+                block.base = in.readLong();
+                block.minDelta = in.readLong();
+                block.width = in.readByte();
+                block.packed = new long[words(block.encoding == Encoding.FOR ? block.count : block.count - 1, block.width)];
+                for (int i = 0; i < block.packed.length; i++) block.packed[i] = in.readLong();
+                block.values = null;
+            }
+            case RLE -> {
+                int runs = in.readShort();
+                block.runValues = new int[runs];
+                block.runEnds = new int[runs];
+                for (int run = 0; run < runs; run++) {
+                    block.runValues[run] = in.readInt();
+                    block.runEnds[run] = in.readShort();
+                }
+                block.values = null;
+            }
+            default -> {
+                // Empty block
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Getters
+     */
+
+    public Encoding getEncoding() {
+        return this.encoding;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    // Number of bits needed for a value from 0 to max
+    private static int bits(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    // Number of longs holding n values of the given width
+    private static int words(int n, int width) {
+        return (int) (((long) Math.max(0, n) * width + 63) / 64);
+    }
+
+    // Stores the i-th value of the given width
+    private static void pack(long[] words, int i, int width, long value) {
+        if (width == 0) return;
+        long bit = (long) i * width;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        words[word] |= value << shift;
+        if (shift + width > 64) {
+            words[word + 1] |= value >>> (64 - shift);
+        }
+    }
+
+    // Reads the i-th value of the given width
+    private static long unpack(long[] words, int i, int width) {
+        if (width == 0) return 0;
+        long bit = (long) i * width;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = words[word] >>> shift;
+        if (shift + width > 64) {
+            value |= words[word + 1] << (64 - shift);
+        }
+        return width == 64 ? value : value & ((1L << width) - 1);
+    }
+}
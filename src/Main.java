@@ -1,13 +1,67 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.Scanner;
 
 public class Main {
 
-    public static void main(String[] args) {
+    /**
+     * Runs the query loop on the database in the db folder
+     * With --primary port, the changes are also shipped to the read replicas that connect to the port
+     * With --replica host:port, the queries run on an in-memory read replica of the primary at host:port
+     * With --shard port, the database is a shard served to a coordinator on the port (no query loop)
+     * With --coordinator file, the queries run on the shards listed in the file (see ShardCoordinator)
+     * With --cdc port, the committed changes are also served to the change feed consumers that connect to the port
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws IOException {
         Scanner scanner = new Scanner(System.in);
+
+        if (args.length == 2 && args[0].equals("--replica")) {
+            String[] address = args[1].split(":");
+            ReplicationReplica replica = ReplicationReplica.connect(address[0], Integer.parseInt(address[1]), 10_000);
+
+            System.out.print("$ ");
+            while (true) {
+                String query = scanner.nextLine();
+                try {
+                    replica.checkQuery(query);
+                } catch (InvalidQueryException e) {
+                    System.err.println("Invalid Query: " + e.getMessage());
+                    System.out.print("$ ");
+                    continue;
+                }
+                runQuery(query, replica.getDatabase());
+            }
+        }
+
+        if (args.length == 2 && args[0].equals("--coordinator")) {
+            ShardCoordinator coordinator = ShardCoordinator.open(args[1]);
+
+            System.out.print("$ ");
+            while (true) {
+                String query = scanner.nextLine();
+                runQuery(query, coordinator);
+            }
+        }
+
         Database db = new Database("db", "schema.txt");
         // Populate the database from CSV files
         db.populateDB();
 
+        if (args.length == 2 && args[0].equals("--primary")) {
+            ReplicationPrimary.start(db, Integer.parseInt(args[1]));
+        }
+
+        if (args.length == 2 && args[0].equals("--cdc")) {
+            ChangeFeedServer.start(db, Integer.parseInt(args[1]));
+        }
+
+        if (args.length == 2 && args[0].equals("--shard")) {
+            // Serve the coordinator until the process is stopped
+            new ShardServer(db, Integer.parseInt(args[1])).run();
+        }
+
         System.out.print("$ ");
 
         while (true) {
@@ -21,14 +75,12 @@ public class Main {
      *
      * Implements the following algorithm
      *
-     * Determine the type of query (from select, insert or delete)
-     * If select query
-     *   Select data
-     *   Print results
-     * Else if insert query
-     *   Insert data
-     * Else if delete is given
-     *   Delete data
+     * If the query starts with explain analyze
+     *   Run the rest of the query (a select, insert, delete or update) without printing its results
+     *   Print the query statistics (time per phase, rows scanned/returned, bytes allocated)
+     * Else
+     *   Run the query on the database (see Database.execute)
+     *   If it is a select, print the results
      *
      * @param query query the SQL query to execute
      * @param db db the database object to operate on
@@ -38,22 +90,30 @@ public class Main {
             // Normalize query string
             String lowered = query.toLowerCase().trim();
 
-            // If query is a SELECT, fetch and print results
-            if (lowered.startsWith("select")) {
-                ITable result = db.selectData(query);
-                IO.printTable(result, result.getSchema());
-
-                // If query is an INSERT, update the database
-            } else if (lowered.startsWith("insert")) {
-                db.insertData(query);
+            // EXPLAIN ANALYZE: run the query, then print its statistics instead of its results
+            if (lowered.startsWith("explain analyze")) {
+                String inner = query.trim().substring("explain analyze".length()).trim();
+                String innerLowered = inner.toLowerCase();
+                if (!innerLowered.startsWith("select") && !innerLowered.startsWith("insert")
+                        && !innerLowered.startsWith("delete") && !innerLowered.startsWith("update")) {
+                    throw new InvalidQueryException("EXPLAIN ANALYZE supports select, insert, delete and update queries.");
+                }
+                ITable result = db.execute(inner);
+                if (result != null) {
+                    long start = System.nanoTime();
+                    IO.printTable(result, result.getSchema(), new PrintStream(OutputStream.nullOutputStream()));
+                    db.getLastQueryStats().addTime(QueryStats.Phase.OUTPUT, System.nanoTime() - start);
+                }
+                System.out.println(db.getLastQueryStats());
 
-                // If query is a DELETE, remove data
-            } else if (lowered.startsWith("delete")) {
-                db.deleteData(query);
-
-                // Unrecognized query type
+                // Any other query: run it, and print the results of a select
             } else {
-                System.err.println("Unknown query type.");
+                ITable result = db.execute(query);
+                if (result != null) {
+                    long start = System.nanoTime();
+                    IO.printTable(result, result.getSchema());
+                    db.getLastQueryStats().addTime(QueryStats.Phase.OUTPUT, System.nanoTime() - start);
+                }
             }
 
             // Catch and report invalid query errors
@@ -68,4 +128,27 @@ public class Main {
         }
         System.out.print("$ ");
     }
+
+    /**
+     * Runs the given query on a sharded database and prints the results of a select
+     * @param query the SQL query to execute
+     * @param coordinator the coordinator of the shards
+     */
+    public static void runQuery(String query, ShardCoordinator coordinator) {
+        try {
+            ITable result = coordinator.execute(query);
+            if (result != null) {
+                IO.printTable(result, result.getSchema());
+            }
+        } catch (InvalidQueryException e) {
+            System.err.println("Invalid Query: " + e.getMessage());
+            System.out.println("$ ");
+
+            // Catch and report any other unexpected errors
+        } catch (Exception e) {
+            System.err.println("Unexpected error: " + e.getMessage());
+            System.out.println("$ ");
+        }
+        System.out.print("$ ");
+    }
 }
\ No newline at end of file
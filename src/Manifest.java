@@ -0,0 +1,122 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The manifest of a database folder: the last checkpoint of every table
+ *
+ * A checkpoint is a complete copy of a table in its csv file. The manifest records, for each table, the size
+ * and CRC-32 of its checkpoint and the position in the table's log up to which the checkpoint includes the
+ * changes; recovery reads the checkpoint and replays the log from that position only.
+ * The manifest is the commit point of a checkpoint: it is replaced atomically (see IO.writeAtomically).
+ *
+ * The manifest is stored in manifest.txt, one line per table: table,logOffset,length,crc
+ */
+public class Manifest {
+    public static final String FILE_NAME = "manifest.txt";
+
+    /**
+     * The last checkpoint of a table
+     */
+    public static class Entry {
+        long logOffset;     // Position in the log of the first change not included in the checkpoint
+        long length;        // Size of the checkpoint (csv file) in bytes
+        long crc;           // CRC-32 of the checkpoint
+
+        public Entry(long logOffset, long length, long crc) {
+            this.logOffset = logOffset;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        public long getLogOffset() {
+            return this.logOffset;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+
+        public long getCrc() {
+            return this.crc;
+        }
+    }
+
+    private String folder;                  // Database folder
+    private Map<String, Entry> entries;     // Checkpoints, by lower case table name
+
+    private Manifest(String folder) {
+        this.folder = folder;
+        this.entries = new LinkedHashMap<>();
+    }
+
+    /**
+     * Reads the manifest of a database folder
+     * @param folder the database folder
+     * @return the manifest (empty if the folder has none yet)
+     */
+    public static Manifest load(String folder) {
+        Manifest manifest = new Manifest(folder);
+        Path path = Paths.get(folder, FILE_NAME);
+        if (!Files.exists(path)) return manifest;
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields.length != 4) continue;
+                manifest.entries.put(fields[0].toLowerCase(), new Entry(Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error reading manifest: " + e.getMessage());
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the last checkpoint of a table
+     * @param table the table name
+     * @return the checkpoint, or null if the table was never checkpointed
+     */
+    public Entry get(String table) {
+        return this.entries.get(table.toLowerCase());
+    }
+
+    /**
+     * Records a checkpoint of a table and writes the manifest
+     * @param table the table name
+     * @param entry the checkpoint
+     * @throws IOException if the manifest cannot be written
+     */
+    public void put(String table, Entry entry) throws IOException {
+        this.entries.put(table.toLowerCase(), entry);
+        save();
+    }
+
+    /**
+     * Removes a table and writes the manifest
+     * @param table the table name
+     * @throws IOException if the manifest cannot be written
+     */
+    public void remove(String table) throws IOException {
+        if (this.entries.remove(table.toLowerCase()) != null) {
+            save();
+        }
+    }
+
+    // Replaces the manifest file atomically
+    private void save() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+            Entry entry = e.getValue();
+            sb.append(e.getKey()).append(',').append(entry.logOffset).append(',')
+                    .append(entry.length).append(',').append(entry.crc).append('\n');
+        }
+        IO.writeAtomically(Paths.get(this.folder, FILE_NAME), sb.toString());
+    }
+}
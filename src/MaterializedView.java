@@ -0,0 +1,414 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A materialized view: the result of a select query on one table, stored in a Table and kept up to date
+ *
+ * The query is either a projection, select a1, a2 from table [where condition], or an aggregation,
+ * select [attr,] aggregate, ... from table [where condition] [group by attr], with the aggregates count, sum
+ * and avg. Each selected item may be renamed (item as name); an aggregate is otherwise named after its function
+ * and attribute (count for count(*), sum_credits for sum(credits)) so that selects on the view can name it.
+ * With group by, the group by attribute must be selected: it is the first attribute of the view.
+ * Changes to the table are applied to the view as deltas (see insert and delete), so the view never reads the
+ * table again; selects read the view table like any other small table.
+ *
+ * The tuples of a projection are indexed by their values, so a deleted or updated base tuple finds its view tuple
+ * without a scan of the view. Tuples are removed in place (the last tuple of the view takes their position), and
+ * the view table is never rebuilt by a change.
+ *
+ * The aggregates are the ones whose result can be kept up to date when tuples are deleted: min and max cannot
+ * (the next smallest value is not known) and the approximate aggregates cannot remove values from their sketches.
+ */
+public class MaterializedView {
+
+    /**
+     * The running aggregates of a group of tuples, and the position of its tuple in the view table
+     */
+    private static class Group {
+        Object key;             // Value of the group by attribute (null without group by)
+        long tuples;            // Number of tuples in the group
+        long[] counts;          // Non null values, per aggregate
+        long[] intSums;         // Sum of the Integer values, per aggregate
+        double[] sums;          // Sum of the Double values, per aggregate
+        int row;                // Position of the group's tuple in the view table
+
+        Group(Object key, int aggregates) {
+            this.key = key;
+            this.counts = new long[aggregates];
+            this.intSums = new long[aggregates];
+            this.sums = new double[aggregates];
+        }
+    }
+
+    private String name;                // View name
+    private String query;               // The select query of the view
+    private String baseName;            // Name of the table the view reads
+    private Condition condition;        // Where clause condition (null if none)
+    private int lhsIndex;               // Index of the condition attribute in the base table
+    private AttributeType lhsType;      // Type of the condition attribute
+    private Object rhsValue;            // Condition value, converted to the attribute type
+    private int[] projection;           // Projection: index of each selected attribute in the base table
+    private List<Aggregate> aggregates; // Aggregation: the aggregates (empty for a projection)
+    private int[] aggregateIndexes;     // Index of the attribute of each aggregate (-1 for count(*))
+    private int groupIndex;             // Index of the group by attribute (-1 if none)
+    private Map<Object, Group> groups;  // Groups, by group by value
+    private Map<List<Object>, List<Integer>> rows;  // Projection: positions of the view tuples, by their values
+    private Table table;                // The view tuples
+
+    private MaterializedView(String name, String query) {
+        this.name = name;
+        this.query = query;
+        this.groups = new LinkedHashMap<>();
+        this.rows = new HashMap<>();
+    }
+
+    /**
+     * Parses the query of a view and computes its tuples from the table it reads
+     *
+     * Implements the following algorithm
+     *
+     * Parse the query to get the select, from, where and group by clauses
+     * If the query is not valid (unknown attribute, unsupported aggregate, attributes not grouped on)
+     *   Throw an invalid query exception
+     *   Exit
+     * Create the view table with the result schema of the query
+     * For each tuple in the base table
+     *   Apply the insertion of the tuple to the view
+     *
+     * @param name the view name
+     * @param query the select query
+     * @param base the table named in the from clause
+     * @return the view
+     * @throws InvalidQueryException if the query is not supported
+     */
+    public static MaterializedView create(String name, String query, ITable base) throws InvalidQueryException {
+        MaterializedView view = new MaterializedView(name, query.trim());
+        view.parse(base);
+        view.rebuild(base);
+        return view;
+    }
+
+    // Parses the query (see create)
+    private void parse(ITable base) throws InvalidQueryException {
+        String lowered = this.query.toLowerCase();
+        int fromStart = lowered.indexOf(" from ");
+        if (!lowered.startsWith("select") || fromStart == -1) {
+            throw new InvalidQueryException("A materialized view needs a select query.");
+        }
+
+        String[] items = Database.splitSelectList(this.query.substring("select".length(), fromStart));
+        String rest = this.query.substring(fromStart + " from ".length()).trim();
+
+        String groupBy = null;
+        String[] groupParts = rest.split("(?i)\\s+group\\s+by\\s+");
+        if (groupParts.length == 2) {
+            rest = groupParts[0].trim();
+            groupBy = groupParts[1].trim();
+        }
+        String[] whereParts = rest.split("(?i)\\s+where\\s+");
+        this.baseName = whereParts[0].trim();
+        ISchema schema = base.getSchema();
+
+        this.lhsIndex = -1;
+        if (whereParts.length == 2) {
+            this.condition = Database.parseCondition(whereParts[1].trim());
+            this.lhsIndex = schema.indexOf(this.condition.getOperand1());
+            if (this.lhsIndex == -1) throw new InvalidQueryException("Unknown attribute in WHERE: " + this.condition.getOperand1());
+            this.lhsType = schema.getAttributeType(this.lhsIndex);
+            this.rhsValue = Database.parseOperand(this.lhsType, this.condition.getOperand2());
+        }
+
+        this.groupIndex = groupBy == null ? -1 : schema.indexOf(groupBy);
+        if (groupBy != null && this.groupIndex == -1) throw new InvalidQueryException("Unknown attribute in GROUP BY: " + groupBy);
+
+        // Split the select list into the aggregates and the plain attributes, and name the view attributes
+        this.aggregates = new ArrayList<>();
+        List<String> attributes = new ArrayList<>();
+        List<String> attributeNames = new ArrayList<>();
+        List<String> aggregateNames = new ArrayList<>();
+        for (String item : items) {
+            String[] renamed = item.trim().split("(?i)\\s+as\\s+");
+            Aggregate aggregate = Aggregate.parse(renamed[0]);
+            if (aggregate == null) {
+                attributes.add(renamed[0].trim());
+                attributeNames.add(renamed.length == 2 ? renamed[1].trim() : renamed[0].trim());
+                continue;
+            }
+            String function = aggregate.getFunction().name().toLowerCase();
+            aggregateNames.add(renamed.length == 2 ? renamed[1].trim()
+                    : aggregate.getAttribute() == null ? function : function + "_" + aggregate.getAttribute());
+            if (aggregate.getFunction() == Aggregate.Function.COUNT || aggregate.getFunction() == Aggregate.Function.SUM
+                    || aggregate.getFunction() == Aggregate.Function.AVG) {
+                this.aggregates.add(aggregate);
+            } else {
+                throw new InvalidQueryException(aggregate.getName() + " cannot be maintained in a materialized view (use count, sum or avg).");
+            }
+        }
+
+        Map<Integer, String> attrs = new HashMap<>();
+        if (this.aggregates.isEmpty()) {
+            if (groupBy != null) throw new InvalidQueryException("GROUP BY needs aggregates.");
+            this.projection = new int[attributes.size()];
+            for (int i = 0; i < attributes.size(); i++) {
+                this.projection[i] = schema.indexOf(attributes.get(i));
+                if (this.projection[i] == -1) throw new InvalidQueryException("Unknown attribute: " + attributes.get(i));
+                attrs.put(i, attributeNames.get(i) + ":" + schema.getType(this.projection[i]));
+            }
+        } else {
+            // Aggregation: only the group by attribute can be selected, before the aggregates
+            if (attributes.size() > 1 || (attributes.size() == 1 && (groupBy == null || !attributes.get(0).equalsIgnoreCase(groupBy)))) {
+                throw new InvalidQueryException("Only the GROUP BY attribute can be selected with aggregates.");
+            }
+            if (groupBy != null && attributes.isEmpty()) {
+                // The group of a view tuple is found from its first attribute (see delete)
+                throw new InvalidQueryException("The GROUP BY attribute must be selected: " + groupBy);
+            }
+            int offset = 0;
+            if (this.groupIndex != -1) {
+                attrs.put(offset++, attributeNames.get(0) + ":" + schema.getType(this.groupIndex));
+            }
+            this.aggregateIndexes = new int[this.aggregates.size()];
+            for (int i = 0; i < this.aggregates.size(); i++) {
+                Aggregate aggregate = this.aggregates.get(i);
+                this.aggregateIndexes[i] = aggregate.getAttribute() == null ? -1 : schema.indexOf(aggregate.getAttribute());
+                if (aggregate.getAttribute() != null && this.aggregateIndexes[i] == -1) {
+                    throw new InvalidQueryException("Unknown attribute: " + aggregate.getAttribute());
+                }
+                AttributeType type = this.aggregateIndexes[i] == -1 ? AttributeType.INTEGER : schema.getAttributeType(this.aggregateIndexes[i]);
+                attrs.put(offset++, aggregateNames.get(i) + ":" + aggregate.getResultType(type).getName());
+            }
+        }
+        this.table = new Table(this.name, new Schema(attrs));
+    }
+
+    /**
+     * Recomputes the view from all the tuples of its table (e.g. after a partition of the table was dropped)
+     * @param base the table the view reads
+     */
+    public void rebuild(ITable base) {
+        this.table.setTuples(new ArrayList<>());
+        this.groups.clear();
+        this.rows.clear();
+        if (!this.aggregates.isEmpty() && this.groupIndex == -1) {
+            // Without group by, the view always has one tuple (count 0 over no tuples)
+            addGroup(null);
+        }
+        for (ITuple tuple : base.getTuples()) {
+            insert(tuple);
+        }
+    }
+
+    /**
+     * Applies the insertion of a tuple into the base table
+     * @param tuple the inserted tuple
+     */
+    public void insert(ITuple tuple) {
+        if (!matches(tuple)) return;
+
+        if (this.aggregates.isEmpty()) {
+            List<Object> values = project(tuple.getValues());
+            Tuple projected = new Tuple(this.table.getSchema());
+            projected.setValues(values.toArray());
+            this.rows.computeIfAbsent(values, v -> new ArrayList<>()).add(this.table.getTuples().size());
+            this.table.addTuple(projected);
+            return;
+        }
+
+        Object key = this.groupIndex == -1 ? null : tuple.getValue(this.groupIndex);
+        Group group = this.groups.get(key);
+        if (group == null) group = addGroup(key);
+        accumulate(group, tuple, 1);
+        refresh(group);
+    }
+
+    /**
+     * Applies the deletion of tuples from the base table
+     * @param tuples the deleted tuples
+     */
+    public void delete(List<ITuple> tuples) {
+        if (this.aggregates.isEmpty()) {
+            deleteProjected(tuples);
+            return;
+        }
+
+        List<Group> emptied = new ArrayList<>();
+        for (ITuple tuple : tuples) {
+            if (!matches(tuple)) continue;
+            Group group = this.groups.get(this.groupIndex == -1 ? null : tuple.getValue(this.groupIndex));
+            if (group == null || group.tuples == 0) continue;
+            accumulate(group, tuple, -1);
+            if (group.tuples == 0 && this.groupIndex != -1) {
+                emptied.add(group);
+            } else {
+                refresh(group);
+            }
+        }
+
+        // Remove the tuples of the groups that became empty (the group of the last tuple takes the position)
+        for (Group group : emptied) {
+            this.groups.remove(group.key);
+            int last = this.table.getTuples().size() - 1;
+            if (group.row != last) {
+                this.groups.get(this.table.getTuples().get(last).getValue(0)).row = group.row;
+            }
+            this.table.removeTuple(group.row);
+        }
+    }
+
+    /**
+     * Applies the update of tuples of the base table
+     * A view tuple of a projection whose base tuple still matches the where clause is modified in place
+     * @param before the tuples before the update
+     * @param after the same tuples after the update
+     */
+    public void update(List<ITuple> before, List<ITuple> after) {
+        if (!this.aggregates.isEmpty()) {
+            delete(before);
+            for (ITuple tuple : after) {
+                insert(tuple);
+            }
+            return;
+        }
+
+        for (int i = 0; i < before.size(); i++) {
+            boolean was = matches(before.get(i));
+            boolean is = matches(after.get(i));
+            if (was && is) {
+                List<Object> values = project(after.get(i).getValues());
+                int row = removeRow(project(before.get(i).getValues()));
+                if (row == -1) continue;
+                this.table.getTuples().get(row).setValues(values.toArray());
+                this.table.refreshTuple(row);
+                this.rows.computeIfAbsent(values, v -> new ArrayList<>()).add(row);
+            } else if (was) {
+                deleteProjected(List.of(before.get(i)));
+            } else if (is) {
+                insert(after.get(i));
+            }
+        }
+    }
+
+    // Removes one view tuple per deleted tuple that matches the where clause (the view may hold duplicates)
+    private void deleteProjected(List<ITuple> tuples) {
+        for (ITuple tuple : tuples) {
+            if (!matches(tuple)) continue;
+            int row = removeRow(project(tuple.getValues()));
+            if (row == -1) continue;
+
+            // The last view tuple takes the position of the removed one
+            int last = this.table.getTuples().size() - 1;
+            if (row != last) {
+                List<Integer> moved = this.rows.get(valuesOf(this.table.getTuples().get(last)));
+                moved.set(moved.indexOf(last), row);
+            }
+            this.table.removeTuple(row);
+        }
+    }
+
+    // Removes a position of a view tuple with the given values from the index and returns it (-1 if there is none)
+    private int removeRow(List<Object> values) {
+        List<Integer> positions = this.rows.get(values);
+        if (positions == null) return -1;
+        int row = positions.remove(positions.size() - 1);
+        if (positions.isEmpty()) this.rows.remove(values);
+        return row;
+    }
+
+    // The projected values of a base tuple (as a list, comparable with valuesOf)
+    private List<Object> project(Object[] values) {
+        List<Object> projected = new ArrayList<>(this.projection.length);
+        for (int index : this.projection) {
+            projected.add(values[index]);
+        }
+        return projected;
+    }
+
+    // The values of a view tuple (as a list, comparable with project)
+    private static List<Object> valuesOf(ITuple tuple) {
+        List<Object> values = new ArrayList<>();
+        for (Object value : tuple.getValues()) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    // Checks if a base tuple satisfies the where clause (null values never do)
+    private boolean matches(ITuple tuple) {
+        if (this.condition == null) return true;
+        Object value = tuple.getValue(this.lhsIndex);
+        if (value == null) return false;
+        try {
+            return Database.evaluate(value, this.lhsType, this.condition.getOperator(), this.rhsValue);
+        } catch (InvalidQueryException e) {
+            return false;
+        }
+    }
+
+    // Adds a group (and its tuple) to the view
+    private Group addGroup(Object key) {
+        Group group = new Group(key, this.aggregates.size());
+        group.row = this.table.getTuples().size();
+        this.groups.put(key, group);
+        Tuple tuple = new Tuple(this.table.getSchema());
+        this.table.addTuple(tuple);
+        refresh(group);
+        return group;
+    }
+
+    // Adds (sign 1) or removes (sign -1) a tuple to the running aggregates of a group
+    private void accumulate(Group group, ITuple tuple, int sign) {
+        group.tuples += sign;
+        for (int i = 0; i < this.aggregates.size(); i++) {
+            int index = this.aggregateIndexes[i];
+            if (index == -1) continue;
+            Object value = tuple.getValue(index);
+            if (value == null) continue;
+            group.counts[i] += sign;
+            if (value instanceof Integer v) group.intSums[i] += (long) sign * v;
+            else if (value instanceof Number n) group.sums[i] += sign * n.doubleValue();
+        }
+    }
+
+    // Writes the values of a group to its tuple of the view table (the values already have the attribute types)
+    private void refresh(Group group) {
+        Object[] values = this.table.getTuples().get(group.row).getValues();
+        int offset = 0;
+        if (this.groupIndex != -1) {
+            values[offset++] = group.key;
+        }
+        for (int i = 0; i < this.aggregates.size(); i++) {
+            long count = this.aggregateIndexes[i] == -1 ? group.tuples : group.counts[i];
+            boolean integer = this.table.getSchema().getAttributeType(offset) == AttributeType.INTEGER;
+            Object value = switch (this.aggregates.get(i).getFunction()) {
+                case COUNT -> Aggregate.countValue(count);
+                case SUM -> count == 0 ? null : integer ? (Object) Math.toIntExact(group.intSums[i]) : (Object) (group.sums[i] + group.intSums[i]);
+                default -> count == 0 ? null : (group.sums[i] + group.intSums[i]) / count;
+            };
+            values[offset++] = value;
+        }
+        this.table.refreshTuple(group.row);
+    }
+
+    /**
+     * Getters
+     */
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
+
+    public String getBaseName() {
+        return this.baseName;
+    }
+
+    public ITable getTable() {
+        return this.table;
+    }
+}
@@ -0,0 +1,458 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A table whose tuples are stored outside the Java heap, in direct byte buffers
+ *
+ * Every tuple is stored as a fixed-size row whose layout is derived from the schema:
+ *   a null bitmap (one bit per attribute), then for each attribute
+ *   Integer: 4 bytes, Double: 8 bytes,
+ *   String: a 2-byte length and STRING_BYTES bytes of UTF-8 (longer strings are kept on the heap
+ *   in an overflow list, the row then holds length -1 and the index of the string in the list)
+ * Rows are stored in chunks of about CHUNK_BYTES bytes, so the heap only holds one object per chunk.
+ *
+ * getTuples returns a read-through view: each tuple of the list reads its values from the buffers
+ * when they are asked for. filter compares the values of a range of rows with a constant in the buffers
+ * (Strings as UTF-8 bytes), so a scan only creates heap objects for the tuples it returns.
+ * Tuples of the view are only valid until the table is modified by setTuples.
+ *
+ * The slot of an overflow String is reused once its row is overwritten, and a compaction (setTuples) renumbers
+ * the overflow Strings of the rows it keeps, so the overflow list only holds the Strings of the table.
+ * Off-heap tables are not dictionary encoded.
+ */
+public class OffHeapTable implements ITable {
+    public static final int CHUNK_BYTES = 4 << 20;                                  // Size of one buffer
+    public static final int STRING_BYTES = Integer.getInteger("qe.offheap.stringBytes", 32);  // Inline String size
+
+    private String name;                // Table name (matches schema name and CSV file)
+    private ISchema schema;             // Schema describing the structure of the table
+    private AttributeType[] types;      // Attribute types, by index
+    private int[] offsets;              // Offset of each attribute in a row
+    private int rowSize;                // Size of a row in bytes
+    private int rowsPerChunk;           // Number of rows per buffer
+    private List<ByteBuffer> chunks;    // Direct buffers holding the rows
+    private List<String> overflow;      // Strings longer than STRING_BYTES bytes (null for a free slot)
+    private Deque<Integer> freeSlots;   // Free slots of the overflow list
+    private byte[] emptyRow;            // Bytes of a row before its values are written (all zero)
+    private int size;                   // Number of tuples
+    private List<ZoneMap> zoneMaps;     // One zone map per block of ZoneMap.BLOCK_SIZE tuples
+    private long version;               // Increases every time the tuples change (used by the result cache)
+
+    /**
+     * constructor
+     * Computes the row layout from the schema
+     * @param name name of the table
+     * @param schema schema associated with the table
+     */
+    public OffHeapTable(String name, ISchema schema) {
+        this.name = name;
+        this.schema = schema;
+        this.types = new AttributeType[schema.size()];
+        this.offsets = new int[schema.size()];
+
+        int offset = (schema.size() + 7) / 8;   // null bitmap
+        for (int i = 0; i < schema.size(); i++) {
+            this.types[i] = schema.getAttributeType(i);
+            this.offsets[i] = offset;
+            offset += switch (this.types[i]) {
+                case INTEGER -> 4;
+                case DOUBLE -> 8;
+                default -> 2 + Math.max(4, STRING_BYTES);
+            };
+        }
+
+        this.rowSize = Math.max(1, offset);
+        this.rowsPerChunk = Math.max(1, CHUNK_BYTES / this.rowSize);
+        this.chunks = new ArrayList<>();
+        this.overflow = new ArrayList<>();
+        this.freeSlots = new ArrayDeque<>();
+        this.emptyRow = new byte[this.rowSize];
+        this.zoneMaps = new ArrayList<>();
+    }
+
+    /**
+     * Returns the table name
+     * @return String representing the name of the table.
+     */
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Copies the values of a tuple into a new row at the end of the table
+     * @param tuple the tuple to add
+     */
+    @Override
+    public void addTuple(ITuple tuple) {
+        if (this.size == this.chunks.size() * this.rowsPerChunk) {
+            this.chunks.add(ByteBuffer.allocateDirect(this.rowsPerChunk * this.rowSize));
+        }
+
+        // The row may hold the bytes of a row removed by a compaction
+        this.chunks.get(this.size / this.rowsPerChunk).put((this.size % this.rowsPerChunk) * this.rowSize, this.emptyRow);
+        for (int i = 0; i < this.types.length; i++) {
+            writeValue(this.size, i, tuple.getValue(i));
+        }
+
+        // Start a new block when the last one is full
+        if (this.zoneMaps.isEmpty() || this.zoneMaps.get(this.zoneMaps.size() - 1).isFull()) {
+            this.zoneMaps.add(new ZoneMap(this.size, this.schema));
+        }
+        this.zoneMaps.get(this.zoneMaps.size() - 1).add(tuple);
+
+        this.size++;
+        this.version++;
+    }
+
+    /**
+     * Returns a read-through view of the tuples (the list cannot be modified)
+     * @return the list of all tuples (rows).
+     */
+    @Override
+    public List<ITuple> getTuples() {
+        return new AbstractList<>() {
+            @Override
+            public ITuple get(int index) {
+                if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+                return new Row(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Replaces the tuples of the table and rebuilds the zone maps
+     * If the new tuples are rows of this table in increasing order (e.g. the tuples kept by a delete),
+     * the rows are compacted in place and the overflow Strings of the kept rows are renumbered;
+     * otherwise the values are copied into new rows
+     * @param tuples the new list of tuples
+     */
+    @Override
+    public void setTuples(List<ITuple> tuples) {
+        boolean compactable = true;
+        int previous = -1;
+        for (ITuple tuple : tuples) {
+            if (!(tuple instanceof Row row) || row.table() != this || row.row <= previous) {
+                compactable = false;
+                break;
+            }
+            previous = row.row;
+        }
+
+        if (compactable) {
+            List<String> kept = new ArrayList<>();
+            int write = 0;
+            for (ITuple tuple : tuples) {
+                int read = ((Row) tuple).row;
+                if (read != write) copyRow(read, write);
+                if (!this.overflow.isEmpty()) moveOverflow(write, kept);
+                write++;
+            }
+            this.size = write;
+            this.overflow = kept;
+            this.freeSlots.clear();
+
+            this.zoneMaps = new ArrayList<>();
+            for (int r = 0; r < this.size; r++) {
+                if (r % ZoneMap.BLOCK_SIZE == 0) {
+                    this.zoneMaps.add(new ZoneMap(r, this.schema));
+                }
+                this.zoneMaps.get(this.zoneMaps.size() - 1).add(new Row(r));
+            }
+        } else {
+            List<Object[]> copies = new ArrayList<>(tuples.size());
+            for (ITuple tuple : tuples) {
+                copies.add(tuple.getValues().clone());
+            }
+            this.size = 0;
+            this.overflow.clear();
+            this.freeSlots.clear();
+            this.zoneMaps = new ArrayList<>();
+            for (Object[] values : copies) {
+                Tuple tuple = new Tuple(this.schema);
+                System.arraycopy(values, 0, tuple.getValues(), 0, values.length);
+                addTuple(tuple);
+            }
+        }
+
+        // Release the buffers that are no longer used
+        int chunksNeeded = (this.size + this.rowsPerChunk - 1) / this.rowsPerChunk;
+        while (this.chunks.size() > chunksNeeded) {
+            this.chunks.remove(this.chunks.size() - 1);
+        }
+        this.version++;
+    }
+
+    /**
+     * Returns the zone maps of the table
+     * @return the list of zone maps, in tuple order
+     */
+    @Override
+    public List<ZoneMap> getZoneMaps() {
+        return this.zoneMaps;
+    }
+
+    /**
+     * Returns the version of the table
+     * @return the current version
+     */
+    @Override
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Increments the version of the table (to be called after modifying tuples in place)
+     */
+    @Override
+    public void incrementVersion() {
+        this.version++;
+    }
+
+    /**
+     * Updates the table after the tuple at the given position was modified in place (through setValue)
+     * @param row position of the modified tuple
+     */
+    @Override
+    public void refreshTuple(int row) {
+        this.zoneMaps.get(row / ZoneMap.BLOCK_SIZE).include(new Row(row));
+        this.version++;
+    }
+
+    /**
+     * Returns the table schema
+     * @return ISchema as the schema of the table.
+     */
+    @Override
+    public ISchema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Finds the rows of a range whose attribute satisfies "value operator rhs", in the buffers
+     * Same semantics as Database.evaluate (a null value never matches); no object is created per row
+     * @param start index of the first row
+     * @param end index after the last row
+     * @param index the attribute index
+     * @param operator =, !=, <, >, <= or >= (= and != for Strings)
+     * @param rhs the value compared with, converted to the attribute type
+     * @param matches array receiving the positions of the matching rows (at least end - start long)
+     * @return the number of matching rows
+     * @throws InvalidQueryException if the operator is not supported for the attribute type
+     */
+    public int filter(int start, int end, int index, String operator, Object rhs, int[] matches) throws InvalidQueryException {
+        if (this.types[index] == AttributeType.STRING) {
+            if (!operator.equals("=") && !operator.equals("!=")) {
+                throw new InvalidQueryException("Only = and != supported for Strings");
+            }
+            return filterString(start, end, index, operator.equals("="), (String) rhs, matches);
+        }
+
+        int count = 0;
+        for (int r = start; r < end; r++) {
+            ByteBuffer chunk = this.chunks.get(r / this.rowsPerChunk);
+            int base = (r % this.rowsPerChunk) * this.rowSize;
+            if ((chunk.get(base + index / 8) & (1 << (index % 8))) != 0) continue;
+
+            int pos = base + this.offsets[index];
+            boolean match = switch (this.types[index]) {
+                case INTEGER -> compare(Integer.compare(chunk.getInt(pos), (Integer) rhs), operator);
+                default -> compare(chunk.getDouble(pos), (Double) rhs, operator);
+            };
+            if (match) matches[count++] = r;
+        }
+        return count;
+    }
+
+    // Compares the UTF-8 bytes of the Strings of a range of rows with those of rhs
+    private int filterString(int start, int end, int index, boolean equal, String rhs, int[] matches) {
+        byte[] bytes = rhs.getBytes(StandardCharsets.UTF_8);
+        boolean inline = bytes.length <= STRING_BYTES;    // Otherwise only an overflow String can be equal
+        int count = 0;
+        for (int r = start; r < end; r++) {
+            ByteBuffer chunk = this.chunks.get(r / this.rowsPerChunk);
+            int base = (r % this.rowsPerChunk) * this.rowSize;
+            if ((chunk.get(base + index / 8) & (1 << (index % 8))) != 0) continue;
+
+            int pos = base + this.offsets[index];
+            short length = chunk.getShort(pos);
+            boolean same;
+            if (length < 0) {
+                same = !inline && this.overflow.get(chunk.getInt(pos + 2)).equals(rhs);
+            } else {
+                same = length == bytes.length;
+                for (int i = 0; same && i < length; i++) {
+                    same = chunk.get(pos + 2 + i) == bytes[i];
+                }
+            }
+            if (same == equal) matches[count++] = r;
+        }
+        return count;
+    }
+
+    // Compares two Double values (as Database.evaluate: NaN is not equal to anything)
+    private static boolean compare(double value, double rhs, String operator) {
+        return switch (operator) {
+            case "=" -> value == rhs;
+            case "!=" -> value != rhs;
+            case "<" -> value < rhs;
+            case ">" -> value > rhs;
+            case "<=" -> value <= rhs;
+            default -> value >= rhs;
+        };
+    }
+
+    // Applies a relational operator to the result of a comparison
+    private static boolean compare(int comparison, String operator) {
+        return switch (operator) {
+            case "=" -> comparison == 0;
+            case "!=" -> comparison != 0;
+            case "<" -> comparison < 0;
+            case ">" -> comparison > 0;
+            case "<=" -> comparison <= 0;
+            default -> comparison >= 0;
+        };
+    }
+
+    // Reads one value of a row from its buffer
+    private Object readValue(int row, int index) {
+        ByteBuffer chunk = this.chunks.get(row / this.rowsPerChunk);
+        int base = (row % this.rowsPerChunk) * this.rowSize;
+
+        if ((chunk.get(base + index / 8) & (1 << (index % 8))) != 0) return null;
+
+        int pos = base + this.offsets[index];
+        switch (this.types[index]) {
+            case INTEGER:
+                return chunk.getInt(pos);
+            case DOUBLE:
+                return chunk.getDouble(pos);
+            default:
+                short length = chunk.getShort(pos);
+                if (length < 0) return this.overflow.get(chunk.getInt(pos + 2));
+                byte[] bytes = new byte[length];
+                chunk.get(pos + 2, bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Writes one value of a row to its buffer, converting it to the attribute type
+    private void writeValue(int row, int index, Object value) {
+        ByteBuffer chunk = this.chunks.get(row / this.rowsPerChunk);
+        int base = (row % this.rowsPerChunk) * this.rowSize;
+        int nullByte = base + index / 8;
+        int mask = 1 << (index % 8);
+        int pos = base + this.offsets[index];
+
+        // Free the slot of the overflow String the value replaces
+        if (this.types[index] == AttributeType.STRING && (chunk.get(nullByte) & mask) == 0 && chunk.getShort(pos) < 0) {
+            int slot = chunk.getInt(pos + 2);
+            this.overflow.set(slot, null);
+            this.freeSlots.push(slot);
+        }
+
+        if (value == null) {
+            chunk.put(nullByte, (byte) (chunk.get(nullByte) | mask));
+            return;
+        }
+        chunk.put(nullByte, (byte) (chunk.get(nullByte) & ~mask));
+
+        switch (this.types[index]) {
+            case INTEGER -> chunk.putInt(pos, value instanceof Integer i ? i : Integer.parseInt(value.toString()));
+            case DOUBLE -> chunk.putDouble(pos, value instanceof Double d ? d : Double.parseDouble(value.toString()));
+            default -> {
+                String text = value.toString();
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length <= STRING_BYTES) {
+                    chunk.putShort(pos, (short) bytes.length);
+                    chunk.put(pos + 2, bytes);
+                } else {
+                    chunk.putShort(pos, (short) -1);
+                    if (this.freeSlots.isEmpty()) {
+                        chunk.putInt(pos + 2, this.overflow.size());
+                        this.overflow.add(text);
+                    } else {
+                        int slot = this.freeSlots.pop();
+                        chunk.putInt(pos + 2, slot);
+                        this.overflow.set(slot, text);
+                    }
+                }
+            }
+        }
+    }
+
+    // Copies the bytes of a row to another position
+    private void copyRow(int from, int to) {
+        ByteBuffer source = this.chunks.get(from / this.rowsPerChunk);
+        ByteBuffer target = this.chunks.get(to / this.rowsPerChunk);
+        target.put((to % this.rowsPerChunk) * this.rowSize, source, (from % this.rowsPerChunk) * this.rowSize, this.rowSize);
+    }
+
+    // Moves the overflow Strings of a row to the end of a new overflow list (renumbering them)
+    private void moveOverflow(int row, List<String> target) {
+        ByteBuffer chunk = this.chunks.get(row / this.rowsPerChunk);
+        int base = (row % this.rowsPerChunk) * this.rowSize;
+        for (int i = 0; i < this.types.length; i++) {
+            if (this.types[i] != AttributeType.STRING || (chunk.get(base + i / 8) & (1 << (i % 8))) != 0) continue;
+
+            int pos = base + this.offsets[i];
+            if (chunk.getShort(pos) < 0) {
+                target.add(this.overflow.get(chunk.getInt(pos + 2)));
+                chunk.putInt(pos + 2, target.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * A tuple of the table: reads and writes its values directly in the buffers
+     * getValues returns a copy, so changes must go through setValue or setValues
+     */
+    private class Row implements ITuple {
+        private final int row;      // Position of the row in the table
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        OffHeapTable table() {
+            return OffHeapTable.this;
+        }
+
+        @Override
+        public void setValue(int index, Object value) {
+            writeValue(this.row, index, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getValue(int index) {
+            return (T) readValue(this.row, index);
+        }
+
+        @Override
+        public Object[] getValues() {
+            Object[] values = new Object[types.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue(this.row, i);
+            }
+            return values;
+        }
+
+        @Override
+        public void setValues(Object[] values) {
+            for (int i = 0; i < values.length; i++) {
+                setValue(i, values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,546 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A table split into partitions on an Integer key attribute
+ *
+ * Each partition is an ordinary table (Table or OffHeapTable) named table.partition, with its own csv file,
+ * log and checkpoint. The partitioned table shows the tuples of its partitions one after the other, in
+ * partition order: tuple positions, zone maps and tuple lists are those of the concatenation.
+ *
+ * The partitioning is declared after the attributes of the table definition (in schema.txt or create table):
+ *   partition by range(byear) (old to 1990, p1990 from 1990 to 2000, recent from 2000)
+ *   partition by list(byear) (y1999 in 1999, y2000 in 2000|2001, other)
+ * A range partition holds the keys from its lower bound (inclusive) to its upper bound (exclusive); a missing
+ * bound is unbounded, and ranges cannot overlap. A list partition holds the listed keys; a list partition
+ * without values holds the keys of no other partition. Keys cannot be null, and a tuple whose key falls in no
+ * partition is rejected.
+ *
+ * A condition on the key prunes the partitions that cannot hold a matching tuple (see mightMatch).
+ * String attributes are not dictionary encoded at this level, so this is not an IEncodedTable (each partition
+ * has its own dictionaries, and a where clause on a String attribute compares the values).
+ */
+public class PartitionedTable implements ITable {
+
+    /**
+     * Partitioning methods
+     */
+    public enum Method { RANGE, LIST }
+
+    /**
+     * A partition: its bounds or values and the table holding its tuples
+     */
+    public static class Partition {
+        String name;            // Partition name (the table is named table.partition)
+        Integer from;           // Range: lowest key (null if unbounded)
+        Integer to;             // Range: key after the highest key (null if unbounded)
+        Set<Integer> values;    // List: the keys (null for the default partition)
+        ITable table;           // The tuples of the partition
+
+        public String getName() {
+            return this.name;
+        }
+
+        public ITable getTable() {
+            return this.table;
+        }
+    }
+
+    private String name;                // Table name
+    private ISchema schema;             // Schema of the table (shared by the partitions)
+    private Method method;              // Range or list partitioning
+    private int keyIndex;               // Index of the key attribute in the schema
+    private List<Partition> partitions; // The partitions, in order
+    private long version;               // Increases every time the tuples change
+
+    private PartitionedTable(String name, ISchema schema, Method method, int keyIndex) {
+        this.name = name;
+        this.schema = schema;
+        this.method = method;
+        this.keyIndex = keyIndex;
+        this.partitions = new ArrayList<>();
+    }
+
+    /**
+     * Parses the partitioning clause of a table definition into an empty partitioned table
+     * @param name the table name
+     * @param schema the table schema
+     * @param clause the clause following "partition by", e.g. range(byear) (old to 2000, recent from 2000)
+     * @return the partitioned table
+     * @throws InvalidQueryException if the clause is malformed or the partitions overlap
+     */
+    public static PartitionedTable parse(String name, ISchema schema, String clause) throws InvalidQueryException {
+        int keyStart = clause.indexOf('(');
+        int keyEnd = clause.indexOf(')');
+        int listStart = clause.indexOf('(', keyEnd + 1);
+        int listEnd = clause.lastIndexOf(')');
+        if (keyStart == -1 || keyEnd < keyStart || listStart == -1 || listEnd < listStart) {
+            throw new InvalidQueryException("Malformed partition clause: " + clause);
+        }
+
+        Method method;
+        try {
+            method = Method.valueOf(clause.substring(0, keyStart).trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidQueryException("Partitioning must be by range or list: " + clause);
+        }
+
+        String key = clause.substring(keyStart + 1, keyEnd).trim();
+        int keyIndex = schema.indexOf(key);
+        if (keyIndex == -1 || schema.getAttributeType(keyIndex) != AttributeType.INTEGER) {
+            throw new InvalidQueryException("Partition key must be an Integer attribute: " + key);
+        }
+
+        PartitionedTable table = new PartitionedTable(name, schema, method, keyIndex);
+        for (String spec : clause.substring(listStart + 1, listEnd).split(",")) {
+            table.addPartition(table.parsePartition(spec));
+        }
+        if (table.partitions.isEmpty()) {
+            throw new InvalidQueryException("A partitioned table needs at least one partition: " + name);
+        }
+        return table;
+    }
+
+    /**
+     * Parses the definition of a partition, e.g. "p1990 from 1990 to 2000" or "y2000 in 2000|2001"
+     * The partition gets an empty table
+     * @param spec the partition definition
+     * @return the new partition (not added to the table)
+     * @throws InvalidQueryException if the definition is malformed
+     */
+    public Partition parsePartition(String spec) throws InvalidQueryException {
+        String[] tokens = spec.trim().split("\\s+");
+        Partition partition = new Partition();
+        partition.name = tokens[0];
+        if (!partition.name.matches("\\w+")) {
+            throw new InvalidQueryException("Malformed partition: " + spec.trim());
+        }
+
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                String word = tokens[i].toLowerCase();
+                if (i + 1 >= tokens.length) throw new InvalidQueryException("Missing value after " + word);
+                String value = tokens[i + 1];
+
+                if (this.method == Method.RANGE && word.equals("from") && partition.from == null) {
+                    partition.from = Integer.parseInt(value);
+                } else if (this.method == Method.RANGE && word.equals("to") && partition.to == null) {
+                    partition.to = Integer.parseInt(value);
+                } else if (this.method == Method.LIST && word.equals("in") && partition.values == null) {
+                    partition.values = new LinkedHashSet<>();
+                    for (String v : value.split("\\|")) {
+                        partition.values.add(Integer.parseInt(v.trim()));
+                    }
+                } else {
+                    throw new InvalidQueryException("Malformed partition: " + spec.trim());
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidQueryException("Partition bounds must be integers: " + spec.trim());
+        }
+
+        if (partition.from != null && partition.to != null && partition.from >= partition.to) {
+            throw new InvalidQueryException("Empty partition range: " + spec.trim());
+        }
+        partition.table = IO.newTable(this.name + "." + partition.name, this.schema);
+        return partition;
+    }
+
+    /**
+     * Adds a partition after the existing ones
+     * @param partition the partition (see parsePartition)
+     * @throws InvalidQueryException if a partition has the same name or overlaps it
+     */
+    public void addPartition(Partition partition) throws InvalidQueryException {
+        for (Partition other : this.partitions) {
+            if (other.name.equalsIgnoreCase(partition.name)) {
+                throw new InvalidQueryException("Partition already exists: " + partition.name);
+            }
+            if (overlap(other, partition)) {
+                throw new InvalidQueryException("Partition " + partition.name + " overlaps partition " + other.name);
+            }
+        }
+        this.partitions.add(partition);
+        this.version++;
+    }
+
+    /**
+     * Moves the tuples of the default list partition whose key belongs to a partition (e.g. a partition just
+     * attached, whose keys the default partition held until then) to that partition
+     * @param partition the partition receiving the tuples
+     * @return the default partition if tuples were moved, or null
+     */
+    public Partition moveFromDefault(Partition partition) {
+        if (this.method != Method.LIST || partition.values == null) return null;
+        for (Partition other : this.partitions) {
+            if (other.values != null) continue;
+
+            List<ITuple> kept = new ArrayList<>();
+            int moved = 0;
+            for (ITuple tuple : other.table.getTuples()) {
+                if (partition.values.contains((Integer) tuple.getValue(this.keyIndex))) {
+                    // Added before the default partition is replaced (off-heap tuples read their values from it)
+                    partition.table.addTuple(tuple);
+                    moved++;
+                } else {
+                    kept.add(tuple);
+                }
+            }
+            if (moved == 0) return null;
+            other.table.setTuples(kept);
+            this.version++;
+            return other;
+        }
+        return null;
+    }
+
+    /**
+     * Removes a partition and its tuples
+     * @param partitionName the partition name
+     * @return the removed partition, or null if there is no partition with that name
+     */
+    public Partition removePartition(String partitionName) {
+        Partition partition = getPartition(partitionName);
+        if (partition != null) {
+            this.partitions.remove(partition);
+            this.version++;
+        }
+        return partition;
+    }
+
+    /**
+     * Replaces the tuples of a partition (e.g. with the tuples read from its files)
+     * @param partitionName the partition name
+     * @param table the table holding the tuples of the partition
+     */
+    public void setPartitionTable(String partitionName, ITable table) {
+        getPartition(partitionName).table = table;
+        this.version++;
+    }
+
+    /**
+     * Returns a partition
+     * @param partitionName the partition name (case-insensitive)
+     * @return the partition, or null if there is none with that name
+     */
+    public Partition getPartition(String partitionName) {
+        for (Partition partition : this.partitions) {
+            if (partition.name.equalsIgnoreCase(partitionName)) return partition;
+        }
+        return null;
+    }
+
+    /**
+     * Getters
+     */
+
+    public List<Partition> getPartitions() {
+        return this.partitions;
+    }
+
+    public int getKeyIndex() {
+        return this.keyIndex;
+    }
+
+    /**
+     * Checks if a key belongs to a partition
+     * @param partition the partition
+     * @param key the key value
+     * @return true if the partition holds the key
+     */
+    public boolean contains(Partition partition, int key) {
+        if (this.method == Method.RANGE) {
+            return (partition.from == null || key >= partition.from) && (partition.to == null || key < partition.to);
+        }
+        if (partition.values != null) {
+            return partition.values.contains(key);
+        }
+        // Default list partition: the keys of no other partition
+        for (Partition other : this.partitions) {
+            if (other.values != null && other.values.contains(key)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the partition a tuple belongs to
+     * @param tuple the tuple
+     * @return the partition of its key
+     * @throws IllegalArgumentException if the key is null or no partition holds it
+     */
+    public Partition partitionOf(ITuple tuple) {
+        Object key = tuple.getValue(this.keyIndex);
+        if (key == null) {
+            throw new IllegalArgumentException("Partition key " + this.schema.getName(this.keyIndex) + " cannot be null");
+        }
+        for (Partition partition : this.partitions) {
+            if (contains(partition, (Integer) key)) return partition;
+        }
+        throw new IllegalArgumentException("No partition of " + this.name + " for " + this.schema.getName(this.keyIndex) + " = " + key);
+    }
+
+    /**
+     * Checks if a partition may hold tuples satisfying "attribute operator value"
+     * A false result is exact (the partition can be pruned), a true result only means the partition must be read
+     * @param partition the partition
+     * @param index index of the attribute in the condition
+     * @param operator relational operator (=, !=, <, >, <=, >=)
+     * @param value right-hand side value
+     * @return false if the partition can be pruned
+     */
+    public boolean mightMatch(Partition partition, int index, String operator, Object value) {
+        if (index != this.keyIndex || !(value instanceof Integer)) return true;
+        long v = (Integer) value;
+
+        if (this.method == Method.LIST) {
+            if (partition.values == null) {
+                return !operator.equals("=") || contains(partition, (int) v);
+            }
+            for (int key : partition.values) {
+                boolean match = switch (operator) {
+                    case "=" -> key == v;
+                    case "!=" -> key != v;
+                    case ">" -> key > v;
+                    case "<" -> key < v;
+                    case ">=" -> key >= v;
+                    case "<=" -> key <= v;
+                    default -> true;
+                };
+                if (match) return true;
+            }
+            return false;
+        }
+
+        // Range [from, to): compare the condition with the smallest and largest keys of the partition
+        long lo = partition.from == null ? Long.MIN_VALUE : partition.from;
+        long hi = partition.to == null ? Long.MAX_VALUE : partition.to - 1L;
+        return switch (operator) {
+            case "=" -> lo <= v && v <= hi;
+            case "!=" -> !(lo == v && hi == v);
+            case ">" -> hi > v;
+            case "<" -> lo < v;
+            case ">=" -> hi >= v;
+            case "<=" -> lo <= v;
+            default -> true;
+        };
+    }
+
+    /**
+     * Returns the zone maps of the partitions a condition cannot prune (all partitions if the condition is null)
+     * @param index index of the attribute in the condition
+     * @param operator relational operator (null if there is no condition)
+     * @param value right-hand side value
+     * @param stats statistics of the query (counts the pruned partitions)
+     * @return the zone maps, in tuple order
+     */
+    public List<ZoneMap> getZoneMaps(int index, String operator, Object value, QueryStats stats) {
+        List<ZoneMap> zoneMaps = new ArrayList<>();
+        int offset = 0;
+        for (Partition partition : this.partitions) {
+            int size = partition.table.getTuples().size();
+            if (operator == null || mightMatch(partition, index, operator, value)) {
+                for (ZoneMap zone : partition.table.getZoneMaps()) {
+                    zoneMaps.add(zone.shift(offset));
+                }
+            } else {
+                stats.addPartitionPruned();
+            }
+            offset += size;
+        }
+        return zoneMaps;
+    }
+
+    /**
+     * Splits positions of tuples of the table into positions within their partitions
+     * @param rows positions in the table, in increasing order
+     * @return the positions within each partition that has some, by partition table (in partition order)
+     */
+    public Map<ITable, List<Integer>> localRows(List<Integer> rows) {
+        Map<ITable, List<Integer>> local = new LinkedHashMap<>();
+        int[] offsets = offsets();
+        for (int row : rows) {
+            int p = partitionAt(offsets, row);
+            local.computeIfAbsent(this.partitions.get(p).table, k -> new ArrayList<>()).add(row - offsets[p]);
+        }
+        return local;
+    }
+
+    // Position of the first tuple of each partition, followed by the number of tuples
+    private int[] offsets() {
+        int[] offsets = new int[this.partitions.size() + 1];
+        for (int p = 0; p < this.partitions.size(); p++) {
+            offsets[p + 1] = offsets[p] + this.partitions.get(p).table.getTuples().size();
+        }
+        return offsets;
+    }
+
+    // Index of the partition holding the tuple at a position (the last partition starting at or before it)
+    private static int partitionAt(int[] offsets, int row) {
+        int p = Arrays.binarySearch(offsets, 0, offsets.length - 1, row);
+        if (p < 0) return -p - 2;
+        while (p + 1 < offsets.length - 1 && offsets[p + 1] == row) p++;   // skip empty partitions
+        return p;
+    }
+
+    // Checks if two partitions can hold the same key
+    private boolean overlap(Partition a, Partition b) {
+        if (this.method == Method.RANGE) {
+            boolean aBeforeB = a.to != null && b.from != null && a.to <= b.from;
+            boolean bBeforeA = b.to != null && a.from != null && b.to <= a.from;
+            return !aBeforeB && !bBeforeA;
+        }
+        if (a.values == null || b.values == null) return a.values == b.values;
+        for (int key : a.values) {
+            if (b.values.contains(key)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Formats the partitioning clause of the table definition (see the class comment)
+     * @return the clause, starting with "partition by"
+     */
+    public String formatPartitioning() {
+        StringBuilder clause = new StringBuilder("partition by ").append(this.method.name().toLowerCase())
+                .append("(").append(this.schema.getName(this.keyIndex)).append(") (");
+        for (int p = 0; p < this.partitions.size(); p++) {
+            if (p > 0) clause.append(", ");
+            clause.append(formatPartition(this.partitions.get(p)));
+        }
+        return clause.append(")").toString();
+    }
+
+    /**
+     * Formats the definition of a partition (see parsePartition)
+     * @param partition the partition
+     * @return the definition
+     */
+    public String formatPartition(Partition partition) {
+        StringBuilder spec = new StringBuilder(partition.name);
+        if (partition.from != null) spec.append(" from ").append(partition.from);
+        if (partition.to != null) spec.append(" to ").append(partition.to);
+        if (partition.values != null) {
+            spec.append(" in ");
+            int i = 0;
+            for (int key : partition.values) {
+                if (i++ > 0) spec.append("|");
+                spec.append(key);
+            }
+        }
+        return spec.toString();
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Adds a tuple to the partition of its key
+     * @param tuple the tuple to add
+     * @throws IllegalArgumentException if no partition holds its key
+     */
+    @Override
+    public void addTuple(ITuple tuple) {
+        partitionOf(tuple).table.addTuple(tuple);
+        this.version++;
+    }
+
+    /**
+     * Returns the tuples of all partitions, in partition order
+     * The list is a read-only view; it must not be used after the tuples change
+     * @return the list of all tuples
+     */
+    @Override
+    public List<ITuple> getTuples() {
+        int[] offsets = offsets();
+        List<List<ITuple>> lists = new ArrayList<>();
+        for (Partition partition : this.partitions) {
+            lists.add(partition.table.getTuples());
+        }
+
+        return new AbstractList<>() {
+            @Override
+            public ITuple get(int index) {
+                if (index < 0 || index >= size()) throw new IndexOutOfBoundsException(index);
+                int p = partitionAt(offsets, index);
+                return lists.get(p).get(index - offsets[p]);
+            }
+
+            @Override
+            public int size() {
+                return offsets[offsets.length - 1];
+            }
+        };
+    }
+
+    /**
+     * Replaces the tuples of the table: each partition gets the tuples of its keys
+     * @param tuples the new list of tuples
+     */
+    @Override
+    public void setTuples(List<ITuple> tuples) {
+        Map<Partition, List<ITuple>> split = new HashMap<>();
+        for (Partition partition : this.partitions) {
+            split.put(partition, new ArrayList<>());
+        }
+        for (ITuple tuple : tuples) {
+            split.get(partitionOf(tuple)).add(tuple);
+        }
+        for (Partition partition : this.partitions) {
+            partition.table.setTuples(split.get(partition));
+        }
+        this.version++;
+    }
+
+    /**
+     * Returns the zone maps of all partitions, in tuple order (a block never spans two partitions)
+     * @return the list of zone maps
+     */
+    @Override
+    public List<ZoneMap> getZoneMaps() {
+        List<ZoneMap> zoneMaps = new ArrayList<>();
+        int offset = 0;
+        for (Partition partition : this.partitions) {
+            for (ZoneMap zone : partition.table.getZoneMaps()) {
+                zoneMaps.add(zone.shift(offset));
+            }
+            offset += partition.table.getTuples().size();
+        }
+        return zoneMaps;
+    }
+
+    @Override
+    public long getVersion() {
+        return this.version;
+    }
+
+    @Override
+    public void incrementVersion() {
+        this.version++;
+    }
+
+    /**
+     * Updates the partition of a tuple modified in place (the key of a tuple cannot change)
+     * @param row position of the modified tuple
+     */
+    @Override
+    public void refreshTuple(int row) {
+        int[] offsets = offsets();
+        int p = partitionAt(offsets, row);
+        this.partitions.get(p).table.refreshTuple(row - offsets[p]);
+        this.version++;
+    }
+
+    @Override
+    public ISchema getSchema() {
+        return this.schema;
+    }
+}
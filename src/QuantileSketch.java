@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * A quantile sketch (a simplified KLL sketch): estimates the quantiles of the numbers added to it in
+ * a memory that grows with the logarithm of their count
+ *
+ * Numbers are added to level 0. When a level holds CAPACITY numbers it is compacted: the numbers are sorted
+ * and every other one (starting at a random offset) moves to the next level, where it stands for twice as many
+ * numbers. A number at level h stands for 2^h of the numbers added. The rank of a number is estimated from the
+ * weights of the retained numbers, with an error of a few percent of the count for CAPACITY = 256.
+ * Numbers cannot be removed: a sketch over changing tuples must be rebuilt after deletes and updates.
+ */
+public class QuantileSketch {
+    private static final int CAPACITY = 256;    // Numbers per level before it is compacted
+
+    private List<double[]> levels;      // Retained numbers, per level
+    private List<Integer> sizes;        // Number of retained numbers, per level
+    private long count;                 // Number of numbers added
+    private SplittableRandom random;    // Picks the half that survives a compaction
+
+    /**
+     * constructor
+     * Creates an empty sketch
+     */
+    public QuantileSketch() {
+        this.levels = new ArrayList<>();
+        this.sizes = new ArrayList<>();
+        this.random = new SplittableRandom(1);
+        addLevel();
+    }
+
+    /**
+     * Adds a number (null values are ignored)
+     * @param value the number
+     */
+    public void add(Number value) {
+        if (value == null) return;
+        this.count++;
+        append(0, value.doubleValue());
+    }
+
+    /**
+     * Returns the number of numbers added
+     * @return the count
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Estimates a quantile of the numbers added
+     * @param fraction the quantile, from 0 (minimum) to 1 (maximum), e.g. 0.5 for the median
+     * @return a retained number whose estimated rank is the fraction of the count (null if the sketch is empty)
+     */
+    public Double quantile(double fraction) {
+        int retained = 0;
+        for (int size : this.sizes) retained += size;
+        if (retained == 0) return null;
+
+        // Retained numbers with their weights, sorted by number
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        Integer[] order = new Integer[retained];
+        int n = 0;
+        for (int h = 0; h < this.levels.size(); h++) {
+            for (int i = 0; i < this.sizes.get(h); i++) {
+                values[n] = this.levels.get(h)[i];
+                weights[n] = 1L << h;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        long total = 0;
+        for (long weight : weights) total += weight;
+        double target = fraction * total;
+        long cumulative = 0;
+        for (int i : order) {
+            cumulative += weights[i];
+            if (cumulative >= target) return values[i];
+        }
+        return values[order[retained - 1]];
+    }
+
+    // Appends a number to a level, compacting the level when it is full
+    private void append(int level, double value) {
+        double[] buffer = this.levels.get(level);
+        int size = this.sizes.get(level);
+        buffer[size++] = value;
+        this.sizes.set(level, size);
+        if (size < CAPACITY) return;
+
+        // Compact: sort, and move every other number to the next level
+        Arrays.sort(buffer, 0, size);
+        if (level + 1 == this.levels.size()) addLevel();
+        int offset = this.random.nextInt(2);
+        this.sizes.set(level, 0);
+        for (int i = offset; i < size; i += 2) {
+            append(level + 1, buffer[i]);
+        }
+    }
+
+    private void addLevel() {
+        this.levels.add(new double[CAPACITY]);
+        this.sizes.add(0);
+    }
+}
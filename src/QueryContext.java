@@ -0,0 +1,93 @@
+/**
+ * The resources granted to a single running query: a memory budget and a deadline, and a cancellation flag
+ *
+ * The query charges the memory it allocates for its result and intermediate tables (see charge) and calls
+ * check inside its scan loop, between blocks; both throw an InvalidQueryException that ends the query once it
+ * goes over its budget, passes its deadline or is cancelled. Cancellation is cooperative: cancel may be called
+ * from any thread and takes effect at the next check.
+ *
+ * The limits default to -Dqe.query.maxBytes (256 MiB) and -Dqe.query.timeoutMillis (30000 ms); 0 means no limit.
+ */
+public class QueryContext {
+    // Estimated size of a result tuple: object header and fields, values array header (plus 8 bytes per value)
+    private static final long TUPLE_OVERHEAD_BYTES = 32;
+
+    private long maxBytes;              // Memory budget in bytes (0 for none)
+    private long deadlineNanos;         // System.nanoTime() past which the query times out (0 for none)
+    private long timeoutMillis;         // The timeout, for the error message
+    private long usedBytes;             // Memory charged so far
+    private volatile boolean cancelled; // Set by cancel (possibly from another thread)
+
+    /**
+     * constructor
+     * @param maxBytes memory budget in bytes (0 for no limit)
+     * @param timeoutMillis wall-clock time limit from now (0 for no limit)
+     */
+    public QueryContext(long maxBytes, long timeoutMillis) {
+        this.maxBytes = maxBytes;
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000L : 0;
+    }
+
+    /**
+     * Creates the context of a query with the limits given by the system properties
+     * @return the new context
+     */
+    public static QueryContext fromProperties() {
+        return new QueryContext(Long.getLong("qe.query.maxBytes", 256L << 20), Long.getLong("qe.query.timeoutMillis", 30_000));
+    }
+
+    /**
+     * Returns the estimated memory of tuples held by a query
+     * @param tuples the number of tuples
+     * @param attributes the number of values per tuple
+     * @return the size in bytes
+     */
+    public static long tupleBytes(long tuples, int attributes) {
+        return tuples * (TUPLE_OVERHEAD_BYTES + 8L * attributes);
+    }
+
+    /**
+     * Adds memory allocated by the query to its account
+     * @param bytes the allocated size
+     * @throws InvalidQueryException if the query goes over its memory budget
+     */
+    public void charge(long bytes) throws InvalidQueryException {
+        this.usedBytes += bytes;
+        if (this.maxBytes > 0 && this.usedBytes > this.maxBytes) {
+            throw new InvalidQueryException("Query exceeded its memory budget of " + this.maxBytes + " bytes.");
+        }
+    }
+
+    /**
+     * Checks that the query may go on
+     * @throws InvalidQueryException if the query was cancelled or passed its deadline
+     */
+    public void check() throws InvalidQueryException {
+        if (this.cancelled) {
+            throw new InvalidQueryException("Query cancelled.");
+        }
+        if (this.deadlineNanos != 0 && System.nanoTime() - this.deadlineNanos > 0) {
+            throw new InvalidQueryException("Query timed out after " + this.timeoutMillis + " ms.");
+        }
+    }
+
+    /**
+     * Asks the query to stop (it fails at its next check)
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Getters
+     */
+
+    public long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+}
@@ -0,0 +1,174 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics aggregated over all the queries run on a database
+ * The metrics are published as a JMX MBean named c212.qe:type=QueryMetrics,db=folder,id=n
+ * (they are read by JMX threads, so all methods are synchronized)
+ * n numbers the databases of the JVM, so that two databases of the same folder each keep their own MBean
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+    private static final AtomicLong LAST_ID = new AtomicLong();    // Last id given to the metrics of a database
+
+    private ObjectName name;            // Name of the MBean (null if it is not registered)
+    private long queryCount;
+    private long slowQueryCount;
+    private long totalNanos;
+    private long maxNanos;
+    private long lastNanos;
+    private long rowsScanned;
+    private long rowsReturned;
+    private long bytesAllocated;
+    private long cacheHits;
+    private String lastQuery;
+    private long rejectedQueryCount;
+    private Runnable cancelAction;      // Cancels the running query of the database
+
+    /**
+     * Creates the metrics of a database and registers them with the platform MBean server
+     * @param folderName folder of the database (used in the MBean name)
+     * @return the new metrics
+     */
+    public static QueryMetrics register(String folderName) {
+        QueryMetrics metrics = new QueryMetrics();
+        try {
+            ObjectName name = new ObjectName("c212.qe:type=QueryMetrics,db=" + ObjectName.quote(folderName)
+                    + ",id=" + LAST_ID.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metrics.name = name;
+        } catch (JMException e) {
+            System.err.println("Error registering query metrics: " + e.getMessage());
+        }
+        return metrics;
+    }
+
+    /**
+     * Removes the MBean of the metrics from the platform MBean server (the metrics are still recorded)
+     */
+    public synchronized void unregister() {
+        if (this.name == null) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(this.name)) {
+                server.unregisterMBean(this.name);
+            }
+        } catch (JMException e) {
+            System.err.println("Error unregistering query metrics: " + e.getMessage());
+        }
+        this.name = null;
+    }
+
+    /**
+     * Adds the statistics of a finished query
+     * @param stats the query statistics
+     */
+    public synchronized void record(QueryStats stats) {
+        this.queryCount++;
+        this.totalNanos += stats.getTotalNanos();
+        this.maxNanos = Math.max(this.maxNanos, stats.getTotalNanos());
+        this.lastNanos = stats.getTotalNanos();
+        this.rowsScanned += stats.getRowsScanned();
+        this.rowsReturned += stats.getRowsReturned();
+        this.bytesAllocated += stats.getBytesAllocated();
+        if (stats.isCacheHit()) this.cacheHits++;
+        this.lastQuery = stats.getQuery();
+    }
+
+    /**
+     * Counts a query that went over the slow query threshold
+     */
+    public synchronized void recordSlowQuery() {
+        this.slowQueryCount++;
+    }
+
+    /**
+     * Counts a query refused by admission control
+     */
+    public synchronized void recordRejectedQuery() {
+        this.rejectedQueryCount++;
+    }
+
+    /**
+     * Sets the action run by the cancelQuery operation
+     * @param cancelAction cancels the running query of the database
+     */
+    public synchronized void setCancelAction(Runnable cancelAction) {
+        this.cancelAction = cancelAction;
+    }
+
+    @Override
+    public void cancelQuery() {
+        Runnable action;
+        synchronized (this) {
+            action = this.cancelAction;
+        }
+        if (action != null) action.run();
+    }
+
+    /**
+     * Getters
+     */
+
+    @Override
+    public synchronized long getQueryCount() {
+        return this.queryCount;
+    }
+
+    @Override
+    public synchronized long getSlowQueryCount() {
+        return this.slowQueryCount;
+    }
+
+    @Override
+    public synchronized double getTotalTimeMillis() {
+        return this.totalNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getAverageTimeMillis() {
+        return this.queryCount == 0 ? 0 : this.totalNanos / 1e6 / this.queryCount;
+    }
+
+    @Override
+    public synchronized double getMaxTimeMillis() {
+        return this.maxNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastTimeMillis() {
+        return this.lastNanos / 1e6;
+    }
+
+    @Override
+    public synchronized long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    @Override
+    public synchronized long getRowsReturned() {
+        return this.rowsReturned;
+    }
+
+    @Override
+    public synchronized long getBytesAllocated() {
+        return this.bytesAllocated;
+    }
+
+    @Override
+    public synchronized long getCacheHits() {
+        return this.cacheHits;
+    }
+
+    @Override
+    public synchronized String getLastQuery() {
+        return this.lastQuery;
+    }
+
+    @Override
+    public synchronized long getRejectedQueryCount() {
+        return this.rejectedQueryCount;
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * JMX view of the query metrics of a database (see QueryMetrics)
+ */
+public interface QueryMetricsMBean {
+    long getQueryCount();             // Number of queries that ran successfully
+    long getSlowQueryCount();         // Number of queries over the slow query threshold
+    double getTotalTimeMillis();      // Total time spent running queries
+    double getAverageTimeMillis();    // Average time per query
+    double getMaxTimeMillis();        // Longest query
+    double getLastTimeMillis();       // Duration of the last query
+    long getRowsScanned();            // Total number of tuples scanned
+    long getRowsReturned();           // Total number of tuples returned or modified
+    long getBytesAllocated();         // Total bytes allocated while running queries
+    long getCacheHits();              // Number of select queries answered from the result cache
+    String getLastQuery();            // Text of the last query
+    long getRejectedQueryCount();     // Number of heavy queries refused by admission control
+    void cancelQuery();               // Cancels the running query (see QueryContext)
+}
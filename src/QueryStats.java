@@ -0,0 +1,217 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Statistics collected while running a single query
+ * Time is accounted per phase: the query runs the phases in order and calls lap at the end of each one
+ */
+public class QueryStats {
+
+    /**
+     * Phases of a query, in execution order
+     */
+    public enum Phase { PARSE, VALIDATE, PLAN, SCAN, FILTER, PROJECT, OUTPUT }
+
+    private String query;           // Query text
+    private long[] phaseNanos;      // Time spent per phase, indexed by Phase.ordinal()
+    private long startNanos;        // Start time of the query
+    private long totalNanos;        // Total duration (set by finish)
+    private long startAllocated;    // Bytes allocated by the thread before the query started
+    private long bytesAllocated;    // Bytes allocated while running the query (set by finish)
+    private long rowsScanned;       // Number of tuples read from the table
+    private long rowsReturned;      // Number of tuples returned (or inserted/deleted)
+    private int blocksRead;         // Number of zone map blocks whose tuples were scanned
+    private int blocksSkipped;      // Number of zone map blocks skipped without touching their tuples
+    private int partitionsPruned;   // Number of partitions skipped because the where clause excludes their keys
+    private long rowsCracked;       // Number of values the query reorganized in a cracker column (adaptive indexing)
+    private int crackerPieces;      // Number of pieces of the cracker column after the query (0 if none was used)
+    private boolean cacheHit;       // True if the result came from the result cache
+
+    /**
+     * constructor
+     * Starts the clock and the allocation counter of the query
+     * @param query the query text
+     */
+    public QueryStats(String query) {
+        this.query = query;
+        this.phaseNanos = new long[Phase.values().length];
+        this.startAllocated = allocatedBytes();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends a phase: adds the time elapsed since the given timestamp to the phase
+     * @param phase the phase that just ended
+     * @param since System.nanoTime() at the start of the phase
+     * @return the current System.nanoTime(), i.e. the start of the next phase
+     */
+    public long lap(Phase phase, long since) {
+        long now = System.nanoTime();
+        this.phaseNanos[phase.ordinal()] += now - since;
+        return now;
+    }
+
+    /**
+     * Adds time to a phase
+     * Time added after finish (e.g. printing the results of a select) also counts toward the total
+     * @param phase the phase
+     * @param nanos the time to add, in nanoseconds
+     */
+    public void addTime(Phase phase, long nanos) {
+        this.phaseNanos[phase.ordinal()] += nanos;
+        if (this.totalNanos > 0) {
+            this.totalNanos += nanos;
+        }
+    }
+
+    /**
+     * Stops the clock and the allocation counter of the query
+     */
+    public void finish() {
+        this.totalNanos = System.nanoTime() - this.startNanos;
+        this.bytesAllocated = allocatedBytes() - this.startAllocated;
+    }
+
+    /**
+     * Getters and counters
+     */
+
+    public String getQuery() {
+        return this.query;
+    }
+
+    public long getTime(Phase phase) {
+        return this.phaseNanos[phase.ordinal()];
+    }
+
+    public long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    public long getBytesAllocated() {
+        return this.bytesAllocated;
+    }
+
+    public long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    public void addRowsScanned(long rows) {
+        this.rowsScanned += rows;
+    }
+
+    public long getRowsReturned() {
+        return this.rowsReturned;
+    }
+
+    public void addRowsReturned(long rows) {
+        this.rowsReturned += rows;
+    }
+
+    public int getBlocksRead() {
+        return this.blocksRead;
+    }
+
+    public void addBlockRead() {
+        this.blocksRead++;
+    }
+
+    public int getBlocksSkipped() {
+        return this.blocksSkipped;
+    }
+
+    public void addBlockSkipped() {
+        this.blocksSkipped++;
+    }
+
+    public int getPartitionsPruned() {
+        return this.partitionsPruned;
+    }
+
+    public void addPartitionPruned() {
+        this.partitionsPruned++;
+    }
+
+    public long getRowsCracked() {
+        return this.rowsCracked;
+    }
+
+    public void addRowsCracked(long rows) {
+        this.rowsCracked += rows;
+    }
+
+    public int getCrackerPieces() {
+        return this.crackerPieces;
+    }
+
+    public void setCrackerPieces(int pieces) {
+        this.crackerPieces = pieces;
+    }
+
+    public boolean isCacheHit() {
+        return this.cacheHit;
+    }
+
+    public void setCacheHit(boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+
+    /**
+     * Formats the statistics as shown by EXPLAIN ANALYZE, one item per line
+     * @return the formatted statistics
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            sb.append(String.format("%-9s %10.3f ms%n", phase.name().toLowerCase(), this.phaseNanos[phase.ordinal()] / 1e6));
+        }
+        sb.append(String.format("%-9s %10.3f ms%n", "total", this.totalNanos / 1e6));
+        sb.append("rows scanned: ").append(this.rowsScanned)
+                .append(", rows returned: ").append(this.rowsReturned).append('\n');
+        sb.append("blocks read: ").append(this.blocksRead)
+                .append(", blocks skipped: ").append(this.blocksSkipped).append('\n');
+        if (this.partitionsPruned > 0) {
+            sb.append("partitions pruned: ").append(this.partitionsPruned).append('\n');
+        }
+        if (this.crackerPieces > 0) {
+            sb.append("rows cracked: ").append(this.rowsCracked)
+                    .append(", cracker pieces: ").append(this.crackerPieces).append('\n');
+        }
+        if (this.cacheHit) {
+            sb.append("result cache: hit\n");
+        }
+        sb.append("bytes allocated: ").append(this.bytesAllocated);
+        return sb.toString();
+    }
+
+    /**
+     * Formats the statistics on a single line (used by the slow query log)
+     * @return the formatted statistics
+     */
+    public String toLogString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            sb.append(phase.name().toLowerCase()).append('=')
+                    .append(String.format("%.3f", this.phaseNanos[phase.ordinal()] / 1e6)).append("ms ");
+        }
+        sb.append("rows_scanned=").append(this.rowsScanned)
+                .append(" rows_returned=").append(this.rowsReturned)
+                .append(" blocks_read=").append(this.blocksRead)
+                .append(" blocks_skipped=").append(this.blocksSkipped)
+                .append(" partitions_pruned=").append(this.partitionsPruned)
+                .append(" rows_cracked=").append(this.rowsCracked)
+                .append(" cache_hit=").append(this.cacheHit)
+                .append(" bytes_allocated=").append(this.bytesAllocated);
+        return sb.toString();
+    }
+
+    // Bytes allocated so far by the current thread (0 if the JVM cannot tell)
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean sunBean) {
+            return sunBean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        }
+        return 0;
+    }
+}
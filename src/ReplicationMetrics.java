@@ -0,0 +1,112 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Replication metrics of a primary or a replica
+ * The metrics are published as a JMX MBean named c212.qe:type=Replication,db=name,id=n
+ * (n numbers the primaries and replicas of the JVM, e.g. two replicas of the same primary)
+ * The values are read from the primary or replica when they are asked for
+ */
+public class ReplicationMetrics implements ReplicationMetricsMBean {
+    private static final AtomicLong LAST_ID = new AtomicLong();    // Last id given to the metrics of a primary or replica
+
+    private ObjectName name;            // Name of the MBean (null if it is not registered)
+    private String role;                // primary or replica
+    private LongSupplier sequence;      // Last change shipped or applied
+    private LongSupplier lagMillis;     // Replication lag
+    private IntSupplier followers;      // Number of connected replicas
+    private BooleanSupplier connected;  // True while connected
+
+    private ReplicationMetrics(String role, LongSupplier sequence, LongSupplier lagMillis, IntSupplier followers, BooleanSupplier connected) {
+        this.role = role;
+        this.sequence = sequence;
+        this.lagMillis = lagMillis;
+        this.followers = followers;
+        this.connected = connected;
+    }
+
+    /**
+     * Creates and registers the metrics of a primary
+     * @param name name of the database (used in the MBean name)
+     * @param primary the replication primary
+     * @return the new metrics
+     */
+    public static ReplicationMetrics register(String name, ReplicationPrimary primary) {
+        return register(name, new ReplicationMetrics("primary", primary::getSequence, () -> 0, primary::getFollowerCount, () -> true));
+    }
+
+    /**
+     * Creates and registers the metrics of a replica
+     * @param name name of the database (used in the MBean name)
+     * @param replica the read replica
+     * @return the new metrics
+     */
+    public static ReplicationMetrics register(String name, ReplicationReplica replica) {
+        return register(name, new ReplicationMetrics("replica", replica::getAppliedSequence, replica::getLagMillis, () -> 0,
+                replica::isConnected));
+    }
+
+    // Registers the metrics with the platform MBean server
+    private static ReplicationMetrics register(String name, ReplicationMetrics metrics) {
+        try {
+            ObjectName objectName = new ObjectName("c212.qe:type=Replication,db=" + ObjectName.quote(name)
+                    + ",id=" + LAST_ID.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            metrics.name = objectName;
+        } catch (JMException e) {
+            System.err.println("Error registering replication metrics: " + e.getMessage());
+        }
+        return metrics;
+    }
+
+    /**
+     * Removes the MBean of the metrics from the platform MBean server
+     */
+    public synchronized void unregister() {
+        if (this.name == null) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(this.name)) {
+                server.unregisterMBean(this.name);
+            }
+        } catch (JMException e) {
+            System.err.println("Error unregistering replication metrics: " + e.getMessage());
+        }
+        this.name = null;
+    }
+
+    /**
+     * Getters
+     */
+
+    @Override
+    public String getRole() {
+        return this.role;
+    }
+
+    @Override
+    public long getSequence() {
+        return this.sequence.getAsLong();
+    }
+
+    @Override
+    public long getLagMillis() {
+        return this.lagMillis.getAsLong();
+    }
+
+    @Override
+    public int getFollowers() {
+        return this.followers.getAsInt();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.connected.getAsBoolean();
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * JMX view of the replication state of a database (see ReplicationMetrics)
+ */
+public interface ReplicationMetricsMBean {
+    String getRole();                 // primary or replica
+    long getSequence();               // Sequence number of the last change shipped (primary) or applied (replica)
+    long getLagMillis();              // Age of the newest primary state applied by the replica (0 on a primary)
+    int getFollowers();               // Number of connected replicas (primary only)
+    boolean isConnected();            // True while the replica is connected to its primary
+}
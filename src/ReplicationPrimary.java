@@ -0,0 +1,213 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Ships the changes of a database to read replicas (see ReplicationReplica)
+ *
+ * The primary listens on a local socket. A replica that connects first receives a snapshot of all
+ * tables and views, then every change (insert, delete, update, create/drop table, alter table, create/drop materialized view) that succeeds on the
+ * primary, in order, as the statement text with a sequence number. Statements are deterministic, so a
+ * replica that applies them to the snapshot ends up with the same tuples as the primary.
+ * Every message carries the primary clock, and a heartbeat is sent every HEARTBEAT_MILLIS when there
+ * are no changes, so replicas can measure their lag.
+ *
+ * Messages (one UTF string each):
+ *   S seq time          start of a snapshot taken after change seq
+ *   T definition        a table of the snapshot (schema file format)
+ *   R nulls values      a tuple of the last table: the indexes of its null values ("-" if none), then its values
+ *                       in csv format (which cannot tell a null String from an empty one)
+ *   V query             a materialized view of the snapshot (its create materialized view statement, computed by the replica)
+ *   E                   end of the snapshot
+ *   C seq time query    a change
+ *   H seq time          heartbeat
+ */
+public class ReplicationPrimary {
+    public static final long HEARTBEAT_MILLIS = 100;    // Interval between heartbeats
+
+    private Database db;                                            // The replicated database
+    private ServerSocket server;                                    // Accepts replica connections
+    private List<BlockingQueue<String>> followers;                  // Messages waiting to be sent, per replica
+    private volatile long sequence;                                 // Number of changes shipped so far
+    private volatile boolean closed;                                // Set by close
+    private ReplicationMetrics metrics;                             // JMX metrics, unregistered by close
+
+    private ReplicationPrimary(Database db, ServerSocket server) {
+        this.db = db;
+        this.server = server;
+        this.followers = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Starts shipping the changes of a database to the replicas that connect to the given port
+     * @param db the database
+     * @param port the local port to listen on
+     * @return the running primary
+     * @throws IOException if the port cannot be opened
+     */
+    public static ReplicationPrimary start(Database db, int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        ReplicationPrimary primary = new ReplicationPrimary(db, server);
+        db.setReplicationPrimary(primary);
+        primary.metrics = ReplicationMetrics.register("primary:" + server.getLocalPort(), primary);
+
+        startDaemon(primary::acceptReplicas, "replication-accept");
+        startDaemon(primary::sendHeartbeats, "replication-heartbeat");
+        return primary;
+    }
+
+    /**
+     * Queues a change for all connected replicas
+     * Called by the database (holding its lock) after the change was applied
+     * @param query the change
+     */
+    public synchronized void ship(String query) {
+        this.sequence++;
+        String message = "C " + this.sequence + " " + System.currentTimeMillis() + " " + query;
+        for (BlockingQueue<String> queue : this.followers) {
+            queue.add(message);
+        }
+    }
+
+    /**
+     * Makes all replicas reload a snapshot, after a change that cannot be shipped as a statement
+     * (e.g. a partition attached from a file): the sequence number moves on without a change message,
+     * so the replicas see a missing change at the next heartbeat and reconnect
+     * Called by the database (holding its lock) after the change was applied
+     */
+    public synchronized void resync() {
+        this.sequence++;
+    }
+
+    /**
+     * Getters
+     */
+
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    public int getFollowerCount() {
+        return this.followers.size();
+    }
+
+    public int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting replicas, disconnects the connected ones and unregisters the metrics
+     */
+    public void close() {
+        this.closed = true;
+        this.db.setReplicationPrimary(null);
+        this.metrics.unregister();
+        try {
+            this.server.close();
+        } catch (IOException e) {
+            System.err.println("Error closing replication socket: " + e.getMessage());
+        }
+    }
+
+    // Accepts replica connections until the primary is closed
+    private void acceptReplicas() {
+        while (!this.closed) {
+            try {
+                Socket socket = this.server.accept();
+                BlockingQueue<String> queue = register();
+                startDaemon(() -> sendMessages(socket, queue), "replication-sender-" + socket.getPort());
+            } catch (IOException e) {
+                if (!this.closed) {
+                    System.err.println("Error accepting replica: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a new replica: queues a snapshot of the database followed by the changes made after it
+     * The database lock is held while the snapshot is taken, so no change can happen in between
+     * @return the message queue of the replica
+     */
+    private BlockingQueue<String> register() {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        synchronized (this.db) {
+            synchronized (this) {
+                List<String> snapshot = new ArrayList<>();
+                snapshot.add("S " + this.sequence + " " + System.currentTimeMillis());
+                for (ITable table : this.db.getTables()) {
+                    snapshot.add("T " + IO.formatTableDefinition(table));
+                    for (ITuple tuple : table.getTuples()) {
+                        snapshot.add("R " + nullIndexes(tuple.getValues()) + " " + IO.formatTuple(tuple.getValues()));
+                    }
+                }
+                for (MaterializedView view : this.db.getViews()) {
+                    snapshot.add("V create materialized view " + view.getName() + " as " + view.getQuery());
+                }
+                snapshot.add("E");
+                queue.addAll(snapshot);
+                this.followers.add(queue);
+            }
+        }
+        return queue;
+    }
+
+    // The indexes of the null values of a tuple, comma separated ("-" if there are none)
+    private static String nullIndexes(Object[] values) {
+        StringBuilder indexes = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) continue;
+            if (indexes.length() > 0) indexes.append(",");
+            indexes.append(i);
+        }
+        return indexes.length() == 0 ? "-" : indexes.toString();
+    }
+
+    // Sends the queued messages of a replica until it disconnects
+    private void sendMessages(Socket socket, BlockingQueue<String> queue) {
+        try (socket; DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (!this.closed) {
+                out.writeUTF(queue.take());
+                if (queue.isEmpty()) out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Replica disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.followers.remove(queue);
+        }
+    }
+
+    // Queues a heartbeat for all replicas every HEARTBEAT_MILLIS
+    private void sendHeartbeats() {
+        while (!this.closed) {
+            synchronized (this) {
+                String message = "H " + this.sequence + " " + System.currentTimeMillis();
+                for (BlockingQueue<String> queue : this.followers) {
+                    queue.add(message);
+                }
+            }
+            try {
+                Thread.sleep(HEARTBEAT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Runs a task in a daemon thread (replication must not keep the JVM alive)
+    static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
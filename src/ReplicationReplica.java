@@ -0,0 +1,225 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read replica of a database served by a ReplicationPrimary
+ *
+ * The replica keeps the tables in memory only: it loads the snapshot sent by the primary, then applies
+ * the changes it receives, in order, on a background thread. Selects are served with bounded staleness:
+ * a select fails when the newest primary state applied is older than qe.replica.maxLagMillis
+ * (default 1000 ms), e.g. because the replica is disconnected or cannot keep up.
+ * When the connection is lost (or a change is missing) the replica reconnects and reloads a snapshot.
+ *
+ * Implements the following algorithm (on the background thread)
+ *
+ * Repeat
+ *   Connect to the primary
+ *   Create an empty in-memory database and load the tables and tuples of the snapshot into it
+ *   Replace the database served by the replica
+ *   For each message received
+ *     If it is a change with the next sequence number
+ *       Apply the change to the database
+ *     Else if a change is missing
+ *       Reconnect
+ *     Record the primary time of the message (the replica is up to date with the primary at that time)
+ *   Wait and reconnect
+ */
+public class ReplicationReplica {
+    private static final long RECONNECT_MILLIS = 500;   // Delay before reconnecting
+
+    private String host;                    // Primary host
+    private int port;                       // Primary port
+    private long maxLagMillis;              // Maximum lag for serving selects
+    private volatile Database db;           // The in-memory database (replaced on every snapshot)
+    private volatile long appliedSequence;  // Sequence number of the last change applied
+    private volatile long primaryTime;      // Primary time of the last message applied
+    private volatile boolean connected;     // True while connected to the primary
+    private CountDownLatch loaded;          // Released when the first snapshot is loaded
+
+    private ReplicationReplica(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.maxLagMillis = Long.getLong("qe.replica.maxLagMillis", 1000);
+        this.loaded = new CountDownLatch(1);
+    }
+
+    /**
+     * Connects to a primary and waits for the first snapshot
+     * @param host the primary host
+     * @param port the primary port
+     * @param timeoutMillis maximum time to wait for the snapshot
+     * @return the running replica
+     * @throws IOException if no snapshot was loaded within the timeout
+     */
+    public static ReplicationReplica connect(String host, int port, long timeoutMillis) throws IOException {
+        ReplicationReplica replica = new ReplicationReplica(host, port);
+        ReplicationMetrics.register("replica:" + host + ":" + port, replica);
+        ReplicationPrimary.startDaemon(replica::run, "replication-replica");
+
+        try {
+            if (!replica.loaded.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("No snapshot received from " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the snapshot");
+        }
+        return replica;
+    }
+
+    /**
+     * Returns the database to run selects on
+     * @return the in-memory database
+     */
+    public Database getDatabase() {
+        return this.db;
+    }
+
+    /**
+     * Checks that a query can run on the replica: it must be a select (or explain analyze select)
+     * and the replica must be within the staleness bound
+     * @param query the query
+     * @throws InvalidQueryException if the query is a change or the replica is too far behind
+     */
+    public void checkQuery(String query) throws InvalidQueryException {
+        String lowered = query.trim().toLowerCase();
+        if (lowered.startsWith("explain analyze")) {
+            lowered = lowered.substring("explain analyze".length()).trim();
+        }
+        if (!lowered.startsWith("select")) {
+            throw new InvalidQueryException("Read replica: only select queries are allowed.");
+        }
+
+        long lag = getLagMillis();
+        if (lag > this.maxLagMillis) {
+            throw new InvalidQueryException("Read replica is " + lag + " ms behind the primary (limit " + this.maxLagMillis + " ms).");
+        }
+    }
+
+    /**
+     * Getters
+     */
+
+    public long getAppliedSequence() {
+        return this.appliedSequence;
+    }
+
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    /**
+     * Returns the replication lag: the time since the primary was in the state the replica has applied
+     * (with a heartbeat every ReplicationPrimary.HEARTBEAT_MILLIS, an idle replica that is up to date
+     * stays under that value)
+     * @return the lag in milliseconds
+     */
+    public long getLagMillis() {
+        return Math.max(0, System.currentTimeMillis() - this.primaryTime);
+    }
+
+    // Connects to the primary and applies its messages, reconnecting when the connection is lost
+    private void run() {
+        boolean reported = false;   // True when the last failure was reported (failures are reported once until reconnected)
+        while (true) {
+            try (Socket socket = new Socket(this.host, this.port);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                this.connected = true;
+                reported = false;
+                loadSnapshot(in);
+                applyChanges(in);
+            } catch (EOFException e) {
+                System.err.println("Replication: connection to the primary lost");
+                reported = true;
+            } catch (IOException e) {
+                if (!reported) System.err.println("Replication: " + e.getMessage());
+                reported = true;
+            } finally {
+                this.connected = false;
+            }
+
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Loads the snapshot sent by the primary into a new in-memory database
+    private void loadSnapshot(DataInputStream in) throws IOException {
+        String[] start = in.readUTF().split(" ");
+        if (!start[0].equals("S")) throw new IOException("Expected a snapshot, got " + start[0]);
+
+        Database snapshot = new Database("replica:" + this.host + ":" + this.port);
+        ITable table = null;
+        String message;
+        while (!(message = in.readUTF()).equals("E")) {
+            String body = message.substring(2);
+            try {
+                if (message.startsWith("T ")) {
+                    table = IO.parseTableDefinition(body);
+                    snapshot.addSchema(table.getSchema());
+                    snapshot.addTable(table);
+                } else if (message.startsWith("R ") && table != null) {
+                    String[] parts = body.split(" ", 2);
+                    Tuple tuple = IO.parseTuple(parts.length == 2 ? parts[1] : "", table.getSchema());
+                    if (!parts[0].equals("-")) {
+                        for (String index : parts[0].split(",")) {
+                            tuple.setValue(Integer.parseInt(index), null);
+                        }
+                    }
+                    table.addTuple(tuple);
+                } else if (message.startsWith("V ")) {
+                    snapshot.createView(body);
+                }
+            } catch (InvalidQueryException e) {
+                throw new IOException("Bad snapshot: " + e.getMessage());
+            }
+        }
+
+        // The replaced database only keeps answering the selects that already hold it
+        Database previous = this.db;
+        this.db = snapshot;
+        if (previous != null) previous.close();
+        this.appliedSequence = Long.parseLong(start[1]);
+        this.primaryTime = Long.parseLong(start[2]);
+        this.loaded.countDown();
+    }
+
+    // Applies changes and heartbeats until the connection is lost or a change is missing
+    private void applyChanges(DataInputStream in) throws IOException {
+        while (true) {
+            String message = in.readUTF();
+            String[] fields = message.split(" ", 4);
+            long sequence = Long.parseLong(fields[1]);
+            long time = Long.parseLong(fields[2]);
+
+            if (fields[0].equals("C")) {
+                if (sequence != this.appliedSequence + 1) {
+                    throw new IOException("Missing changes " + (this.appliedSequence + 1) + " to " + (sequence - 1));
+                }
+                apply(fields[3]);
+                this.appliedSequence = sequence;
+            } else if (sequence != this.appliedSequence) {
+                // A heartbeat announces changes that were not received
+                throw new IOException("Missing changes up to " + sequence);
+            }
+            this.primaryTime = time;
+        }
+    }
+
+    // Applies a change to the in-memory database
+    private void apply(String query) {
+        try {
+            this.db.execute(query);
+        } catch (InvalidQueryException e) {
+            System.err.println("Replication: failed to apply '" + query + "': " + e.getMessage());
+        }
+    }
+}
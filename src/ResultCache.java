@@ -0,0 +1,145 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of select query results
+ *
+ * Entries are keyed on the normalized query text and remember the table they were computed from
+ * together with its version at that time. An entry is only returned while the table still has the
+ * same version, so any insert or delete invalidates the results read from it.
+ * The cache must be cleared when a table object is replaced (see Database.updateTable).
+ * The size of an entry is the number of values in its result (tuples x attributes); when the total
+ * size goes over the limit, the least recently used entries are evicted.
+ * The cache keeps its own copy of a result and answers each lookup with another copy, so a caller can modify
+ * the result it gets (e.g. sort it or set values) without changing the results of later lookups.
+ */
+public class ResultCache {
+
+    /**
+     * A cached result and the table version it was computed from
+     */
+    private static class Entry {
+        ITable source;      // Table the result was read from
+        long version;       // Version of the source table when the result was computed
+        ITable result;      // The result table
+        long size;          // Number of values in the result
+
+        Entry(ITable source, long version, ITable result, long size) {
+            this.source = source;
+            this.version = version;
+            this.result = result;
+            this.size = size;
+        }
+    }
+
+    private LinkedHashMap<String, Entry> entries;   // In access order (least recently used first)
+    private long maxSize;                           // Maximum total size of the cached results
+    private long size;                              // Current total size of the cached results
+    private long hits;                              // Number of lookups answered from the cache
+    private long misses;                            // Number of lookups not answered from the cache
+
+    /**
+     * constructor
+     * @param maxSize maximum total number of values held by the cached results (0 disables the cache)
+     */
+    public ResultCache(long maxSize) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Normalizes a query for use as a cache key: trims it and collapses runs of whitespace
+     * (the case is kept, since values in the where clause are case sensitive)
+     * @param query the query text
+     * @return the normalized query
+     */
+    public static String normalize(String query) {
+        return query.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Looks up the result of a query
+     * @param query the query text
+     * @return the cached result, or null if there is none or its table changed since it was computed
+     */
+    public synchronized ITable get(String query) {
+        String key = normalize(query);
+        Entry entry = this.entries.get(key);
+
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+
+        if (entry.version != entry.source.getVersion()) {
+            // The table changed since the result was computed
+            this.entries.remove(key);
+            this.size -= entry.size;
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return copy(entry.result);
+    }
+
+    /**
+     * Stores the result of a query
+     * Results larger than a quarter of the cache are not stored; a stored result is copied
+     * @param query the query text
+     * @param source the table the query read
+     * @param version the version of the table the result was computed from
+     * @param result the result table
+     */
+    public synchronized void put(String query, ITable source, long version, ITable result) {
+        long entrySize = (long) result.getTuples().size() * result.getSchema().getAttributes().size() + 1;
+        if (entrySize > this.maxSize / 4) return;
+
+        Entry old = this.entries.put(normalize(query), new Entry(source, version, copy(result), entrySize));
+        if (old != null) this.size -= old.size;
+        this.size += entrySize;
+
+        // Evict least recently used entries until the cache fits again
+        Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+        while (this.size > this.maxSize && it.hasNext()) {
+            this.size -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    // A copy of a result: the tuples are copied too, the values are immutable and shared
+    private static ITable copy(ITable result) {
+        ITable copy = new ResultTable(result.getName(), result.getSchema());
+        for (ITuple tuple : result.getTuples()) {
+            Tuple values = new Tuple(result.getSchema());
+            values.setValues(tuple.getValues().clone());
+            copy.addTuple(values);
+        }
+        return copy;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Getters
+     */
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getSize() {
+        return this.size;
+    }
+}
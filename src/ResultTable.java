@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a query: a name, a schema and a plain list of tuples
+ *
+ * A result is built once, printed or sent, and rarely scanned again, so adding a tuple only appends it to the list:
+ * there are no zone maps to update and no dictionaries to encode. The zone maps are built from the tuples the
+ * first time they are asked for (and again after the tuples changed).
+ */
+public class ResultTable implements ITable {
+    private String name;                // Name of the result
+    private List<ITuple> tuples;        // List of result rows
+    private ISchema schema;             // Schema describing the structure of the result
+    private List<ZoneMap> zoneMaps;     // Zone maps built on demand (null until asked for)
+    private long zoneMapsVersion;       // Version of the tuples the zone maps were built from
+    private long version;               // Increases every time the tuples change
+
+    /**
+     * constructor
+     * @param name name of the result
+     * @param schema schema of the result
+     */
+    public ResultTable(String name, ISchema schema) {
+        this.name = name;
+        this.schema = schema;
+        this.tuples = new ArrayList<>();
+    }
+
+    /**
+     * Returns the result name
+     * @return String representing the name of the result.
+     */
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * adds a tuple to the result
+     * @param tuple the tuple to add
+     */
+    @Override
+    public void addTuple(ITuple tuple) {
+        this.tuples.add(tuple);
+        this.version++;
+    }
+
+    /**
+     * Returns the list of tuples
+     * @return the list of all tuples (rows).
+     */
+    @Override
+    public List<ITuple> getTuples() {
+        return this.tuples;
+    }
+
+    /**
+     * Replaces the tuples of the result
+     * @param tuples the new list of tuples
+     */
+    @Override
+    public void setTuples(List<ITuple> tuples) {
+        this.tuples = new ArrayList<>(tuples);
+        this.version++;
+    }
+
+    /**
+     * Returns the zone maps of the result, building them if the tuples changed since they were last built
+     * @return the list of zone maps, in tuple order
+     */
+    @Override
+    public List<ZoneMap> getZoneMaps() {
+        if (this.zoneMaps == null || this.zoneMapsVersion != this.version || covered() != this.tuples.size()) {
+            this.zoneMaps = new ArrayList<>();
+            for (int r = 0; r < this.tuples.size(); r++) {
+                if (r % ZoneMap.BLOCK_SIZE == 0) {
+                    this.zoneMaps.add(new ZoneMap(r, this.schema));
+                }
+                this.zoneMaps.get(this.zoneMaps.size() - 1).add(this.tuples.get(r));
+            }
+            this.zoneMapsVersion = this.version;
+        }
+        return this.zoneMaps;
+    }
+
+    // Number of tuples covered by the zone maps (the tuple list can be modified directly through getTuples)
+    private int covered() {
+        return this.zoneMaps.isEmpty() ? 0 : this.zoneMaps.get(this.zoneMaps.size() - 1).getEnd();
+    }
+
+    /**
+     * Returns the version of the result
+     * @return the current version
+     */
+    @Override
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Increments the version of the result (to be called after modifying tuples in place)
+     */
+    @Override
+    public void incrementVersion() {
+        this.version++;
+    }
+
+    /**
+     * Marks the result as changed after the tuple at the given position was modified in place
+     * (the zone maps are built again when they are next asked for)
+     * @param row position of the modified tuple
+     */
+    @Override
+    public void refreshTuple(int row) {
+        this.version++;
+    }
+
+    /**
+     * Returns the result schema
+     * @return ISchema as the schema of the result.
+     */
+    @Override
+    public ISchema getSchema() {
+        return this.schema;
+    }
+}
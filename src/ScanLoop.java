@@ -0,0 +1,87 @@
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+
+/**
+ * The scan loop of a compiled select: the template of the class CompiledSelect generates for each query shape
+ *
+ * CompiledSelect defines a new hidden class from the bytecode of this class for every shape, with the shape
+ * (attribute, kind of comparison, operator, projection, result schema) as class data. The constants below are
+ * read from the class data when the hidden class is initialized. They are static finals, so the JIT folds the
+ * switches of matches and compiles the loop of each shape into the one comparison of its type and operator.
+ * Each shape has its own class, hence its own profile: a shape never deoptimizes the loop of another.
+ * This class is never loaded under its own name (its initializer only works in a hidden class).
+ */
+final class ScanLoop implements CompiledSelect.Kernel {
+    private static final int LHS = data(0, Integer.class);              // Index of the attribute in the where clause
+    private static final int KIND = data(1, Integer.class);             // Comparison kind (CompiledSelect.NONE, INTEGER, ...)
+    private static final int OPERATOR = data(2, Integer.class);         // Operator (CompiledSelect.EQ, NE, ...)
+    private static final int[] PROJECTION = data(3, int[].class);       // Attribute indexes of the select clause
+    private static final ISchema SCHEMA = data(4, ISchema.class);       // Schema of the result
+
+    private static <T> T data(int index, Class<T> type) {
+        try {
+            return MethodHandles.classDataAt(MethodHandles.lookup(), "_", type, index);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot read the shape of a compiled select", e);
+        }
+    }
+
+    @Override
+    public int scan(ITable source, List<ITuple> tuples, int start, int end, Object rhs, int rhsCode, ITable result) {
+        int rhsInt = KIND == CompiledSelect.INTEGER ? (Integer) rhs : 0;
+        double rhsDouble = KIND == CompiledSelect.DOUBLE ? (Double) rhs : 0;
+        int count = 0;
+        for (int r = start; r < end; r++) {
+            if (!matches(source, tuples, r, rhs, rhsInt, rhsDouble, rhsCode)) continue;
+
+            ITuple tuple = tuples.get(r);
+            Tuple newTuple = new Tuple(SCHEMA);
+            Object[] newVals = newTuple.getValues();
+            for (int i = 0; i < PROJECTION.length; i++) {
+                newVals[i] = tuple.getValue(PROJECTION[i]);
+            }
+            result.addTuple(newTuple);
+            count++;
+        }
+        return count;
+    }
+
+    // The condition of the shape on the tuple at position r (same semantics as Database.evaluate: null never matches)
+    private static boolean matches(ITable source, List<ITuple> tuples, int r, Object rhs, int rhsInt, double rhsDouble,
+                                   int rhsCode) {
+        switch (KIND) {
+            case CompiledSelect.NONE:
+                return true;
+            case CompiledSelect.CODE:
+                int code = ((IEncodedTable) source).getCode(r, LHS);
+                return code >= 0 && (OPERATOR == CompiledSelect.EQ ? code == rhsCode : code != rhsCode);
+            case CompiledSelect.STRING:
+                Object string = tuples.get(r).getValue(LHS);
+                return string != null && (OPERATOR == CompiledSelect.EQ) == string.equals(rhs);
+            case CompiledSelect.DOUBLE:
+                Double number = tuples.get(r).getValue(LHS);
+                if (number == null) return false;
+                double d = number;
+                return switch (OPERATOR) {
+                    case CompiledSelect.EQ -> d == rhsDouble;
+                    case CompiledSelect.NE -> d != rhsDouble;
+                    case CompiledSelect.LT -> d < rhsDouble;
+                    case CompiledSelect.GT -> d > rhsDouble;
+                    case CompiledSelect.LE -> d <= rhsDouble;
+                    default -> d >= rhsDouble;
+                };
+            default:
+                Integer value = tuples.get(r).getValue(LHS);
+                if (value == null) return false;
+                int v = value;
+                return switch (OPERATOR) {
+                    case CompiledSelect.EQ -> v == rhsInt;
+                    case CompiledSelect.NE -> v != rhsInt;
+                    case CompiledSelect.LT -> v < rhsInt;
+                    case CompiledSelect.GT -> v > rhsInt;
+                    case CompiledSelect.LE -> v <= rhsInt;
+                    default -> v >= rhsInt;
+                };
+        }
+    }
+}
@@ -1,11 +1,17 @@
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * the schema is stored as a map of (index, name:type) pairs
+ * names, types and the name -> index map are computed once in the constructor
  */
 public class Schema implements ISchema {
 
     private Map<Integer, String> attributes;
+    private String[] names;                 // Attribute names, by index
+    private String[] types;                 // Attribute type names, by index
+    private AttributeType[] attributeTypes; // Attribute types, by index
+    private Map<String, Integer> indexes;   // Attribute name -> index
 
     /**
      * constructor
@@ -13,6 +19,20 @@ public class Schema implements ISchema {
      */
     public Schema(Map<Integer, String> attributes) {
         this.attributes = attributes;
+
+        int size = attributes.size();
+        this.names = new String[size];
+        this.types = new String[size];
+        this.attributeTypes = new AttributeType[size];
+        this.indexes = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            String[] pair = attributes.get(i).split(":");
+            this.names[i] = pair[0].trim();  // name before :
+            this.types[i] = pair[1].trim();  // type after :
+            this.attributeTypes[i] = AttributeType.of(this.types[i]);
+            this.indexes.put(this.names[i], i);
+        }
     }
 
     /**
@@ -25,25 +45,53 @@ public class Schema implements ISchema {
     }
 
     /**
-     * splits the name:type to return the attribute name
+     * returns the attribute name
      * @param index position of the attribute
      * @return name of the attribute
      */
     @Override
     public String getName(int index) {
-        String pair = attributes.get(index);
-        return pair.split(":")[0].trim(); // get name before :
+        return this.names[index];
     }
 
     /**
-     * splits the name:type to return the attribute type
+     * returns the attribute type
      * @param index position of the attribute
      * @return type of the attribute (e.g., "String", "Integer")
      */
 
     @Override
     public String getType(int index) {
-        String pair = this.attributes.get(index);
-        return pair.split(":")[1].trim(); // get type after :
+        return this.types[index];
+    }
+
+    /**
+     * returns the attribute type as an enum
+     * @param index position of the attribute
+     * @return type of the attribute
+     */
+    @Override
+    public AttributeType getAttributeType(int index) {
+        return this.attributeTypes[index];
+    }
+
+    /**
+     * returns the position of an attribute
+     * @param name name of the attribute
+     * @return index of the attribute, or -1 if the schema has no attribute with that name
+     */
+    @Override
+    public int indexOf(String name) {
+        Integer index = this.indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * returns the number of attributes
+     * @return the number of attributes
+     */
+    @Override
+    public int size() {
+        return this.names.length;
     }
 }
\ No newline at end of file
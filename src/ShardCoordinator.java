@@ -0,0 +1,447 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Runs queries over a database whose tables are partitioned across several shards (see ShardServer)
+ *
+ * Each partitioned table is split on a key attribute, either by hash (shard = hash(key) mod number of shards)
+ * or by range (shard i holds the keys in [bound i-1, bound i)). Tables that are not partitioned are stored on
+ * the first shard. The partitioning is read from a configuration file:
+ *   shard host:port                         one line per shard, in shard order
+ *   table name hash attribute               a hash partitioned table
+ *   table name range attribute b1,b2,...    a range partitioned table (one bound less than the number of shards)
+ *
+ * Queries are routed to the shards that can hold matching tuples: an insert and an equality on the key
+ * go to one shard, a range on the key of a range partitioned table to the shards of the range, anything else
+ * to all shards. A query is sent to all its shards before any answer is read, so the shards run it in parallel.
+ * Select results are merged as they are read: concatenated, merged in order for ORDER BY (each shard returns
+ * its tuples sorted), or combined from the partial aggregates of each shard (avg from partial sums and counts).
+ */
+public class ShardCoordinator {
+
+    /**
+     * How a table is partitioned
+     */
+    private static class Partitioning {
+        String attribute;       // Partition key
+        String[] bounds;        // Range bounds (null for hash partitioning)
+
+        Partitioning(String attribute, String[] bounds) {
+            this.attribute = attribute;
+            this.bounds = bounds;
+        }
+
+        // Returns the shard holding the given key
+        int shardOf(String key, int shardCount) {
+            if (this.bounds == null) {
+                return Math.floorMod(key.hashCode(), shardCount);
+            }
+            int shard = 0;
+            while (shard < this.bounds.length && compareKeys(key, this.bounds[shard]) >= 0) {
+                shard++;
+            }
+            return shard;
+        }
+
+        // Returns the shards that can hold keys satisfying "key operator value"
+        List<Integer> shardsFor(String operator, String value, int shardCount) {
+            int from = 0;
+            int to = shardCount - 1;
+            if (operator.equals("=")) {
+                from = to = shardOf(value, shardCount);
+            } else if (this.bounds != null && (operator.equals("<") || operator.equals("<="))) {
+                to = shardOf(value, shardCount);
+            } else if (this.bounds != null && (operator.equals(">") || operator.equals(">="))) {
+                from = shardOf(value, shardCount);
+            }
+
+            List<Integer> shards = new ArrayList<>();
+            for (int i = from; i <= to; i++) {
+                shards.add(i);
+            }
+            return shards;
+        }
+    }
+
+    /**
+     * The connection to a shard
+     */
+    private static class Shard {
+        String address;             // host:port
+        DataInputStream in;         // Answers
+        DataOutputStream out;       // Queries
+
+        Shard(String address) throws IOException {
+            String[] parts = address.split(":");
+            Socket socket = new Socket(parts[0], Integer.parseInt(parts[1]));
+            this.address = address;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        // Sends a query (the answer must be read before the next query is sent)
+        void send(String query) throws IOException {
+            this.out.writeUTF(query);
+            this.out.flush();
+        }
+
+        // Reads the next message of an answer, failing if the shard reported an error
+        String read() throws IOException, InvalidQueryException {
+            String message = this.in.readUTF();
+            if (message.startsWith("X ")) {
+                throw new InvalidQueryException("Shard " + this.address + ": " + message.substring(2));
+            }
+            return message;
+        }
+    }
+
+    /**
+     * The tuples of a select answer, read one at a time
+     */
+    private static class Stream {
+        Shard shard;            // The shard sending the answer
+        ISchema schema;         // Result schema
+        ITuple head;            // Next tuple (null at the end of the answer)
+
+        Stream(Shard shard) throws IOException, InvalidQueryException {
+            String header = shard.read();
+            if (!header.startsWith("S ")) throw new InvalidQueryException("Shard " + shard.address + ": unexpected answer");
+            this.shard = shard;
+            this.schema = IO.parseTableDefinition(header.substring(2)).getSchema();
+            advance();
+        }
+
+        // Reads the next tuple of the answer
+        void advance() throws IOException, InvalidQueryException {
+            String message = this.shard.read();
+            this.head = message.equals("E") ? null : IO.parseTuple(message.substring(2), this.schema);
+        }
+    }
+
+    private List<Shard> shards;                         // Shard connections, in shard order
+    private Map<String, Partitioning> partitionings;    // Partitioned tables, by lower case name
+
+    private ShardCoordinator() {
+        this.shards = new ArrayList<>();
+        this.partitionings = new HashMap<>();
+    }
+
+    /**
+     * Reads the configuration file and connects to the shards
+     * @param configFile path of the configuration file
+     * @return the coordinator
+     * @throws IOException if the file cannot be read or a shard cannot be reached
+     */
+    public static ShardCoordinator open(String configFile) throws IOException {
+        ShardCoordinator coordinator = new ShardCoordinator();
+        try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields[0].equals("shard") && fields.length == 2) {
+                    coordinator.shards.add(new Shard(fields[1]));
+                } else if (fields[0].equals("table") && fields.length >= 4) {
+                    String[] bounds = fields[2].equals("range") && fields.length == 5 ? fields[4].split(",") : null;
+                    coordinator.partitionings.put(fields[1].toLowerCase(), new Partitioning(fields[3], bounds));
+                }
+            }
+        }
+        if (coordinator.shards.isEmpty()) {
+            throw new IOException("No shard in " + configFile);
+        }
+        return coordinator;
+    }
+
+    /**
+     * Runs a query on the shards
+     * Queries run one at a time: each shard connection carries one query and its answer at a time
+     * @param query the query
+     * @return the result of a select, null for other queries
+     * @throws InvalidQueryException if the query is invalid or failed on a shard
+     */
+    public synchronized ITable execute(String query) throws InvalidQueryException {
+        query = query.trim();
+        String lowered = query.toLowerCase();
+        try {
+            if (lowered.startsWith("select")) {
+                return select(query);
+            } else if (lowered.startsWith("insert")) {
+                run(query, List.of(insertShard(query)));
+            } else if (lowered.startsWith("delete") || lowered.startsWith("update")) {
+                run(query, targetShards(query));
+            } else if (lowered.startsWith("create table") || lowered.startsWith("drop table") || lowered.startsWith("alter table")) {
+                run(query, allShards());
+            } else {
+                throw new InvalidQueryException("Unknown query type.");
+            }
+            return null;
+        } catch (IOException e) {
+            throw new InvalidQueryException("Shard connection failed: " + e.getMessage());
+        }
+    }
+
+    // Runs a select on its shards and merges the answers
+    private ITable select(String query) throws IOException, InvalidQueryException {
+        String lowered = query.toLowerCase();
+        int fromStart = lowered.indexOf(" from ");
+        if (fromStart == -1) throw new InvalidQueryException("Missing SELECT or FROM clause.");
+        String[] items = Database.splitSelectList(query.substring("select".length(), fromStart));
+        String rest = query.substring(fromStart);
+
+        List<Aggregate> aggregates = new ArrayList<>();
+        for (String item : items) {
+            Aggregate aggregate = Aggregate.parse(item);
+            if (aggregate != null) aggregates.add(aggregate);
+        }
+        if (!aggregates.isEmpty()) {
+            return aggregate(aggregates, rest, targetShards(query));
+        }
+
+        // The ORDER BY attribute must be selected (checked before the query is sent, as on a single database)
+        String[] orderParts = rest.split("(?i)\\s+order\\s+by\\s+");
+        String[] orderTokens = orderParts.length == 2 ? orderParts[1].trim().split("\\s+") : null;
+        int orderIndex = -1;
+        if (orderTokens != null) {
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].trim().equalsIgnoreCase(orderTokens[0])) orderIndex = i;
+            }
+            if (orderIndex == -1) {
+                throw new InvalidQueryException("ORDER BY attribute must be selected: " + orderTokens[0]);
+            }
+        }
+
+        List<Shard> targets = targetShards(query);
+        for (Shard shard : targets) {
+            shard.send(query);
+        }
+        List<Stream> streams = openStreams(targets);
+
+        ISchema schema = streams.get(0).schema;
+        ITable result = new ResultTable("result", schema);
+
+        if (orderTokens != null) {
+            // Each shard sorted its tuples: merge the streams, always taking the smallest head
+            Comparator<ITuple> order = Database.orderComparator(orderIndex);
+            if (orderTokens.length > 1 && orderTokens[1].equalsIgnoreCase("desc")) order = order.reversed();
+
+            Comparator<ITuple> tupleOrder = order;
+            PriorityQueue<Stream> heads = new PriorityQueue<>((a, b) -> tupleOrder.compare(a.head, b.head));
+            for (Stream stream : streams) {
+                if (stream.head != null) heads.add(stream);
+            }
+            while (!heads.isEmpty()) {
+                Stream stream = heads.poll();
+                result.addTuple(stream.head);
+                stream.advance();
+                if (stream.head != null) heads.add(stream);
+            }
+        } else {
+            for (Stream stream : streams) {
+                while (stream.head != null) {
+                    result.addTuple(stream.head);
+                    stream.advance();
+                }
+            }
+        }
+        return result;
+    }
+
+    // Runs the partial aggregates on each shard and combines them (avg is computed from a sum and a count)
+    private ITable aggregate(List<Aggregate> aggregates, String rest, List<Shard> targets) throws IOException, InvalidQueryException {
+        List<Aggregate> partials = new ArrayList<>();
+        for (Aggregate aggregate : aggregates) {
+            if (aggregate.isApproximate()) {
+                throw new InvalidQueryException(aggregate.getName() + " is not supported on sharded tables.");
+            } else if (aggregate.getFunction() == Aggregate.Function.AVG) {
+                partials.add(new Aggregate(Aggregate.Function.SUM, aggregate.getAttribute()));
+                partials.add(new Aggregate(Aggregate.Function.COUNT, aggregate.getAttribute()));
+            } else {
+                partials.add(aggregate);
+            }
+        }
+
+        StringBuilder partialQuery = new StringBuilder("select ");
+        for (int i = 0; i < partials.size(); i++) {
+            if (i > 0) partialQuery.append(", ");
+            partialQuery.append(partials.get(i).getName());
+        }
+        partialQuery.append(rest);
+
+        for (Shard shard : targets) {
+            shard.send(partialQuery.toString());
+        }
+
+        // Combine the single tuple of each shard's answer
+        Object[] combined = new Object[partials.size()];
+        ISchema partialSchema = null;
+        for (Stream stream : openStreams(targets)) {
+            partialSchema = stream.schema;
+            while (stream.head != null) {
+                for (int i = 0; i < partials.size(); i++) {
+                    combined[i] = partials.get(i).combine(combined[i], stream.head.getValue(i));
+                }
+                stream.advance();
+            }
+        }
+
+        // Final values, with the types the aggregates have on a single database
+        List<AttributeType> types = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        int p = 0;
+        for (Aggregate aggregate : aggregates) {
+            if (aggregate.getFunction() == Aggregate.Function.AVG) {
+                Object sum = combined[p++];
+                Object count = combined[p++];
+                types.add(AttributeType.DOUBLE);
+                values.add(sum == null || count == null || (Integer) count == 0 ? null : ((Number) sum).doubleValue() / (Integer) count);
+            } else {
+                types.add(partialSchema.getAttributeType(p));
+                values.add(combined[p++]);
+            }
+        }
+
+        ISchema schema = Aggregate.resultSchema(aggregates, types);
+        Tuple tuple = new Tuple(schema);
+        for (int i = 0; i < values.size(); i++) {
+            tuple.getValues()[i] = values.get(i);
+        }
+        ITable result = new ResultTable("result", schema);
+        result.addTuple(tuple);
+        return result;
+    }
+
+    // Reads the start of the select answer of each shard; if a shard failed, reads the rest of the other answers
+    // (so that every connection is ready for the next query) and throws the failure
+    private List<Stream> openStreams(List<Shard> targets) throws IOException, InvalidQueryException {
+        List<Stream> streams = new ArrayList<>();
+        InvalidQueryException failure = null;
+        for (Shard shard : targets) {
+            try {
+                streams.add(new Stream(shard));
+            } catch (InvalidQueryException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            for (Stream stream : streams) {
+                while (stream.head != null) {
+                    stream.advance();
+                }
+            }
+            throw failure;
+        }
+        return streams;
+    }
+
+    // Sends a query to shards (all at once) and waits for all of them to complete it
+    private void run(String query, List<Shard> targets) throws IOException, InvalidQueryException {
+        for (Shard shard : targets) {
+            shard.send(query);
+        }
+        InvalidQueryException failure = null;
+        for (Shard shard : targets) {
+            try {
+                shard.read();
+            } catch (InvalidQueryException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    // Returns the shard an insert goes to (the shard of its partition key)
+    private Shard insertShard(String query) throws InvalidQueryException {
+        String[] parts = query.split("(?i)values");
+        if (parts.length != 2) throw new InvalidQueryException("Invalid VALUES clause");
+
+        String left = parts[0];
+        String tableName = left.substring(left.toLowerCase().indexOf("insert into") + "insert into".length(), left.indexOf("(")).trim();
+        Partitioning partitioning = this.partitionings.get(tableName.toLowerCase());
+        if (partitioning == null) return this.shards.get(0);
+
+        String[] attributes = left.substring(left.indexOf("(") + 1, left.indexOf(")")).split(",");
+        String right = parts[1];
+        String[] values = right.substring(right.indexOf("(") + 1, right.lastIndexOf(")")).split(",");
+        for (int i = 0; i < attributes.length && i < values.length; i++) {
+            if (attributes[i].trim().equalsIgnoreCase(partitioning.attribute)) {
+                return this.shards.get(partitioning.shardOf(normalizeKey(values[i]), this.shards.size()));
+            }
+        }
+        throw new InvalidQueryException("Missing partition key: " + partitioning.attribute);
+    }
+
+    // Returns the shards that can hold tuples matching the where clause of a select, delete or update
+    private List<Shard> targetShards(String query) throws InvalidQueryException {
+        String lowered = query.toLowerCase();
+        String tableName;
+        if (lowered.startsWith("select")) {
+            tableName = query.substring(lowered.indexOf(" from ") + 6).trim().split("\\s+")[0];
+        } else if (lowered.startsWith("delete")) {
+            tableName = query.substring("delete from".length()).trim().split("\\s+")[0];
+        } else {
+            tableName = query.substring("update".length()).trim().split("\\s+")[0];
+        }
+
+        Partitioning partitioning = this.partitionings.get(tableName.toLowerCase());
+        if (partitioning == null) return List.of(this.shards.get(0));
+
+        if (lowered.startsWith("update")) {
+            // Changing the key would move the tuple to another shard
+            int setStart = lowered.indexOf(" set ");
+            int setEnd = lowered.indexOf(" where ");
+            String setClause = lowered.substring(setStart + 5, setEnd == -1 ? lowered.length() : setEnd);
+            for (String assignment : setClause.split(",")) {
+                if (assignment.split("=")[0].trim().equalsIgnoreCase(partitioning.attribute)) {
+                    throw new InvalidQueryException("Cannot update the partition key: " + partitioning.attribute);
+                }
+            }
+        }
+
+        int whereStart = lowered.indexOf(" where ");
+        if (whereStart == -1) return allShards();
+        String whereClause = query.substring(whereStart + 7).split("(?i)\\s+order\\s+by\\s+")[0].trim();
+        Condition condition = Database.parseCondition(whereClause);
+        if (!condition.getOperand1().equalsIgnoreCase(partitioning.attribute)) return allShards();
+
+        List<Shard> targets = new ArrayList<>();
+        for (int shard : partitioning.shardsFor(condition.getOperator(), normalizeKey(condition.getOperand2()), this.shards.size())) {
+            targets.add(this.shards.get(shard));
+        }
+        return targets;
+    }
+
+    private List<Shard> allShards() {
+        return this.shards;
+    }
+
+    // Normalizes a key as written in a query (quotes removed, integers in canonical form)
+    private static String normalizeKey(String key) {
+        key = key.trim().replaceAll("^'|'$", "");
+        try {
+            return Integer.toString(Integer.parseInt(key));
+        } catch (NumberFormatException e) {
+            return key;
+        }
+    }
+
+    // Compares two keys, as numbers if both are integers, as strings otherwise
+    private static int compareKeys(String a, String b) {
+        try {
+            return Long.compare(Long.parseLong(a), Long.parseLong(b));
+        } catch (NumberFormatException e) {
+            return a.compareTo(b);
+        }
+    }
+}
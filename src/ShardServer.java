@@ -0,0 +1,86 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Serves one shard of a sharded database to a ShardCoordinator
+ *
+ * The shard is an ordinary database (its own folder of csv files) holding its part of the partitioned tables.
+ * The coordinator sends queries over a local socket, one UTF string per query, and the shard answers with:
+ *   S definition        the result schema of a select (schema file format)
+ *   R values            a result tuple (csv format), streamed in order
+ *   E                   end of the answer (the only message for other queries)
+ *   X message           the query failed
+ * Each connection is served by its own thread; the database serializes the queries.
+ */
+public class ShardServer {
+    private Database db;            // The shard's database
+    private ServerSocket server;    // Accepts coordinator connections
+
+    /**
+     * constructor
+     * @param db the shard's database
+     * @param port the local port to listen on
+     * @throws IOException if the port cannot be opened
+     */
+    public ShardServer(Database db, int port) throws IOException {
+        this.db = db;
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Accepts coordinator connections until the process is stopped
+     */
+    public void run() {
+        while (true) {
+            try {
+                Socket socket = this.server.accept();
+                ReplicationPrimary.startDaemon(() -> serve(socket), "shard-" + socket.getPort());
+            } catch (IOException e) {
+                System.err.println("Error accepting coordinator: " + e.getMessage());
+            }
+        }
+    }
+
+    // Answers the queries of one connection until it is closed
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                String query = in.readUTF();
+                try {
+                    answer(query, out);
+                } catch (InvalidQueryException e) {
+                    out.writeUTF("X " + e.getMessage());
+                } catch (RuntimeException e) {
+                    // Any other failure is answered too: the coordinator waits for an answer to every query
+                    out.writeUTF("X " + e);
+                }
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // The coordinator closed the connection
+        } catch (IOException e) {
+            System.err.println("Shard connection lost: " + e.getMessage());
+        }
+    }
+
+    // Runs a query and writes its answer
+    private void answer(String query, DataOutputStream out) throws InvalidQueryException, IOException {
+        ITable result = this.db.execute(query);
+        if (result != null) {
+            out.writeUTF("S " + IO.formatTableDefinition(result));
+            for (ITuple tuple : result.getTuples()) {
+                out.writeUTF("R " + IO.formatTuple(tuple.getValues()));
+            }
+        }
+        out.writeUTF("E");
+    }
+}
@@ -1,13 +1,21 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * A table has a name, a schema and a list of tuples
+ * The tuples are split into fixed-size blocks, each summarized by a zone map
+ * String attributes are dictionary encoded: tuples share one instance per distinct value
+ * and the code of each value is kept in a per-attribute code array (parallel to the tuple list)
  */
-public class Table implements ITable {
+public class Table implements IEncodedTable {
     private String name;                // Table name (matches schema name and CSV file)
     private List<ITuple> tuples;        // List of data rows
     private ISchema schema;             // Schema describing the structure of the table
+    private List<ZoneMap> zoneMaps;     // One zone map per block of ZoneMap.BLOCK_SIZE tuples
+    private Dictionary[] dictionaries;  // Dictionary per String attribute (null for other types)
+    private int[][] codes;              // Dictionary code per String attribute and tuple
+    private long version;               // Increases every time the tuples change (used by the result cache)
 
     /**
      * constructor
@@ -18,6 +26,23 @@ public class Table implements ITable {
         this.name = name;
         this.schema = schema;
         this.tuples = new ArrayList<>();
+        this.zoneMaps = new ArrayList<>();
+        initDictionaries();
+    }
+
+    /**
+     * Creates empty dictionaries (and code arrays) for the String attributes of the schema
+     */
+    private void initDictionaries() {
+        int size = this.schema.size();
+        this.dictionaries = new Dictionary[size];
+        this.codes = new int[size][];
+        for (int i = 0; i < size; i++) {
+            if (this.schema.getAttributeType(i) == AttributeType.STRING) {
+                this.dictionaries[i] = new Dictionary();
+                this.codes[i] = new int[16];
+            }
+        }
     }
 
     /**
@@ -35,7 +60,70 @@ public class Table implements ITable {
      */
     @Override
     public void addTuple(ITuple tuple) {
+        // Start a new block when the last one is full
+        if (this.zoneMaps.isEmpty() || this.zoneMaps.get(this.zoneMaps.size() - 1).isFull()) {
+            this.zoneMaps.add(new ZoneMap(this.tuples.size(), this.schema));
+        }
+        this.zoneMaps.get(this.zoneMaps.size() - 1).add(tuple);
+        encode(this.tuples.size(), tuple);
         this.tuples.add(tuple);
+        this.version++;
+    }
+
+    /**
+     * Dictionary encodes the String values of a tuple stored at the given position
+     * Each value is replaced by the canonical instance from the dictionary and its code is recorded
+     * @param row position of the tuple in the tuple list
+     * @param tuple the tuple to encode
+     */
+    private void encode(int row, ITuple tuple) {
+        for (int i = 0; i < this.dictionaries.length; i++) {
+            Dictionary dictionary = this.dictionaries[i];
+            if (dictionary == null || !dictionary.isEnabled()) continue;
+
+            Object value = tuple.getValue(i);
+            int code = dictionary.encode(value == null ? null : value.toString());
+
+            if (!dictionary.isEnabled()) {
+                // The attribute has too many distinct values, drop its codes
+                this.codes[i] = null;
+                continue;
+            }
+
+            if (code >= 0) {
+                tuple.setValue(i, dictionary.decode(code));
+            }
+            if (row >= this.codes[i].length) {
+                this.codes[i] = Arrays.copyOf(this.codes[i], Math.max(row + 1, this.codes[i].length * 2));
+            }
+            this.codes[i][row] = code;
+        }
+    }
+
+    /**
+     * Removes the tuple at the given position without rebuilding the table
+     * The last tuple takes its place (with its dictionary codes, and the zone map of the position is widened to
+     * cover it), so the order of the tuples changes but no other tuple moves
+     * @param row position of the tuple to remove
+     */
+    public void removeTuple(int row) {
+        getZoneMaps();
+        int last = this.tuples.size() - 1;
+        ITuple moved = this.tuples.remove(last);
+        if (row != last) {
+            this.tuples.set(row, moved);
+            for (int i = 0; i < this.codes.length; i++) {
+                if (this.codes[i] != null) this.codes[i][row] = this.codes[i][last];
+            }
+            this.zoneMaps.get(row / ZoneMap.BLOCK_SIZE).include(moved);
+        }
+
+        ZoneMap lastBlock = this.zoneMaps.get(this.zoneMaps.size() - 1);
+        lastBlock.removeLast();
+        if (lastBlock.getCount() == 0) {
+            this.zoneMaps.remove(this.zoneMaps.size() - 1);
+        }
+        this.version++;
     }
 
     /**
@@ -47,6 +135,35 @@ public class Table implements ITable {
         return this.tuples;
     }
 
+    /**
+     * Replaces the tuples of the table and rebuilds the zone maps
+     * @param tuples the new list of tuples
+     */
+    @Override
+    public void setTuples(List<ITuple> tuples) {
+        this.tuples = new ArrayList<>(tuples.size());
+        this.zoneMaps = new ArrayList<>();
+        initDictionaries();
+        for (ITuple tuple : tuples) {
+            addTuple(tuple);
+        }
+        this.version++;
+    }
+
+    /**
+     * Returns the zone maps of the table
+     * If the tuple list was modified directly (through getTuples) the zone maps are rebuilt first
+     * @return the list of zone maps, in tuple order
+     */
+    @Override
+    public List<ZoneMap> getZoneMaps() {
+        int covered = this.zoneMaps.isEmpty() ? 0 : this.zoneMaps.get(this.zoneMaps.size() - 1).getEnd();
+        if (covered != this.tuples.size()) {
+            setTuples(this.tuples);
+        }
+        return this.zoneMaps;
+    }
+
     /**
      * Returns the table schema
      * @return ISchema as the schema of the table.
@@ -56,4 +173,59 @@ public class Table implements ITable {
         return this.schema;
     }
 
+    /**
+     * Returns the dictionary of an attribute
+     * @param index the attribute index
+     * @return the dictionary, or null if the attribute is not dictionary encoded
+     */
+    @Override
+    public Dictionary getDictionary(int index) {
+        Dictionary dictionary = this.dictionaries[index];
+        return dictionary != null && dictionary.isEnabled() ? dictionary : null;
+    }
+
+    /**
+     * Returns the dictionary code of a value
+     * Only valid for attributes that have a dictionary (see getDictionary)
+     * @param row position of the tuple in the tuple list
+     * @param index the attribute index
+     * @return the code of the value, or -1 for a null value
+     */
+    @Override
+    public int getCode(int row, int index) {
+        return this.codes[index][row];
+    }
+
+    /**
+     * Returns the version of the table
+     * The version increases every time a tuple is added, the tuples are replaced or incrementVersion is called
+     * @return the current version
+     */
+    @Override
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Increments the version of the table (to be called after modifying tuples in place)
+     */
+    @Override
+    public void incrementVersion() {
+        this.version++;
+    }
+
+    /**
+     * Updates the table after the tuple at the given position was modified in place (through setValue)
+     * The zone map of its block is widened to cover the new values, the dictionary codes are recomputed
+     * and the version is incremented
+     * @param row position of the modified tuple
+     */
+    @Override
+    public void refreshTuple(int row) {
+        ITuple tuple = this.tuples.get(row);
+        getZoneMaps().get(row / ZoneMap.BLOCK_SIZE).include(tuple);
+        encode(row, tuple);
+        this.version++;
+    }
+
 }
@@ -0,0 +1,80 @@
+/**
+ * The sketches of the tuples of a table: a HyperLogLog per attribute and a quantile sketch per number attribute
+ *
+ * The database keeps the sketch of a table up to date on insert (see add), so approximate aggregates over the
+ * whole table are answered without a scan. Sketches cannot remove values: the sketch records the table version
+ * it describes, and is rebuilt from the tuples when the table changed in another way (delete, update).
+ */
+public final class TableSketch {
+    private HyperLogLog[] distinct;         // Distinct values sketch, per attribute
+    private QuantileSketch[] quantiles;     // Quantile sketch, per Integer or Double attribute (null for others)
+    private long count;                     // Number of tuples
+    private long version;                   // Version of the table the sketches describe
+
+    /**
+     * Builds the sketches of a table from its tuples
+     * @param table the table
+     */
+    public TableSketch(ITable table) {
+        ISchema schema = table.getSchema();
+        this.distinct = new HyperLogLog[schema.size()];
+        this.quantiles = new QuantileSketch[schema.size()];
+        for (int i = 0; i < schema.size(); i++) {
+            this.distinct[i] = new HyperLogLog();
+            if (schema.getAttributeType(i) != AttributeType.STRING) {
+                this.quantiles[i] = new QuantileSketch();
+            }
+        }
+
+        for (ITuple tuple : table.getTuples()) {
+            add(tuple);
+        }
+        this.version = table.getVersion();
+    }
+
+    /**
+     * Adds a tuple inserted into the table
+     * @param tuple the tuple
+     */
+    public void add(ITuple tuple) {
+        Object[] values = tuple.getValues();
+        for (int i = 0; i < this.distinct.length; i++) {
+            this.distinct[i].add(values[i]);
+            if (this.quantiles[i] != null) this.quantiles[i].add((Number) values[i]);
+        }
+        this.count++;
+    }
+
+    /**
+     * Checks if the sketches describe the current tuples of a table
+     * @param table the table
+     * @return true if the table did not change since the sketches were last updated
+     */
+    public boolean isCurrent(ITable table) {
+        return this.version == table.getVersion();
+    }
+
+    /**
+     * Records that the sketches describe the current tuples of a table (after add)
+     * @param table the table
+     */
+    public void setCurrent(ITable table) {
+        this.version = table.getVersion();
+    }
+
+    /**
+     * Getters
+     */
+
+    public HyperLogLog getDistinct(int index) {
+        return this.distinct[index];
+    }
+
+    public QuantileSketch getQuantiles(int index) {
+        return this.quantiles[index];
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+}
@@ -1,55 +1,50 @@
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A tuple is an ordered collection of Objects and their associated types (Integer, Double or String)
- * Objects are stored in an array while types are stored in a map of (index, type)
+ * Objects are stored in an array while types are read from the (shared) schema of the tuple
  *
  */
 public class Tuple implements ITuple {
     private Object[] values;                   // Stores actual values (of any type)
-    private Map<Integer, Class<?>> typeMap;    // Maps attribute index to expected Java class type (e.g., Integer, String)
+    private ISchema schema;                    // Schema of the tuple, gives the type of each attribute
 
     /**
-     * The constructor receives a schema and creates the object array and typemap (representing the tuple)
-     * The schema has the types of attributes stored as strings ("Integer", "Double", "String")
-     * Based upon these types the constructor stores the actual class (Integer.class, Double.class, String.class) to the typemap
+     * The constructor receives a schema and creates the object array (representing the tuple)
+     * The schema has the types of attributes computed once ("Integer", "Double", "String" as AttributeType),
+     * so no per-tuple type information is created
      * @param schema the schema used to determine types
      */
     public Tuple(ISchema schema) {
-        int size = schema.getAttributes().size();   // number of attributes
-        this.values = new Object[size];                  // create an empty array of that size
-        this.typeMap = new HashMap<>();
-
-        // Fill typeMap with Java class types based on schema type strings
-        for (int i : schema.getAttributes().keySet()) {
-            String type = schema.getType(i);
+        this.values = new Object[schema.size()];     // create an empty array of the schema size
+        this.schema = schema;
+    }
 
-            switch (type) {
-                case "Integer" -> typeMap.put(i, Integer.class);
-                case "Double"  -> typeMap.put(i, Double.class);
-                default        -> typeMap.put(i, String.class);  // default to String
-            }
-        }
+    /**
+     * Creates a copy of tuple values (already converted to the schema types; null values stay null)
+     * @param schema the schema of the tuple
+     * @param values the values to copy
+     */
+    public Tuple(ISchema schema, Object[] values) {
+        this.values = values.clone();
+        this.schema = schema;
     }
 
     /**
      * Stores the value at the given index in the (tuple) object
-     * The value is converted from the object to its actual class from the type map
+     * The value is converted from the object to its actual class from the schema type
      * @param index the attribute index
-     * @param value the raw value (as Object or String)
+     * @param value the raw value (as Object or String), or null
      */
     @Override
 
     public void setValue(int index, Object value) {
-        Class<?> type = typeMap.get(index);
-
-        if (type == Integer.class) {
-            values[index] = Integer.parseInt(value.toString());   // convert to Integer
-        } else if (type == Double.class) {
-            values[index] = Double.parseDouble(value.toString()); // convert to Double
-        } else {
-            values[index] = value.toString();                     // convert to String
+        if (value == null) {
+            values[index] = null;
+            return;
+        }
+        switch (schema.getAttributeType(index)) {
+            case INTEGER -> values[index] = value instanceof Integer ? value : Integer.parseInt(value.toString());   // convert to Integer
+            case DOUBLE -> values[index] = value instanceof Double ? value : Double.parseDouble(value.toString());   // convert to Double
+            default -> values[index] = value.toString();                                                             // convert to String
         }
     }
 
@@ -76,7 +71,7 @@ public class Tuple implements ITuple {
 
     /**
      * Sets the tuple values to the provided ones
-     * The values are converted from objects to their actual classes from the typemap
+     * The values are converted from objects to their actual classes from the schema types
      * @param values array of new values (must match schema length)
      */
     @Override
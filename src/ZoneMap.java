@@ -0,0 +1,181 @@
+/**
+ * A zone map summarizes a fixed-size block of tuples of a table
+ * For Integer attributes it stores the min and max value found in the block,
+ * for String attributes it stores a small bloom filter of the values in the block
+ * A scan can skip the whole block when the summary shows that no tuple in it can match a condition
+ */
+public class ZoneMap {
+    public static final int BLOCK_SIZE = 1024;     // Number of tuples summarized by one zone map
+    private static final int BLOOM_WORDS = 16;     // Bloom filter size in longs (1024 bits per String attribute)
+
+    private int start;              // Index (in the table's tuple list) of the first tuple of the block
+    private int count;              // Number of tuples in the block
+    private AttributeType[] types;  // Attribute types, by attribute index
+    private int[] min;              // Minimum value per Integer attribute
+    private int[] max;              // Maximum value per Integer attribute
+    private boolean[] hasNull;      // True if the attribute holds a null value somewhere in the block
+    private long[][] blooms;        // Bloom filter per String attribute
+
+    /**
+     * constructor
+     * Creates an empty summary for the block starting at the given tuple index
+     * @param start index of the first tuple of the block
+     * @param schema schema of the table the block belongs to
+     */
+    public ZoneMap(int start, ISchema schema) {
+        int size = schema.size();
+        this.start = start;
+        this.count = 0;
+        this.types = new AttributeType[size];
+        this.min = new int[size];
+        this.max = new int[size];
+        this.hasNull = new boolean[size];
+        this.blooms = new long[size][];
+
+        for (int i = 0; i < size; i++) {
+            this.types[i] = schema.getAttributeType(i);
+            this.min[i] = Integer.MAX_VALUE;
+            this.max[i] = Integer.MIN_VALUE;
+            if (this.types[i] == AttributeType.STRING) {
+                this.blooms[i] = new long[BLOOM_WORDS];
+            }
+        }
+    }
+
+    /**
+     * Returns a view of this summary for a block that starts offset tuples later
+     * (e.g. a block of a partition, seen from the whole partitioned table)
+     * The view shares the summary of this block, but not its tuple count
+     * @param offset number of tuples before the first tuple of this block's table
+     * @return the shifted summary
+     */
+    public ZoneMap shift(int offset) {
+        ZoneMap shifted = new ZoneMap(this);
+        shifted.start = this.start + offset;
+        return shifted;
+    }
+
+    // Copies the summary of a block (sharing its arrays)
+    private ZoneMap(ZoneMap block) {
+        this.start = block.start;
+        this.count = block.count;
+        this.types = block.types;
+        this.min = block.min;
+        this.max = block.max;
+        this.hasNull = block.hasNull;
+        this.blooms = block.blooms;
+    }
+
+    /**
+     * Getters
+     */
+
+    public int getStart() {
+        return this.start;
+    }
+
+    public int getEnd() {
+        return this.start + this.count;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    public boolean isFull() {
+        return this.count >= BLOCK_SIZE;
+    }
+
+    /**
+     * Adds the next tuple of the block to the summary
+     * @param tuple the tuple appended to the block
+     */
+    public void add(ITuple tuple) {
+        include(tuple);
+        this.count++;
+    }
+
+    /**
+     * Removes the last tuple of the block from the block
+     * The summary still covers its values: it stays correct (a block is never skipped wrongly), only less tight
+     */
+    public void removeLast() {
+        this.count--;
+    }
+
+    /**
+     * Widens the summary so that it also covers the values of the given tuple
+     * Used when a tuple already in the block is modified in place
+     * @param tuple the tuple whose values must be covered
+     */
+    public void include(ITuple tuple) {
+        Object[] values = tuple.getValues();
+        for (int i = 0; i < this.types.length && i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                this.hasNull[i] = true;
+            } else if (this.types[i] == AttributeType.INTEGER) {
+                int v = (Integer) value;
+                if (v < this.min[i]) this.min[i] = v;
+                if (v > this.max[i]) this.max[i] = v;
+            } else if (this.blooms[i] != null) {
+                int h = value.hashCode();
+                setBit(this.blooms[i], h);
+                setBit(this.blooms[i], mix(h));
+            }
+        }
+    }
+
+    /**
+     * Checks if any tuple of the block may satisfy "attribute operator value"
+     * A false result is exact (no tuple can match), a true result only means the block must be read
+     * @param index index of the attribute in the condition
+     * @param operator relational operator (=, !=, <, >, <=, >=)
+     * @param value right-hand side value (Integer or String, matching the attribute type)
+     * @return false if the block can be skipped
+     */
+    public boolean mightMatch(int index, String operator, Object value) {
+        if (this.count == 0) return false;
+        if (this.hasNull[index]) return true;
+
+        if (this.types[index] == AttributeType.INTEGER && value instanceof Integer) {
+            int v = (Integer) value;
+            int lo = this.min[index];
+            int hi = this.max[index];
+            return switch (operator) {
+                case "=" -> lo <= v && v <= hi;
+                case "!=" -> !(lo == v && hi == v);
+                case ">" -> hi > v;
+                case "<" -> lo < v;
+                case ">=" -> hi >= v;
+                case "<=" -> lo <= v;
+                default -> true;
+            };
+        }
+
+        if (this.blooms[index] != null && operator.equals("=") && value != null) {
+            int h = value.hashCode();
+            return testBit(this.blooms[index], h) && testBit(this.blooms[index], mix(h));
+        }
+
+        return true;
+    }
+
+    // Second hash function for the bloom filter, derived from the first one
+    private static int mix(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private static void setBit(long[] bits, int h) {
+        int bit = h & (BLOOM_WORDS * 64 - 1);
+        bits[bit >>> 6] |= 1L << (bit & 63);
+    }
+
+    private static boolean testBit(long[] bits, int h) {
+        int bit = h & (BLOOM_WORDS * 64 - 1);
+        return (bits[bit >>> 6] & (1L << (bit & 63))) != 0;
+    }
+}
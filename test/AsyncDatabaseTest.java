@@ -0,0 +1,192 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of asynchronous access: futures complete with the results of their queries, a pipeline runs its queries in
+ * submission order, and a publisher sends the tuples of a select in batches, only as they are requested
+ */
+public class AsyncDatabaseTest {
+    private static final long WAIT_SECONDS = 10;    // Maximum time to wait for a result or a signal
+
+    @TempDir
+    Path folder;
+
+    private Database db;            // Database of the test folder
+    private AsyncDatabase async;    // Asynchronous access to db
+
+    @BeforeEach
+    void createDatabase() throws Exception {
+        Files.writeString(this.folder.resolve("schema.txt"), "t(id:Integer, v:Integer)\n");
+        StringBuilder csv = new StringBuilder();
+        for (int id = 0; id < 25; id++) {
+            csv.append(id).append(',').append(id % 5).append('\n');
+        }
+        Files.writeString(this.folder.resolve("t.csv"), csv);
+        this.db = new Database(this.folder.toString(), "schema.txt");
+        this.db.populateDB();
+        this.async = new AsyncDatabase(this.db);
+    }
+
+    @AfterEach
+    void close() {
+        this.async.close();
+    }
+
+    @Test
+    void futuresCompleteWithTheResultOrTheError() throws Exception {
+        CompletableFuture<ITable> select = this.async.submit("select id from t where v = 3");
+        CompletableFuture<ITable> insert = this.async.submit("insert into t (id, v) values (100, 9)");
+        CompletableFuture<ITable> invalid = this.async.submit("select id from missing");
+
+        assertEquals(List.of(List.of(3), List.of(8), List.of(13), List.of(18), List.of(23)), rows(get(select)));
+        assertNull(get(insert), "only selects have a result");
+        ExecutionException error = assertThrows(ExecutionException.class, () -> invalid.get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof InvalidQueryException, "the cause is " + error.getCause());
+
+        List<CompletableFuture<ITable>> all = this.async.submitAll(List.of("select id from t where v = 9", "select id from t where id = 4"));
+        assertEquals(List.of(List.of(100)), rows(get(all.get(0))));
+        assertEquals(List.of(List.of(4)), rows(get(all.get(1))));
+    }
+
+    @Test
+    void pipelineRunsItsQueriesInOrder() throws Exception {
+        AsyncDatabase.Pipeline pipeline = this.async.pipeline();
+        List<CompletableFuture<ITable>> counts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            pipeline.submit("insert into t (id, v) values (" + (100 + i) + ", 7)");
+            if (i == 10) pipeline.submit("insert into missing (id) values (1)");
+            counts.add(pipeline.submit("select count(*) from t where v = 7"));
+        }
+        get(pipeline.flush());
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(List.of(List.of(i + 1)), rows(get(counts.get(i))), "each select sees the inserts before it");
+        }
+    }
+
+    @Test
+    void publisherSendsBatchesOnlyAsRequested() throws Exception {
+        Recorder recorder = new Recorder();
+        this.async.publish("select id, v from t", 10).subscribe(recorder);
+        Flow.Subscription subscription = recorder.subscription.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        List<List<ITuple>> batches = new ArrayList<>();
+        subscription.request(1);
+        batches.add(next(recorder));
+        assertNull(recorder.signals.poll(200, TimeUnit.MILLISECONDS), "no batch is sent before it is requested");
+
+        // The tuples inserted after the select ran are not sent
+        this.db.insertData("insert into t (id, v) values (100, 0)");
+        subscription.request(5);
+        batches.add(next(recorder));
+        batches.add(next(recorder));
+        assertEquals("complete", recorder.signals.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        List<Integer> sizes = new ArrayList<>();
+        List<List<Object>> sent = new ArrayList<>();
+        for (List<ITuple> batch : batches) {
+            sizes.add(batch.size());
+            for (ITuple tuple : batch) {
+                sent.add(Arrays.asList(tuple.getValues()));
+            }
+        }
+        assertEquals(List.of(10, 10, 5), sizes);
+        assertEquals(rows(this.db.selectData("select id, v from t where id < 100")), sent);
+    }
+
+    @Test
+    void cancelledSubscriptionReceivesNothingMore() throws Exception {
+        Recorder recorder = new Recorder();
+        this.async.publish("select id from t", 4).subscribe(recorder);
+        Flow.Subscription subscription = recorder.subscription.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        subscription.request(1);
+        assertEquals(4, next(recorder).size());
+        subscription.cancel();
+        subscription.request(10);
+        assertNull(recorder.signals.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void invalidPublicationsAreReported() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> this.async.publish("select id from t", 0));
+
+        Recorder insert = new Recorder();
+        this.async.publish("insert into t (id, v) values (100, 0)", 10).subscribe(insert);
+        insert.subscription.poll(WAIT_SECONDS, TimeUnit.SECONDS).request(1);
+        assertEquals("error InvalidQueryException", insert.signals.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(25, this.db.getTable("t").getTuples().size(), "the query did not run");
+
+        Recorder negative = new Recorder();
+        this.async.publish("select id from t", 10).subscribe(negative);
+        negative.subscription.poll(WAIT_SECONDS, TimeUnit.SECONDS).request(0);
+        assertEquals("error IllegalArgumentException", negative.signals.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    // Waits for a future
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        return future.get(WAIT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Waits for the next batch sent to a recorder
+    @SuppressWarnings("unchecked")
+    private static List<ITuple> next(Recorder recorder) throws InterruptedException {
+        Object signal = recorder.signals.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+        assertTrue(signal instanceof List, "expected a batch but got " + signal);
+        return (List<ITuple>) signal;
+    }
+
+    // The values of the tuples of a result, in order
+    private static List<List<Object>> rows(ITable table) {
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : table.getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues()));
+        }
+        return rows;
+    }
+
+    // Records what a publisher sends: each signal is queued as the batch, "complete" or "error <exception class>"
+    private static class Recorder implements Flow.Subscriber<List<ITuple>> {
+        private final BlockingQueue<Flow.Subscription> subscription = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription.add(subscription);
+        }
+
+        @Override
+        public void onNext(List<ITuple> batch) {
+            this.signals.add(batch);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.signals.add("error " + error.getClass().getSimpleName());
+        }
+
+        @Override
+        public void onComplete() {
+            this.signals.add("complete");
+        }
+    }
+}
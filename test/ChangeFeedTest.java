@@ -0,0 +1,161 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the change feed: committed changes are published in order with their images, subscriptions resume from
+ * an offset, old events are dropped past the retention, and a change that fails to commit publishes nothing
+ */
+public class ChangeFeedTest {
+    @TempDir
+    Path folder;
+
+    private Database db;    // Database of the test folder
+
+    @BeforeEach
+    void createDatabase() throws Exception {
+        Files.writeString(this.folder.resolve("schema.txt"), "t(id:Integer, v:Integer, s:String)\n");
+        Files.writeString(this.folder.resolve("t.csv"), "1,10,a\n2,20,b\n");
+        this.db = new Database(this.folder.toString(), "schema.txt");
+        this.db.populateDB();
+    }
+
+    @AfterEach
+    void clearRetention() {
+        System.clearProperty("qe.cdc.retainEvents");
+    }
+
+    @Test
+    void changesArePublishedInCommitOrderWithTheirImages() throws Exception {
+        ChangeFeed feed = this.db.getChangeFeed();
+        ChangeFeed.Subscription subscription = feed.subscribe(ChangeFeed.LATEST);
+
+        this.db.insertData("insert into t (id, v, s) values (3, 30, c)");
+        this.db.updateData("update t set v = 21 where id = 2");
+        this.db.deleteData("delete from t where id = 1");
+
+        List<ChangeEvent> events = subscription.poll(10, 0);
+        assertEquals(3, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i, events.get(i).getOffset());
+            assertEquals("t", events.get(i).getTable());
+        }
+
+        assertEquals(ChangeEvent.Type.INSERT, events.get(0).getType());
+        assertNull(events.get(0).getBefore());
+        assertArrayEquals(new Object[] {3, 30, "c"}, events.get(0).getAfter());
+
+        assertEquals(ChangeEvent.Type.UPDATE, events.get(1).getType());
+        assertArrayEquals(new Object[] {2, 20, "b"}, events.get(1).getBefore());
+        assertArrayEquals(new Object[] {2, 21, "b"}, events.get(1).getAfter());
+
+        assertEquals(ChangeEvent.Type.DELETE, events.get(2).getType());
+        assertArrayEquals(new Object[] {1, 10, "a"}, events.get(2).getBefore());
+        assertNull(events.get(2).getAfter());
+        assertEquals(3, subscription.getPosition());
+    }
+
+    @Test
+    void subscriptionsResumeFromAnOffset() throws Exception {
+        ChangeFeed feed = this.db.getChangeFeed();
+        for (int id = 3; id < 8; id++) {
+            this.db.insertData("insert into t (id, v, s) values (" + id + ", 0, x)");
+        }
+
+        ChangeFeed.Subscription first = feed.subscribe(0);
+        assertEquals(List.of(3, 4), ids(first.poll(2, 0)));
+        first.close();
+
+        ChangeFeed.Subscription resumed = feed.subscribe(first.getPosition());
+        assertEquals(List.of(5, 6, 7), ids(resumed.poll(10, 0)));
+        assertTrue(resumed.poll(10, 0).isEmpty(), "no event after the end of the feed");
+
+        ChangeFeed.Subscription latest = feed.subscribe(ChangeFeed.LATEST);
+        this.db.insertData("insert into t (id, v, s) values (8, 0, x)");
+        assertEquals(List.of(8), ids(latest.poll(10, 0)));
+        assertThrows(IllegalStateException.class, () -> feed.subscribe(feed.getNextOffset() + 1));
+    }
+
+    @Test
+    void handlerReceivesEveryBatchInOrder() throws Exception {
+        ChangeFeed feed = this.db.getChangeFeed();
+        List<Integer> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        ChangeFeed.Subscription subscription = feed.subscribe(ChangeFeed.LATEST, 3, batch -> {
+            synchronized (received) {
+                received.addAll(ids(batch));
+                if (received.size() == 10) done.countDown();
+            }
+        });
+
+        for (int id = 10; id < 20; id++) {
+            this.db.insertData("insert into t (id, v, s) values (" + id + ", 0, x)");
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        subscription.close();
+        assertEquals(List.of(10, 11, 12, 13, 14, 15, 16, 17, 18, 19), received);
+    }
+
+    @Test
+    void eventsPastTheRetentionAreDropped() throws Exception {
+        System.setProperty("qe.cdc.retainEvents", "10");
+        ChangeFeed feed = this.db.getChangeFeed();
+        ChangeFeed.Subscription behind = feed.subscribe(0);
+
+        for (int id = 3; id < 28; id++) {
+            this.db.insertData("insert into t (id, v, s) values (" + id + ", 0, x)");
+        }
+
+        assertTrue(feed.getFirstOffset() > 0);
+        assertTrue(feed.getNextOffset() - feed.getFirstOffset() >= 10, "at least the retained number of events is kept");
+        assertThrows(IllegalStateException.class, () -> behind.poll(10, 0));
+        assertThrows(IllegalStateException.class, () -> feed.subscribe(0));
+
+        ChangeFeed.Subscription oldest = feed.subscribe(feed.getFirstOffset());
+        List<ChangeEvent> events = oldest.poll(100, 0);
+        int last = ids(events).get(events.size() - 1);
+        assertEquals(27, last, "the retained events end with the last insert");
+    }
+
+    @Test
+    void changesThatCannotBeLoggedAreNotPublished() throws Exception {
+        ChangeFeed feed = this.db.getChangeFeed();
+        ChangeFeed.Subscription subscription = feed.subscribe(ChangeFeed.LATEST);
+
+        // The log cannot be opened for writing
+        Files.createDirectory(this.folder.resolve("t.log"));
+
+        assertThrows(InvalidQueryException.class, () -> this.db.insertData("insert into t (id, v, s) values (3, 30, c)"));
+        assertThrows(InvalidQueryException.class, () -> this.db.updateData("update t set v = 0"));
+        assertThrows(InvalidQueryException.class, () -> this.db.deleteData("delete from t where id = 1"));
+
+        assertTrue(subscription.poll(10, 0).isEmpty());
+        assertEquals(0, feed.getNextOffset());
+        assertEquals(2, this.db.getTable("t").getTuples().size());
+    }
+
+    // The id of the tuple of each event
+    private static List<Integer> ids(List<ChangeEvent> events) {
+        List<Integer> ids = new ArrayList<>();
+        for (ChangeEvent event : events) {
+            Object[] image = event.getAfter() != null ? event.getAfter() : event.getBefore();
+            ids.add((Integer) image[0]);
+        }
+        return ids;
+    }
+}
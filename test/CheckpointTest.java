@@ -0,0 +1,160 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of durability: changes are logged, checkpoints are recorded in the manifest, and reopening a database
+ * (recovery) gives back the same tuples, including after a crash during a checkpoint or a log write
+ */
+public class CheckpointTest {
+    @TempDir
+    Path folder;
+
+    @BeforeEach
+    void createDatabase() throws Exception {
+        Files.writeString(this.folder.resolve("schema.txt"), "t(id:Integer, v:Integer, s:String)\n");
+        Files.writeString(this.folder.resolve("t.csv"), "1,10,a\n2,20,b\n3,30,c\n");
+    }
+
+    @Test
+    void logReplayRestoresChangesWithoutCheckpoint() throws Exception {
+        Database db = open();
+        change(db);
+        List<List<Object>> expected = rows(db);
+
+        assertEquals(expected, rows(open()));
+        assertEquals("1,10,a\n2,20,b\n3,30,c\n", Files.readString(this.folder.resolve("t.csv")),
+                "changes only go to the log");
+    }
+
+    @Test
+    void checkpointWritesTheTableAndEmptiesTheLog() throws Exception {
+        Database db = open();
+        change(db);
+        db.checkpoint();
+
+        Manifest.Entry entry = Manifest.load(this.folder.toString()).get("t");
+        assertNotNull(entry);
+        assertEquals(0, entry.getLogOffset());
+        assertEquals(Files.size(this.folder.resolve("t.csv")), entry.getLength());
+        assertEquals(0, IO.logLength("t", this.folder.toString()));
+        assertFalse(Files.exists(this.folder.resolve("t.csv.tmp")));
+        assertEquals(rows(db), rows(open()));
+    }
+
+    @Test
+    void changesAfterACheckpointAreReplayedOnTopOfIt() throws Exception {
+        Database db = open();
+        change(db);
+        db.checkpoint();
+        db.insertData("insert into t (id, v, s) values (7, 70, g)");
+        db.updateData("update t set s = z where id = 4");
+        db.deleteData("delete from t where id = 3");
+
+        assertEquals(rows(db), rows(open()));
+    }
+
+    @Test
+    void committedCheckpointIsInstalledByRecovery() throws Exception {
+        Database db = open();
+        change(db);
+        List<List<Object>> expected = rows(db);
+
+        // Crash after the commit point: the manifest records the temporary file, which was not moved yet
+        String folder = this.folder.toString();
+        Manifest.Entry entry = IO.writeCheckpoint(db.getTable("t"), folder);
+        Manifest.load(folder).put("t", new Manifest.Entry(IO.logLength("t", folder), entry.getLength(), entry.getCrc()));
+
+        assertEquals(expected, rows(open()));
+        assertFalse(Files.exists(this.folder.resolve("t.csv.tmp")));
+        assertEquals(entry.getLength(), Files.size(this.folder.resolve("t.csv")));
+    }
+
+    @Test
+    void logEmptiedByACrashedCheckpointIsReplayedFromItsStart() throws Exception {
+        Database db = open();
+        change(db);
+
+        // Crash after the log was emptied, before the manifest recorded the position 0
+        String folder = this.folder.toString();
+        long logEnd = IO.logLength("t", folder);
+        Manifest.Entry entry = IO.writeCheckpoint(db.getTable("t"), folder);
+        Manifest.load(folder).put("t", new Manifest.Entry(logEnd, entry.getLength(), entry.getCrc()));
+        IO.installCheckpoint("t", folder);
+
+        Database recovered = open();
+        assertEquals(rows(db), rows(recovered));
+        assertEquals(0, Manifest.load(folder).get("t").getLogOffset(), "recovery records the emptied log");
+
+        // The log grows past the stale position: the next recovery must still replay all of it
+        for (int id = 10; id < 20; id++) {
+            recovered.insertData("insert into t (id, v, s) values (" + id + ", " + id + "0, x)");
+        }
+        assertTrue(IO.logLength("t", folder) > logEnd);
+        assertEquals(rows(recovered), rows(open()));
+    }
+
+    @Test
+    void uncommittedCheckpointIsDiscardedByRecovery() throws Exception {
+        Database db = open();
+        change(db);
+        List<List<Object>> expected = rows(db);
+
+        // Crash before the commit point: the temporary file is not in the manifest
+        Files.writeString(this.folder.resolve("t.csv.tmp"), "9,90,x\n");
+
+        assertEquals(expected, rows(open()));
+        assertFalse(Files.exists(this.folder.resolve("t.csv.tmp")));
+    }
+
+    @Test
+    void tornLastLogRecordIsIgnoredAndRemoved() throws Exception {
+        Database db = open();
+        change(db);
+        List<List<Object>> expected = rows(db);
+        long logLength = IO.logLength("t", this.folder.toString());
+
+        // Crash while a record was written: the line has no end of line
+        Files.writeString(this.folder.resolve("t.log"), "I,8,80,h", StandardOpenOption.APPEND);
+
+        assertEquals(expected, rows(open()));
+        assertEquals(logLength, IO.logLength("t", this.folder.toString()));
+    }
+
+    // Opens the database of the test folder
+    private Database open() {
+        Database db = new Database(this.folder.toString(), "schema.txt");
+        db.populateDB();
+        return db;
+    }
+
+    // Inserts, updates and deletes tuples (logging an I, U and D record)
+    private static void change(Database db) throws InvalidQueryException {
+        db.insertData("insert into t (id, v, s) values (4, 40, d)");
+        db.insertData("insert into t (id, v, s) values (5, 50, e)");
+        db.updateData("update t set v = 55 where id = 2");
+        db.deleteData("delete from t where id = 1");
+        db.insertData("insert into t (id, v, s) values (6, 60, f)");
+    }
+
+    // The values of the tuples of t, in order
+    private static List<List<Object>> rows(Database db) {
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : db.getTable("t").getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues().clone()));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of compiled selects: the scan loop generated for each shape (type and operator of the condition, projection)
+ * returns the tuples and values a generic filter and projection of the table returns
+ */
+public class CompiledSelectTest {
+    private static final String[] OPERATORS = {"=", "!=", "<", ">", "<=", ">="};
+    private static final ISchema SCHEMA = new Schema(Map.of(0, "id:Integer", 1, "v:Integer", 2, "d:Double", 3, "s:String"));
+    private static final int[] PROJECTION = {3, 0, 2};
+
+    @Test
+    void integerAndDoubleConditionsMatchAGenericScan() throws Exception {
+        Table table = table(new Random(1), 3000);
+
+        for (String operator : OPERATORS) {
+            CompiledSelect integer = CompiledSelect.compile(SCHEMA, PROJECTION, 1, operator, false);
+            assertEquals(expected(table, 1, operator, 50), scan(integer, table, 50, -1), "v " + operator + " 50");
+
+            CompiledSelect number = CompiledSelect.compile(SCHEMA, PROJECTION, 2, operator, false);
+            assertEquals(expected(table, 2, operator, 12.5), scan(number, table, 12.5, -1), "d " + operator + " 12.5");
+        }
+    }
+
+    @Test
+    void stringConditionsMatchAGenericScanWithAndWithoutDictionary() throws Exception {
+        Table table = table(new Random(2), 3000);
+        Dictionary dictionary = table.getDictionary(3);
+        assertNotNull(dictionary, "few distinct Strings are dictionary encoded");
+
+        for (String operator : new String[] {"=", "!="}) {
+            for (String value : new String[] {"s2", "missing"}) {
+                List<List<Object>> expected = expected(table, 3, operator, value);
+                CompiledSelect plain = CompiledSelect.compile(SCHEMA, PROJECTION, 3, operator, false);
+                assertEquals(expected, scan(plain, table, value, -1), "s " + operator + " " + value);
+                CompiledSelect coded = CompiledSelect.compile(SCHEMA, PROJECTION, 3, operator, true);
+                assertEquals(expected, scan(coded, table, value, dictionary.codeOf(value)), "codes: s " + operator + " " + value);
+            }
+        }
+    }
+
+    @Test
+    void selectWithoutConditionProjectsEveryTuple() throws Exception {
+        Table table = table(new Random(3), 100);
+        CompiledSelect select = CompiledSelect.compile(SCHEMA, new int[] {2, 2, 1}, -1, null, false);
+
+        ResultTable result = new ResultTable("result", select.getResultSchema());
+        assertEquals(60, select.scan(table, table.getTuples(), 20, 80, null, -1, result));
+
+        assertEquals("d:Double", select.getResultSchema().getName(0) + ":" + select.getResultSchema().getType(0));
+        assertEquals("v:Integer", select.getResultSchema().getName(2) + ":" + select.getResultSchema().getType(2));
+        for (int i = 0; i < 60; i++) {
+            ITuple source = table.getTuples().get(20 + i);
+            assertEquals(Arrays.asList(source.getValue(2), source.getValue(2), source.getValue(1)),
+                    Arrays.asList(result.getTuples().get(i).getValues()));
+        }
+    }
+
+    @Test
+    void shapesAreKeyedOnEverythingButTheValue() {
+        String key = CompiledSelect.shapeKey("T", PROJECTION, 1, "<", false);
+        assertEquals(key, CompiledSelect.shapeKey("t", PROJECTION.clone(), 1, "<", false));
+        assertNotEquals(key, CompiledSelect.shapeKey("t", new int[] {3, 0}, 1, "<", false));
+        assertNotEquals(key, CompiledSelect.shapeKey("t", PROJECTION, 2, "<", false));
+        assertNotEquals(key, CompiledSelect.shapeKey("t", PROJECTION, 1, "<=", false));
+        assertNotEquals(key, CompiledSelect.shapeKey("t", PROJECTION, 1, "<", true));
+    }
+
+    @Test
+    void unsupportedConditionsAreRejected() {
+        assertThrows(InvalidQueryException.class, () -> CompiledSelect.compile(SCHEMA, PROJECTION, 3, "<", false));
+        assertThrows(InvalidQueryException.class, () -> CompiledSelect.compile(SCHEMA, PROJECTION, 1, "<>", false));
+    }
+
+    // A table t(id, v, d, s) with random values and a null value of each of v, d and s every few tuples
+    private static Table table(Random random, int rows) {
+        Table table = new Table("t", SCHEMA);
+        for (int r = 0; r < rows; r++) {
+            Tuple tuple = new Tuple(SCHEMA);
+            tuple.setValue(0, r);
+            if (r % 7 != 0) tuple.setValue(1, random.nextInt(100));
+            if (r % 11 != 0) tuple.setValue(2, random.nextInt(100) / 4.0);
+            if (r % 13 != 0) tuple.setValue(3, "s" + random.nextInt(5));
+            table.addTuple(tuple);
+        }
+        return table;
+    }
+
+    // The projected values of the tuples a compiled select returns, scanning the table in three blocks
+    private static List<List<Object>> scan(CompiledSelect select, ITable table, Object rhs, int rhsCode) {
+        ResultTable result = new ResultTable("result", select.getResultSchema());
+        int size = table.getTuples().size();
+        int count = 0;
+        for (int start = 0; start < size; start += size / 3 + 1) {
+            count += select.scan(table, table.getTuples(), start, Math.min(size, start + size / 3 + 1), rhs, rhsCode, result);
+        }
+        assertEquals(count, result.getTuples().size());
+
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : result.getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues()));
+        }
+        return rows;
+    }
+
+    // The projected values of the tuples satisfying "attribute operator rhs", found with Database.evaluate
+    private static List<List<Object>> expected(ITable table, int index, String operator, Object rhs) throws InvalidQueryException {
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : table.getTuples()) {
+            Object value = tuple.getValue(index);
+            if (value == null || !Database.evaluate(value, SCHEMA.getAttributeType(index), operator, rhs)) continue;
+            List<Object> row = new ArrayList<>();
+            for (int attribute : PROJECTION) {
+                row.add(tuple.getValue(attribute));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the cracker column: every select returns the tuples a scan of the table finds, while the column is
+ * cracked into more and more pieces
+ */
+public class CrackerColumnTest {
+    private static final String[] OPERATORS = {"=", "<", "<=", ">", ">="};
+    private static final ISchema SCHEMA = new Schema(Map.of(0, "id:Integer", 1, "v:Integer"));
+
+    @Test
+    void selectsMatchAScanOfTheTable() {
+        Random random = new Random(1);
+        Table table = table(random, 5000, 200);
+        CrackerColumn column = new CrackerColumn(table, 1);
+
+        for (int q = 0; q < 300; q++) {
+            String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+            int rhs = random.nextInt(220) - 10;
+            assertArrayEquals(scan(table, operator, rhs), column.select(operator, rhs, new QueryStats("q")),
+                    "v " + operator + " " + rhs);
+        }
+    }
+
+    @Test
+    void extremeConstantsDoNotOverflowTheBounds() {
+        Table table = table(new Random(2), 1000, 100);
+        table.addTuple(tuple(1000, Integer.MAX_VALUE));
+        table.addTuple(tuple(1001, Integer.MIN_VALUE));
+        CrackerColumn column = new CrackerColumn(table, 1);
+
+        for (String operator : OPERATORS) {
+            for (int rhs : new int[] {Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+                assertArrayEquals(scan(table, operator, rhs), column.select(operator, rhs, new QueryStats("q")),
+                        "v " + operator + " " + rhs);
+            }
+        }
+    }
+
+    @Test
+    void queriesCrackTheColumnIntoPieces() {
+        Table table = table(new Random(3), 10000, 1000);
+        CrackerColumn column = new CrackerColumn(table, 1);
+        assertEquals(1, column.getPieces());
+
+        QueryStats first = new QueryStats("q");
+        column.select(">=", 500, first);
+        assertEquals(2, column.getPieces());
+        int nonNull = scan(table, ">=", Integer.MIN_VALUE).length;
+        assertEquals(nonNull, first.getRowsCracked(), "the first query partitions the whole column (nulls are not in it)");
+
+        QueryStats second = new QueryStats("q");
+        column.select("<", 250, second);
+        assertEquals(3, column.getPieces());
+        assertTrue(second.getRowsCracked() < nonNull, "the second query only partitions the piece holding its bound");
+
+        QueryStats repeated = new QueryStats("q");
+        column.select(">=", 500, repeated);
+        assertEquals(3, column.getPieces());
+        assertEquals(0, repeated.getRowsCracked(), "a known bound needs no cracking");
+        assertEquals(3, repeated.getCrackerPieces());
+    }
+
+    @Test
+    void insertedTuplesAreFoundByLaterSelects() {
+        Random random = new Random(4);
+        Table table = table(random, 2000, 100);
+        CrackerColumn column = new CrackerColumn(table, 1);
+        column.select(">", 30, new QueryStats("q"));
+        column.select("<=", 70, new QueryStats("q"));
+        column.select("=", 50, new QueryStats("q"));
+
+        for (int i = 0; i < 500; i++) {
+            Integer value = i % 10 == 0 ? null : random.nextInt(120) - 10;
+            table.addTuple(tuple(2000 + i, value));
+            column.insert(table.getTuples().size() - 1, value);
+            assertTrue(column.isCurrent(table));
+
+            if (i % 50 == 0) {
+                String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+                int rhs = random.nextInt(120) - 10;
+                assertArrayEquals(scan(table, operator, rhs), column.select(operator, rhs, new QueryStats("q")),
+                        "v " + operator + " " + rhs);
+            }
+        }
+        for (String operator : OPERATORS) {
+            assertArrayEquals(scan(table, operator, 50), column.select(operator, 50, new QueryStats("q")));
+        }
+    }
+
+    @Test
+    void otherChangesMakeTheColumnStale() {
+        Table table = table(new Random(5), 100, 10);
+        CrackerColumn column = new CrackerColumn(table, 1);
+        assertTrue(column.isCurrent(table));
+
+        table.getTuples().get(3).setValue(1, 42);
+        table.refreshTuple(3);
+
+        assertFalse(column.isCurrent(table));
+        assertFalse(new CrackerColumn(table, 1).isCurrent(table(new Random(5), 100, 10)));
+    }
+
+    // A table t(id, v) with random values of v in [0, range), and a null value every 17 tuples
+    private static Table table(Random random, int rows, int range) {
+        Table table = new Table("t", SCHEMA);
+        for (int r = 0; r < rows; r++) {
+            table.addTuple(tuple(r, r % 17 == 0 ? null : random.nextInt(range)));
+        }
+        return table;
+    }
+
+    // A tuple (id, value); a null value is left unset, as when it is read from an empty csv field
+    private static Tuple tuple(int id, Integer value) {
+        Tuple tuple = new Tuple(SCHEMA);
+        tuple.setValue(0, id);
+        if (value != null) tuple.setValue(1, value);
+        return tuple;
+    }
+
+    // Positions of the tuples whose value satisfies "v operator rhs", found by a scan
+    private static int[] scan(ITable table, String operator, int rhs) {
+        int[] positions = new int[table.getTuples().size()];
+        int n = 0;
+        for (int r = 0; r < table.getTuples().size(); r++) {
+            Integer value = (Integer) table.getTuples().get(r).getValue(1);
+            if (value == null) continue;
+            boolean match = switch (operator) {
+                case "=" -> value == rhs;
+                case "<" -> value < rhs;
+                case "<=" -> value <= rhs;
+                case ">" -> value > rhs;
+                default -> value >= rhs;
+            };
+            if (match) positions[n++] = r;
+        }
+        return Arrays.copyOf(positions, n);
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of the encodings of IntBlock: each kind of data gets the expected encoding, and reading or filtering the
+ * encoded block gives the same answers as the plain values
+ */
+public class IntBlockTest {
+    private static final String[] OPERATORS = {"=", "!=", "<", ">", "<=", ">="};
+
+    @Test
+    void runsAreRunLengthEncoded() {
+        Integer[] values = new Integer[ZoneMap.BLOCK_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i / 100 * 7;
+        }
+
+        IntBlock block = sealed(values);
+
+        assertEquals(IntBlock.Encoding.RLE, block.getEncoding());
+        assertMatches(values, block);
+    }
+
+    @Test
+    void increasingIdsAreDeltaEncoded() {
+        Random random = new Random(1);
+        Integer[] values = new Integer[ZoneMap.BLOCK_SIZE];
+        values[0] = 100000;
+        for (int i = 1; i < values.length; i++) {
+            values[i] = values[i - 1] + 1 + random.nextInt(3);
+        }
+
+        IntBlock block = sealed(values);
+
+        assertEquals(IntBlock.Encoding.DELTA, block.getEncoding());
+        assertMatches(values, block);
+    }
+
+    @Test
+    void valuesInASmallRangeAreFrameOfReferenceEncoded() {
+        Random random = new Random(2);
+        Integer[] values = new Integer[ZoneMap.BLOCK_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 5000 + random.nextInt(100);
+        }
+
+        IntBlock block = sealed(values);
+
+        assertEquals(IntBlock.Encoding.FOR, block.getEncoding());
+        assertMatches(values, block);
+    }
+
+    @Test
+    void extremeValuesKeepTheirFullRange() {
+        Random random = new Random(3);
+        Integer[] values = new Integer[ZoneMap.BLOCK_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt();
+        }
+        values[0] = Integer.MIN_VALUE;
+        values[1] = Integer.MAX_VALUE;
+
+        IntBlock block = sealed(values);
+
+        assertEquals(IntBlock.Encoding.FOR, block.getEncoding());
+        assertMatches(values, block);
+    }
+
+    @Test
+    void nullsAreKeptByEveryEncoding() {
+        Random random = new Random(4);
+        Integer[] runs = new Integer[ZoneMap.BLOCK_SIZE];
+        Integer[] ids = new Integer[ZoneMap.BLOCK_SIZE];
+        Integer[] small = new Integer[ZoneMap.BLOCK_SIZE];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = i / 200;
+            ids[i] = 10 * i;
+            small[i] = random.nextInt(50);
+        }
+        for (int i = 0; i < runs.length; i += 37) {
+            runs[i] = null;
+            ids[i] = null;
+            small[i] = null;
+        }
+
+        assertMatches(runs, sealed(runs));
+        assertMatches(ids, sealed(ids));
+        assertMatches(small, sealed(small));
+    }
+
+    @Test
+    void modifyingASealedBlockOpensIt() {
+        Integer[] values = new Integer[ZoneMap.BLOCK_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        IntBlock block = sealed(values);
+
+        block.set(10, -5);
+        block.set(11, null);
+        values[10] = -5;
+        values[11] = null;
+
+        assertEquals(IntBlock.Encoding.PLAIN, block.getEncoding());
+        assertMatches(values, block);
+        block.seal();
+        assertMatches(values, block);
+    }
+
+    @Test
+    void partialBlocksAreEncodedToo() {
+        Integer[] values = {3, 3, 3, null, 8, 9};
+
+        assertMatches(values, sealed(values));
+    }
+
+    @Test
+    void writeAndReadGiveTheSameBlock() throws IOException {
+        Random random = new Random(5);
+        Integer[] values = new Integer[ZoneMap.BLOCK_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 50 == 0 ? null : 7 * i + random.nextInt(5);
+        }
+        IntBlock block = sealed(values);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        block.write(new DataOutputStream(bytes));
+        IntBlock read = IntBlock.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(block.getEncoding(), read.getEncoding());
+        assertEquals(block.getCount(), read.getCount());
+        assertMatches(values, read);
+    }
+
+    // Builds a block from the values and seals it
+    private static IntBlock sealed(Integer[] values) {
+        IntBlock block = new IntBlock();
+        for (Integer value : values) {
+            block.append(value);
+        }
+        block.seal();
+        return block;
+    }
+
+    // Checks get, isNull, decode and filter of the block against the values
+    private static void assertMatches(Integer[] values, IntBlock block) {
+        assertEquals(values.length, block.getCount());
+
+        int[] decoded = new int[values.length];
+        block.decode(decoded);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i] == null, block.isNull(i), "null at " + i);
+            if (values[i] != null) {
+                assertEquals(values[i].intValue(), block.get(i), "get at " + i);
+                assertEquals(values[i].intValue(), decoded[i], "decode at " + i);
+            }
+        }
+
+        int[] constants = {Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1};
+        for (int rhs : constants) {
+            assertFilter(values, block, rhs);
+        }
+        for (int i = 0; i < values.length; i += values.length / 5 + 1) {
+            if (values[i] != null) {
+                assertFilter(values, block, values[i]);
+                assertFilter(values, block, values[i] + 1);
+            }
+        }
+    }
+
+    // Checks filter with every operator and the given constant against a comparison of the values
+    private static void assertFilter(Integer[] values, IntBlock block, int rhs) {
+        for (String operator : OPERATORS) {
+            int[] expected = new int[values.length];
+            int count = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null && compare(values[i], operator, rhs)) expected[count++] = i + 1000;
+            }
+
+            int[] matches = new int[values.length];
+            int found = block.filter(operator, rhs, matches, 1000);
+
+            assertArrayEquals(Arrays.copyOf(expected, count), Arrays.copyOf(matches, found),
+                    "value " + operator + " " + rhs);
+        }
+    }
+
+    private static boolean compare(int value, String operator, int rhs) {
+        return switch (operator) {
+            case "=" -> value == rhs;
+            case "!=" -> value != rhs;
+            case "<" -> value < rhs;
+            case ">" -> value > rhs;
+            case "<=" -> value <= rhs;
+            default -> value >= rhs;
+        };
+    }
+}
@@ -0,0 +1,138 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of materialized views: inserts, deletes and updates of the table are applied to the view as deltas, and the
+ * view always holds the result its query would have on the current table
+ */
+public class MaterializedViewTest {
+    @TempDir
+    Path folder;
+
+    private Database db;    // Database of the test folder
+
+    @BeforeEach
+    void createDatabase() throws Exception {
+        Files.writeString(this.folder.resolve("schema.txt"), "t(id:Integer, d:String, v:Integer)\n");
+        Files.writeString(this.folder.resolve("t.csv"), "1,x,10\n2,x,20\n3,y,5\n4,y,\n5,z,7\n");
+        this.db = open();
+    }
+
+    @Test
+    void projectionFollowsTheChangesOfItsTable() throws Exception {
+        this.db.createView("create materialized view p as select id, v from t where v > 6");
+        assertEquals(List.of(row(1, 10), row(2, 20), row(5, 7)), rows("select id, v from p"));
+
+        this.db.insertData("insert into t (id, d, v) values (6, w, 50)");
+        this.db.insertData("insert into t (id, d, v) values (7, w, 3)");
+        this.db.deleteData("delete from t where id = 2");
+        this.db.updateData("update t set v = 1 where id = 1");
+        this.db.updateData("update t set v = 8 where id = 3");
+        this.db.updateData("update t set v = 9 where id = 5");
+
+        assertEquals(List.of(row(3, 8), row(5, 9), row(6, 50)), rows("select id, v from p"));
+    }
+
+    @Test
+    void groupsFollowInsertsDeletesAndUpdates() throws Exception {
+        this.db.createView("create materialized view g as select d, count(*), sum(v), avg(v) from t group by d");
+        assertEquals(List.of(row("x", 2, 30, 15.0), row("y", 2, 5, 5.0), row("z", 1, 7, 7.0)),
+                rows("select d, count, sum_v, avg_v from g"));
+
+        this.db.insertData("insert into t (id, d, v) values (6, w, 4)");
+        this.db.insertData("insert into t (id, d, v) values (7, x, 30)");
+        assertEquals(List.of(row("w", 1, 4, 4.0), row("x", 3, 60, 20.0), row("y", 2, 5, 5.0), row("z", 1, 7, 7.0)),
+                rows("select d, count, sum_v, avg_v from g"));
+
+        this.db.updateData("update t set v = 30 where id = 4");
+        this.db.updateData("update t set d = z where id = 1");
+        this.db.deleteData("delete from t where id = 7");
+        assertEquals(List.of(row("w", 1, 4, 4.0), row("x", 1, 20, 20.0), row("y", 2, 35, 17.5), row("z", 2, 17, 8.5)),
+                rows("select d, count, sum_v, avg_v from g"));
+    }
+
+    @Test
+    void emptiedGroupsAreRemoved() throws Exception {
+        this.db.createView("create materialized view g as select d, count(v) as n from t group by d");
+
+        this.db.deleteData("delete from t where d = z");
+        this.db.updateData("update t set d = y where id = 1");
+        assertEquals(List.of(row("x", 1), row("y", 2)), rows("select d, n from g"));
+
+        this.db.deleteData("delete from t where d = x");
+        this.db.deleteData("delete from t where id = 3");
+        assertEquals(List.of(row("y", 1)), rows("select d, n from g"), "the group keeps the tuple with a null value");
+
+        this.db.insertData("insert into t (id, d, v) values (8, x, 1)");
+        assertEquals(List.of(row("x", 1), row("y", 1)), rows("select d, n from g"));
+    }
+
+    @Test
+    void aggregationWithoutGroupByKeepsOneTuple() throws Exception {
+        this.db.createView("create materialized view a as select count(*), sum(v) from t where v > 100");
+        assertEquals(List.of(row(0, null)), rows("select count, sum_v from a"));
+
+        this.db.insertData("insert into t (id, d, v) values (6, w, 200)");
+        assertEquals(List.of(row(1, 200)), rows("select count, sum_v from a"));
+
+        this.db.deleteData("delete from t where id = 6");
+        assertEquals(List.of(row(0, null)), rows("select count, sum_v from a"));
+    }
+
+    @Test
+    void viewsAreComputedAgainWhenTheDatabaseIsReopened() throws Exception {
+        this.db.createView("create materialized view g as select d, sum(v) from t group by d");
+        this.db.insertData("insert into t (id, d, v) values (6, w, 4)");
+        this.db.deleteData("delete from t where d = x");
+        List<List<Object>> expected = rows("select d, sum_v from g");
+
+        this.db = open();
+        assertEquals(expected, rows("select d, sum_v from g"));
+    }
+
+    @Test
+    void unsupportedViewsAreRejected() {
+        assertThrows(InvalidQueryException.class,
+                () -> this.db.createView("create materialized view g as select count(*) from t group by d"),
+                "the group by attribute must be selected");
+        assertThrows(InvalidQueryException.class,
+                () -> this.db.createView("create materialized view g as select id, count(*) from t group by d"));
+        assertThrows(InvalidQueryException.class,
+                () -> this.db.createView("create materialized view g as select d, min(v) from t group by d"));
+        assertThrows(InvalidQueryException.class,
+                () -> this.db.createView("create materialized view g as select id, d from t group by d"));
+        assertThrows(InvalidQueryException.class,
+                () -> this.db.createView("create materialized view t as select id from t"));
+    }
+
+    // Opens the database of the test folder
+    private Database open() {
+        Database database = new Database(this.folder.toString(), "schema.txt");
+        database.populateDB();
+        return database;
+    }
+
+    // The values of the tuples of a select, sorted
+    private List<List<Object>> rows(String query) throws InvalidQueryException {
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : this.db.selectData(query).getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues().clone()));
+        }
+        rows.sort((a, b) -> a.toString().compareTo(b.toString()));
+        return rows;
+    }
+
+    private static List<Object> row(Object... values) {
+        return Arrays.asList(values);
+    }
+}
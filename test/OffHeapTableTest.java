@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of the off-heap table: values read back from the buffers are the values written (nulls, long Strings and
+ * rows of several buffers included), filters in the buffers match a scan, and setTuples keeps the right values
+ */
+public class OffHeapTableTest {
+    private static final ISchema SCHEMA = new Schema(Map.of(0, "id:Integer", 1, "d:Double", 2, "s:String"));
+    private static final String LONG = "a String longer than the inline bytes of a row: ";
+
+    @Test
+    void valuesAreReadBackAsWritten() {
+        OffHeapTable table = new OffHeapTable("t", SCHEMA);
+        List<Object[]> expected = List.of(
+                new Object[] {1, 1.5, "a"},
+                new Object[] {null, null, null},
+                new Object[] {3, -0.25, ""},
+                new Object[] {Integer.MIN_VALUE, Double.MAX_VALUE, LONG + 3},
+                new Object[] {5, 0.0, "h\u00e9llo w\u00f6rld"});
+        for (Object[] values : expected) {
+            table.addTuple(tuple(values));
+        }
+
+        assertEquals(expected.size(), table.getTuples().size());
+        for (int r = 0; r < expected.size(); r++) {
+            assertArrayEquals(expected.get(r), table.getTuples().get(r).getValues(), "row " + r);
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> table.getTuples().get(expected.size()));
+    }
+
+    @Test
+    void rowsOfSeveralBuffersAreKept() {
+        OffHeapTable table = new OffHeapTable("t", SCHEMA);
+        int rows = 3 * OffHeapTable.CHUNK_BYTES / 40;   // Rows are at least 40 bytes: more than two buffers
+        for (int r = 0; r < rows; r++) {
+            table.addTuple(tuple(r, r / 2.0, r % 1000 == 0 ? LONG + r : "s" + r % 10));
+        }
+
+        assertEquals(rows, table.getTuples().size());
+        assertEquals((rows + ZoneMap.BLOCK_SIZE - 1) / ZoneMap.BLOCK_SIZE, table.getZoneMaps().size());
+        for (int r = 0; r < rows; r += 997) {
+            assertArrayEquals(new Object[] {r, r / 2.0, r % 1000 == 0 ? LONG + r : "s" + r % 10},
+                    table.getTuples().get(r).getValues());
+        }
+    }
+
+    @Test
+    void filterMatchesAScan() throws Exception {
+        Random random = new Random(1);
+        OffHeapTable table = new OffHeapTable("t", SCHEMA);
+        for (int r = 0; r < 5000; r++) {
+            table.addTuple(tuple(r % 13 == 0 ? null : random.nextInt(100),
+                    r % 17 == 0 ? null : random.nextInt(50) / 4.0,
+                    r % 19 == 0 ? null : random.nextInt(20) == 0 ? LONG + random.nextInt(3) : "s" + random.nextInt(5)));
+        }
+
+        int[] matches = new int[table.getTuples().size()];
+        for (String operator : new String[] {"=", "!=", "<", ">", "<=", ">="}) {
+            int n = table.filter(0, 5000, 0, operator, 42, matches);
+            assertArrayEquals(scan(table, 0, operator, 42), Arrays.copyOf(matches, n), "id " + operator + " 42");
+            n = table.filter(100, 4100, 1, operator, 5.0, matches);
+            assertArrayEquals(range(scan(table, 1, operator, 5.0), 100, 4100), Arrays.copyOf(matches, n), "d " + operator + " 5.0");
+        }
+        for (String value : new String[] {"s3", LONG + 1, "missing"}) {
+            int n = table.filter(0, 5000, 2, "=", value, matches);
+            assertArrayEquals(scan(table, 2, "=", value), Arrays.copyOf(matches, n), "s = " + value);
+            n = table.filter(0, 5000, 2, "!=", value, matches);
+            assertArrayEquals(scan(table, 2, "!=", value), Arrays.copyOf(matches, n), "s != " + value);
+        }
+        assertThrows(InvalidQueryException.class, () -> table.filter(0, 5000, 2, "<", "s3", matches));
+    }
+
+    @Test
+    void keptRowsAreCompactedWithTheirLongStrings() {
+        OffHeapTable table = new OffHeapTable("t", SCHEMA);
+        for (int r = 0; r < 3000; r++) {
+            table.addTuple(tuple(r, (double) r, r % 3 == 0 ? LONG + r : "s" + r));
+        }
+
+        // Keep every other row, as a delete does (rows of the table in increasing order)
+        List<ITuple> kept = new ArrayList<>();
+        for (int r = 1; r < 3000; r += 2) {
+            kept.add(table.getTuples().get(r));
+        }
+        table.setTuples(kept);
+
+        assertEquals(1500, table.getTuples().size());
+        assertEquals(2, table.getZoneMaps().size());
+        for (int i = 0; i < 1500; i++) {
+            int r = 2 * i + 1;
+            assertArrayEquals(new Object[] {r, (double) r, r % 3 == 0 ? LONG + r : "s" + r}, table.getTuples().get(i).getValues());
+        }
+    }
+
+    @Test
+    void otherTuplesAreCopiedIntoNewRows() {
+        OffHeapTable table = new OffHeapTable("t", SCHEMA);
+        for (int r = 0; r < 10; r++) {
+            table.addTuple(tuple(r, null, LONG + r));
+        }
+
+        // The same rows in reverse order, and a tuple that is not a row of the table
+        List<ITuple> tuples = new ArrayList<>(table.getTuples());
+        Collections.reverse(tuples);
+        tuples.add(tuple(10, 1.0, "new"));
+        table.setTuples(tuples);
+
+        assertEquals(11, table.getTuples().size());
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(new Object[] {9 - i, null, LONG + (9 - i)}, table.getTuples().get(i).getValues());
+        }
+        assertArrayEquals(new Object[] {10, 1.0, "new"}, table.getTuples().get(10).getValues());
+    }
+
+    @Test
+    void valuesChangedInPlaceAreStored() {
+        OffHeapTable table = new OffHeapTable("t", SCHEMA);
+        table.addTuple(tuple(1, 1.0, LONG + 1));
+        table.addTuple(tuple(2, 2.0, "b"));
+        long version = table.getVersion();
+
+        ITuple first = table.getTuples().get(0);
+        first.setValue(2, "short");
+        first.setValue(1, null);
+        table.refreshTuple(0);
+        table.getTuples().get(1).setValues(new Object[] {20, 20.5, LONG + 2});
+        table.refreshTuple(1);
+        table.addTuple(tuple(3, 3.0, LONG + 3));   // Reuses the slot of the replaced long String
+
+        assertArrayEquals(new Object[] {1, null, "short"}, table.getTuples().get(0).getValues());
+        assertArrayEquals(new Object[] {20, 20.5, LONG + 2}, table.getTuples().get(1).getValues());
+        assertArrayEquals(new Object[] {3, 3.0, LONG + 3}, table.getTuples().get(2).getValues());
+        assertEquals(version + 3, table.getVersion());
+    }
+
+    private static Tuple tuple(Object... values) {
+        Tuple tuple = new Tuple(SCHEMA);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) tuple.setValue(i, values[i]);
+        }
+        return tuple;
+    }
+
+    // Positions of the tuples whose value satisfies "value operator rhs" (null values never do), found by a scan
+    private static int[] scan(ITable table, int index, String operator, Object rhs) {
+        List<Integer> positions = new ArrayList<>();
+        for (int r = 0; r < table.getTuples().size(); r++) {
+            Object value = table.getTuples().get(r).getValue(index);
+            if (value == null) continue;
+            @SuppressWarnings("unchecked")
+            int comparison = ((Comparable<Object>) value).compareTo(rhs);
+            boolean match = switch (operator) {
+                case "=" -> comparison == 0;
+                case "!=" -> comparison != 0;
+                case "<" -> comparison < 0;
+                case ">" -> comparison > 0;
+                case "<=" -> comparison <= 0;
+                default -> comparison >= 0;
+            };
+            if (match) positions.add(r);
+        }
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // The positions in [start, end)
+    private static int[] range(int[] positions, int start, int end) {
+        return Arrays.stream(positions).filter(p -> p >= start && p < end).toArray();
+    }
+}
@@ -0,0 +1,165 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of partitioned tables: conditions on the key prune partitions without losing tuples, and dropping or
+ * attaching a partition keeps every tuple in the partition of its key, including after a restart
+ */
+public class PartitionedTableTest {
+    @TempDir
+    Path folder;
+
+    @BeforeEach
+    void createDatabase() throws Exception {
+        Files.writeString(this.folder.resolve("schema.txt"),
+                "r(id:Integer, y:Integer) partition by range(y) (old to 2000, p2000 from 2000 to 2010, recent from 2010)\n"
+                + "l(id:Integer, y:Integer) partition by list(y) (y2000 in 2000, y2001 in 2001|2002, other)\n");
+        Files.writeString(this.folder.resolve("r.old.csv"), "1,1990\n2,1999\n");
+        Files.writeString(this.folder.resolve("r.p2000.csv"), "3,2000\n4,2005\n5,2009\n");
+        Files.writeString(this.folder.resolve("r.recent.csv"), "6,2010\n7,2020\n");
+        Files.writeString(this.folder.resolve("l.y2000.csv"), "1,2000\n");
+        Files.writeString(this.folder.resolve("l.y2001.csv"), "2,2001\n3,2002\n");
+        Files.writeString(this.folder.resolve("l.other.csv"), "4,1999\n5,2005\n6,2005\n7,2010\n");
+    }
+
+    @Test
+    void conditionsOnTheKeyPruneRangePartitions() throws Exception {
+        Database db = open();
+
+        assertEquals(List.of(List.of(4)), ids(db, "select id from r where y = 2005"));
+        assertEquals(2, db.getLastQueryStats().getPartitionsPruned());
+
+        assertEquals(List.of(List.of(1), List.of(2)), ids(db, "select id from r where y < 2000"));
+        assertEquals(2, db.getLastQueryStats().getPartitionsPruned());
+
+        assertEquals(List.of(List.of(5), List.of(6), List.of(7)), ids(db, "select id from r where y >= 2009"));
+        assertEquals(1, db.getLastQueryStats().getPartitionsPruned());
+
+        assertEquals(6, ids(db, "select id from r where y != 2005").size());
+        assertEquals(0, db.getLastQueryStats().getPartitionsPruned());
+    }
+
+    @Test
+    void conditionsOnTheKeyPruneListPartitions() throws Exception {
+        Database db = open();
+
+        assertEquals(List.of(List.of(3)), ids(db, "select id from l where y = 2002"));
+        assertEquals(2, db.getLastQueryStats().getPartitionsPruned());
+
+        assertEquals(List.of(List.of(5), List.of(6)), ids(db, "select id from l where y = 2005"));
+        assertEquals(2, db.getLastQueryStats().getPartitionsPruned(), "only the default partition holds 2005");
+
+        assertEquals(List.of(List.of(1), List.of(4)), ids(db, "select id from l where y <= 2000"));
+        assertEquals(1, db.getLastQueryStats().getPartitionsPruned());
+    }
+
+    @Test
+    void insertedTuplesGoToThePartitionOfTheirKey() throws Exception {
+        Database db = open();
+        db.insertData("insert into r (id, y) values (8, 2003)");
+        db.insertData("insert into l (id, y) values (8, 2001)");
+        db.insertData("insert into l (id, y) values (9, 1980)");
+
+        PartitionedTable r = (PartitionedTable) db.getTable("r");
+        PartitionedTable l = (PartitionedTable) db.getTable("l");
+        assertEquals(4, r.getPartition("p2000").getTable().getTuples().size());
+        assertEquals(3, l.getPartition("y2001").getTable().getTuples().size());
+        assertEquals(5, l.getPartition("other").getTable().getTuples().size());
+        assertThrows(InvalidQueryException.class, () -> db.insertData("insert into r (id) values (10)"),
+                "the key cannot be null");
+    }
+
+    @Test
+    void droppedPartitionLosesItsTuplesAndFiles() throws Exception {
+        Database db = open();
+
+        db.alterTable("alter table r drop partition p2000");
+
+        assertEquals(List.of(List.of(1), List.of(2), List.of(6), List.of(7)), ids(db, "select id from r"));
+        assertFalse(Files.exists(this.folder.resolve("r.p2000.csv")));
+        assertThrows(InvalidQueryException.class, () -> db.insertData("insert into r (id, y) values (8, 2005)"),
+                "no partition holds the keys of the dropped partition");
+
+        Database reopened = open();
+        assertNull(((PartitionedTable) reopened.getTable("r")).getPartition("p2000"));
+        assertEquals(List.of(List.of(1), List.of(2), List.of(6), List.of(7)), ids(reopened, "select id from r"));
+    }
+
+    @Test
+    void invalidPartitionChangesAreRejected() throws Exception {
+        Database db = open();
+
+        assertThrows(InvalidQueryException.class, () -> db.alterTable("alter table r drop partition p1990"));
+        assertThrows(InvalidQueryException.class, () -> db.alterTable("alter table r attach partition p2005 from 2005 to 2007"),
+                "ranges cannot overlap");
+        assertThrows(InvalidQueryException.class, () -> db.alterTable("alter table l attach partition y2 in 2002"),
+                "list partitions cannot share a key");
+        assertThrows(InvalidQueryException.class, () -> db.alterTable("alter table l attach partition other2"),
+                "there is only one default partition");
+        assertEquals(7, ids(db, "select id from r").size());
+    }
+
+    @Test
+    void attachedPartitionTakesItsKeysFromTheDefaultPartition() throws Exception {
+        Database db = open();
+
+        db.alterTable("alter table l attach partition y2005 in 2005");
+
+        PartitionedTable l = (PartitionedTable) db.getTable("l");
+        assertEquals(2, l.getPartition("y2005").getTable().getTuples().size());
+        assertEquals(2, l.getPartition("other").getTable().getTuples().size());
+        assertEquals(List.of(List.of(5), List.of(6)), ids(db, "select id from l where y = 2005"));
+        assertEquals(3, db.getLastQueryStats().getPartitionsPruned());
+        assertEquals(List.of(List.of(1), List.of(2), List.of(3), List.of(4), List.of(7)), ids(db, "select id from l where y != 2005"));
+
+        Database reopened = open();
+        PartitionedTable recovered = (PartitionedTable) reopened.getTable("l");
+        assertEquals(2, recovered.getPartition("y2005").getTable().getTuples().size());
+        assertEquals(2, recovered.getPartition("other").getTable().getTuples().size());
+        assertEquals(List.of(List.of(5), List.of(6)), ids(reopened, "select id from l where y = 2005"));
+    }
+
+    @Test
+    void attachedPartitionLoadsItsCsvFile() throws Exception {
+        Database db = open();
+        Files.writeString(this.folder.resolve("r.future.csv"), "8,2030\n9,2035\n");
+        Files.writeString(this.folder.resolve("r.bad.csv"), "10,1950\n");
+
+        db.alterTable("alter table r drop partition recent");
+        db.alterTable("alter table r attach partition future from 2030");
+        assertThrows(InvalidQueryException.class, () -> db.alterTable("alter table r attach partition bad from 2010 to 2030"),
+                "the csv file holds a tuple of another partition");
+
+        assertEquals(List.of(List.of(8), List.of(9)), ids(db, "select id from r where y > 2020"));
+        assertEquals(List.of(List.of(8), List.of(9)), ids(open(), "select id from r where y > 2020"));
+    }
+
+    // Opens the database of the test folder
+    private Database open() {
+        Database db = new Database(this.folder.toString(), "schema.txt");
+        db.populateDB();
+        return db;
+    }
+
+    // The values of the tuples of a select, sorted
+    private static List<List<Object>> ids(Database db, String query) throws InvalidQueryException {
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : db.selectData(query).getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues().clone()));
+        }
+        rows.sort((a, b) -> a.toString().compareTo(b.toString()));
+        return rows;
+    }
+}
@@ -0,0 +1,56 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests of the JMX query metrics: each database of a folder has its own MBean, until it is closed
+ */
+public class QueryMetricsTest {
+    @TempDir
+    Path folder;
+
+    @Test
+    void databasesOfTheSameFolderKeepTheirOwnMetrics() throws Exception {
+        Files.writeString(this.folder.resolve("schema.txt"), "t(id:Integer)\n");
+        Files.writeString(this.folder.resolve("t.csv"), "1\n2\n");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("c212.qe:type=QueryMetrics,db=" + ObjectName.quote(this.folder.toString()) + ",*");
+
+        Database first = open();
+        Database second = open();
+        first.selectData("select id from t");
+        first.selectData("select id from t where id = 1");
+        second.selectData("select id from t");
+
+        Set<ObjectName> names = server.queryNames(pattern, null);
+        assertEquals(2, names.size());
+        long total = 0;
+        for (ObjectName name : names) {
+            total += (Long) server.getAttribute(name, "QueryCount");
+        }
+        assertEquals(3, total, "each MBean counts the queries of its database");
+
+        first.close();
+        names = server.queryNames(pattern, null);
+        assertEquals(1, names.size());
+        assertEquals(1L, server.getAttribute(names.iterator().next(), "QueryCount"));
+
+        second.close();
+        assertEquals(0, server.queryNames(pattern, null).size());
+    }
+
+    // Opens the database of the test folder
+    private Database open() {
+        Database database = new Database(this.folder.toString(), "schema.txt");
+        database.populateDB();
+        return database;
+    }
+}
@@ -0,0 +1,148 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of replication over a local port: a replica loads a snapshot of the primary, applies its changes in order,
+ * refuses selects once heartbeats stop, and reloads a snapshot when it misses a change
+ */
+public class ReplicationTest {
+    private static final long WAIT_MILLIS = 10_000;    // Maximum time to wait for the replica
+
+    @TempDir
+    Path folder;
+
+    private Database db;                    // The primary database
+    private ReplicationPrimary primary;     // Ships the changes of db
+
+    @BeforeEach
+    void startPrimary() throws Exception {
+        System.setProperty("qe.replica.maxLagMillis", "500");
+        Files.writeString(this.folder.resolve("schema.txt"), "t(id:Integer, v:Integer, s:String)\n");
+        Files.writeString(this.folder.resolve("t.csv"), "1,10,a\n2,,b\n3,30,c\n4,40\n");
+        this.db = new Database(this.folder.toString(), "schema.txt");
+        this.db.populateDB();
+        this.primary = ReplicationPrimary.start(this.db, 0);
+    }
+
+    @AfterEach
+    void stopPrimary() {
+        this.primary.close();
+        System.clearProperty("qe.replica.maxLagMillis");
+    }
+
+    @Test
+    void snapshotHoldsTheTablesViewsAndNullValues() throws Exception {
+        this.db.createView("create materialized view g as select s, count(*) from t where v > 15 group by s");
+
+        ReplicationReplica replica = connect();
+
+        assertEquals(rows(this.db, "t"), rows(replica.getDatabase(), "t"));
+        assertNull(replica.getDatabase().getTable("t").getTuples().get(3).getValue(2), "a null String stays null");
+        assertEquals(rows(this.db.selectData("select s, count from g")),
+                rows(replica.getDatabase().selectData("select s, count from g")));
+    }
+
+    @Test
+    void changesAreAppliedInOrder() throws Exception {
+        ReplicationReplica replica = connect();
+
+        this.db.insertData("insert into t (id, s, v) values (5, e, 50)");
+        this.db.updateData("update t set v = 11 where id = 1");
+        this.db.deleteData("delete from t where id = 2");
+        this.db.execute("create table u (k:Integer)");
+        this.db.insertData("insert into u (k) values (7)");
+        this.db.createView("create materialized view p as select id from t where v > 20");
+        this.db.updateData("update t set v = 1 where id = 5");
+        awaitSequence(replica);
+
+        assertEquals(rows(this.db, "t"), rows(replica.getDatabase(), "t"));
+        assertEquals(rows(this.db, "u"), rows(replica.getDatabase(), "u"));
+        assertEquals(rows(this.db.selectData("select id from p")), rows(replica.getDatabase().selectData("select id from p")));
+    }
+
+    @Test
+    void selectsFailOnceTheReplicaFallsBehind() throws Exception {
+        ReplicationReplica replica = connect();
+        awaitSequence(replica);
+
+        // Heartbeats keep an idle replica within the staleness bound
+        Thread.sleep(800);
+        replica.checkQuery("select id from t");
+        replica.checkQuery("explain analyze select id from t");
+        assertThrows(InvalidQueryException.class, () -> replica.checkQuery("insert into t (id) values (9)"));
+
+        this.primary.close();
+        assertEquals(0, mbeans("c212.qe:type=Replication,db=" + ObjectName.quote("primary:" + this.primary.getPort()) + ",*"));
+        Thread.sleep(800);
+        assertTrue(replica.getLagMillis() > 500);
+        assertThrows(InvalidQueryException.class, () -> replica.checkQuery("select id from t"));
+    }
+
+    @Test
+    void missingChangeMakesTheReplicaReloadASnapshot() throws Exception {
+        ReplicationReplica replica = connect();
+        this.db.insertData("insert into t (id, s, v) values (5, e, 50)");
+        awaitSequence(replica);
+        Database before = replica.getDatabase();
+
+        // A change that is not shipped as a statement: the tuple only reaches the replica through a new snapshot
+        synchronized (this.db) {
+            this.db.getTable("t").addTuple(IO.parseTuple("6,60,f", this.db.getTable("t").getSchema()));
+            this.primary.resync();
+        }
+        awaitSequence(replica);
+
+        assertNotSame(before, replica.getDatabase());
+        assertEquals(rows(this.db, "t"), rows(replica.getDatabase(), "t"));
+        assertEquals(1, mbeans("c212.qe:type=QueryMetrics,db=" + ObjectName.quote("replica:localhost:" + this.primary.getPort()) + ",*"),
+                "the replaced database is closed");
+    }
+
+    // Connects a replica to the primary
+    private ReplicationReplica connect() throws Exception {
+        return ReplicationReplica.connect("localhost", this.primary.getPort(), WAIT_MILLIS);
+    }
+
+    // Waits until the replica applied every change shipped by the primary
+    private void awaitSequence(ReplicationReplica replica) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (replica.getAppliedSequence() != this.primary.getSequence()) {
+            assertTrue(System.currentTimeMillis() < deadline, "the replica did not catch up");
+            Thread.sleep(10);
+        }
+    }
+
+    // Number of registered MBeans matching a pattern
+    private static int mbeans(String pattern) throws Exception {
+        return ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName(pattern), null).size();
+    }
+
+    // The values of the tuples of a table, in order
+    private static List<List<Object>> rows(Database database, String table) {
+        return rows(database.getTable(table));
+    }
+
+    private static List<List<Object>> rows(ITable table) {
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : table.getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues().clone()));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,131 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the result cache: results are reused while their table keeps its version, and dropped once it changes;
+ * the callers of the cache get copies they can modify
+ */
+public class ResultCacheTest {
+    @TempDir
+    Path folder;
+
+    @Test
+    void returnsResultWhileTableVersionIsUnchanged() {
+        ITable table = table();
+        ITable result = table();
+        ResultCache cache = new ResultCache(1000);
+
+        cache.put("select id from t where v = 1", table, table.getVersion(), result);
+
+        assertEquals(rows(result), rows(cache.get("select id from t where v = 1")));
+        assertEquals(rows(result), rows(cache.get("  select id   from t where v = 1 ")), "whitespace is normalized");
+        assertNull(cache.get("select id from t where v = 2"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void callersCannotChangeTheCachedResult() {
+        ITable table = table();
+        ITable result = table();
+        ResultCache cache = new ResultCache(1000);
+        cache.put("select id from t", table, table.getVersion(), result);
+        List<List<Object>> expected = rows(result);
+
+        // The result given to the cache and the results it returns are modified by their callers
+        result.getTuples().get(0).setValue(1, 99);
+        ITable hit = cache.get("select id from t");
+        assertNotSame(hit, cache.get("select id from t"));
+        hit.getTuples().get(1).setValue(2, "z");
+        hit.addTuple(tuple(hit.getSchema(), 3, 30, "c"));
+
+        assertEquals(expected, rows(cache.get("select id from t")));
+        assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    void dropsResultOnceTableVersionChanges() {
+        ITable table = table();
+        ResultCache cache = new ResultCache(1000);
+        cache.put("select id from t", table, table.getVersion(), table());
+
+        table.addTuple(tuple(table.getSchema(), 3, 30, "c"));
+
+        assertNull(cache.get("select id from t"));
+        assertEquals(0, cache.getSize(), "the stale entry is removed");
+    }
+
+    @Test
+    void dropsResultAfterInPlaceChange() {
+        ITable table = table();
+        ResultCache cache = new ResultCache(1000);
+        cache.put("select id from t", table, table.getVersion(), table());
+
+        table.getTuples().get(0).setValue(1, 99);
+        table.refreshTuple(0);
+
+        assertNull(cache.get("select id from t"));
+    }
+
+    @Test
+    void databaseSelectsSeeEveryChange() throws Exception {
+        Files.writeString(this.folder.resolve("schema.txt"), "t(id:Integer, v:Integer, s:String)\n");
+        Files.writeString(this.folder.resolve("t.csv"), "1,10,a\n2,20,b\n");
+        Database db = new Database(this.folder.toString(), "schema.txt");
+        db.populateDB();
+
+        ITable first = db.selectData("select id from t where v >= 10");
+        assertFalse(db.getLastQueryStats().isCacheHit());
+        assertEquals(rows(first), rows(db.selectData("select id from t where v >= 10")));
+        assertTrue(db.getLastQueryStats().isCacheHit(), "an unchanged table answers from the cache");
+        assertEquals(2, first.getTuples().size());
+
+        db.insertData("insert into t (id, v, s) values (3, 30, c)");
+        ITable afterInsert = db.selectData("select id from t where v >= 10");
+        assertFalse(db.getLastQueryStats().isCacheHit());
+        assertEquals(3, afterInsert.getTuples().size());
+
+        db.updateData("update t set v = 5 where id = 1");
+        assertEquals(2, db.selectData("select id from t where v >= 10").getTuples().size());
+
+        db.deleteData("delete from t where id = 2");
+        assertEquals(1, db.selectData("select id from t where v >= 10").getTuples().size());
+    }
+
+    // A table t(id, v, s) with two tuples
+    private ITable table() {
+        ISchema schema = new Schema(Map.of(0, "id:Integer", 1, "v:Integer", 2, "s:String"));
+        Table table = new Table("t", schema);
+        table.addTuple(tuple(schema, 1, 10, "a"));
+        table.addTuple(tuple(schema, 2, 20, "b"));
+        return table;
+    }
+
+    // The values of the tuples of a result, in order
+    private static List<List<Object>> rows(ITable table) {
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : table.getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues().clone()));
+        }
+        return rows;
+    }
+
+    private static Tuple tuple(ISchema schema, Object... values) {
+        Tuple tuple = new Tuple(schema);
+        tuple.setValues(values);
+        return tuple;
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of the shard coordinator: queries over two shards (served on local ports) give the same results as the
+ * same queries on a single database holding all the tuples
+ */
+public class ShardCoordinatorTest {
+    private static final String SCHEMA = "t(k:Integer, v:Integer, s:String)\nr(k:Integer, v:Integer)\n";
+
+    @TempDir
+    Path folder;
+
+    private ShardCoordinator coordinator;   // Coordinator of the two shards
+    private Database single;                // The same tables in one database
+
+    @BeforeEach
+    void startShards() throws Exception {
+        StringBuilder config = new StringBuilder();
+        for (String name : new String[] {"a", "b"}) {
+            int port = freePort();
+            ShardServer server = new ShardServer(name.equals("b") ? failingDatabase(name) : database(name), port);
+            ReplicationPrimary.startDaemon(server::run, "shard-" + name);
+            config.append("shard localhost:").append(port).append('\n');
+        }
+        config.append("table t hash k\n");
+        config.append("table r range k 50\n");
+        Files.writeString(this.folder.resolve("conf.txt"), config);
+
+        this.coordinator = ShardCoordinator.open(this.folder.resolve("conf.txt").toString());
+        this.single = database("single");
+
+        for (int k = 0; k < 200; k++) {
+            // v is distinct for each k, so that ORDER BY v has a single answer
+            run("insert into t (k, v, s) values (" + k + ", " + (k * 37 % 200) + ", s" + (k % 7) + ")");
+            if (k < 100) run("insert into r (k, v) values (" + k + ", " + (k % 10) + ")");
+        }
+    }
+
+    @Test
+    void orderedSelectsAreMergedInOrder() throws Exception {
+        assertSameResult("select k, v from t order by k");
+        assertSameResult("select k, v, s from t order by v desc");
+        assertSameResult("select k, v from t where v < 60 order by v");
+        assertSameResult("select k from r where k >= 30 order by k");
+    }
+
+    @Test
+    void unorderedSelectsReturnTheTuplesOfAllShards() throws Exception {
+        assertSameTuples("select k, s from t");
+        assertSameTuples("select k, v from t where s = s3");
+        assertSameTuples("select v, k from r where k < 70");
+    }
+
+    @Test
+    void keyConditionsAreAnsweredByTheirShards() throws Exception {
+        assertSameResult("select k, v, s from t where k = 42");
+        assertSameResult("select k, v, s from t where k = 500");
+        assertSameTuples("select k, v from r where k < 20");
+        assertSameTuples("select k, v from r where k > 60");
+    }
+
+    @Test
+    void aggregatesAreCombinedFromPartialAggregates() throws Exception {
+        assertSameResult("select count(*), count(v), sum(v), min(v), max(v), avg(v) from t");
+        assertSameResult("select count(*), sum(v), avg(v) from t where s = s2");
+        assertSameResult("select min(k), max(k), avg(v) from r where k >= 25");
+        assertSameResult("select count(v), avg(v) from t where v > 1000");
+    }
+
+    @Test
+    void changesReachTheShardsOfTheirTuples() throws Exception {
+        run("update t set v = 7 where s = s1");
+        run("delete from t where k = 13");
+        run("delete from r where k < 10");
+        run("update r set v = 3 where k = 77");
+
+        assertSameResult("select k, v, s from t order by k");
+        assertSameResult("select k, v from r order by k");
+        assertSameResult("select count(*), sum(v), avg(v) from t");
+    }
+
+    @Test
+    void partitionKeyCannotBeUpdated() {
+        assertThrows(InvalidQueryException.class, () -> this.coordinator.execute("update t set k = 1 where v = 2"));
+    }
+
+    @Test
+    void orderByAttributeIsResolvedBeforeTheQueryIsSent() throws Exception {
+        assertSameResult("select k, v from t order by K");
+        assertSameResult("select k, v from t where v < 60 order by V DESC");
+        assertThrows(InvalidQueryException.class, () -> this.coordinator.execute("select k from t order by v"));
+        assertThrows(InvalidQueryException.class, () -> this.coordinator.execute("select k from t order by w"));
+        assertSameResult("select k, v from t order by v");
+    }
+
+    @Test
+    void shardFailureIsReportedAndTheConnectionsStayUsable() throws Exception {
+        assertThrows(InvalidQueryException.class, () -> this.coordinator.execute("select k, v from t where s = crash"));
+        assertThrows(InvalidQueryException.class, () -> this.coordinator.execute("select count(*) from t where s = crash"));
+        assertThrows(InvalidQueryException.class, () -> this.coordinator.execute("update t set v = 1 where s = crash"));
+
+        assertSameResult("select k, v, s from t order by k");
+        assertSameResult("select count(*), sum(v) from t");
+    }
+
+    // Runs a change on the shards and on the single database
+    private void run(String query) throws InvalidQueryException {
+        this.coordinator.execute(query);
+        this.single.execute(query);
+    }
+
+    // Checks that the coordinator returns the same schema and tuples, in the same order, as the single database
+    private void assertSameResult(String query) throws InvalidQueryException {
+        ITable expected = this.single.execute(query);
+        ITable actual = this.coordinator.execute(query);
+        assertEquals(IO.formatTableDefinition(expected), IO.formatTableDefinition(actual), query);
+        assertEquals(rows(expected), rows(actual), query);
+    }
+
+    // Checks that the coordinator returns the same schema and tuples as the single database, in any order
+    private void assertSameTuples(String query) throws InvalidQueryException {
+        ITable expected = this.single.execute(query);
+        ITable actual = this.coordinator.execute(query);
+        assertEquals(IO.formatTableDefinition(expected), IO.formatTableDefinition(actual), query);
+        Comparator<List<Object>> byValues = Comparator.comparing(List::toString);
+        List<List<Object>> expectedRows = rows(expected);
+        List<List<Object>> actualRows = rows(actual);
+        expectedRows.sort(byValues);
+        actualRows.sort(byValues);
+        assertEquals(expectedRows, actualRows, query);
+    }
+
+    // The values of the tuples of a result, in order
+    private static List<List<Object>> rows(ITable table) {
+        List<List<Object>> rows = new ArrayList<>();
+        for (ITuple tuple : table.getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues().clone()));
+        }
+        return rows;
+    }
+
+    // Creates a database with empty tables t and r in a sub folder
+    private Database database(String name) throws IOException {
+        Database db = new Database(databaseFolder(name), "schema.txt");
+        db.populateDB();
+        return db;
+    }
+
+    // Creates the same database, whose queries mentioning "crash" fail with a runtime exception
+    private Database failingDatabase(String name) throws IOException {
+        Database db = new Database(databaseFolder(name), "schema.txt") {
+            @Override
+            public ITable execute(String query) throws InvalidQueryException {
+                if (query.contains("crash")) throw new IllegalStateException("crashed on " + query);
+                return super.execute(query);
+            }
+        };
+        db.populateDB();
+        return db;
+    }
+
+    // Writes the schema and empty csv files of tables t and r in a sub folder
+    private String databaseFolder(String name) throws IOException {
+        Path path = Files.createDirectories(this.folder.resolve(name));
+        Files.writeString(path.resolve("schema.txt"), SCHEMA);
+        Files.writeString(path.resolve("t.csv"), "");
+        Files.writeString(path.resolve("r.csv"), "");
+        return path.toString();
+    }
+
+    // A local port that is free (the shard server opens it right after)
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of UPDATE: the matching tuples are modified in place, the change is logged (null values included) and
+ * survives a restart, and an update that fails leaves the table unchanged
+ */
+public class UpdateTest {
+    @TempDir
+    Path folder;
+
+    @BeforeEach
+    void createDatabase() throws Exception {
+        Files.writeString(this.folder.resolve("schema.txt"), "t(id:Integer, s:String, v:Integer)\n");
+        Files.writeString(this.folder.resolve("t.csv"), "1,a\n2,b,20\n3,b,30\n4,c,40\n");
+    }
+
+    @Test
+    void updatesTheMatchingTuplesOnly() throws Exception {
+        Database db = open();
+
+        db.updateData("update t set v = 99 where s = b");
+
+        assertEquals(List.of(row(1, "a", null), row(2, "b", 99), row(3, "b", 99), row(4, "c", 40)), rows(db));
+    }
+
+    @Test
+    void updatesSeveralAttributesOfEveryTupleWithoutWhereClause() throws Exception {
+        Database db = open();
+
+        db.updateData("update t set s = 'z', v = 7");
+
+        assertEquals(List.of(row(1, "z", 7), row(2, "z", 7), row(3, "z", 7), row(4, "z", 7)), rows(db));
+    }
+
+    @Test
+    void updatedTuplesAreFoundByLaterSelects() throws Exception {
+        Database db = open();
+        assertEquals(2, db.selectData("select id from t where s = b").getTuples().size());
+
+        db.updateData("update t set s = c where id = 2");
+
+        assertEquals(1, db.selectData("select id from t where s = b").getTuples().size());
+        assertEquals(2, db.selectData("select id from t where s = c").getTuples().size());
+        assertEquals(1, db.selectData("select id from t where v < 25").getTuples().size(),
+                "the tuple with a null value does not match");
+    }
+
+    @Test
+    void tuplesWithNullValuesAreUpdatedAndRecovered() throws Exception {
+        Database db = open();
+
+        db.updateData("update t set s = x where id = 1");
+        db.updateData("update t set v = 5 where id = 4");
+
+        List<List<Object>> expected = List.of(row(1, "x", null), row(2, "b", 20), row(3, "b", 30), row(4, "c", 5));
+        assertEquals(expected, rows(db));
+        assertEquals(expected, rows(open()), "the log keeps the null value");
+    }
+
+    @Test
+    void updateThatCannotBeLoggedChangesNothing() throws Exception {
+        Database db = open();
+        List<List<Object>> expected = rows(db);
+
+        // The log cannot be opened for writing
+        Files.createDirectory(this.folder.resolve("t.log"));
+
+        assertThrows(InvalidQueryException.class, () -> db.updateData("update t set v = 0 where s = b"));
+        assertEquals(expected, rows(db));
+    }
+
+    @Test
+    void invalidUpdatesAreRejected() throws Exception {
+        Database db = open();
+        List<List<Object>> expected = rows(db);
+
+        assertThrows(InvalidQueryException.class, () -> db.updateData("update t set w = 1"));
+        assertThrows(InvalidQueryException.class, () -> db.updateData("update t set v = x where id = 1"));
+        assertThrows(InvalidQueryException.class, () -> db.updateData("update u set v = 1"));
+        assertThrows(InvalidQueryException.class, () -> db.updateData("update t v = 1"));
+        assertEquals(expected, rows(db));
+    }
+
+    // Opens the database of the test folder
+    private Database open() {
+        Database db = new Database(this.folder.toString(), "schema.txt");
+        db.populateDB();
+        return db;
+    }
+
+    // The values of the tuples of t, in order
+    private static List<List<Object>> rows(Database db) {
+        List<List<Object>> rows = new ArrayList<>();
+        ITable table = db.getTables().stream().filter(t -> t.getName().equals("t")).findFirst().orElseThrow();
+        for (ITuple tuple : table.getTuples()) {
+            rows.add(Arrays.asList(tuple.getValues().clone()));
+        }
+        return rows;
+    }
+
+    private static List<Object> row(Object... values) {
+        return Arrays.asList(values);
+    }
+}